@@ -0,0 +1,98 @@
+package com.ztdx.eams.basic.config;
+
+import com.ztdx.eams.basic.task.MonitoredThreadPoolTaskExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
+import org.springframework.scheduling.annotation.EnableAsync;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 异步任务线程池，按任务类型分开，避免一类任务积压时拖慢其它任务。
+ * 线程数、队列容量和拒绝策略由async.executor.{名称}.*配置，未指定线程池的@Async使用taskExecutor
+ */
+@Slf4j
+@EnableAsync
+@Configuration
+public class AsyncConfig implements AsyncConfigurer {
+
+    /**
+     * 条目索引、系统字段复制
+     */
+    public static final String INDEX_EXECUTOR = "indexExecutor";
+
+    /**
+     * 原文挂接、PDF转换等文件处理
+     */
+    public static final String FILE_EXECUTOR = "fileExecutor";
+
+    /**
+     * 装盒、拆盒后的盒统计，上下架
+     */
+    public static final String BOX_EXECUTOR = "boxExecutor";
+
+    /**
+     * 操作日志
+     */
+    public static final String LOG_EXECUTOR = "logExecutor";
+
+    private final Environment environment;
+
+    public AsyncConfig(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Bean
+    public MonitoredThreadPoolTaskExecutor taskExecutor() {
+        return create("task", 2, 4, 1000, "caller-runs");
+    }
+
+    @Bean(INDEX_EXECUTOR)
+    public MonitoredThreadPoolTaskExecutor indexExecutor() {
+        return create("index", 2, 4, 1000, "caller-runs");
+    }
+
+    @Bean(FILE_EXECUTOR)
+    public MonitoredThreadPoolTaskExecutor fileExecutor() {
+        return create("file", 2, 2, 100, "caller-runs");
+    }
+
+    @Bean(BOX_EXECUTOR)
+    public MonitoredThreadPoolTaskExecutor boxExecutor() {
+        return create("box", 1, 2, 1000, "caller-runs");
+    }
+
+    @Bean(LOG_EXECUTOR)
+    public MonitoredThreadPoolTaskExecutor logExecutor() {
+        return create("log", 1, 1, 10000, "caller-runs");
+    }
+
+    @Override
+    public Executor getAsyncExecutor() {
+        return taskExecutor();
+    }
+
+    @Override
+    public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
+        return (e, method, params) -> log.error("异步任务执行失败:" + method.getDeclaringClass().getSimpleName() + "." + method.getName(), e);
+    }
+
+    private MonitoredThreadPoolTaskExecutor create(String name, int coreSize, int maxSize, int queueCapacity, String rejectionPolicy) {
+        String prefix = "async.executor." + name + ".";
+        MonitoredThreadPoolTaskExecutor executor = new MonitoredThreadPoolTaskExecutor();
+        executor.setCorePoolSize(environment.getProperty(prefix + "core-size", Integer.class, coreSize));
+        executor.setMaxPoolSize(environment.getProperty(prefix + "max-size", Integer.class, maxSize));
+        executor.setQueueCapacity(environment.getProperty(prefix + "queue-capacity", Integer.class, queueCapacity));
+        executor.setKeepAliveSeconds(environment.getProperty(prefix + "keep-alive", Integer.class, 60));
+        executor.setRejectionPolicy(environment.getProperty(prefix + "rejection-policy", rejectionPolicy));
+        executor.setThreadNamePrefix("async-" + name + "-");
+        //停止时等待已提交的任务完成
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(environment.getProperty(prefix + "await-termination", Integer.class, 30));
+        return executor;
+    }
+}
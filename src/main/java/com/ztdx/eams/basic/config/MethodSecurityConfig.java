@@ -0,0 +1,40 @@
+package com.ztdx.eams.basic.config;
+
+import com.ztdx.eams.domain.system.application.PermissionSnapshotCache;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionHandler;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionOperations;
+import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
+import org.springframework.security.config.annotation.method.configuration.GlobalMethodSecurityConfiguration;
+import org.springframework.security.core.Authentication;
+
+/**
+ * 方法权限配置：@PreAuthorize中的hasAnyRole/hasAnyAuthority改为查用户的权限快照(PermissionSnapshotCache)，
+ * 不再遍历登录时写入会话的权限列表，登录后授予或撤销的权限即时生效
+ */
+@Configuration
+@EnableGlobalMethodSecurity(prePostEnabled = true)
+public class MethodSecurityConfig extends GlobalMethodSecurityConfiguration {
+
+    //延迟获取，避免方法权限配置初始化时提前创建仓储
+    @Autowired
+    private ObjectProvider<PermissionSnapshotCache> permissionSnapshotCache;
+
+    @Override
+    protected MethodSecurityExpressionHandler createExpressionHandler() {
+        return new DefaultMethodSecurityExpressionHandler() {
+            @Override
+            protected MethodSecurityExpressionOperations createSecurityExpressionRoot(Authentication authentication, MethodInvocation invocation) {
+                PermissionExpressionRoot root = new PermissionExpressionRoot(authentication, permissionSnapshotCache.getObject());
+                root.setThis(invocation.getThis());
+                root.setPermissionEvaluator(getPermissionEvaluator());
+                root.setRoleHierarchy(getRoleHierarchy());
+                return root;
+            }
+        };
+    }
+}
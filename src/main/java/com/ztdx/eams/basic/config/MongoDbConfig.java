@@ -1,5 +1,6 @@
 package com.ztdx.eams.basic.config;
 
+import com.ztdx.eams.basic.repository.CustomMongoRepositoryFactoryBean;
 import com.ztdx.eams.basic.repository.CustomMongoRepositoryImpl;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
@@ -7,7 +8,8 @@ import org.springframework.data.mongodb.repository.config.EnableMongoRepositorie
 @Configuration
 @EnableMongoRepositories(
         basePackages = {"com.ztdx.eams.domain.archives.repository.mongo","com.ztdx.eams.domain.system.repository"},
-        repositoryBaseClass = CustomMongoRepositoryImpl.class
+        repositoryBaseClass = CustomMongoRepositoryImpl.class,
+        repositoryFactoryBeanClass = CustomMongoRepositoryFactoryBean.class
 )
 public class MongoDbConfig {
 }
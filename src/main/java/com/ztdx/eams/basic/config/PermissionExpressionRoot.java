@@ -0,0 +1,159 @@
+package com.ztdx.eams.basic.config;
+
+import com.ztdx.eams.domain.system.application.PermissionSnapshotCache;
+import com.ztdx.eams.domain.system.model.PermissionSnapshot;
+import org.springframework.security.access.PermissionEvaluator;
+import org.springframework.security.access.expression.SecurityExpressionRoot;
+import org.springframework.security.access.expression.method.MethodSecurityExpressionOperations;
+import org.springframework.security.access.hierarchicalroles.RoleHierarchy;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.core.Authentication;
+
+/**
+ * 方法权限表达式的根对象。权限判断查权限快照，快照在首次判断时加载一次，同一表达式中的多次判断共用；
+ * 其余表达式(isAuthenticated、hasPermission等)交给默认实现
+ */
+class PermissionExpressionRoot implements MethodSecurityExpressionOperations {
+
+    private static final String ROLE_PREFIX = "ROLE_";
+
+    private final SecurityExpressionRoot delegate;
+
+    private final PermissionSnapshotCache permissionSnapshotCache;
+
+    private PermissionSnapshot snapshot;
+
+    private Object filterObject;
+
+    private Object returnObject;
+
+    private Object target;
+
+    PermissionExpressionRoot(Authentication authentication, PermissionSnapshotCache permissionSnapshotCache) {
+        this.delegate = new SecurityExpressionRoot(authentication) {
+        };
+        this.delegate.setTrustResolver(new AuthenticationTrustResolverImpl());
+        this.permissionSnapshotCache = permissionSnapshotCache;
+    }
+
+    void setThis(Object target) {
+        this.target = target;
+    }
+
+    void setPermissionEvaluator(PermissionEvaluator permissionEvaluator) {
+        delegate.setPermissionEvaluator(permissionEvaluator);
+    }
+
+    void setRoleHierarchy(RoleHierarchy roleHierarchy) {
+        delegate.setRoleHierarchy(roleHierarchy);
+    }
+
+    private PermissionSnapshot snapshot() {
+        if (snapshot == null) {
+            Authentication authentication = getAuthentication();
+            snapshot = authentication == null || delegate.isAnonymous()
+                    ? PermissionSnapshot.EMPTY
+                    : permissionSnapshotCache.get(authentication.getName());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public Authentication getAuthentication() {
+        return delegate.getAuthentication();
+    }
+
+    public Object getPrincipal() {
+        return delegate.getPrincipal();
+    }
+
+    @Override
+    public boolean hasAuthority(String authority) {
+        return snapshot().has(authority);
+    }
+
+    @Override
+    public boolean hasAnyAuthority(String... authorities) {
+        return snapshot().hasAny(authorities);
+    }
+
+    @Override
+    public boolean hasRole(String role) {
+        return hasAnyRole(role);
+    }
+
+    @Override
+    public boolean hasAnyRole(String... roles) {
+        for (String role : roles) {
+            if (snapshot().has(role.startsWith(ROLE_PREFIX) ? role : ROLE_PREFIX + role)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean permitAll() {
+        return true;
+    }
+
+    @Override
+    public boolean denyAll() {
+        return false;
+    }
+
+    @Override
+    public boolean isAnonymous() {
+        return delegate.isAnonymous();
+    }
+
+    @Override
+    public boolean isAuthenticated() {
+        return delegate.isAuthenticated();
+    }
+
+    @Override
+    public boolean isRememberMe() {
+        return delegate.isRememberMe();
+    }
+
+    @Override
+    public boolean isFullyAuthenticated() {
+        return delegate.isFullyAuthenticated();
+    }
+
+    @Override
+    public boolean hasPermission(Object target, Object permission) {
+        return delegate.hasPermission(target, permission);
+    }
+
+    @Override
+    public boolean hasPermission(Object targetId, String targetType, Object permission) {
+        return delegate.hasPermission(targetId, targetType, permission);
+    }
+
+    @Override
+    public void setFilterObject(Object filterObject) {
+        this.filterObject = filterObject;
+    }
+
+    @Override
+    public Object getFilterObject() {
+        return filterObject;
+    }
+
+    @Override
+    public void setReturnObject(Object returnObject) {
+        this.returnObject = returnObject;
+    }
+
+    @Override
+    public Object getReturnObject() {
+        return returnObject;
+    }
+
+    @Override
+    public Object getThis() {
+        return target;
+    }
+}
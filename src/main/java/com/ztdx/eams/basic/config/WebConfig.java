@@ -6,19 +6,15 @@ import com.ztdx.eams.basic.CustomErrorController;
 import com.ztdx.eams.basic.Interceptor;
 import com.ztdx.eams.basic.params.JsonParamResolver;
 import org.apache.commons.lang.StringEscapeUtils;
-import org.quartz.SchedulerConfigException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.web.ServerProperties;
 import org.springframework.boot.web.servlet.error.ErrorAttributes;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.task.TaskExecutor;
 import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
-import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.quartz.SimpleThreadPoolTaskExecutor;
 import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -29,7 +25,6 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
-@EnableAsync
 @Configuration
 public class WebConfig extends WebMvcConfigurationSupport {
 
@@ -151,14 +146,4 @@ public class WebConfig extends WebMvcConfigurationSupport {
     public CustomErrorController basicErrorController(ErrorAttributes errorAttributes) {
         return new CustomErrorController(errorAttributes, this.serverProperties.getError());
     }
-
-    @Bean
-    public TaskExecutor taskExecutor() throws SchedulerConfigException {
-        SimpleThreadPoolTaskExecutor taskExecutor = new SimpleThreadPoolTaskExecutor();
-        taskExecutor.setThreadCount(1);
-        taskExecutor.setThreadPriority(5);
-        taskExecutor.setThreadNamePrefix("自定义线程名");
-        taskExecutor.initialize();
-        return taskExecutor;
-    }
 }
@@ -0,0 +1,48 @@
+package com.ztdx.eams.basic.repository;
+
+import lombok.Getter;
+
+/**
+ * 批量保存中单个实体的结果，index为实体在传入集合中的位置
+ */
+@Getter
+public class BulkSaveResult<ID> {
+
+    public enum Status {
+        /**
+         * 新增
+         */
+        INSERTED,
+        /**
+         * 覆盖已有文档
+         */
+        UPDATED,
+        /**
+         * 版本号不一致或文档已不存在，未保存
+         */
+        CONFLICT,
+        /**
+         * 写入出错，未保存
+         */
+        FAILED
+    }
+
+    private final int index;
+
+    private final ID id;
+
+    private final Status status;
+
+    private final String message;
+
+    public BulkSaveResult(int index, ID id, Status status, String message) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.message = message;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.INSERTED || status == Status.UPDATED;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ztdx.eams.basic.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 带search_after游标的分页结果，cursor为本页最后一条的排序值，取下一页时原样传回，没有下一页时为空。
+ * 不统计总数时total只是本页条数，是否有下一页由cursor判断
+ */
+public class CursorPage<T> extends PageImpl<T> {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String cursor;
+
+    private final boolean totalKnown;
+
+    public CursorPage(List<T> content, Pageable pageable, long total, String cursor) {
+        super(content, pageable, total);
+        this.cursor = cursor;
+        this.totalKnown = true;
+    }
+
+    public CursorPage(List<T> content, Pageable pageable, String cursor) {
+        super(content, pageable, content.size());
+        this.cursor = cursor;
+        this.totalKnown = false;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean isTotalKnown() {
+        return totalKnown;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return totalKnown ? super.hasNext() : cursor != null;
+    }
+
+    public static String encode(Object[] sortValues) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(OBJECT_MAPPER.writeValueAsBytes(sortValues));
+        } catch (IOException e) {
+            throw new IllegalStateException("分页游标生成失败", e);
+        }
+    }
+
+    public static Object[] decode(String cursor) {
+        try {
+            return OBJECT_MAPPER.readValue(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8), Object[].class);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidArgumentException("无效的分页游标", e);
+        }
+    }
+}
@@ -1,7 +1,24 @@
 package com.ztdx.eams.basic.repository;
 
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+
+import java.util.List;
 
 public interface CustomElasticsearchOperations extends ElasticsearchOperations {
     String delete(String indexName, String type, String id, String routing);
+
+    String index(IndexQuery query, IndexRefreshPolicy refreshPolicy);
+
+    void bulkIndex(List<IndexQuery> queries, IndexRefreshPolicy refreshPolicy);
+
+    /**
+     * 按策略刷新索引，count为本次写入条数
+     */
+    void refresh(String indexName, int count, IndexRefreshPolicy refreshPolicy);
+
+    /**
+     * 立即刷新所有合并刷新中尚未刷新的索引
+     */
+    void flushPendingRefresh();
 }
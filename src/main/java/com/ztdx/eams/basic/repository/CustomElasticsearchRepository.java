@@ -21,8 +21,27 @@ public interface CustomElasticsearchRepository<T, ID extends Serializable> exten
 
     Page<T> search(SearchQuery var1, String[] indices);
 
+    /**
+     * 按search_after游标分页，只取includes中的源字段(为空时取全部)。after为空时按页码取
+     */
+    CursorPage<T> searchAfter(QueryBuilder query, Pageable pageable, String[] includes, String after, String[] indices);
+
     void refresh(String indexName);
 
+    <S extends T> S save(S entity, IndexRefreshPolicy refreshPolicy);
+
+    <S extends T> Iterable<S> saveAll(Iterable<S> entities, IndexRefreshPolicy refreshPolicy);
+
+    /**
+     * 写入指定索引(如重建中的新索引)，忽略实体上的索引名后缀
+     */
+    <S extends T> Iterable<S> saveAll(Iterable<S> entities, String indexName, IndexRefreshPolicy refreshPolicy);
+
+    /**
+     * 仓库默认刷新策略，由实体上的{@link com.ztdx.eams.basic.repository.annotation.IndexRefresh}决定
+     */
+    IndexRefreshPolicy getRefreshPolicy();
+
     boolean existsById(ID id, String indexName);
 
     long count(String indexName);
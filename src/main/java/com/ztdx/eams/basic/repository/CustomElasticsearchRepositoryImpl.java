@@ -1,19 +1,28 @@
 package com.ztdx.eams.basic.repository;
 
 import com.ztdx.eams.basic.repository.annotation.IndexNamePostfix;
+import com.ztdx.eams.basic.repository.annotation.IndexRefresh;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.domain.*;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Parent;
+import org.springframework.data.elasticsearch.annotations.Setting;
 import org.springframework.data.elasticsearch.core.DefaultResultMapper;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
 import org.springframework.data.elasticsearch.core.ResultsMapper;
+import org.springframework.data.elasticsearch.core.aggregation.AggregatedPage;
 import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
 import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
 import org.springframework.data.elasticsearch.core.mapping.SimpleElasticsearchMappingContext;
@@ -22,6 +31,7 @@ import org.springframework.data.elasticsearch.repository.support.AbstractElastic
 import org.springframework.data.elasticsearch.repository.support.ElasticsearchEntityInformation;
 import org.springframework.data.repository.NoRepositoryBean;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -35,6 +45,8 @@ public class CustomElasticsearchRepositoryImpl<T, ID extends Serializable>
         implements CustomElasticsearchRepository<T, ID> {
     private ResultsMapper resultsMapper;
 
+    private IndexRefreshPolicy refreshPolicy;
+
     public CustomElasticsearchRepositoryImpl(CustomElasticsearchOperations elasticsearchOperations) {
         super(elasticsearchOperations);
         ElasticsearchConverter elasticsearchConverter = (new MappingElasticsearchConverter(new SimpleElasticsearchMappingContext()));
@@ -83,7 +95,13 @@ public class CustomElasticsearchRepositoryImpl<T, ID extends Serializable>
 
     public boolean createIndex(String indexName) throws IOException {
         if (!this.elasticsearchOperations.indexExists(indexName)){
-            this.elasticsearchOperations.createIndex(indexName);
+            //索引名按目录生成，实体上@Setting指定的设置(分词器等)需手动带上
+            Setting setting = this.getEntityClass().getAnnotation(Setting.class);
+            if (setting != null && StringUtils.hasText(setting.settingPath())) {
+                this.elasticsearchOperations.createIndex(indexName, ElasticsearchTemplate.readFileFromClasspath(setting.settingPath()));
+            } else {
+                this.elasticsearchOperations.createIndex(indexName);
+            }
         }
 
         if (!this.elasticsearchOperations.typeExists(indexName, this.getIndexType())){
@@ -143,6 +161,31 @@ public class CustomElasticsearchRepositoryImpl<T, ID extends Serializable>
         return this.elasticsearchOperations.queryForPage(query, this.getEntityClass());
     }
 
+    public CursorPage<T> searchAfter(QueryBuilder query, Pageable pageable, String[] includes, String after, String[] indices) {
+        Assert.notNull(pageable, "'pageable' cannot be 'null'");
+        SearchRequestBuilder builder = this.elasticsearchOperations.getClient().prepareSearch(indices)
+                .setTypes(this.getIndexType())
+                .setQuery(query)
+                .setSize(pageable.getPageSize())
+                .setFetchSource(includes, null);
+        for (Sort.Order order : pageable.getSort()) {
+            builder.addSort(SortBuilders.fieldSort(order.getProperty()).order(order.isAscending() ? SortOrder.ASC : SortOrder.DESC));
+        }
+        //search_after要求排序值唯一，以_uid兜底
+        builder.addSort(SortBuilders.fieldSort("_uid").order(SortOrder.ASC));
+        if (after != null && !after.isEmpty()) {
+            builder.searchAfter(CursorPage.decode(after));
+        } else {
+            builder.setFrom((int) pageable.getOffset());
+        }
+
+        SearchResponse response = builder.get();
+        AggregatedPage<T> page = resultsMapper.mapResults(response, this.getEntityClass(), pageable);
+        SearchHit[] hits = response.getHits().getHits();
+        String cursor = hits.length < pageable.getPageSize() ? null : CursorPage.encode(hits[hits.length - 1].getSortValues());
+        return new CursorPage<>(page.getContent(), pageable, response.getHits().getTotalHits(), cursor);
+    }
+
     
     public Page<T> searchSimilar(T entity, String[] fields, Pageable pageable) {
         Assert.notNull(entity, "Cannot search similar records for 'null'.");
@@ -170,28 +213,59 @@ public class CustomElasticsearchRepositoryImpl<T, ID extends Serializable>
 
     
     public <S extends T> S save(S entity) {
+        return save(entity, this.getRefreshPolicy());
+    }
+
+    public <S extends T> S save(S entity, IndexRefreshPolicy refreshPolicy) {
         Assert.notNull(entity, "Cannot save 'null' entity.");
-        this.elasticsearchOperations.index(this.createIndexQuery(entity));
-        this.elasticsearchOperations.refresh(this.getIndexName(entity));
+        Assert.notNull(refreshPolicy, "RefreshPolicy must not be null!");
+        ((CustomElasticsearchOperations)this.elasticsearchOperations).index(this.createIndexQuery(entity), refreshPolicy);
         return entity;
     }
 
     
     public <S extends T> Iterable<S> saveAll(Iterable<S> entities) {
+        return saveAll(entities, this.getRefreshPolicy());
+    }
+
+    public <S extends T> Iterable<S> saveAll(Iterable<S> entities, IndexRefreshPolicy refreshPolicy) {
         Assert.notNull(entities, "Cannot insert 'null' as a List.");
+        Assert.notNull(refreshPolicy, "RefreshPolicy must not be null!");
         List<IndexQuery> queries = new ArrayList();
 
         for (S s : entities) {
             queries.add(this.createIndexQuery(s));
         }
 
-        this.elasticsearchOperations.bulkIndex(queries);
-        if (entities.iterator().hasNext()){
-            this.elasticsearchOperations.refresh(this.getIndexName(entities.iterator().next()));
+        ((CustomElasticsearchOperations)this.elasticsearchOperations).bulkIndex(queries, refreshPolicy);
+        return entities;
+    }
+
+    public <S extends T> Iterable<S> saveAll(Iterable<S> entities, String indexName, IndexRefreshPolicy refreshPolicy) {
+        Assert.notNull(entities, "Cannot insert 'null' as a List.");
+        Assert.hasText(indexName, "IndexName must not be empty!");
+        List<IndexQuery> queries = new ArrayList();
+
+        for (S s : entities) {
+            IndexQuery query = this.createIndexQuery(s);
+            query.setIndexName(indexName);
+            queries.add(query);
         }
+
+        ((CustomElasticsearchOperations)this.elasticsearchOperations).bulkIndex(queries, refreshPolicy);
         return entities;
     }
 
+    public IndexRefreshPolicy getRefreshPolicy() {
+        if (this.refreshPolicy == null) {
+            IndexRefresh indexRefresh = getEntityClass().getAnnotation(IndexRefresh.class);
+            this.refreshPolicy = indexRefresh == null
+                    ? IndexRefreshPolicy.IMMEDIATE
+                    : IndexRefreshPolicy.of(indexRefresh.value(), indexRefresh.maxWrites(), indexRefresh.maxDelay());
+        }
+        return this.refreshPolicy;
+    }
+
     
     public Optional<T> findById(ID id) {
         return findById(id, this.getIndexNamePrefix());
@@ -1,17 +1,31 @@
 package com.ztdx.eams.basic.repository;
 
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.elasticsearch.ElasticsearchException;
 import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
 import org.springframework.data.elasticsearch.core.EntityMapper;
 import org.springframework.data.elasticsearch.core.ResultsMapper;
 import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
 
-public class CustomElasticsearchTemplate extends ElasticsearchTemplate implements CustomElasticsearchOperations {
+import java.io.IOException;
+import java.util.*;
+
+public class CustomElasticsearchTemplate extends ElasticsearchTemplate implements CustomElasticsearchOperations, DisposableBean {
     private Client client;
     //private ElasticsearchConverter elasticsearchConverter;
-    //private ResultsMapper resultsMapper;
+    private ResultsMapper resultsMapper;
+    private final IndexRefreshCoalescer refreshCoalescer = new IndexRefreshCoalescer(this::refresh);
     public CustomElasticsearchTemplate(Client client) {
         super(client);
     }
@@ -36,7 +50,7 @@ public class CustomElasticsearchTemplate extends ElasticsearchTemplate implement
         super(client, elasticsearchConverter, resultsMapper);
         this.client = client;
         //this.elasticsearchConverter = elasticsearchConverter;
-        //this.resultsMapper = resultsMapper;
+        this.resultsMapper = resultsMapper;
     }
 
     public String delete(String indexName, String type, String id, String routing) {
@@ -44,4 +58,101 @@ public class CustomElasticsearchTemplate extends ElasticsearchTemplate implement
         deleteRequestBuilder.setRouting(routing);
         return (deleteRequestBuilder.execute().actionGet()).getId();
     }
+
+    public String index(IndexQuery query, IndexRefreshPolicy refreshPolicy) {
+        String id;
+        if (refreshPolicy.getType() == IndexRefreshPolicy.Type.WAIT_FOR) {
+            id = prepareIndex(query)
+                    .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                    .execute()
+                    .actionGet()
+                    .getId();
+        } else {
+            id = this.index(query);
+        }
+        refresh(query.getIndexName(), 1, refreshPolicy);
+        return id;
+    }
+
+    public void bulkIndex(List<IndexQuery> queries, IndexRefreshPolicy refreshPolicy) {
+        if (queries.isEmpty()) {
+            return;
+        }
+        if (refreshPolicy.getType() == IndexRefreshPolicy.Type.WAIT_FOR) {
+            BulkRequestBuilder bulkRequest = client.prepareBulk();
+            for (IndexQuery query : queries) {
+                bulkRequest.add(prepareIndex(query));
+            }
+            bulkRequest.setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+            checkForBulkFailure(bulkRequest.execute().actionGet());
+        } else {
+            this.bulkIndex(queries);
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        queries.forEach(a -> counts.merge(a.getIndexName(), 1, Integer::sum));
+        counts.forEach((indexName, count) -> refresh(indexName, count, refreshPolicy));
+    }
+
+    public void refresh(String indexName, int count, IndexRefreshPolicy refreshPolicy) {
+        switch (refreshPolicy.getType()) {
+            case IMMEDIATE:
+                this.refresh(indexName);
+                break;
+            case BATCHED:
+                refreshCoalescer.written(indexName, count, refreshPolicy);
+                break;
+            default:
+                //NONE和WAIT_FOR不需要额外刷新
+                break;
+        }
+    }
+
+    public void flushPendingRefresh() {
+        refreshCoalescer.flushAll();
+    }
+
+    @Override
+    public void destroy() {
+        refreshCoalescer.shutdown();
+    }
+
+    private IndexRequestBuilder prepareIndex(IndexQuery query) {
+        IndexRequestBuilder builder = query.getId() == null
+                ? client.prepareIndex(query.getIndexName(), query.getType())
+                : client.prepareIndex(query.getIndexName(), query.getType(), query.getId());
+        try {
+            if (query.getObject() != null) {
+                builder.setSource(resultsMapper.getEntityMapper().mapToString(query.getObject()), XContentType.JSON);
+            } else if (query.getSource() != null) {
+                builder.setSource(query.getSource(), XContentType.JSON);
+            } else {
+                throw new ElasticsearchException("object or source is null, failed to index the document [id: " + query.getId() + "]");
+            }
+        } catch (IOException e) {
+            throw new ElasticsearchException("failed to index the document [id: " + query.getId() + "]", e);
+        }
+        if (query.getVersion() != null) {
+            builder.setVersion(query.getVersion());
+            builder.setVersionType(VersionType.EXTERNAL);
+        }
+        if (query.getParentId() != null) {
+            builder.setParent(query.getParentId());
+        }
+        return builder;
+    }
+
+    private void checkForBulkFailure(BulkResponse bulkResponse) {
+        if (bulkResponse.hasFailures()) {
+            Map<String, String> failedDocuments = new HashMap<>();
+            for (BulkItemResponse item : bulkResponse.getItems()) {
+                if (item.isFailed()) {
+                    failedDocuments.put(item.getId(), item.getFailureMessage());
+                }
+            }
+            throw new ElasticsearchException(
+                    "Bulk indexing has failures. Use ElasticsearchException.getFailedDocuments() for detailed messages ["
+                            + failedDocuments + "]", failedDocuments);
+        }
+    }
 }
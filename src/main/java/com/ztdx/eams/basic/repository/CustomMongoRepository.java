@@ -5,11 +5,13 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.repository.NoRepositoryBean;
 import org.springframework.lang.Nullable;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @NoRepositoryBean
@@ -37,6 +39,15 @@ public interface CustomMongoRepository<T, ID> extends MongoRepository<T, ID> {
 
     Page<T> findAll(Pageable pageable, String collectionName);
 
+    /**
+     * 按(排序字段, _id)游标分页，不使用skip，翻到后面的页也不变慢
+     *
+     * @param sort      排序，末尾自动追加_id正序，可以为Sort.unsorted()
+     * @param after     上一页返回的cursor，取第一页时为空
+     * @param withTotal 是否统计总数，不统计时只根据cursor判断是否有下一页
+     */
+    CursorPage<T> findAll(Query query, Sort sort, @Nullable String after, int size, boolean withTotal, String collectionName);
+
     Optional<T> findById(ID id, String collectionName);
 
     Iterable<T> findAllById(Iterable<ID> ids, String collectionName);
@@ -46,4 +57,21 @@ public interface CustomMongoRepository<T, ID> extends MongoRepository<T, ID> {
     void deleteAll(String collectionName);
 
     List<T> findAll(@Nullable Query query, String collectionName);
+
+    /**
+     * 批量保存，按集合分批用bulkWrite无序写入，已有id的实体整体覆盖(不存在时新增)，返回每个实体的结果
+     *
+     * @param checkVersion 是否按version字段做乐观锁检查：只覆盖版本号未变的文档并把版本号加一，不一致的实体结果为CONFLICT
+     */
+    <S extends T> List<BulkSaveResult<ID>> bulkSave(Iterable<S> entities, boolean checkVersion);
+
+    /**
+     * 对id集合中的文档执行同一更新(如$set部分字段)，按批提交，返回修改的文档数
+     */
+    long updateAllById(Iterable<ID> ids, Update update, String collectionName);
+
+    /**
+     * 按id分别执行各自的更新，按批用bulkWrite无序提交，返回修改的文档数
+     */
+    long updateEachById(Map<ID, Update> updates, String collectionName);
 }
@@ -0,0 +1,64 @@
+package com.ztdx.eams.basic.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.repository.query.MongoEntityInformation;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactoryBean;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.core.RepositoryInformation;
+import org.springframework.data.repository.core.support.RepositoryFactorySupport;
+
+import java.io.Serializable;
+
+/**
+ * 创建仓储时把MongoIndexManager和批量写入的每批文档数传给CustomMongoRepositoryImpl
+ */
+public class CustomMongoRepositoryFactoryBean<T extends Repository<S, ID>, S, ID extends Serializable> extends MongoRepositoryFactoryBean<T, S, ID> {
+
+    private MongoIndexManager mongoIndexManager;
+
+    private int batchSize = CustomMongoRepositoryImpl.DEFAULT_BATCH_SIZE;
+
+    public CustomMongoRepositoryFactoryBean(Class<? extends T> repositoryInterface) {
+        super(repositoryInterface);
+    }
+
+    @Autowired
+    public void setMongoIndexManager(MongoIndexManager mongoIndexManager) {
+        this.mongoIndexManager = mongoIndexManager;
+    }
+
+    @Value("${mongo.bulk.batch-size:1000}")
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    protected RepositoryFactorySupport getFactoryInstance(MongoOperations operations) {
+        return new CustomMongoRepositoryFactory(operations, mongoIndexManager, batchSize);
+    }
+
+    private static class CustomMongoRepositoryFactory extends MongoRepositoryFactory {
+
+        private final MongoOperations operations;
+
+        private final MongoIndexManager mongoIndexManager;
+
+        private final int batchSize;
+
+        CustomMongoRepositoryFactory(MongoOperations operations, MongoIndexManager mongoIndexManager, int batchSize) {
+            super(operations);
+            this.operations = operations;
+            this.mongoIndexManager = mongoIndexManager;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        protected Object getTargetRepository(RepositoryInformation information) {
+            MongoEntityInformation<?, Serializable> entityInformation = getEntityInformation(information.getDomainType());
+            return getTargetRepositoryViaReflection(information, entityInformation, operations, mongoIndexManager, batchSize);
+        }
+    }
+}
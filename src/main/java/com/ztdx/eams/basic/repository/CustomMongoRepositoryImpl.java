@@ -1,10 +1,30 @@
 package com.ztdx.eams.basic.repository;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.ztdx.eams.basic.exception.InvalidArgumentException;
 import com.ztdx.eams.basic.repository.annotation.IndexNamePostfix;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.*;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.BasicQuery;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.repository.query.MongoEntityInformation;
 import org.springframework.data.mongodb.repository.support.SimpleMongoRepository;
 import org.springframework.data.repository.support.PageableExecutionUtils;
@@ -14,23 +34,40 @@ import org.springframework.lang.Nullable;
 import org.springframework.util.Assert;
 
 import java.lang.reflect.Field;
-import java.util.Collections;
-import java.util.List;
-import java.util.Optional;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.stream.Collectors;
 
 public class CustomMongoRepositoryImpl<T, ID> extends SimpleMongoRepository<T, ID> implements CustomMongoRepository<T, ID> {
 
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    //乐观锁检查使用的字段
+    private static final String VERSION_PROPERTY = "version";
+
     private final MongoOperations mongoOperations;
 
     private final MongoEntityInformation<T, ID> entityInformation;
 
+    @Nullable
+    private final MongoIndexManager mongoIndexManager;
+
+    //批量写入时每批的文档数
+    private final int batchSize;
+
     private Class<T> entityClass;
 
     public CustomMongoRepositoryImpl(MongoEntityInformation<T, ID> metadata, MongoOperations mongoOperations) {
+        this(metadata, mongoOperations, null, DEFAULT_BATCH_SIZE);
+    }
+
+    public CustomMongoRepositoryImpl(MongoEntityInformation<T, ID> metadata, MongoOperations mongoOperations, @Nullable MongoIndexManager mongoIndexManager, int batchSize) {
         super(metadata, mongoOperations);
+        Assert.isTrue(batchSize > 0, "Batch size must be positive!");
         this.mongoOperations = mongoOperations;
         this.entityInformation = metadata;
+        this.mongoIndexManager = mongoIndexManager;
+        this.batchSize = batchSize;
     }
 
     public <S extends T> S insert(S entity) {
@@ -61,27 +98,59 @@ public class CustomMongoRepositoryImpl<T, ID> extends SimpleMongoRepository<T, I
         return entity;
     }
 
+    /**
+     * 按集合分批bulkWrite，有错误时抛出BulkOperationException(其余文档已写入)
+     */
     public <S extends T> List<S> saveAll(Iterable<S> entities) {
         Assert.notNull(entities, "The given Iterable of entities not be null!");
-        Streamable<S> source = Streamable.of(entities);
-        boolean allNew = source.stream().allMatch(this.entityInformation::isNew);
+        List<S> list = Streamable.of(entities).stream().collect(Collectors.toList());
+        this.bulkSave(list, false, true);
+        return list;
+    }
 
-        if (allNew) {
-            List<S> result = (List)source.stream().collect(Collectors.toList());
-            this.mongoOperations.insertAll(result);
-            return result;
-        } else {
-            return (List)source.stream().map(this::save).collect(Collectors.toList());
+    public <S extends T> List<BulkSaveResult<ID>> bulkSave(Iterable<S> entities, boolean checkVersion) {
+        Assert.notNull(entities, "The given Iterable of entities not be null!");
+        return this.bulkSave(Streamable.of(entities).stream().collect(Collectors.toList()), checkVersion, false);
+    }
+
+    public long updateAllById(Iterable<ID> ids, Update update, String collectionName) {
+        Assert.notNull(ids, "The given Iterable of ids not be null!");
+        Assert.notNull(update, "Update must not be null!");
+        this.ensureIndexes(collectionName);
+        List<ID> list = Streamable.of(ids).stream().distinct().collect(Collectors.toList());
+        long modified = 0;
+        for (int from = 0; from < list.size(); from += this.batchSize) {
+            List<ID> batch = list.subList(from, Math.min(from + this.batchSize, list.size()));
+            Query query = new Query(new Criteria(this.entityInformation.getIdAttribute()).in(batch));
+            modified += this.mongoOperations.updateMulti(query, update, this.entityInformation.getJavaType(), collectionName).getModifiedCount();
         }
+        return modified;
+    }
+
+    public long updateEachById(Map<ID, Update> updates, String collectionName) {
+        Assert.notNull(updates, "Updates must not be null!");
+        this.ensureIndexes(collectionName);
+        List<Map.Entry<ID, Update>> list = new ArrayList<>(updates.entrySet());
+        long modified = 0;
+        for (int from = 0; from < list.size(); from += this.batchSize) {
+            BulkOperations operations = this.mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, this.entityInformation.getJavaType(), collectionName);
+            for (Map.Entry<ID, Update> entry : list.subList(from, Math.min(from + this.batchSize, list.size()))) {
+                operations.updateOne(this.getIdQuery(entry.getKey()), entry.getValue());
+            }
+            modified += operations.execute().getModifiedCount();
+        }
+        return modified;
     }
 
     public boolean existsById(ID id, String collectionName) {
+        this.ensureIndexes(collectionName);
         Assert.notNull(id, "The given id must not be null!");
         return this.mongoOperations.exists(this.getIdQuery(id), this.entityInformation.getJavaType(), collectionName);
     }
 
 
     public long count(String collectionName) {
+        this.ensureIndexes(collectionName);
         return this.mongoOperations.getCollection(collectionName).count();
     }
 
@@ -102,6 +171,7 @@ public class CustomMongoRepositoryImpl<T, ID> extends SimpleMongoRepository<T, I
 
 
     public <S extends T> List<S> findAll(Example<S> example, Sort sort, String collectionName) {
+        this.ensureIndexes(collectionName);
         Assert.notNull(example, "Sample must not be null!");
         Assert.notNull(sort, "Sort must not be null!");
         Query q = (new Query((new Criteria()).alike(example))).with(sort);
@@ -110,10 +180,45 @@ public class CustomMongoRepositoryImpl<T, ID> extends SimpleMongoRepository<T, I
 
 
     public Page<T> findAll(Pageable pageable, String collectionName) {
+        this.ensureIndexes(collectionName);
         Assert.notNull(pageable, "Pageable must not be null!");
-        Long count = this.count(collectionName);
         List<T> list = this.findAll((new Query()).with(pageable), collectionName);
-        return PageableExecutionUtils.getPage(list, pageable, () -> count);
+        return PageableExecutionUtils.getPage(list, pageable, () -> this.count(collectionName));
+    }
+
+    public CursorPage<T> findAll(Query query, Sort sort, @Nullable String after, int size, boolean withTotal, String collectionName) {
+        Assert.notNull(query, "Query must not be null!");
+        Assert.notNull(sort, "Sort must not be null!");
+        Assert.isTrue(size > 0, "Page size must be positive!");
+        this.ensureIndexes(collectionName);
+
+        //排序字段后追加_id，保证排序值唯一
+        List<Sort.Order> orders = new ArrayList<>();
+        for (Sort.Order order : sort) {
+            if (!"_id".equals(order.getProperty()) && !this.entityInformation.getIdAttribute().equals(order.getProperty())) {
+                orders.add(order);
+            }
+        }
+        orders.add(Sort.Order.asc("_id"));
+
+        Document filter = query.getQueryObject();
+        if (after != null && !after.isEmpty()) {
+            filter = new Document("$and", Arrays.asList(filter, this.keysetCriteria(orders, this.decodeCursor(after, orders.size())).getCriteriaObject()));
+        }
+        //多取一条判断是否有下一页
+        Query pageQuery = new BasicQuery(filter, query.getFieldsObject()).with(Sort.by(orders)).limit(size + 1);
+        List<T> list = this.mongoOperations.find(pageQuery, this.entityInformation.getJavaType(), collectionName);
+
+        String cursor = null;
+        if (list.size() > size) {
+            list = new ArrayList<>(list.subList(0, size));
+            cursor = this.encodeCursor(list.get(size - 1), orders);
+        }
+        Pageable pageable = PageRequest.of(0, size);
+        if (!withTotal) {
+            return new CursorPage<>(list, pageable, cursor);
+        }
+        return new CursorPage<>(list, pageable, this.countEstimated(query, collectionName), cursor);
     }
 
     public <S extends T> Page<S> findAll(Example<S> example, Pageable pageable, String collectionName) {
@@ -121,6 +226,7 @@ public class CustomMongoRepositoryImpl<T, ID> extends SimpleMongoRepository<T, I
     }
 
     public <S extends T> Page<S> findAll(Example<S> example, Pageable pageable, Sort sort, String collectionName) {
+        this.ensureIndexes(collectionName);
         Assert.notNull(example, "Sample must not be null!");
         Assert.notNull(pageable, "Pageable must not be null!");
         Assert.notNull(sort, "Sort must not be null!");
@@ -131,6 +237,7 @@ public class CustomMongoRepositoryImpl<T, ID> extends SimpleMongoRepository<T, I
     }
 
     public Optional<T> findById(ID id, String collectionName) {
+        this.ensureIndexes(collectionName);
         Assert.notNull(id, "The given id must not be null!");
         return Optional.ofNullable(this.mongoOperations.findById(id, this.entityInformation.getJavaType(), collectionName));
     }
@@ -146,18 +253,243 @@ public class CustomMongoRepositoryImpl<T, ID> extends SimpleMongoRepository<T, I
     }
 
     public void deleteById(ID id, String collectionName) {
+        this.ensureIndexes(collectionName);
         Assert.notNull(id, "The given id must not be null!");
         this.mongoOperations.remove(this.getIdQuery(id), this.entityInformation.getJavaType(), collectionName);
     }
 
     public List<T> findAll(@Nullable Query query, String collectionName) {
+        this.ensureIndexes(collectionName);
         return query == null ? Collections.emptyList() : this.mongoOperations.find(query, this.entityInformation.getJavaType(), collectionName);
     }
 
     public void deleteAll(String collectionName) {
+        this.ensureIndexes(collectionName);
         this.mongoOperations.remove(new Query(), collectionName);
     }
 
+    private <S extends T> List<BulkSaveResult<ID>> bulkSave(List<S> entities, boolean checkVersion, boolean throwOnError) {
+        BulkSaveResult<ID>[] results = new BulkSaveResult[entities.size()];
+
+        //按集合分组，组内保持原顺序
+        Map<String, List<Integer>> collections = new LinkedHashMap<>();
+        for (int i = 0; i < entities.size(); i++) {
+            collections.computeIfAbsent(this.getCollectionName(entities.get(i)), k -> new ArrayList<>()).add(i);
+        }
+        for (Map.Entry<String, List<Integer>> entry : collections.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            for (int from = 0; from < indexes.size(); from += this.batchSize) {
+                this.bulkSave(entry.getKey(), entities, indexes.subList(from, Math.min(from + this.batchSize, indexes.size())), checkVersion, throwOnError, results);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 写入一批实体：没有id的实体批量insert以取得生成的id，其余用ReplaceOne无序bulkWrite
+     */
+    private <S extends T> void bulkSave(String collectionName, List<S> entities, List<Integer> indexes, boolean checkVersion, boolean throwOnError, BulkSaveResult<ID>[] results) {
+        List<S> inserts = new ArrayList<>();
+        List<Integer> insertIndexes = new ArrayList<>();
+        List<WriteModel<Document>> models = new ArrayList<>();
+        List<Integer> modelIndexes = new ArrayList<>();
+        List<Object> documentIds = new ArrayList<>();
+        List<Long> versions = new ArrayList<>();
+
+        for (int index : indexes) {
+            S entity = entities.get(index);
+            if (this.entityInformation.getId(entity) == null) {
+                inserts.add(entity);
+                insertIndexes.add(index);
+                continue;
+            }
+
+            Long version = null;
+            if (checkVersion) {
+                version = this.getVersion(entity);
+                this.setVersion(entity, versionOf(version));
+            }
+            Document document = new Document();
+            this.mongoOperations.getConverter().write(entity, document);
+            Object documentId = document.get("_id");
+
+            if (checkVersion) {
+                Bson filter = Filters.and(Filters.eq("_id", documentId), Filters.eq(VERSION_PROPERTY, version));
+                models.add(new ReplaceOneModel<>(filter, document));
+            } else {
+                models.add(new ReplaceOneModel<>(Filters.eq("_id", documentId), document, new UpdateOptions().upsert(true)));
+            }
+            modelIndexes.add(index);
+            documentIds.add(documentId);
+            versions.add(version);
+        }
+
+        if (!inserts.isEmpty()) {
+            try {
+                this.mongoOperations.insert(inserts, collectionName);
+                for (int i = 0; i < inserts.size(); i++) {
+                    results[insertIndexes.get(i)] = new BulkSaveResult<>(insertIndexes.get(i), this.entityInformation.getId(inserts.get(i)), BulkSaveResult.Status.INSERTED, null);
+                }
+            } catch (DataAccessException e) {
+                if (throwOnError) {
+                    throw e;
+                }
+                for (int i = 0; i < inserts.size(); i++) {
+                    results[insertIndexes.get(i)] = new BulkSaveResult<>(insertIndexes.get(i), this.entityInformation.getId(inserts.get(i)), BulkSaveResult.Status.FAILED, e.getMessage());
+                }
+            }
+        }
+
+        if (models.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, String> errors = new HashMap<>();
+        BulkWriteResult writeResult;
+        try {
+            writeResult = this.mongoOperations.getCollection(collectionName).bulkWrite(models, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            if (throwOnError) {
+                throw new BulkOperationException(e.getMessage(), e);
+            }
+            writeResult = e.getWriteResult();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                errors.put(error.getIndex(), error.getMessage());
+            }
+        }
+
+        Set<Integer> upserts = writeResult.getUpserts().stream().map(BulkWriteUpsert::getIndex).collect(Collectors.toSet());
+
+        //有文档未匹配时查出当前版本号，不是本次写入的版本即为冲突
+        boolean conflicts = checkVersion && writeResult.getMatchedCount() < models.size() - errors.size();
+        Map<Object, Object> storedVersions = new HashMap<>();
+        if (conflicts) {
+            for (Document stored : this.mongoOperations.getCollection(collectionName)
+                    .find(Filters.in("_id", documentIds)).projection(Projections.include(VERSION_PROPERTY))) {
+                storedVersions.put(stored.get("_id"), stored.get(VERSION_PROPERTY));
+            }
+        }
+
+        for (int i = 0; i < models.size(); i++) {
+            int index = modelIndexes.get(i);
+            S entity = entities.get(index);
+            ID id = this.entityInformation.getId(entity);
+            BulkSaveResult.Status status = upserts.contains(i) ? BulkSaveResult.Status.INSERTED : BulkSaveResult.Status.UPDATED;
+            String message = null;
+            if (errors.containsKey(i)) {
+                status = BulkSaveResult.Status.FAILED;
+                message = errors.get(i);
+            } else if (conflicts) {
+                Object stored = storedVersions.get(documentIds.get(i));
+                if (!(stored instanceof Number) || ((Number) stored).longValue() != versionOf(versions.get(i))) {
+                    status = BulkSaveResult.Status.CONFLICT;
+                    message = storedVersions.containsKey(documentIds.get(i)) ? "版本号不一致" : "文档不存在";
+                }
+            }
+            //未保存的实体恢复原版本号
+            if (checkVersion && status != BulkSaveResult.Status.UPDATED) {
+                this.setVersion(entity, versions.get(i));
+            }
+            results[index] = new BulkSaveResult<>(index, id, status, message);
+        }
+    }
+
+    /**
+     * 没有查询条件时取集合元数据中的文档数(不扫描文档)，否则按条件计数
+     */
+    private long countEstimated(Query query, String collectionName) {
+        if (query.getQueryObject().isEmpty()) {
+            return this.mongoOperations.getCollection(collectionName).count();
+        }
+        return this.mongoOperations.count(new BasicQuery(query.getQueryObject()), this.entityInformation.getJavaType(), collectionName);
+    }
+
+    /**
+     * 排在游标之后：前面的排序字段相等且当前字段更大(倒序时更小)，逐个字段展开后取或
+     */
+    private Criteria keysetCriteria(List<Sort.Order> orders, List<Object> values) {
+        List<Criteria> branches = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            List<Criteria> conditions = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                conditions.add(Criteria.where(orders.get(j).getProperty()).is(values.get(j)));
+            }
+            Sort.Order order = orders.get(i);
+            Object value = values.get(i);
+            if (value == null) {
+                //空值排在最前，正序时取非空值，倒序时后面没有更小的值
+                if (order.isDescending()) {
+                    continue;
+                }
+                conditions.add(Criteria.where(order.getProperty()).ne(null));
+            } else if (order.isAscending()) {
+                conditions.add(Criteria.where(order.getProperty()).gt(value));
+            } else {
+                conditions.add(Criteria.where(order.getProperty()).lt(value));
+            }
+            branches.add(conditions.size() == 1 ? conditions.get(0) : new Criteria().andOperator(conditions.toArray(new Criteria[0])));
+        }
+        return new Criteria().orOperator(branches.toArray(new Criteria[0]));
+    }
+
+    /**
+     * 游标为最后一条的排序值，按MongoDB扩展JSON保存以保留日期、ObjectId等类型
+     */
+    private String encodeCursor(T entity, List<Sort.Order> orders) {
+        Document document = new Document();
+        this.mongoOperations.getConverter().write(entity, document);
+        List<Object> values = new ArrayList<>();
+        for (Sort.Order order : orders) {
+            Object value = document;
+            for (String key : order.getProperty().split("\\.")) {
+                value = value instanceof Document ? ((Document) value).get(key) : null;
+            }
+            values.add(value);
+        }
+        String json = new Document("v", values).toJson();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<Object> decodeCursor(String cursor, int size) {
+        List<Object> values;
+        try {
+            values = (List<Object>) Document.parse(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)).get("v");
+        } catch (RuntimeException e) {
+            throw new InvalidArgumentException("无效的分页游标", e);
+        }
+        if (values == null || values.size() != size) {
+            throw new InvalidArgumentException("无效的分页游标");
+        }
+        return values;
+    }
+
+    /**
+     * 本次写入的版本号
+     */
+    private static long versionOf(@Nullable Long version) {
+        return version == null ? 1L : version + 1;
+    }
+
+    @Nullable
+    private Long getVersion(T entity) {
+        Object version = this.getPersistentEntity().getPropertyAccessor(entity).getProperty(this.getVersionProperty());
+        return version == null ? null : ((Number) version).longValue();
+    }
+
+    private void setVersion(T entity, @Nullable Long version) {
+        this.getPersistentEntity().getPropertyAccessor(entity).setProperty(this.getVersionProperty(), version);
+    }
+
+    private MongoPersistentEntity<?> getPersistentEntity() {
+        return this.mongoOperations.getConverter().getMappingContext().getRequiredPersistentEntity(this.entityInformation.getJavaType());
+    }
+
+    private MongoPersistentProperty getVersionProperty() {
+        MongoPersistentProperty property = this.getPersistentEntity().getPersistentProperty(VERSION_PROPERTY);
+        Assert.state(property != null, this.entityInformation.getJavaType().getName() + " has no version property!");
+        return property;
+    }
+
     private Query getIdQuery(Object id) {
         return new Query(this.getIdCriteria(id));
     }
@@ -174,7 +506,9 @@ public class CustomMongoRepositoryImpl<T, ID> extends SimpleMongoRepository<T, I
                 field.setAccessible(true);
                 try {
                     ID result = (ID) field.get(entity);
-                    return String.format("%s_%d", entityInformation.getCollectionName(), result);
+                    String collectionName = String.format("%s_%d", entityInformation.getCollectionName(), result);
+                    this.ensureIndexes(collectionName);
+                    return collectionName;
                 }catch(Exception ignored){
 
                 }
@@ -182,4 +516,13 @@ public class CustomMongoRepositoryImpl<T, ID> extends SimpleMongoRepository<T, I
         }
         return entityInformation.getCollectionName();
     }
+
+    /**
+     * 首次访问集合时补建声明的索引
+     */
+    private void ensureIndexes(String collectionName) {
+        if (this.mongoIndexManager != null) {
+            this.mongoIndexManager.ensure(collectionName);
+        }
+    }
 }
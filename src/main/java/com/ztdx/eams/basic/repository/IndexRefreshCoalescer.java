@@ -0,0 +1,94 @@
+package com.ztdx.eams.basic.repository;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * 按索引合并刷新请求：累计写入达到阈值立即刷新，否则在最大延迟到达时刷新一次
+ */
+public class IndexRefreshCoalescer {
+
+    private Log log = LogFactory.getLog(IndexRefreshCoalescer.class);
+
+    private final Consumer<String> refresher;
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "es-refresh-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public IndexRefreshCoalescer(Consumer<String> refresher) {
+        this.refresher = refresher;
+    }
+
+    /**
+     * 记录索引写入条数
+     */
+    public void written(String indexName, int count, IndexRefreshPolicy policy) {
+        boolean flushNow;
+        while (true) {
+            Pending p = pending.computeIfAbsent(indexName, k -> new Pending());
+            synchronized (p) {
+                //已被其他线程刷新，重新登记
+                if (p.closed) {
+                    continue;
+                }
+                p.writes += count;
+                flushNow = p.writes >= policy.getMaxWrites();
+                if (!flushNow && p.future == null) {
+                    p.future = scheduler.schedule(() -> flush(indexName), policy.getMaxDelay(), TimeUnit.MILLISECONDS);
+                }
+            }
+            break;
+        }
+        if (flushNow) {
+            flush(indexName);
+        }
+    }
+
+    /**
+     * 立即刷新索引上累积的写入
+     */
+    public void flush(String indexName) {
+        Pending p = pending.remove(indexName);
+        if (p == null) {
+            return;
+        }
+        synchronized (p) {
+            p.closed = true;
+            if (p.future != null) {
+                p.future.cancel(false);
+            }
+        }
+        try {
+            refresher.accept(indexName);
+        } catch (Exception e) {
+            log.error("索引刷新失败:" + indexName, e);
+        }
+    }
+
+    /**
+     * 刷新所有累积的写入
+     */
+    public void flushAll() {
+        pending.keySet().forEach(this::flush);
+    }
+
+    public void shutdown() {
+        flushAll();
+        scheduler.shutdown();
+    }
+
+    private static class Pending {
+        private int writes;
+        private boolean closed;
+        private ScheduledFuture<?> future;
+    }
+}
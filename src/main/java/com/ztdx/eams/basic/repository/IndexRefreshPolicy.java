@@ -0,0 +1,83 @@
+package com.ztdx.eams.basic.repository;
+
+import lombok.Getter;
+import org.springframework.util.Assert;
+
+/**
+ * 索引写入后的刷新策略
+ */
+@Getter
+public final class IndexRefreshPolicy {
+
+    public enum Type {
+        /**
+         * 不刷新，由ES按refresh_interval自行刷新
+         */
+        NONE,
+        /**
+         * 请求等待下一次自然刷新后返回(wait_for)，不强制生成新段
+         */
+        WAIT_FOR,
+        /**
+         * 写入后立即刷新索引
+         */
+        IMMEDIATE,
+        /**
+         * 同一索引累计写入N条或距首次未刷新写入T毫秒后合并刷新一次
+         */
+        BATCHED
+    }
+
+    public static final IndexRefreshPolicy NONE = new IndexRefreshPolicy(Type.NONE, 0, 0);
+
+    public static final IndexRefreshPolicy WAIT_FOR = new IndexRefreshPolicy(Type.WAIT_FOR, 0, 0);
+
+    public static final IndexRefreshPolicy IMMEDIATE = new IndexRefreshPolicy(Type.IMMEDIATE, 0, 0);
+
+    /**
+     * 批量写入默认策略：每1000条或1秒合并刷新一次
+     */
+    public static final IndexRefreshPolicy BATCHED = new IndexRefreshPolicy(Type.BATCHED, 1000, 1000);
+
+    private final Type type;
+
+    /**
+     * 合并刷新的写入条数阈值
+     */
+    private final int maxWrites;
+
+    /**
+     * 合并刷新的最大延迟(毫秒)
+     */
+    private final long maxDelay;
+
+    private IndexRefreshPolicy(Type type, int maxWrites, long maxDelay) {
+        this.type = type;
+        this.maxWrites = maxWrites;
+        this.maxDelay = maxDelay;
+    }
+
+    public static IndexRefreshPolicy batched(int maxWrites, long maxDelay) {
+        Assert.isTrue(maxWrites > 0, "maxWrites must be greater than 0");
+        Assert.isTrue(maxDelay > 0, "maxDelay must be greater than 0");
+        return new IndexRefreshPolicy(Type.BATCHED, maxWrites, maxDelay);
+    }
+
+    public static IndexRefreshPolicy of(Type type, int maxWrites, long maxDelay) {
+        switch (type) {
+            case NONE:
+                return NONE;
+            case WAIT_FOR:
+                return WAIT_FOR;
+            case BATCHED:
+                return batched(maxWrites, maxDelay);
+            default:
+                return IMMEDIATE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.BATCHED ? String.format("%s(%d,%dms)", type, maxWrites, maxDelay) : type.name();
+    }
+}
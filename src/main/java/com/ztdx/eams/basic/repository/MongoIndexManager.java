@@ -0,0 +1,179 @@
+package com.ztdx.eams.basic.repository;
+
+import com.mongodb.MongoException;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 按集合维护MongoDB索引。按目录分集合(archive_record_目录id等)是按需创建的，
+ * 仓储首次访问集合时按MongoIndexProvider声明的索引补建，之后直接跳过；
+ * 启动后检查已有集合，报告缺少的索引和自服务启动以来未被使用过的索引
+ */
+@Slf4j
+@Component
+public class MongoIndexManager {
+
+    //与已有索引的选项或键定义冲突，需要人工处理，重试也不会成功
+    private static final int INDEX_OPTIONS_CONFLICT = 85;
+
+    private static final int INDEX_KEY_SPECS_CONFLICT = 86;
+
+    private static final long RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+    private final MongoOperations mongoOperations;
+
+    private final ObjectProvider<List<MongoIndexProvider>> providers;
+
+    private final boolean report;
+
+    //已补建过索引的集合
+    private final Set<String> ensured = ConcurrentHashMap.newKeySet();
+
+    //建索引失败的集合->可重试时间
+    private final Map<String, Long> failed = new ConcurrentHashMap<>();
+
+    public MongoIndexManager(MongoOperations mongoOperations, ObjectProvider<List<MongoIndexProvider>> providers
+            , @Value("${mongo.index.report-on-startup:true}") boolean report) {
+        this.mongoOperations = mongoOperations;
+        this.providers = providers;
+        this.report = report;
+    }
+
+    /**
+     * 补建集合缺少的索引，全部创建成功后同一集合不再执行。建索引失败只记录日志，不影响读写，
+     * 间隔RETRY_INTERVAL后访问集合时重试；与已有索引冲突的只报告一次，不再重试
+     */
+    public void ensure(String collectionName) {
+        if (collectionName == null || ensured.contains(collectionName)) {
+            return;
+        }
+        Long retryAt = failed.get(collectionName);
+        if (retryAt != null && retryAt > System.currentTimeMillis()) {
+            return;
+        }
+        boolean succeeded = true;
+        List<Index> indexes = indexes(collectionName);
+        for (Index index : indexes) {
+            try {
+                mongoOperations.indexOps(collectionName).ensureIndex(index);
+            } catch (RuntimeException e) {
+                int code = errorCode(e);
+                if (code == INDEX_OPTIONS_CONFLICT || code == INDEX_KEY_SPECS_CONFLICT) {
+                    log.warn("集合{}的索引{}与已有索引冲突，不再重试，需要手工处理:{}", collectionName, index.getIndexKeys().toJson(), e.getMessage());
+                    continue;
+                }
+                succeeded = false;
+                log.warn("集合{}创建索引{}失败，{}秒后重试", collectionName, index.getIndexKeys().toJson(), RETRY_INTERVAL / 1000, e);
+            }
+        }
+        if (succeeded) {
+            ensured.add(collectionName);
+            failed.remove(collectionName);
+        } else {
+            failed.put(collectionName, System.currentTimeMillis() + RETRY_INTERVAL);
+        }
+    }
+
+    /**
+     * 声明的索引变化(如修改了盒号著录项)时调用，下次访问集合时重新补建。处于事务中时提交后再失效一次
+     */
+    public void evict(String collectionName) {
+        Runnable evict = () -> {
+            ensured.remove(collectionName);
+            failed.remove(collectionName);
+        };
+        evict.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict.run();
+                }
+            });
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void report() {
+        if (!report) {
+            return;
+        }
+        try {
+            for (String collectionName : mongoOperations.getCollectionNames()) {
+                List<Index> indexes = indexes(collectionName);
+                if (!indexes.isEmpty()) {
+                    report(collectionName, indexes);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("检查MongoDB索引失败", e);
+        }
+    }
+
+    private void report(String collectionName, List<Index> indexes) {
+        List<IndexInfo> indexInfos = mongoOperations.indexOps(collectionName).getIndexInfo();
+        Set<List<String>> existing = indexInfos.stream()
+                .map(a -> a.getIndexFields().stream().map(IndexField::getKey).collect(Collectors.toList()))
+                .collect(Collectors.toSet());
+        List<String> missing = indexes.stream()
+                .map(a -> new ArrayList<>(a.getIndexKeys().keySet()))
+                .filter(a -> !existing.contains(a))
+                .map(Object::toString)
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            log.warn("集合{}缺少索引{}，首次访问时创建", collectionName, missing);
+        }
+
+        //$indexStats统计的是mongod本次启动以来的使用次数
+        List<String> unused = new ArrayList<>();
+        for (Document stats : mongoOperations.getCollection(collectionName)
+                .aggregate(Collections.singletonList(new Document("$indexStats", new Document())))) {
+            Document accesses = (Document) stats.get("accesses");
+            Number ops = accesses == null ? null : (Number) accesses.get("ops");
+            String name = stats.getString("name");
+            if (!"_id_".equals(name) && ops != null && ops.longValue() == 0) {
+                unused.add(name);
+            }
+        }
+        if (!unused.isEmpty()) {
+            log.info("集合{}的索引{}未被使用", collectionName, unused);
+        }
+    }
+
+    private static int errorCode(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException) {
+                return ((MongoException) cause).getCode();
+            }
+        }
+        return -1;
+    }
+
+    private List<Index> indexes(String collectionName) {
+        List<MongoIndexProvider> list = providers.getIfAvailable();
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        List<Index> indexes = new ArrayList<>();
+        for (MongoIndexProvider provider : list) {
+            indexes.addAll(provider.indexes(collectionName));
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,16 @@
+package com.ztdx.eams.basic.repository;
+
+import org.springframework.data.mongodb.core.index.Index;
+
+import java.util.List;
+
+/**
+ * 声明集合需要的索引，由MongoIndexManager在仓储首次访问集合时创建
+ */
+public interface MongoIndexProvider {
+
+    /**
+     * 集合需要的索引，不管理该集合时返回空列表
+     */
+    List<Index> indexes(String collectionName);
+}
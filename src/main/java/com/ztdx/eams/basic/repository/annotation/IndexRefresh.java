@@ -0,0 +1,29 @@
+package com.ztdx.eams.basic.repository.annotation;
+
+import com.ztdx.eams.basic.repository.IndexRefreshPolicy;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+
+/**
+ * 标记到实体类上，作为该实体Elasticsearch仓库写入时的默认刷新策略。未标记时为IMMEDIATE
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(value = { TYPE })
+public @interface IndexRefresh {
+
+    IndexRefreshPolicy.Type value() default IndexRefreshPolicy.Type.IMMEDIATE;
+
+    /**
+     * 仅BATCHED有效
+     */
+    int maxWrites() default 1000;
+
+    /**
+     * 仅BATCHED有效，毫秒
+     */
+    long maxDelay() default 1000;
+}
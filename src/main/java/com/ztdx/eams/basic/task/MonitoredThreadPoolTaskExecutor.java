@@ -0,0 +1,104 @@
+package com.ztdx.eams.basic.task;
+
+import com.ztdx.eams.basic.utils.Latency;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带统计的线程池：记录提交、完成、拒绝数量，任务排队等待时间和执行时间
+ */
+public class MonitoredThreadPoolTaskExecutor extends ThreadPoolTaskExecutor {
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final Latency queueWait = new Latency();
+
+    private final Latency execute = new Latency();
+
+    private int queueCapacity = Integer.MAX_VALUE;
+
+    private String rejectionPolicy = "abort";
+
+    public MonitoredThreadPoolTaskExecutor() {
+        setTaskDecorator(this::decorate);
+        setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public void setQueueCapacity(int queueCapacity) {
+        super.setQueueCapacity(queueCapacity);
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        super.setRejectedExecutionHandler((r, executor) -> {
+            rejected.incrementAndGet();
+            handler.rejectedExecution(r, executor);
+        });
+    }
+
+    /**
+     * 按名称设置队列满时的处理方式：abort 抛出异常，caller-runs 由提交任务的线程执行，discard-oldest 丢弃最早排队的任务
+     */
+    public void setRejectionPolicy(String rejectionPolicy) {
+        switch (rejectionPolicy) {
+            case "abort":
+                setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+                break;
+            case "caller-runs":
+                setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+                break;
+            case "discard-oldest":
+                setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardOldestPolicy());
+                break;
+            default:
+                throw new IllegalArgumentException("未知的拒绝策略:" + rejectionPolicy);
+        }
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    private Runnable decorate(Runnable task) {
+        submitted.incrementAndGet();
+        long enqueueTime = System.nanoTime();
+        return () -> {
+            long start = System.nanoTime();
+            queueWait.record(start - enqueueTime);
+            try {
+                task.run();
+            } finally {
+                completed.incrementAndGet();
+                execute.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * 线程池统计：线程数、队列深度、任务数量、排队等待时间和执行时间(毫秒)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("corePoolSize", getCorePoolSize());
+        result.put("maxPoolSize", getMaxPoolSize());
+        result.put("poolSize", getPoolSize());
+        result.put("active", getActiveCount());
+        result.put("queued", getThreadPoolExecutor().getQueue().size());
+        result.put("queueCapacity", queueCapacity);
+        result.put("rejectionPolicy", rejectionPolicy);
+        result.put("submitted", submitted.get());
+        result.put("completed", completed.get());
+        result.put("rejected", rejected.get());
+        result.put("queueWait", queueWait.toMap());
+        result.put("execute", execute.toMap());
+        return result;
+    }
+}
@@ -0,0 +1,148 @@
+package com.ztdx.eams.basic.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 临时文件存储：生成的文件(如导入错误数据)登记后返回标识，只有登记的用户能取回，
+ * 超过有效期后删除。未登记的遗留文件(写入中断、上次运行遗留)超过有效期同样删除
+ */
+@Slf4j
+@Component
+public class ExpiringFileStore {
+
+    private static final String PREFIX = "eams-";
+
+    private final File directory;
+
+    //有效期(毫秒)
+    private final long ttl;
+
+    private final Map<String, Item> items = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService cleaner;
+
+    public ExpiringFileStore(@Value("${temp-file.directory:${java.io.tmpdir}/eams-temp}") String directory
+            , @Value("${temp-file.ttl:3600000}") long ttl) {
+        this.directory = new File(directory);
+        this.ttl = ttl;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("临时文件目录创建失败:" + directory);
+        }
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "expiring-file-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.min(ttl, TimeUnit.MINUTES.toMillis(1));
+        cleaner.scheduleWithFixedDelay(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        cleaner.shutdownNow();
+    }
+
+    /**
+     * 在存储目录下新建空文件，写完后调用register登记
+     */
+    public File newFile(String suffix) throws IOException {
+        return File.createTempFile(PREFIX, suffix, directory);
+    }
+
+    /**
+     * 登记文件，返回取回用的标识
+     */
+    public String register(File file, int owner) {
+        String token = UUID.randomUUID().toString();
+        items.put(token, new Item(file, owner, System.currentTimeMillis() + ttl));
+        return token;
+    }
+
+    /**
+     * 取回文件，标识不存在、已过期或不属于该用户时返回空
+     */
+    public File get(String token, int owner) {
+        if (token == null) {
+            return null;
+        }
+        Item item = items.get(token);
+        if (item == null || item.owner != owner) {
+            return null;
+        }
+        if (item.expiresAt < System.currentTimeMillis()) {
+            remove(token);
+            return null;
+        }
+        return item.file;
+    }
+
+    public void remove(String token) {
+        if (token == null) {
+            return;
+        }
+        Item item = items.remove(token);
+        if (item != null) {
+            delete(item.file);
+        }
+    }
+
+    private void evictExpired() {
+        try {
+            long now = System.currentTimeMillis();
+            items.forEach((token, item) -> {
+                if (item.expiresAt < now && items.remove(token, item)) {
+                    delete(item.file);
+                }
+            });
+
+            File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX));
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                if (file.lastModified() + ttl < now && items.values().stream().noneMatch(a -> a.file.equals(file))) {
+                    delete(file);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("清理过期临时文件失败", e);
+        }
+    }
+
+    private void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            log.warn("临时文件删除失败:" + file);
+        }
+    }
+
+    private static class Item {
+        private final File file;
+
+        private final int owner;
+
+        private final long expiresAt;
+
+        private Item(File file, int owner, long expiresAt) {
+            this.file = file;
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,223 +1,303 @@
 package com.ztdx.eams.basic.utils;
 
 import com.ztdx.eams.basic.exception.BusinessException;
-import org.apache.poi.POIOLE2TextExtractor;
+import com.ztdx.eams.basic.exception.InvalidArgumentException;
 import org.apache.poi.POIXMLProperties;
-import org.apache.poi.POIXMLTextExtractor;
-import org.apache.poi.hslf.extractor.PowerPointExtractor;
-import org.apache.poi.hssf.extractor.ExcelExtractor;
-import org.apache.poi.hssf.usermodel.*;
+import org.apache.poi.hpsf.extractor.HPSFPropertiesExtractor;
+import org.apache.poi.hslf.extractor.QuickButCruddyTextExtractor;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
 import org.apache.poi.hwpf.extractor.WordExtractor;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
-import org.apache.poi.ss.usermodel.CellType;
-import org.apache.poi.ss.usermodel.HorizontalAlignment;
-import org.apache.poi.xslf.extractor.XSLFPowerPointExtractor;
-import org.apache.poi.xslf.usermodel.XMLSlideShow;
-import org.apache.poi.xssf.extractor.XSSFExcelExtractor;
-import org.apache.poi.xssf.usermodel.*;
-import org.apache.poi.xwpf.extractor.XWPFWordExtractor;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * Created by li on 2018/6/6.
  */
 public class FileHandler {
 
+    private static final String WORDPROCESSING_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    private static final String DRAWING_NS = "http://schemas.openxmlformats.org/drawingml/2006/main";
+
+    private static final Pattern SLIDE_PART = Pattern.compile("/ppt/slides/slide\\d+\\.xml");
+
     /**
-     * 读取txt文件的内容
+     * 读取文件内容(文本)，按文件名扩展名选择读取方式。
+     * 各格式均按流或事件方式读取，超过maxChars的部分截断并停止读取，读取时间超过timeout(毫秒)时抛出异常。
+     * 压缩包格式(docx、pptx、xlsx)的压缩比和解压大小由POI的ZipSecureFile限制
+     *
+     * @param fileName 原文件名，文件本身可以是临时文件
      */
-    public static String txtContentRead(File file) {
-        String content = "";
-        FileInputStream fis = null;
-        InputStreamReader isr = null;
-        BufferedReader br = null;
+    public static String contentRead(File file, String fileName, int maxChars, long timeout) {
+        String type = fileName.contains(".") ? fileName.substring(fileName.lastIndexOf(".")).toLowerCase() : "";
+        TextSink sink = new TextSink(maxChars, timeout);
         try {
-            fis = new FileInputStream(file);
-            isr = new InputStreamReader(fis, "GBK");
-            br = new BufferedReader(isr);
-            String line;
-            while ((line = br.readLine()) != null) {
-                content = content + "\n" + line;
+            switch (type) {
+                case ".txt":
+                    txtContentRead(file, sink);
+                    break;
+                case ".doc":
+                    docContentRead(file, sink);
+                    break;
+                case ".docx":
+                    docxContentRead(file, sink);
+                    break;
+                case ".ppt":
+                    pptContentRead(file, sink);
+                    break;
+                case ".pptx":
+                    pptxContentRead(file, sink);
+                    break;
+                case ".xls":
+                    xlsContentRead(file, sink);
+                    break;
+                case ".xlsx":
+                case ".xlsm":
+                    xlsxContentRead(file, sink);
+                    break;
+                default:
+                    throw new InvalidArgumentException("不支持读取此类型文件内容");
             }
         } catch (Exception e) {
-            throw new BusinessException("txt文件读取失败");
-        } finally {
-            try {
-                br.close();
-                isr.close();
-                fis.close();
-            } catch (IOException e) {
-                throw new BusinessException("文件读取流未关闭");
+            if (hasCause(e, TextLimitReached.class)) {
+                return sink.toString();
+            }
+            if (hasCause(e, TextTimeout.class)) {
+                throw new BusinessException("文件内容读取超时");
             }
+            if (e instanceof BusinessException) {
+                throw (BusinessException) e;
+            }
+            throw new BusinessException(type.substring(Math.min(1, type.length())) + "文件读取失败", e);
         }
-        return content;
+        return sink.toString();
     }
 
     /**
-     * 读取doc文件内容(文本)
+     * 检测文本文件编码：有BOM时按BOM，前64K字节是合法UTF-8时按UTF-8，否则按GB18030(兼容GBK)
      */
-    public static String docContentRead(File file) {
-        String content = "";
-        FileInputStream fis = null;
-        try {
-            fis = new FileInputStream(file);
-            WordExtractor extractor = new WordExtractor(fis);
-            content += extractor.getText();
-        } catch (Exception e) {
-            throw new BusinessException("doc文件读取失败");
-        } finally {
-            try {
-                fis.close();
-            } catch (IOException e) {
-                throw new BusinessException("文件读取流未关闭");
+    public static Charset detectCharset(File file) throws IOException {
+        byte[] head = new byte[64 * 1024];
+        int length = 0;
+        try (InputStream is = new FileInputStream(file)) {
+            int n;
+            while (length < head.length && (n = is.read(head, length, head.length - length)) > 0) {
+                length += n;
             }
         }
-        return content;
+        if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+            return StandardCharsets.UTF_16LE;
+        }
+        if (length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+            return StandardCharsets.UTF_16BE;
+        }
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        //末尾被截断的多字节字符不算错误
+        CoderResult result = decoder.decode(ByteBuffer.wrap(head, 0, length), CharBuffer.allocate(length), length < head.length);
+        return result.isError() ? Charset.forName("GB18030") : StandardCharsets.UTF_8;
     }
 
     /**
-     * 读取docx文件内容(文本)
+     * 读取txt文件的内容
      */
-    public static String docxContentRead(File file) {
-        String content = "";
-        FileInputStream fis = null;
-        try {
-            fis = new FileInputStream(file);
-            XWPFDocument docx = new XWPFDocument(fis);
-            XWPFWordExtractor extractor = new XWPFWordExtractor(docx);
-            content += extractor.getText();
-        } catch (Exception e) {
-            throw new BusinessException("docx文件读取失败");
-        } finally {
-            try {
-                fis.close();
-            } catch (IOException e) {
-                throw new BusinessException("文件读取流未关闭");
+    private static void txtContentRead(File file, TextSink sink) throws IOException {
+        Charset charset = detectCharset(file);
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), charset)) {
+            char[] buffer = new char[8192];
+            int n;
+            boolean first = true;
+            while ((n = reader.read(buffer)) > 0) {
+                //跳过BOM
+                int start = first && buffer[0] == '\uFEFF' ? 1 : 0;
+                first = false;
+                sink.append(buffer, start, n - start);
             }
         }
-        return content;
     }
 
     /**
-     * 读取ppt文件内容(文本)
+     * 读取doc文件内容(文本)，HWPF没有事件读取方式，按段落追加
      */
-    public static String pptContentRead(File file) {
-        String content = "";
-        FileInputStream fis = null;
-        try {
-            fis = new FileInputStream(file);
-            PowerPointExtractor extractor = new PowerPointExtractor(fis);
-            content += extractor.getText();
-        } catch (Exception e) {
-            throw new BusinessException("ppt文件读取失败");
-        } finally {
-            try {
-                fis.close();
-            } catch (IOException e) {
-                throw new BusinessException("文件读取流未关闭");
+    private static void docContentRead(File file, TextSink sink) throws IOException {
+        try (NPOIFSFileSystem fs = new NPOIFSFileSystem(file, true)) {
+            WordExtractor extractor = new WordExtractor(fs.getRoot());
+            for (String paragraph : extractor.getParagraphText()) {
+                sink.append(paragraph);
             }
         }
-        return content;
     }
 
     /**
-     * 读取pptx文件内容(文本)
+     * 读取docx文件内容(文本)，SAX读取正文部分
      */
-    public static String pptxContentRead(File file) {
-        String content = "";
-        FileInputStream fis = null;
+    private static void docxContentRead(File file, TextSink sink) throws Exception {
+        OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
         try {
-            fis = new FileInputStream(file);
-            XMLSlideShow xlsx = new XMLSlideShow(fis);
-            XSLFPowerPointExtractor extractor = new XSLFPowerPointExtractor(xlsx);
-            content += extractor.getText();
-        } catch (Exception e) {
-            throw new BusinessException("pptx文件读取失败");
+            PackageRelationship relationship = pkg.getRelationshipsByType(PackageRelationshipTypes.CORE_DOCUMENT).getRelationship(0);
+            PackagePart document = pkg.getPart(relationship);
+            try (InputStream is = document.getInputStream()) {
+                parse(is, new OoxmlTextHandler(sink, WORDPROCESSING_NS));
+            }
         } finally {
-            try {
-                fis.close();
-            } catch (IOException e) {
-                throw new BusinessException("文件读取流未关闭");
+            pkg.revert();
+        }
+    }
+
+    /**
+     * 读取ppt文件内容(文本)，直接扫描文本记录，不建立幻灯片模型
+     */
+    private static void pptContentRead(File file, TextSink sink) throws IOException {
+        try (NPOIFSFileSystem fs = new NPOIFSFileSystem(file, true)) {
+            QuickButCruddyTextExtractor extractor = new QuickButCruddyTextExtractor(fs);
+            for (String text : extractor.getTextAsVector()) {
+                sink.append(text);
+                sink.append("\n");
             }
         }
-        return content;
     }
 
     /**
-     * 读取xls文件内容(文本)
+     * 读取pptx文件内容(文本)，按幻灯片顺序SAX读取
      */
-    public static String xlsContentRead(File file) {
-        String content = "";
-        FileInputStream fis = null;
+    private static void pptxContentRead(File file, TextSink sink) throws Exception {
+        OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
         try {
-            fis = new FileInputStream(file);
-            ExcelExtractor extractor = new ExcelExtractor(new POIFSFileSystem(fis));
-            content += extractor.getText();
-        } catch (Exception e) {
-            throw new BusinessException("xls文件读取失败");
-        } finally {
-            try {
-                fis.close();
-            } catch (IOException e) {
-                throw new BusinessException("文件读取流未关闭");
+            List<PackagePart> slides = new ArrayList<>(pkg.getPartsByName(SLIDE_PART));
+            slides.sort(Comparator.comparingInt(FileHandler::slideNumber));
+            for (PackagePart slide : slides) {
+                sink.check();
+                try (InputStream is = slide.getInputStream()) {
+                    parse(is, new OoxmlTextHandler(sink, DRAWING_NS));
+                }
             }
+        } finally {
+            pkg.revert();
         }
-        return content;
     }
 
     /**
-     * 读取xlsx文件内容(文本)
+     * 读取xls文件内容(文本)，HSSF事件方式逐条读取记录
      */
-    public static String xlsxContentRead(File file) {
-        String content = "";
-        FileInputStream fis = null;
+    private static void xlsContentRead(File file, TextSink sink) throws IOException {
+        try (NPOIFSFileSystem fs = new NPOIFSFileSystem(file, true)) {
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(new XlsTextListener(sink));
+            new HSSFEventFactory().processWorkbookEvents(request, fs.getRoot());
+        }
+    }
+
+    /**
+     * 读取xlsx文件内容(文本)，SAX逐行读取各sheet
+     */
+    private static void xlsxContentRead(File file, TextSink sink) throws Exception {
+        OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
         try {
-            fis = new FileInputStream(file);
-            XSSFWorkbook xlsx = new XSSFWorkbook(fis);
-            XSSFExcelExtractor extractor = new XSSFExcelExtractor(xlsx);
-            content += extractor.getText();
-        } catch (Exception e) {
-            throw new BusinessException("xlsx/xlsm文件读取失败");
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                sink.check();
+                try (InputStream is = sheets.next()) {
+                    XMLReader parser = SAXHelper.newXMLReader();
+                    //没有单元格的元素(合并单元格、条件格式等)也检查超时
+                    parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings
+                            , new SheetTextCollector(sink), new DataFormatter(), false) {
+                        @Override
+                        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                            sink.check();
+                            super.startElement(uri, localName, qName, attributes);
+                        }
+                    });
+                    parser.parse(new InputSource(is));
+                }
+            }
         } finally {
-            try {
-                fis.close();
-            } catch (IOException e) {
-                throw new BusinessException("文件读取流未关闭");
+            pkg.revert();
+        }
+    }
+
+    private static void parse(InputStream is, DefaultHandler handler) throws Exception {
+        XMLReader parser = SAXHelper.newXMLReader();
+        parser.setContentHandler(handler);
+        parser.parse(new InputSource(is));
+    }
+
+    private static int slideNumber(PackagePart part) {
+        String name = part.getPartName().getName();
+        return Integer.parseInt(name.substring(name.lastIndexOf("slide") + 5, name.lastIndexOf(".")));
+    }
+
+    private static boolean hasCause(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) {
+                return true;
+            }
+            if (t instanceof SAXException && ((SAXException) t).getException() != null
+                    && type.isInstance(((SAXException) t).getException())) {
+                return true;
             }
         }
-        return content;
+        return false;
     }
 
     /**
-     * 读取office2003属性内容
+     * 读取office2003属性内容，只读取属性流
      */
     public static HashMap office2003MetadataRead(File file) {
         HashMap<String, Object> metadataMap = new HashMap();
-        FileInputStream fis = null;
-        try {
-            fis = new FileInputStream(file);
-            POIOLE2TextExtractor extractor = null;
-            String fileType = file.getName().substring(file.getName().lastIndexOf("."));
-            switch (fileType) {
-                case ".doc": {
-                    extractor = new WordExtractor(fis);
-                    break;
-                }
-                case ".xls": {
-                    extractor = new ExcelExtractor(new POIFSFileSystem(fis));
-                    break;
-                }
-                case ".ppt": {
-                    extractor = new PowerPointExtractor(fis);
-                    break;
-                }
-            }
-            String text = extractor.getMetadataTextExtractor().getText();
+        try (NPOIFSFileSystem fs = new NPOIFSFileSystem(file, true)) {
+            HPSFPropertiesExtractor extractor = new HPSFPropertiesExtractor(fs);
+            String text = extractor.getText();
             String[] metadataText = text.split("\n");
             for (String str : metadataText) {
                 int index = str.indexOf(" = ");
@@ -288,51 +368,22 @@ public class FileHandler {
                 }
             }
         } catch (Exception e) {
-            throw new BusinessException("doc文件读取属性失败");
-        } finally {
-            try {
-                fis.close();
-            } catch (IOException e) {
-                throw new BusinessException("文件读取流未关闭");
-            }
+            throw new BusinessException("文件读取属性失败", e);
         }
         return metadataMap;
     }
 
     /**
-     * 读取office2007及以上版本属性内容
+     * 读取office2007及以上版本属性内容，只读取属性部分，不加载文档内容
      */
     public static HashMap office2007MetadataRead(File file) {
         HashMap<String, String> metadataMap = new HashMap();
-        FileInputStream fis = null;
+        OPCPackage pkg = null;
         try {
-            fis = new FileInputStream(file);
-            POIXMLTextExtractor extractor = null;
-            String fileType = file.getName().substring(file.getName().lastIndexOf("."));
-            switch (fileType) {
-                case ".docx": {
-                    XWPFDocument docx = new XWPFDocument(fis);
-                    extractor = new XWPFWordExtractor(docx);
-                    break;
-                }
-                case ".xlsx": {
-                    XSSFWorkbook xlsx = new XSSFWorkbook(fis);
-                    extractor = new XSSFExcelExtractor(xlsx);
-                    break;
-                }
-                case ".xlsm": {
-                    XSSFWorkbook xlsx = new XSSFWorkbook(fis);
-                    extractor = new XSSFExcelExtractor(xlsx);
-                    break;
-                }
-                case ".pptx": {
-                    XMLSlideShow xlsx = new XMLSlideShow(fis);
-                    extractor = new XSLFPowerPointExtractor(xlsx);
-                    break;
-                }
-            }
-            POIXMLProperties.CoreProperties core = extractor.getCoreProperties();
-            POIXMLProperties.ExtendedProperties extended = extractor.getExtendedProperties();
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+            POIXMLProperties properties = new POIXMLProperties(pkg);
+            POIXMLProperties.CoreProperties core = properties.getCoreProperties();
+            POIXMLProperties.ExtendedProperties extended = properties.getExtendedProperties();
             metadataMap.put("标题", (core.getTitle() == null ? "" : core.getTitle()));
             metadataMap.put("主题", (core.getSubject() == null ? "" : core.getSubject()));
             metadataMap.put("标记", (core.getIdentifier() == null ? "" : core.getIdentifier()));
@@ -351,93 +402,373 @@ public class FileHandler {
             metadataMap.put("页码范围", (extended.getPages() == -1 ? "0" : String.valueOf(extended.getPages())));
             metadataMap.put("段落数", (extended.getParagraphs() == -1 ? "0" : String.valueOf(extended.getParagraphs())));
         } catch (Exception e) {
-            throw new BusinessException("doc文件读取属性失败");
+            throw new BusinessException("文件读取属性失败", e);
         } finally {
-            try {
-                fis.close();
-            } catch (IOException e) {
-                throw new BusinessException("文件读取流未关闭");
+            if (pkg != null) {
+                pkg.revert();
             }
         }
         return metadataMap;
     }
 
-
     /**
      * 导出Excel
      *
      * @param sheetName sheet名称
      * @param content   内容
-     * @param wb        HSSFWorkbook对象
-     * @return
+     * @param wb        Workbook对象，为SXSSFWorkbook时超出窗口的行写入临时文件
      */
-    public static XSSFWorkbook buildXSSFWorkbook(String sheetName, List<List<String>> content, XSSFWorkbook wb) {
+    public static Sheet buildSheet(Workbook wb, String sheetName, List<List<String>> content) {
+        Sheet sheet = wb.createSheet(sheetName);
+        content.forEach(row -> appendRow(sheet, row));
+        return sheet;
+    }
 
-        // 第一步，创建一个XSSFWorkbook，对应一个Excel文件
-        if (wb == null) {
-            wb = new XSSFWorkbook();
+    /**
+     * 在sheet末尾追加一行
+     */
+    public static void appendRow(Sheet sheet, List<String> values) {
+        Row row = sheet.createRow(sheet.getPhysicalNumberOfRows());
+        for (int i = 0; i < values.size(); i++) {
+            row.createCell(i).setCellValue(values.get(i));
         }
+    }
 
-        // 第二步，在workbook中添加一个sheet,对应Excel文件中的sheet
-        XSSFSheet sheet = wb.createSheet(sheetName);
+    /**
+     * 按行流式读取xlsx文件(SAX)，不把整个workbook载入内存。
+     * 每个sheet以第0行的列数为准，缺少的单元格补空字符串；数值取原始值，与按文本读取单元格一致
+     */
+    public static void xlsxRead(File excelFile, RowHandler handler) {
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(excelFile, PackageAccess.READ);
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            int sheetIndex = 0;
+            while (sheets.hasNext()) {
+                try (InputStream is = sheets.next()) {
+                    XMLReader parser = SAXHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings
+                            , new RowCollector(sheetIndex, handler), new RawDataFormatter(), false));
+                    parser.parse(new InputSource(is));
+                }
+                sheetIndex++;
+            }
+        } catch (BusinessException | InvalidArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new InvalidArgumentException("Excel文件读取失败", e);
+        } finally {
+            if (pkg != null) {
+                pkg.revert();
+            }
+        }
+    }
 
-        // 第三步，在sheet中添加表头第0行,注意老版本poi对Excel的行数列数有限制
-        XSSFRow row = sheet.createRow(0);
+    /**
+     * 逐行接收xlsx内容
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        void row(int sheetIndex, List<String> cells);
+    }
+
+    private static class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final int sheetIndex;
+
+        private final RowHandler handler;
+
+        //第0行的列数
+        private int width = -1;
+
+        private List<String> row;
 
-        // 第四步，创建单元格，并设置值表头 设置表头居中
-        XSSFCellStyle style = wb.createCellStyle();
-        style.setAlignment(HorizontalAlignment.CENTER); // 创建一个居中格式
+        private RowCollector(int sheetIndex, RowHandler handler) {
+            this.sheetIndex = sheetIndex;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            row = new ArrayList<>();
+        }
 
-        //创建内容
-        for (int i = 0; i < content.size(); i++) {
-            row = sheet.createRow(i);
-            for (int j = 0; j < content.get(i).size(); j++) {
-                //将内容按顺序赋给对应的列对象
-                row.createCell(j).setCellValue(content.get(i).get(j));
+        @Override
+        public void endRow(int rowNum) {
+            if (width < 0) {
+                width = row.size();
             }
+            while (row.size() < width) {
+                row.add("");
+            }
+            handler.row(sheetIndex, row.size() > width ? new ArrayList<>(row.subList(0, width)) : row);
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int col = cellReference == null ? row.size() : new CellReference(cellReference).getCol();
+            while (row.size() < col) {
+                row.add("");
+            }
+            row.add(formattedValue == null ? "" : formattedValue);
+        }
+
+        @Override
+        public void headerFooter(String text, boolean isHeader, String tagName) {
         }
-        return wb;
     }
 
-    public static List<List<List<String>>> xlsxRead(File excelFile) {
+    /**
+     * 读取的文本，超过字数上限时截断并结束读取，超过截止时间时结束读取
+     */
+    private static class TextSink {
+        private final StringBuilder text = new StringBuilder();
 
-        //读取xlsx文件
-        XSSFWorkbook xssfWorkbook = null;
-        //寻找目录读取文件
-        try {
-            InputStream is = new FileInputStream(excelFile);
-            xssfWorkbook = new XSSFWorkbook(is);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        List<List<List<String>>> workBook = new ArrayList<>();
-        //遍历xlsx中的sheet
-        for (int numSheet = 0; numSheet < xssfWorkbook.getNumberOfSheets(); numSheet++) {
-            XSSFSheet xssfSheet = xssfWorkbook.getSheetAt(numSheet);
-            if (xssfSheet == null) {
-                continue;
+        private final int maxChars;
+
+        private final long deadline;
+
+        private TextSink(int maxChars, long timeout) {
+            this.maxChars = maxChars;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        }
+
+        private void append(char[] chars, int offset, int length) {
+            check();
+            int n = Math.max(0, Math.min(length, maxChars - text.length()));
+            text.append(chars, offset, n);
+            if (n < length) {
+                throw new TextLimitReached();
+            }
+        }
+
+        private void append(String value) {
+            append(value.toCharArray(), 0, value.length());
+        }
+
+        private void check() {
+            if (System.nanoTime() - deadline >= 0) {
+                throw new TextTimeout();
             }
-            List<List<String>> sheet = new ArrayList<>();
-            // 对于每个sheet，读取其中的每一行
-            for (int rowNum = 0; rowNum <= xssfSheet.getLastRowNum(); rowNum++) {
-                XSSFRow xssfRow = xssfSheet.getRow(rowNum);
-                if (xssfRow == null) continue;
-                ArrayList<String> row = new ArrayList<>();
-                for (int cellNum = 0; cellNum < xssfSheet.getRow(0).getLastCellNum(); cellNum++) {
-                    XSSFCell cell = xssfRow.getCell(cellNum);
-                    if (null != cell) {
-                        cell.setCellType(CellType.STRING);
-                        row.add(cell.getStringCellValue());
-                    } else {
-                        row.add("");
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+
+    /**
+     * 已达到字数上限，用于中断读取，不是错误
+     */
+    private static class TextLimitReached extends RuntimeException {
+        private TextLimitReached() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class TextTimeout extends RuntimeException {
+        private TextTimeout() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * 读取docx正文或pptx幻灯片中的文本：t元素为文本，段落结束和换行输出换行符
+     */
+    private static class OoxmlTextHandler extends DefaultHandler {
+        private final TextSink sink;
+
+        private final String namespace;
+
+        private boolean inText;
+
+        //段落格式中的制表位定义不是文本
+        private boolean inTabs;
+
+        private OoxmlTextHandler(TextSink sink, String namespace) {
+            this.sink = sink;
+            this.namespace = namespace;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            sink.check();
+            if (!namespace.equals(uri)) {
+                return;
+            }
+            switch (localName) {
+                case "t":
+                    inText = true;
+                    break;
+                case "tabs":
+                    inTabs = true;
+                    break;
+                case "tab":
+                    if (!inTabs) {
+                        sink.append("\t");
                     }
+                    break;
+                case "br":
+                    sink.append("\n");
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (!namespace.equals(uri)) {
+                return;
+            }
+            switch (localName) {
+                case "t":
+                    inText = false;
+                    break;
+                case "tabs":
+                    inTabs = false;
+                    break;
+                case "p":
+                    sink.append("\n");
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inText) {
+                sink.append(ch, start, length);
+            }
+        }
+    }
+
+    /**
+     * 按记录读取xls单元格文本，同一行的单元格以制表符分隔，行之间换行
+     */
+    private static class XlsTextListener implements HSSFListener {
+        private final TextSink sink;
+
+        private SSTRecord sst;
 
+        private int lastRow = -1;
+
+        //公式的字符串结果在紧随其后的StringRecord中
+        private int formulaRow = -1;
+
+        private XlsTextListener(TextSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void processRecord(Record record) {
+            //没有文本的记录也检查超时
+            sink.check();
+            switch (record.getSid()) {
+                case BOFRecord.sid:
+                    if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET && lastRow >= 0) {
+                        sink.append("\n");
+                        lastRow = -1;
+                    }
+                    break;
+                case SSTRecord.sid:
+                    sst = (SSTRecord) record;
+                    break;
+                case LabelSSTRecord.sid: {
+                    LabelSSTRecord label = (LabelSSTRecord) record;
+                    if (sst != null) {
+                        cell(label.getRow(), sst.getString(label.getSSTIndex()).getString());
+                    }
+                    break;
+                }
+                case LabelRecord.sid: {
+                    LabelRecord label = (LabelRecord) record;
+                    cell(label.getRow(), label.getValue());
+                    break;
+                }
+                case NumberRecord.sid: {
+                    NumberRecord number = (NumberRecord) record;
+                    cell(number.getRow(), number(number.getValue()));
+                    break;
                 }
-                sheet.add(row);
+                case FormulaRecord.sid: {
+                    FormulaRecord formula = (FormulaRecord) record;
+                    if (formula.hasCachedResultString()) {
+                        formulaRow = formula.getRow();
+                    } else if (formula.getCachedResultType() == CellType.NUMERIC.getCode()) {
+                        cell(formula.getRow(), number(formula.getValue()));
+                    }
+                    break;
+                }
+                case StringRecord.sid:
+                    if (formulaRow >= 0) {
+                        cell(formulaRow, ((StringRecord) record).getString());
+                        formulaRow = -1;
+                    }
+                    break;
+                default:
             }
-            workBook.add(sheet);
         }
-        return workBook;
+
+        private void cell(int row, String value) {
+            if (lastRow >= 0) {
+                sink.append(row == lastRow ? "\t" : "\n");
+            }
+            lastRow = row;
+            sink.append(value);
+        }
+
+        private String number(double value) {
+            return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    /**
+     * 按行读取xlsx单元格文本，同一行的单元格以制表符分隔，行之间换行
+     */
+    private static class SheetTextCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final TextSink sink;
+
+        private boolean firstCell;
+
+        private SheetTextCollector(TextSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            sink.check();
+            firstCell = true;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            sink.append("\n");
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            if (!firstCell) {
+                sink.append("\t");
+            }
+            firstCell = false;
+            sink.append(formattedValue == null ? "" : formattedValue);
+        }
+
+        @Override
+        public void headerFooter(String text, boolean isHeader, String tagName) {
+        }
+    }
+
+    /**
+     * 数值单元格不按格式显示，输出原始值(日期为序列号)
+     */
+    private static class RawDataFormatter extends DataFormatter {
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+            return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+        }
     }
 }
@@ -1,16 +1,31 @@
 package com.ztdx.eams.basic.utils;
 
 import com.ztdx.eams.basic.exception.BusinessException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.*;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by li on 2018/5/25.
+ * 连接池化：借出时NOOP校验，空闲连接定时回收，传输出错的连接丢弃，下次借出时重连。
+ * 已确认存在的目录缓存在本地，不再重复创建
  */
+@Slf4j
 @Component
 public class FtpUtil {
     //ftp服务器ip地址
@@ -31,110 +46,370 @@ public class FtpUtil {
     //允许的文件类型
     @Value("${ftp.allow-type}")
     private String allowType;
+    //连接、读写超时(毫秒)
+    @Value("${ftp.timeout:30000}")
+    private int timeout;
+    //最大连接数
+    @Value("${ftp.pool.max-total:8}")
+    private int maxTotal;
+    //最多保留的空闲连接数
+    @Value("${ftp.pool.max-idle:8}")
+    private int maxIdle;
+    //借连接的最长等待时间(毫秒)
+    @Value("${ftp.pool.max-wait:10000}")
+    private long maxWait;
+    //空闲超过该时间的连接被回收(毫秒)
+    @Value("${ftp.pool.idle-timeout:300000}")
+    private long idleTimeout;
+    //空闲回收检查间隔(毫秒)
+    @Value("${ftp.pool.eviction-interval:60000}")
+    private long evictionInterval;
 
+    private GenericObjectPool<FTPClient> pool;
+
+    //已确认存在的目录
+    private final Set<String> knownDirectories = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxTotal(maxTotal);
+        config.setMaxIdle(maxIdle);
+        config.setMinIdle(0);
+        config.setMaxWaitMillis(maxWait);
+        config.setTestOnBorrow(true);
+        config.setTestWhileIdle(true);
+        config.setMinEvictableIdleTimeMillis(idleTimeout);
+        config.setTimeBetweenEvictionRunsMillis(evictionInterval);
+        config.setJmxEnabled(false);
+        pool = new GenericObjectPool<>(new FtpClientFactory(), config);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * 新建一个不入池的连接，调用方负责断开
+     */
     public FTPClient getFTPClient() {
-        FTPClient ftpClient = new FTPClient();
         try {
-            ftpClient.connect(address, port);// 连接FTP服务器
-            ftpClient.login(username, password);// 登陆FTP服务器
-            if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
-                ftpClient.disconnect();
-                throw new BusinessException("未连接到ftp服务");
-            }
-        } catch (Exception e) {
-            throw new BusinessException("未连接到ftp服务");
+            return connect();
+        } catch (IOException e) {
+            throw new BusinessException("未连接到ftp服务", e);
         }
-        return ftpClient;
     }
 
     /*
      * 上传文件
      */
     public void uploadFile(String[] path, String fileName, File file) {
+        checkAllowType(file.getName());
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            store(path, fileName, is);
+        } catch (IOException e) {
+            throw new BusinessException("文件上传失败", e);
+        }
+    }
+
+    /*
+     * 上传文件，直接从流读取，不落本地文件。originalName用于校验文件类型，流由调用方关闭
+     */
+    public void uploadFile(String[] path, String fileName, String originalName, InputStream is) {
+        checkAllowType(originalName);
+        store(path, fileName, is);
+    }
+
+    /*
+     * 下载文件
+     */
+    public void downloadFile(String[] path, String fileName, File file) {
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            downloadFile(path, fileName, os);
+        } catch (IOException e) {
+            throw new BusinessException("文件下载失败", e);
+        }
+    }
+
+    /*
+     * 下载文件，直接写入流。流由调用方关闭
+     */
+    public void downloadFile(String[] path, String fileName, OutputStream os) {
+        String remote = remotePath(path, fileName);
+        FTPClient ftp = borrow();
+        boolean broken = true;
+        try {
+            if (!ftp.retrieveFile(remote, os)) {
+                broken = false;
+                throw new BusinessException("文件下载失败");
+            }
+            broken = false;
+        } catch (IOException e) {
+            throw new BusinessException("文件下载失败", e);
+        } finally {
+            giveBack(ftp, broken);
+        }
+    }
+
+    /*
+     * 打开远程文件的输入流，从offset处开始读。关闭流时归还连接
+     */
+    public InputStream retrieveFileStream(String[] path, String fileName, long offset) {
+        String remote = remotePath(path, fileName);
+        FTPClient ftp = borrow();
+        InputStream is;
+        try {
+            ftp.setRestartOffset(offset);
+            is = ftp.retrieveFileStream(remote);
+        } catch (IOException e) {
+            giveBack(ftp, true);
+            throw new BusinessException("文件下载失败", e);
+        }
+        if (is == null) {
+            giveBack(ftp, false);
+            throw new BusinessException("文件下载失败");
+        }
+        return new FilterInputStream(is) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                boolean broken = true;
+                try {
+                    super.close();
+                    //提前关闭时服务端返回426，连接仍可用
+                    ftp.completePendingCommand();
+                    broken = false;
+                } finally {
+                    giveBack(ftp, broken);
+                }
+            }
+        };
+    }
+
+    /*
+     * 远程文件大小，不存在时返回-1
+     */
+    public long size(String[] path, String fileName) {
+        String remote = remotePath(path, fileName);
+        FTPClient ftp = borrow();
+        boolean broken = true;
+        try {
+            long size;
+            int reply = ftp.sendCommand("SIZE", remote);
+            if (reply == 213) {
+                size = Long.parseLong(ftp.getReplyString().substring(4).trim());
+            } else if (reply == FTPReply.FILE_UNAVAILABLE) {
+                size = -1;
+            } else {
+                //服务端不支持SIZE时列目录
+                FTPFile[] files = ftp.listFiles(remote);
+                size = files.length == 1 && files[0].isFile() ? files[0].getSize() : -1;
+            }
+            broken = false;
+            return size;
+        } catch (IOException e) {
+            throw new BusinessException("获取文件信息失败", e);
+        } finally {
+            giveBack(ftp, broken);
+        }
+    }
+
+    /*
+     * 移动文件，目标目录不存在时创建。目标已存在返回false
+     */
+    public boolean rename(String[] fromPath, String fromName, String[] toPath, String toName) {
+        FTPClient ftp = borrow();
+        boolean broken = true;
+        try {
+            makeDirectories(ftp, toPath);
+            boolean renamed = ftp.rename(remotePath(fromPath, fromName), remotePath(toPath, toName));
+            broken = false;
+            return renamed;
+        } catch (IOException e) {
+            throw new BusinessException("文件移动失败", e);
+        } finally {
+            giveBack(ftp, broken);
+        }
+    }
 
+    /*
+     * 删除文件
+     */
+    public boolean deleteFile(String[] path, String fileName) {
+        FTPClient ftp = borrow();
+        boolean broken = true;
+        try {
+            boolean deleted = ftp.deleteFile(remotePath(path, fileName));
+            broken = false;
+            return deleted;
+        } catch (IOException e) {
+            throw new BusinessException("文件删除失败", e);
+        } finally {
+            giveBack(ftp, broken);
+        }
+    }
+
+    private void store(String[] path, String fileName, InputStream is) {
+        String remote = remotePath(path, fileName);
+        FTPClient ftp = borrow();
+        boolean broken = true;
+        try {
+            makeDirectories(ftp, path);
+            boolean stored = ftp.storeFile(remote, is);
+            if (!stored && FTPReply.isNegativePermanent(ftp.getReplyCode())) {
+                //缓存的目录可能已被删除，清除后重建一次
+                forgetDirectories(path);
+                makeDirectories(ftp, path);
+                stored = ftp.storeFile(remote, is);
+            }
+            broken = false;
+            if (!stored) {
+                throw new BusinessException("文件上传失败");
+            }
+        } catch (IOException e) {
+            throw new BusinessException("文件上传失败", e);
+        } finally {
+            giveBack(ftp, broken);
+        }
+    }
+
+    /*
+     * 校验文件类型是否允许上传
+     */
+    public void checkAllowType(String name) {
         String[] fileType = allowType.split(",");
         boolean isAllow = false;
         for (String type : fileType) {
-            if (file.getName().substring(file.getName().lastIndexOf(".") + 1).equals(type)) {
+            if (name.substring(name.lastIndexOf(".") + 1).equals(type)) {
                 isAllow = true;
             }
         }
         if (!isAllow) {
             throw new BusinessException("不允许的文件类型");
         }
+    }
 
-        FTPClient ftp = getFTPClient();
-        ftp.setControlEncoding("UTF-8");
-        FileInputStream fis = null;
-        try {
-            ftp.enterLocalPassiveMode();
-            ftp.setFileType(FTPClient.BINARY_FILE_TYPE);
+    /**
+     * 逐级创建目录，已确认存在的跳过
+     */
+    private void makeDirectories(FTPClient ftp, String[] path) throws IOException {
+        String dir = basePath;
+        mkdir(ftp, dir);
+        for (String segment : path) {
+            dir = dir + "/" + segment;
+            mkdir(ftp, dir);
+        }
+    }
 
-            //设置存放路径
-            ftp.makeDirectory(basePath);
-            ftp.changeWorkingDirectory(basePath);
+    private void mkdir(FTPClient ftp, String dir) throws IOException {
+        if (knownDirectories.contains(dir)) {
+            return;
+        }
+        //已存在时返回失败，忽略
+        ftp.makeDirectory(dir);
+        knownDirectories.add(dir);
+    }
 
-            for (int i = 0; i < path.length; i++) {
-                ftp.makeDirectory(path[i]);
-                ftp.changeWorkingDirectory(path[i]);
-            }
+    private void forgetDirectories(String[] path) {
+        String dir = basePath;
+        knownDirectories.remove(dir);
+        for (String segment : path) {
+            dir = dir + "/" + segment;
+            knownDirectories.remove(dir);
+        }
+    }
 
-            fis = new FileInputStream(file);
-            //上传
-            ftp.storeFile(fileName, fis);
-        } catch (IOException e) {
-            throw new BusinessException("文件上传失败");
-        } finally {
+    private String remotePath(String[] path, String fileName) {
+        StringBuilder sb = new StringBuilder(basePath);
+        for (String segment : path) {
+            sb.append('/').append(segment);
+        }
+        return sb.append('/').append(fileName).toString();
+    }
+
+    private FTPClient borrow() {
+        try {
+            return pool.borrowObject();
+        } catch (BusinessException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BusinessException("未连接到ftp服务", e);
+        }
+    }
+
+    /**
+     * 归还连接，传输中出现IO异常的连接直接丢弃
+     */
+    private void giveBack(FTPClient ftp, boolean broken) {
+        if (broken) {
             try {
-                fis.close();
-                ftp.logout();
-            } catch (IOException e) {
-                e.printStackTrace();
+                pool.invalidateObject(ftp);
+            } catch (Exception e) {
+                log.warn("ftp连接关闭失败", e);
             }
+        } else {
+            pool.returnObject(ftp);
+        }
+    }
 
-            if (ftp.isConnected()) {
-                try {
-                    ftp.disconnect();
-                } catch (IOException e) {
-                    throw new BusinessException("ftp服务未正常关闭");
-                }
-            }
+    private FTPClient connect() throws IOException {
+        FTPClient ftpClient = new FTPClient();
+        ftpClient.setControlEncoding("UTF-8");
+        ftpClient.setConnectTimeout(timeout);
+        ftpClient.setDefaultTimeout(timeout);
+        ftpClient.setDataTimeout(timeout);
+        ftpClient.connect(address, port);// 连接FTP服务器
+        if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())
+                || !ftpClient.login(username, password)) {// 登陆FTP服务器
+            ftpClient.disconnect();
+            throw new BusinessException("未连接到ftp服务");
         }
+        ftpClient.setSoTimeout(timeout);
+        ftpClient.enterLocalPassiveMode();
+        ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+        return ftpClient;
     }
 
-    /*
-     * 下载文件
-     */
-    public void downloadFile(String[] path, String fileName, File file) {
+    private class FtpClientFactory extends BasePooledObjectFactory<FTPClient> {
 
-        FTPClient ftp = getFTPClient();
-        ftp.setControlEncoding("UTF-8");
-        OutputStream os = null;
-        try {
-            ftp.enterLocalPassiveMode();
-            ftp.setFileType(FTPClient.BINARY_FILE_TYPE);
+        @Override
+        public FTPClient create() throws Exception {
+            return connect();
+        }
 
-            ftp.changeWorkingDirectory(basePath);
+        @Override
+        public PooledObject<FTPClient> wrap(FTPClient ftpClient) {
+            return new DefaultPooledObject<>(ftpClient);
+        }
 
-            for (int i = 0; i < path.length; i++) {
-                ftp.changeWorkingDirectory(path[i]);
-            }
-            os = new FileOutputStream(file);
-            ftp.retrieveFile(fileName, os);
-        } catch (Exception e) {
-            throw new BusinessException("文件下载失败");
-        } finally {
+        @Override
+        public boolean validateObject(PooledObject<FTPClient> p) {
             try {
-                os.close();
-                ftp.logout();
+                return p.getObject().isConnected() && p.getObject().sendNoOp();
             } catch (IOException e) {
-                e.printStackTrace();
+                return false;
             }
-            if (ftp.isConnected()) {
+        }
+
+        @Override
+        public void destroyObject(PooledObject<FTPClient> p) {
+            FTPClient ftpClient = p.getObject();
+            if (ftpClient.isConnected()) {
+                try {
+                    ftpClient.logout();
+                } catch (IOException ignored) {
+                }
                 try {
-                    ftp.disconnect();
-                } catch (IOException ioe) {
-                    throw new BusinessException("ftp服务未正常关闭");
+                    ftpClient.disconnect();
+                } catch (IOException ignored) {
                 }
             }
         }
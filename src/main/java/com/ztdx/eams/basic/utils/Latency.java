@@ -0,0 +1,36 @@
+package com.ztdx.eams.basic.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 耗时统计：次数、平均和最大耗时，线程安全
+ */
+public class Latency {
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * count 次数 avg 平均毫秒 max 最大毫秒
+     */
+    public Map<String, Object> toMap() {
+        long n = count.get();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", n);
+        result.put("avg", n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / n));
+        result.put("max", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+        return result;
+    }
+}
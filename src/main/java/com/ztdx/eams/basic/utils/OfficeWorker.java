@@ -0,0 +1,25 @@
+package com.ztdx.eams.basic.utils;
+
+import java.io.File;
+
+/**
+ * 一个文档转换进程(或端口)，由{@link PDFConverter}池化管理，同一时刻只处理一个文档
+ */
+public interface OfficeWorker {
+
+    String getName();
+
+    /**
+     * 启动进程并建立连接，可在stop之后再次调用
+     */
+    void start() throws Exception;
+
+    boolean isHealthy();
+
+    void convert(File inputFile, File outputFile) throws Exception;
+
+    /**
+     * 断开连接并结束进程，转换卡死时用于中断
+     */
+    void stop();
+}
@@ -1,40 +1,234 @@
 package com.ztdx.eams.basic.utils;
 
-import com.artofsolving.jodconverter.DocumentConverter;
-import com.artofsolving.jodconverter.openoffice.connection.OpenOfficeConnection;
-import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
-import com.artofsolving.jodconverter.openoffice.converter.OpenOfficeDocumentConverter;
-import com.artofsolving.jodconverter.openoffice.converter.StreamOpenOfficeDocumentConverter;
 import com.ztdx.eams.basic.exception.BusinessException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
 
+import javax.annotation.PreDestroy;
 import java.io.File;
-import java.net.ConnectException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by li on 2018/6/7.
+ * 转换进程池：每个进程同一时刻只转换一个文档，超时的转换结束进程后重启，
+ * 进程转换一定数量后或健康检查失败时重启。排队数量有上限，队列满时调用方等待，超过等待时间拒绝
  */
+@Slf4j
 @Component
 public class PDFConverter {
 
-    //端口号
-    @Value("${openoffice.port}")
-    private int OPENOFFICE_PORT;
+    //单个进程转换多少个文档后重启
+    private final int maxTasksPerProcess;
 
+    //单个文档转换超时(毫秒)
+    private final long taskTimeout;
+
+    //队列满时的最长等待时间(毫秒)
+    private final long queueTimeout;
+
+    private final List<Slot> slots;
+
+    //空闲的进程
+    private final BlockingQueue<Slot> idle;
+
+    //正在转换和排队的总数上限
+    private final Semaphore permits;
+
+    private final Stats stats = new Stats();
+
+    @Autowired
+    public PDFConverter(@Value("${openoffice.host:127.0.0.1}") String host
+            , @Value("${openoffice.ports:${openoffice.port}}") int[] ports
+            , @Value("${openoffice.command:}") String command
+            , @Value("${openoffice.start-timeout:30000}") long startTimeout
+            , @Value("${openoffice.max-tasks-per-process:200}") int maxTasksPerProcess
+            , @Value("${openoffice.task-timeout:120000}") long taskTimeout
+            , @Value("${openoffice.queue-capacity:50}") int queueCapacity
+            , @Value("${openoffice.queue-timeout:600000}") long queueTimeout) {
+        this(socketWorkers(host, ports, command, startTimeout), maxTasksPerProcess, taskTimeout, queueCapacity, queueTimeout);
+    }
+
+    public PDFConverter(List<? extends OfficeWorker> workers, int maxTasksPerProcess, long taskTimeout, int queueCapacity, long queueTimeout) {
+        Assert.notEmpty(workers, "workers must not be empty");
+        this.maxTasksPerProcess = maxTasksPerProcess;
+        this.taskTimeout = taskTimeout;
+        this.queueTimeout = queueTimeout;
+        this.slots = new ArrayList<>();
+        workers.forEach(a -> slots.add(new Slot(a)));
+        this.idle = new LinkedBlockingQueue<>(slots);
+        this.permits = new Semaphore(slots.size() + queueCapacity, true);
+    }
+
+    private static List<OfficeWorker> socketWorkers(String host, int[] ports, String command, long startTimeout) {
+        List<OfficeWorker> workers = new ArrayList<>();
+        for (int port : ports) {
+            workers.add(new SocketOfficeWorker(host, port, command, startTimeout));
+        }
+        return workers;
+    }
+
+    /**
+     * 转换为PDF，阻塞到转换完成
+     */
     public void converterPDF(File inputFile, File outputFile) {
+        long enqueueTime = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS)) {
+                stats.rejected.incrementAndGet();
+                throw new BusinessException("PDF转换队列已满");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("PDF转换被中断", e);
+        }
+        stats.submitted.incrementAndGet();
+        try {
+            Slot slot;
+            stats.queued.incrementAndGet();
+            try {
+                //持有许可的调用方不超过进程数+队列容量，进程最迟在转换超时后归还
+                slot = idle.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BusinessException("PDF转换被中断", e);
+            } finally {
+                stats.queued.decrementAndGet();
+            }
+            stats.queueWait.record(System.nanoTime() - enqueueTime);
 
-        OpenOfficeConnection connection = new SocketOpenOfficeConnection(OPENOFFICE_PORT);
+            stats.active.incrementAndGet();
+            try {
+                convert(slot, inputFile, outputFile);
+            } finally {
+                stats.active.decrementAndGet();
+                idle.add(slot);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void convert(Slot slot, File inputFile, File outputFile) {
+        if (!slot.started || slot.tasks >= maxTasksPerProcess || !slot.worker.isHealthy()) {
+            restart(slot);
+        }
+
+        long start = System.nanoTime();
+        Future<?> future = slot.executor.submit(() -> {
+            slot.worker.convert(inputFile, outputFile);
+            return null;
+        });
+        slot.tasks++;
+        try {
+            future.get(taskTimeout, TimeUnit.MILLISECONDS);
+            stats.completed.incrementAndGet();
+        } catch (TimeoutException e) {
+            stats.timedOut.incrementAndGet();
+            log.warn("PDF转换超时，重启进程:" + slot.worker.getName() + " " + inputFile.getName());
+            //结束进程使卡住的调用返回，转换线程另起
+            future.cancel(true);
+            slot.worker.stop();
+            slot.executor.shutdownNow();
+            slot.executor = newExecutor(slot.worker);
+            slot.started = false;
+            throw new BusinessException("PDF转换超时");
+        } catch (ExecutionException e) {
+            stats.failed.incrementAndGet();
+            throw new BusinessException("PDF转换失败", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new BusinessException("PDF转换被中断", e);
+        } finally {
+            stats.convert.record(System.nanoTime() - start);
+        }
+    }
+
+    private void restart(Slot slot) {
+        if (slot.started) {
+            stats.restarts.incrementAndGet();
+            slot.worker.stop();
+        }
+        slot.started = false;
+        slot.tasks = 0;
         try {
-            connection.connect();
-        } catch (ConnectException e) {
-            throw new BusinessException("未连接到openoffice服务");
+            slot.worker.start();
+        } catch (Exception e) {
+            slot.worker.stop();
+            throw new BusinessException("未连接到openoffice服务", e);
         }
+        slot.started = true;
+    }
 
-        DocumentConverter converter = new StreamOpenOfficeDocumentConverter(connection);
-        converter.convert(inputFile, outputFile);
+    /**
+     * 转换统计：数量、排队等待时间和转换时间(毫秒)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("workers", slots.size());
+        result.put("active", stats.active.get());
+        result.put("queued", stats.queued.get());
+        result.put("submitted", stats.submitted.get());
+        result.put("completed", stats.completed.get());
+        result.put("failed", stats.failed.get());
+        result.put("timedOut", stats.timedOut.get());
+        result.put("rejected", stats.rejected.get());
+        result.put("restarts", stats.restarts.get());
+        result.put("queueWait", stats.queueWait.toMap());
+        result.put("convert", stats.convert.toMap());
+        return result;
+    }
 
-        connection.disconnect();
+    @PreDestroy
+    public void destroy() {
+        for (Slot slot : slots) {
+            slot.executor.shutdownNow();
+            slot.worker.stop();
+        }
     }
 
-}
\ No newline at end of file
+    private static ExecutorService newExecutor(OfficeWorker worker) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "pdf-converter-" + worker.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 进程及其转换线程，只由借到它的调用方访问
+     */
+    private static class Slot {
+        private final OfficeWorker worker;
+
+        private ExecutorService executor;
+
+        private boolean started;
+
+        //本次启动后已转换数量
+        private int tasks;
+
+        private Slot(OfficeWorker worker) {
+            this.worker = worker;
+            this.executor = newExecutor(worker);
+        }
+    }
+
+    private static class Stats {
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong restarts = new AtomicLong();
+        private final AtomicLong active = new AtomicLong();
+        private final AtomicLong queued = new AtomicLong();
+        private final Latency queueWait = new Latency();
+        private final Latency convert = new Latency();
+    }
+}
@@ -0,0 +1,113 @@
+package com.ztdx.eams.basic.utils;
+
+import com.artofsolving.jodconverter.openoffice.connection.OpenOfficeConnection;
+import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
+import com.artofsolving.jodconverter.openoffice.converter.StreamOpenOfficeDocumentConverter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过socket连接的OpenOffice进程。配置了启动命令时由本类启动和结束soffice进程，
+ * 每个端口使用独立的用户配置目录；否则只负责连接外部进程
+ */
+@Slf4j
+public class SocketOfficeWorker implements OfficeWorker {
+
+    private final String host;
+
+    private final int port;
+
+    //soffice可执行文件，为空时不管理进程
+    private final String command;
+
+    //启动后等待端口可连接的最长时间(毫秒)
+    private final long startTimeout;
+
+    private Process process;
+
+    private OpenOfficeConnection connection;
+
+    public SocketOfficeWorker(String host, int port, String command, long startTimeout) {
+        this.host = host;
+        this.port = port;
+        this.command = command;
+        this.startTimeout = startTimeout;
+    }
+
+    @Override
+    public String getName() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public synchronized void start() throws Exception {
+        if (command != null && !command.isEmpty() && (process == null || !process.isAlive())) {
+            File profile = new File(System.getProperty("java.io.tmpdir"), "eams-office-" + port);
+            process = new ProcessBuilder(Arrays.asList(command
+                    , "-headless"
+                    , "-invisible"
+                    , "-nologo"
+                    , "-norestore"
+                    , "-nofirststartwizard"
+                    , "-env:UserInstallation=" + profile.toURI()
+                    , "-accept=socket,host=" + host + ",port=" + port + ";urp;"))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(profile.getPath() + ".log")))
+                    .start();
+            log.info("启动openoffice进程:" + getName());
+        }
+
+        long deadline = System.currentTimeMillis() + startTimeout;
+        while (true) {
+            connection = new SocketOpenOfficeConnection(host, port);
+            try {
+                connection.connect();
+                return;
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline || (process != null && !process.isAlive())) {
+                    throw e;
+                }
+                Thread.sleep(500);
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean isHealthy() {
+        return connection != null && connection.isConnected() && (process == null || process.isAlive());
+    }
+
+    @Override
+    public void convert(File inputFile, File outputFile) {
+        OpenOfficeConnection current;
+        synchronized (this) {
+            current = connection;
+        }
+        new StreamOpenOfficeDocumentConverter(current).convert(inputFile, outputFile);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (connection != null) {
+            try {
+                connection.disconnect();
+            } catch (Exception e) {
+                log.warn("断开openoffice连接失败:" + getName(), e);
+            }
+            connection = null;
+        }
+        if (process != null) {
+            process.destroyForcibly();
+            try {
+                process.waitFor(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            process = null;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.ztdx.eams.basic.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.Getter;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 缓存侧栏等处使用的树(全宗、库分组、库、目录、分类、机构)，键由调用方按树类型、参数和用户可见范围拼装。
+ * 全宗、档案库、目录、分类、机构或权限变更时版本号递增使全部树失效；多实例部署时其它实例的变更最迟在缓存有效期后生效。
+ * 每棵树带ETag，客户端带If-None-Match请求未变化的树时返回304
+ */
+@Component
+public class TreeCache {
+
+    private final Map<String, Tree> cache = new ConcurrentHashMap<>();
+
+    private final AtomicLong version = new AtomicLong();
+
+    //缓存有效期(毫秒)
+    private final long ttl;
+
+    private final int maxEntries;
+
+    //按键排序输出，内容相同的树序列化结果相同
+    private final ObjectWriter jsonWriter;
+
+    public TreeCache(ObjectMapper jsonMapper
+            , @Value("${tree.cache.ttl:60000}") long ttl
+            , @Value("${tree.cache.max-entries:2000}") int maxEntries) {
+        this.jsonWriter = jsonMapper.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 获取树，不存在、已过期或已失效时由loader重新构建。返回的树由多个请求共用，调用方不能修改
+     */
+    public Tree get(String key, Supplier<Map<String, Object>> loader) {
+        long now = System.currentTimeMillis();
+        long current = version.get();
+        Tree cached = cache.get(key);
+        if (cached != null && cached.version == current && cached.expiresAt > now) {
+            return cached;
+        }
+
+        Map<String, Object> value = loader.get();
+        Tree loaded = new Tree(value, current, now + ttl, etag(key, value));
+        //构建期间发生变更的树不放入缓存
+        if (current == version.get()) {
+            if (cache.size() >= maxEntries) {
+                cache.values().removeIf(a -> a.version != current || a.expiresAt <= now);
+                if (cache.size() >= maxEntries) {
+                    cache.clear();
+                }
+            }
+            cache.put(key, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * 使全部树失效。处于事务中时提交后再失效一次，避免并发请求在提交前把旧数据重新加载进缓存
+     */
+    public void evictAll() {
+        Runnable evict = () -> {
+            version.incrementAndGet();
+            cache.clear();
+        };
+        evict.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * 与用户权限相关的树的缓存范围：管理员共用一份，其他用户按可管理的全宗、目录各自缓存
+     */
+    public static String userScope(int userId, boolean admin) {
+        return admin ? "admin" : "user:" + userId;
+    }
+
+    /**
+     * 按键和树序列化后的内容取MD5，内容不变时重建、重启或其它实例上生成的ETag相同
+     */
+    private String etag(String key, Map<String, Object> value) {
+        try {
+            return "\"" + DigestUtils.md5Hex(key + "\n" + jsonWriter.writeValueAsString(value)) + "\"";
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("树序列化失败:" + key, e);
+        }
+    }
+
+    @Getter
+    public static class Tree {
+
+        private final Map<String, Object> value;
+
+        private final long version;
+
+        private final long expiresAt;
+
+        private final String etag;
+
+        private Tree(Map<String, Object> value, long version, long expiresAt, String etag) {
+            this.value = value;
+            this.version = version;
+            this.expiresAt = expiresAt;
+            this.etag = etag;
+        }
+    }
+}
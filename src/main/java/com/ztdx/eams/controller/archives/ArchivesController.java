@@ -2,6 +2,7 @@ package com.ztdx.eams.controller.archives;
 
 import com.ztdx.eams.basic.UserCredential;
 import com.ztdx.eams.basic.exception.ForbiddenException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.archives.application.ArchivesService;
 import com.ztdx.eams.domain.archives.application.task.EntryAsyncTask;
 import com.ztdx.eams.domain.archives.model.Archives;
@@ -12,6 +13,7 @@ import org.jooq.types.UInteger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 import java.util.Map;
@@ -31,19 +33,23 @@ public class ArchivesController {
 
     private final EntryAsyncTask entryAsyncTask;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public ArchivesController(ArchivesService archivesService, ArchivesQuery archivesQuery, RoleService roleService, PermissionService permissionService, EntryAsyncTask entryAsyncTask) {
+    public ArchivesController(ArchivesService archivesService, ArchivesQuery archivesQuery, RoleService roleService, PermissionService permissionService, EntryAsyncTask entryAsyncTask, TreeCache treeCache) {
         this.archivesService = archivesService;
         this.archivesQuery = archivesQuery;
         this.roleService = roleService;
         this.permissionService = permissionService;
         this.entryAsyncTask = entryAsyncTask;
+        this.treeCache = treeCache;
     }
 
     /**
      * @api {get} /archives/treeList?archiveType={archiveType} 获取全宗、库分组、库、目录树
      * @apiName treeList
      * @apiGroup archives
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} archiveType 档案库类型 0 全部类型 1 登记库(默认值) 2 归档库
      * @apiSuccess (Success 200) {String} childrenType 节点类型(Fonds-全宗;ArchivesGroup-档案分组;Archives-档案库;Catalogue-目录).
      * @apiSuccess (Success 200) {Object[]} children 子节点信息
@@ -76,21 +82,33 @@ public class ArchivesController {
     @RequestMapping(value = "/treeList", method = RequestMethod.GET)
     public Map<String, Object> treeList(
             @SessionAttribute(required = false) UserCredential LOGIN_USER
-            , @RequestParam(value = "archiveType", defaultValue = "1") byte archiveType) {
+            , @RequestParam(value = "archiveType", defaultValue = "1") byte archiveType
+            , WebRequest request) {
         int userId;
         if (LOGIN_USER != null) {
             userId = LOGIN_USER.getUserId();
         } else {
             throw new ForbiddenException("拒绝访问");
         }
-        //可以管理的全宗
-        Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
-        Set<Integer> catalogueIds = roleService.findUserManageArchiveCatalogue(userId);
-
-        return archivesQuery.getFondsToCatalogueTreeMap(
-                archiveType == 0 ? null : archiveType
-                , a -> hasPermission(fondsIds, a)
-                , a -> hasPermission(catalogueIds, a));
+
+        TreeCache.Tree tree = treeCache.get("archives.treeList:" + archiveType + ":" + treeScope(userId), () -> {
+            //可以管理的全宗
+            Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
+            Set<Integer> catalogueIds = roleService.findUserManageArchiveCatalogue(userId);
+
+            return archivesQuery.getFondsToCatalogueTreeMap(
+                    archiveType == 0 ? null : archiveType
+                    , a -> hasPermission(fondsIds, a)
+                    , a -> hasPermission(catalogueIds, a));
+        });
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
+    }
+
+    private String treeScope(int userId) {
+        return TreeCache.userScope(userId, permissionService.hasAnyAuthority("ROLE_ADMIN"));
     }
 
     private boolean hasPermission(Set<Integer> ids, int id) {
@@ -106,6 +124,7 @@ public class ArchivesController {
      * @api {get} /archives/treeListBelowFonds?id={id} 通过目录ID获取同属全宗下库分组、库树
      * @apiName treeListBelowFonds
      * @apiGroup archives
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} id 目录ID
      * @apiParam {Number} archiveType 库类型 0 全部类型 1 登记库 2 归档库(默认值)
      * @apiSuccess (Success 200) {String} childrenType 节点类型(ArchivesGroup-档案分组;Archives-档案库;Catalogue-目录).
@@ -128,28 +147,37 @@ public class ArchivesController {
     public Map<String, Object> treeListBelowFonds(
             @SessionAttribute(required = false) UserCredential LOGIN_USER
             , @RequestParam(value = "archiveType", defaultValue = "2") byte archiveType
-            , @RequestParam("id") int id) {
+            , @RequestParam("id") int id
+            , WebRequest request) {
         int userId;
         if (LOGIN_USER != null) {
             userId = LOGIN_USER.getUserId();
         } else {
             throw new ForbiddenException("拒绝访问");
         }
-        //可以管理的目录
-        Set<Integer> catalogueIds = roleService.findUserManageArchiveCatalogue(userId);
 
-        int fondsId = archivesQuery.getFondsIdByArchiveId(UInteger.valueOf(id));
+        TreeCache.Tree tree = treeCache.get("archives.treeListBelowFonds:" + archiveType + ":" + id + ":" + treeScope(userId), () -> {
+            //可以管理的目录
+            Set<Integer> catalogueIds = roleService.findUserManageArchiveCatalogue(userId);
 
-        return archivesQuery.getArchivesGroupToArchivesTreeMap(
-                fondsId
-                , archiveType == 0 ? null : archiveType
-                , a -> hasPermission(catalogueIds, a));
+            int fondsId = archivesQuery.getFondsIdByArchiveId(UInteger.valueOf(id));
+
+            return archivesQuery.getArchivesGroupToArchivesTreeMap(
+                    fondsId
+                    , archiveType == 0 ? null : archiveType
+                    , a -> hasPermission(catalogueIds, a));
+        });
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
     /**
      * @api {get} /archives/fondsToArchivesTree?archiveType={archiveType} 获取全宗、库分组、库树
      * @apiName fondsToArchivesTree
      * @apiGroup archives
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} archiveType 档案库类型 0 全部类型(默认值) 1 登记库 2 归档库
      * @apiSuccess (Success 200) {String} childrenType 节点类型(Fonds-全宗;ArchivesGroup-档案分组;Archives-档案库.
      * @apiSuccess (Success 200) {Object[]} children 子节点信息
@@ -178,27 +206,36 @@ public class ArchivesController {
     @RequestMapping(value = "/fondsToArchivesTree", method = RequestMethod.GET)
     public Map<String, Object> fondsToArchivesTree(
             @SessionAttribute(required = false) UserCredential LOGIN_USER
-            , @RequestParam(value = "archiveType", defaultValue = "0") byte archiveType) {
+            , @RequestParam(value = "archiveType", defaultValue = "0") byte archiveType
+            , WebRequest request) {
         int userId;
         if (LOGIN_USER != null) {
             userId = LOGIN_USER.getUserId();
         } else {
             throw new ForbiddenException("拒绝访问");
         }
-        //可以管理的全宗、目录
-        Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
-        Set<Integer> catalogueIds = roleService.findUserManageArchiveCatalogue(userId);
-
-        return archivesQuery.getFondsToArchivesTreeMap(
-                archiveType == 0 ? null : archiveType
-                , a -> hasPermission(fondsIds, a)
-                , a -> hasPermission(catalogueIds, a));
+
+        TreeCache.Tree tree = treeCache.get("archives.fondsToArchivesTree:" + archiveType + ":" + treeScope(userId), () -> {
+            //可以管理的全宗、目录
+            Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
+            Set<Integer> catalogueIds = roleService.findUserManageArchiveCatalogue(userId);
+
+            return archivesQuery.getFondsToArchivesTreeMap(
+                    archiveType == 0 ? null : archiveType
+                    , a -> hasPermission(fondsIds, a)
+                    , a -> hasPermission(catalogueIds, a));
+        });
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
     /**
      * @api {get} /archives/fondsToArchivesGroupTree 获取全宗、库分组树
      * @apiName fondsToArchivesGroupTree
      * @apiGroup archives
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiSuccess (Success 200) {String} childrenType 节点类型(Fonds-全宗;ArchivesGroup-档案分组).
      * @apiSuccess (Success 200) {Object[]} children 子节点信息
      * @apiSuccess (Success 200) {Number} Fonds:id 全宗ID.
@@ -219,17 +256,25 @@ public class ArchivesController {
      */
     @RequestMapping(value = "/fondsToArchivesGroupTree", method = RequestMethod.GET)
     public Map<String, Object> fondsToArchivesGroupTree(
-            @SessionAttribute(required = false) UserCredential LOGIN_USER) {
+            @SessionAttribute(required = false) UserCredential LOGIN_USER
+            , WebRequest request) {
         int userId;
         if (LOGIN_USER != null) {
             userId = LOGIN_USER.getUserId();
         } else {
             throw new ForbiddenException("拒绝访问");
         }
-        //可以管理的全宗
-        Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
 
-        return archivesQuery.getFondsToArchivesGroupTree(a -> hasPermission(fondsIds, a));
+        TreeCache.Tree tree = treeCache.get("archives.fondsToArchivesGroupTree:" + treeScope(userId), () -> {
+            //可以管理的全宗
+            Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
+
+            return archivesQuery.getFondsToArchivesGroupTree(a -> hasPermission(fondsIds, a));
+        });
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
 
@@ -304,6 +349,7 @@ public class ArchivesController {
      * @api {get} /archives/archivesToCatalogueTree 获取档案库分组下档案库、目录列表
      * @apiName archivesToCatalogueTree
      * @apiGroup archives
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} archivesGroupId 档案库分组ID
      * @apiSuccess (Success 200) {String} childrenType 节点类型(Archives-档案库;Catalogue-目录).
      * @apiSuccess (Success 200) {Number} Archives:id 档案库ID
@@ -320,8 +366,13 @@ public class ArchivesController {
      * {"childrenType": "Catalogue","id": 目录ID,"catalogueType": 目录类型,"archivesId": 档案库ID}]}}}.
      */
     @RequestMapping(value = "/archivesToCatalogueTree", method = RequestMethod.GET)
-    public Map<String, Object> archivesToCatalogueTree(@RequestParam("archivesGroupId") int archivesGroupId) {
-        return archivesQuery.getArchivesToCatalogueTree(UInteger.valueOf(archivesGroupId));
+    public Map<String, Object> archivesToCatalogueTree(@RequestParam("archivesGroupId") int archivesGroupId, WebRequest request) {
+        TreeCache.Tree tree = treeCache.get("archives.archivesToCatalogueTree:" + archivesGroupId
+                , () -> archivesQuery.getArchivesToCatalogueTree(UInteger.valueOf(archivesGroupId)));
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
 }
@@ -1,5 +1,6 @@
 package com.ztdx.eams.controller.archives;
 
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.archives.application.ArchivesGroupService;
 import com.ztdx.eams.domain.archives.model.ArchivesGroup;
 import com.ztdx.eams.domain.archives.model.Classification;
@@ -7,6 +8,7 @@ import com.ztdx.eams.query.ArchivesQuery;
 import org.jooq.types.UInteger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.Map;
 
@@ -21,10 +23,13 @@ public class ArchivesGroupController {
 
     private final ArchivesGroupService archivesGroupService;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public ArchivesGroupController(ArchivesQuery archivesQuery, ArchivesGroupService archivesGroupService) {
+    public ArchivesGroupController(ArchivesQuery archivesQuery, ArchivesGroupService archivesGroupService, TreeCache treeCache) {
         this.archivesQuery = archivesQuery;
         this.archivesGroupService = archivesGroupService;
+        this.treeCache = treeCache;
     }
 
     /**
@@ -74,6 +79,7 @@ public class ArchivesGroupController {
      * @api {get} /archivesGroup/treeList 获取全宗所属档案库分组树
      * @apiName treeList
      * @apiGroup archivesGroup
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} fondsId 所属全宗ID(url参数)
      * @apiSuccess (Success 200) {Number} id 档案库分组ID.
      * @apiSuccess (Success 200) {String} name 案库分组名称.
@@ -86,14 +92,19 @@ public class ArchivesGroupController {
      * {"id": 4,"name": "石碑档案","parentId": 3,"remark": "备注"}]}]}}.
      */
     @RequestMapping(value = "/treeList", method = RequestMethod.GET)
-    public Map<String, Object> treeList(@RequestParam("fondsId") int fondsId) {
-        return archivesQuery.getArchivesGroupTreeMap(UInteger.valueOf(fondsId),null);
+    public Map<String, Object> treeList(@RequestParam("fondsId") int fondsId, WebRequest request) {
+        TreeCache.Tree tree = treeCache.get("archivesGroup.treeList:" + fondsId, () -> archivesQuery.getArchivesGroupTreeMap(UInteger.valueOf(fondsId), null));
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
     /**
      * @api {get} /archivesGroup/treeListForUpdate 获取全宗所属档案库分组树（编辑时下拉树）
      * @apiName treeListForUpdate
      * @apiGroup archivesGroup
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} fondsId 所属全宗ID(url参数)
      * @apiParam {Number} archivesGroupId 当前档案库分组ID(url参数)
      * @apiSuccess (Success 200) {Number} id 档案库分组ID.
@@ -107,7 +118,11 @@ public class ArchivesGroupController {
      * {"id": 4,"name": "石碑档案","parentId": 3,"remark": "备注"}]}]}}.
      */
     @RequestMapping(value = "/treeListForUpdate", method = RequestMethod.GET)
-    public Map<String, Object> treeListForUpdate(@RequestParam("archivesGroupId") int archivesGroupId, @RequestParam("fondsId") int fondsId) {
-        return archivesQuery.getArchivesGroupTreeMap(UInteger.valueOf(fondsId), UInteger.valueOf(archivesGroupId));
+    public Map<String, Object> treeListForUpdate(@RequestParam("archivesGroupId") int archivesGroupId, @RequestParam("fondsId") int fondsId, WebRequest request) {
+        TreeCache.Tree tree = treeCache.get("archivesGroup.treeListForUpdate:" + fondsId + ":" + archivesGroupId, () -> archivesQuery.getArchivesGroupTreeMap(UInteger.valueOf(fondsId), UInteger.valueOf(archivesGroupId)));
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 }
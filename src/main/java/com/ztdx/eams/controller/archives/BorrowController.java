@@ -1,6 +1,7 @@
 package com.ztdx.eams.controller.archives;
 
 import com.ztdx.eams.basic.UserCredential;
+import com.ztdx.eams.basic.exception.NotFoundException;
 import com.ztdx.eams.domain.archives.application.*;
 import com.ztdx.eams.domain.archives.model.*;
 import com.ztdx.eams.domain.system.application.PermissionService;
@@ -16,10 +17,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpSession;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 
 @RestController
@@ -32,14 +30,12 @@ public class BorrowController {
 
     private final EntryService entryService;
 
-    private final DescriptionItemService descriptionItemService;
-
     private final PermissionService permissionService;
 
-    private final ArchivesService archivesService;
-
     private final OriginalTextService originalTextService;
 
+    private final CatalogueMetadataCache catalogueMetadataCache;
+
     @Value("${borrow.departmentLeader}")
     private Integer departmentLeader;
 
@@ -47,14 +43,13 @@ public class BorrowController {
     private Integer archiveManager;
 
     @Autowired
-    public BorrowController(BorrowService borrowService, WorkService workService, EntryService entryService, DescriptionItemService descriptionItemService, PermissionService permissionService, ArchivesService archivesService, OriginalTextService originalTextService) {
+    public BorrowController(BorrowService borrowService, WorkService workService, EntryService entryService, PermissionService permissionService, OriginalTextService originalTextService, CatalogueMetadataCache catalogueMetadataCache) {
         this.borrowService = borrowService;
         this.workService = workService;
         this.entryService = entryService;
-        this.descriptionItemService = descriptionItemService;
         this.permissionService = permissionService;
-        this.archivesService = archivesService;
         this.originalTextService = originalTextService;
+        this.catalogueMetadataCache = catalogueMetadataCache;
     }
 
     /**
@@ -121,16 +116,33 @@ public class BorrowController {
         List<Map<String, Object>> entryIndexs = (List) map.get("entryIndexs");
         map.remove("entryIndexs");
 
+        //按目录分组，每个目录只查询一次条目，档案库名称和著录项取自目录元数据缓存
+        Map<Integer, List<String>> entryIdsByCatalogue = new HashMap<>();
+        for (Map entryIndex : entryIndexs) {
+            entryIdsByCatalogue.computeIfAbsent((int) entryIndex.get("catalogueId"), k -> new ArrayList<>()).add((String) entryIndex.get("entryId"));
+        }
+        Map<Integer, Map<String, Entry>> entries = new HashMap<>();
+        entryIdsByCatalogue.forEach((catalogueId, entryIds) -> {
+            Map<String, Entry> catalogueEntries = new HashMap<>();
+            entryService.findAllById(entryIds, catalogueId).forEach(a -> catalogueEntries.put(a.getId(), a));
+            entries.put(catalogueId, catalogueEntries);
+        });
+
+        List<Map<String, Object>> processVariables = new ArrayList<>();
         for (Map entryIndex : entryIndexs) {
             int catalogueId = (int) entryIndex.get("catalogueId");
             String entryId = (String) entryIndex.get("entryId");
-            Entry entry = entryService.get(catalogueId, entryId);
+            Entry entry = entries.get(catalogueId).get(entryId);
+            if (entry == null) {
+                throw new NotFoundException("借阅条目不存在");
+            }
 
-            String archiveName = archivesService.findArchivesNameByCatalogue_CatalogueId(catalogueId);
+            CatalogueMetadata metadata = catalogueMetadataCache.get(catalogueId);
+            String archiveName = metadata.getArchives() == null ? null : metadata.getArchives().getName();
 
-            DescriptionItem titleItem = descriptionItemService.findByCatalogueIdAndPropertyType(catalogueId, PropertyType.Title);
+            DescriptionItem titleItem = metadata.getItem(PropertyType.Title);
 
-            DescriptionItem referenceItem = descriptionItemService.findByCatalogueIdAndPropertyType(catalogueId, PropertyType.Reference);
+            DescriptionItem referenceItem = metadata.getItem(PropertyType.Reference);
             String title = "";
             if (titleItem != null) {
                 title = entry.getItems().getOrDefault(titleItem.getMetadataName(), "").toString();
@@ -140,19 +152,22 @@ public class BorrowController {
             if (referenceItem != null) {
                 reference = entry.getItems().getOrDefault(referenceItem.getMetadataName(), "").toString();
             }
+            Map<String, Object> variables = new HashMap<>(map);
             //档案库名称
-            map.put("archiveName", archiveName);
+            variables.put("archiveName", archiveName);
             //提名
-            map.put("title", title);
+            variables.put("title", title);
             //档号
-            map.put("reference", reference);
+            variables.put("reference", reference);
             //借阅条目
-            map.put("id", entryId);
-            map.put("catalogueId", catalogueId);
+            variables.put("id", entryId);
+            variables.put("catalogueId", catalogueId);
             //审批档案员
-            map.put("filer", archiveManager);
-            workService.start("borrow", map);
+            variables.put("filer", archiveManager);
+            processVariables.add(variables);
         }
+        //每个条目一个流程，分别审批，在同一事务中开启
+        workService.startAll("borrow", processVariables);
     }
 
     /**
@@ -2,6 +2,7 @@ package com.ztdx.eams.controller.archives;
 
 import com.ztdx.eams.basic.UserCredential;
 import com.ztdx.eams.basic.exception.ForbiddenException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.archives.application.ClassificationService;
 import com.ztdx.eams.domain.archives.model.Classification;
 import com.ztdx.eams.domain.system.application.PermissionService;
@@ -10,6 +11,7 @@ import com.ztdx.eams.query.ArchivesQuery;
 import org.jooq.types.UInteger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.Map;
 import java.util.Set;
@@ -30,18 +32,22 @@ public class ClassificationController {
 
     private final PermissionService permissionService;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public ClassificationController(ClassificationService classificationService, ArchivesQuery archivesQuery, RoleService roleService, PermissionService permissionService) {
+    public ClassificationController(ClassificationService classificationService, ArchivesQuery archivesQuery, RoleService roleService, PermissionService permissionService, TreeCache treeCache) {
         this.classificationService = classificationService;
         this.archivesQuery = archivesQuery;
         this.roleService = roleService;
         this.permissionService = permissionService;
+        this.treeCache = treeCache;
     }
 
     /**
      * @api {get} /classification/treeList 获取全宗下档案分类表单树
      * @apiName treeList
      * @apiGroup classification
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} fondsId 所属全宗ID(全局为1)(url参数)
      * @apiSuccess (Success 200) {Number} id 档案分类ID.
      * @apiSuccess (Success 200) {String} code 档案分类编码.
@@ -57,14 +63,19 @@ public class ClassificationController {
      * {"id": 档案分类ID,"code": "档案分类编码","name": "子档案分类1","retentionPeriod": "保管期限","parentId": 上级档案分类ID,"orderNumber": 同级排序编号,"remark": "备注"}]}]}}.
      */
     @RequestMapping(value = "/treeList", method = RequestMethod.GET)
-    public Map<String, Object> treeList(@RequestParam("fondsId") int fondsId) {
-        return archivesQuery.getClassificationTreeMap(UInteger.valueOf(fondsId));
+    public Map<String, Object> treeList(@RequestParam("fondsId") int fondsId, WebRequest request) {
+        TreeCache.Tree tree = treeCache.get("classification.treeList:" + fondsId, () -> archivesQuery.getClassificationTreeMap(UInteger.valueOf(fondsId)));
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
     /**
      * @api {get} /classification/fondsAndClassificationTreeList 著录项设置的档案分类下拉树
      * @apiName fondsAndClassificationTreeList
      * @apiGroup classification
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiSuccess (Success 200) {String} childrenType 节点类型(1.Classification-档案分类;2.Fonds-全宗).
      * @apiSuccess (Success 200) {Object[]} children 子节点信息
      * @apiSuccess (Success 200) {Number} Fonds:id 全宗ID.
@@ -85,15 +96,25 @@ public class ClassificationController {
      * {"id": 14,"code": "档案分类编码","name": "档案分类名称","parentId": 4,"orderNumber": 同级排序编号}]}]}]}}
      */
     @RequestMapping(value = "/fondsAndClassificationTreeList", method = RequestMethod.GET)
-    public Map<String, Object> treeList(@SessionAttribute(required = false) UserCredential LOGIN_USER) {
+    public Map<String, Object> treeList(@SessionAttribute(required = false) UserCredential LOGIN_USER, WebRequest request) {
         int userId;
         if (LOGIN_USER != null) {
             userId = LOGIN_USER.getUserId();
         } else {
             throw new ForbiddenException("拒绝访问");
         }
-        Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
-        return archivesQuery.getFondsAndClassificationTreeMap(a -> hasPermission(fondsIds, a));
+        TreeCache.Tree tree = treeCache.get("classification.fondsAndClassificationTreeList:" + treeScope(userId), () -> {
+            Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
+            return archivesQuery.getFondsAndClassificationTreeMap(a -> hasPermission(fondsIds, a));
+        });
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
+    }
+
+    private String treeScope(int userId) {
+        return TreeCache.userScope(userId, permissionService.hasAnyAuthority("ROLE_ADMIN"));
     }
 
     private boolean hasPermission(Set<Integer> ids, int id) {
@@ -108,6 +129,7 @@ public class ClassificationController {
      * @api {get} /classification/treeListByParentId 通过上级档案分类节点获取档案分类下拉树
      * @apiName treeListByParentId
      * @apiGroup classification
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} parentId 父档案分类ID(根节点为1)(url参数)
      * @apiSuccess (Success 200) {Number} id 档案分类ID.
      * @apiSuccess (Success 200) {String} code 档案分类编码.
@@ -123,8 +145,12 @@ public class ClassificationController {
      * {"id": 4,"code": "档案分类编码","name": "子档案分类1","retentionPeriod": "保管期限","parentId": 1,"orderNumber": 3,"remark": "备注"}]}]}}.
      */
     @RequestMapping(value = "/treeListByParentId", method = RequestMethod.GET)
-    public Map<String, Object> treeListByParentId(@RequestParam("parentId") int parentId) {
-        return archivesQuery.getClassificationTreeMapByParent(UInteger.valueOf(parentId));
+    public Map<String, Object> treeListByParentId(@RequestParam("parentId") int parentId, WebRequest request) {
+        TreeCache.Tree tree = treeCache.get("classification.treeListByParentId:" + parentId, () -> archivesQuery.getClassificationTreeMapByParent(UInteger.valueOf(parentId)));
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
     /**
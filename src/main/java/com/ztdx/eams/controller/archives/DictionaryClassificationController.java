@@ -2,6 +2,7 @@ package com.ztdx.eams.controller.archives;
 
 import com.ztdx.eams.basic.UserCredential;
 import com.ztdx.eams.basic.exception.ForbiddenException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.archives.application.DictionaryClassificationService;
 import com.ztdx.eams.domain.archives.model.DictionaryClassification;
 import com.ztdx.eams.domain.system.application.PermissionService;
@@ -10,6 +11,7 @@ import com.ztdx.eams.query.ArchivesQuery;
 import org.jooq.types.UInteger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.Map;
 import java.util.Set;
@@ -29,18 +31,22 @@ public class DictionaryClassificationController {
 
     private final PermissionService permissionService;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public DictionaryClassificationController(DictionaryClassificationService dictionaryClassificationService, ArchivesQuery archivesQuery, RoleService roleService, PermissionService permissionService) {
+    public DictionaryClassificationController(DictionaryClassificationService dictionaryClassificationService, ArchivesQuery archivesQuery, RoleService roleService, PermissionService permissionService, TreeCache treeCache) {
         this.dictionaryClassificationService = dictionaryClassificationService;
         this.archivesQuery = archivesQuery;
         this.roleService = roleService;
         this.permissionService = permissionService;
+        this.treeCache = treeCache;
     }
 
     /**
      * @api {get} /dictionaryClassification/treeList 全宗、词典分类树
      * @apiName treeList
      * @apiGroup dictionaryClassification
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiSuccess (Success 200) {String} childrenType 节点类型(1.DictionaryClassification-词典分类;2.Fonds-全宗).
      * @apiSuccess (Success 200) {Object[]} children 子节点信息
      * @apiSuccess (Success 200) {Number} Fonds:id 全宗ID.
@@ -61,15 +67,25 @@ public class DictionaryClassificationController {
      * {"childrenType": "Fonds","id": 全宗ID,"code": "全宗号","name": "全宗名称","parentId": 上级全宗ID,"orderNumber": 排序号,"type": 全宗类型}]}]}}
      */
     @RequestMapping(value = "/treeList", method = RequestMethod.GET)
-    public Map<String, Object> treeList(@SessionAttribute(required = false) UserCredential LOGIN_USER) {
+    public Map<String, Object> treeList(@SessionAttribute(required = false) UserCredential LOGIN_USER, WebRequest request) {
         int userId;
         if (LOGIN_USER != null) {
             userId = LOGIN_USER.getUserId();
         } else {
             throw new ForbiddenException("拒绝访问");
         }
-        Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
-        return archivesQuery.getDictionaryClassificationTreeMap(a -> hasPermission(fondsIds, a));
+        TreeCache.Tree tree = treeCache.get("dictionaryClassification.treeList:" + treeScope(userId), () -> {
+            Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
+            return archivesQuery.getDictionaryClassificationTreeMap(a -> hasPermission(fondsIds, a));
+        });
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
+    }
+
+    private String treeScope(int userId) {
+        return TreeCache.userScope(userId, permissionService.hasAnyAuthority("ROLE_ADMIN"));
     }
 
     private boolean hasPermission(Set<Integer> ids, int id) {
@@ -1,13 +1,17 @@
 package com.ztdx.eams.controller.archives;
 
 import com.ztdx.eams.basic.UserCredential;
+import com.ztdx.eams.basic.config.AsyncConfig;
 import com.ztdx.eams.basic.exception.BusinessException;
 import com.ztdx.eams.basic.exception.EntryValueConverException;
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
 import com.ztdx.eams.basic.exception.NotFoundException;
 import com.ztdx.eams.basic.params.JsonParam;
+import com.ztdx.eams.basic.repository.CursorPage;
+import com.ztdx.eams.basic.utils.ExpiringFileStore;
 import com.ztdx.eams.domain.archives.application.*;
-import com.ztdx.eams.domain.archives.application.task.EntryAsyncTask;
+import com.ztdx.eams.domain.archives.application.task.EntryReindexer;
+import com.ztdx.eams.domain.archives.application.task.IndexOutboxDrainer;
 import com.ztdx.eams.domain.archives.model.*;
 import com.ztdx.eams.domain.archives.model.condition.EntryCondition;
 import com.ztdx.eams.domain.archives.model.entryItem.EntryItemConverter;
@@ -19,19 +23,17 @@ import com.ztdx.eams.domain.store.model.event.BoxInsideChangeEvent;
 import com.ztdx.eams.domain.store.model.event.BoxInsideEvent;
 import com.ztdx.eams.domain.system.application.*;
 import com.ztdx.eams.domain.system.model.Fonds;
-import com.ztdx.eams.domain.system.model.Permission;
 import com.ztdx.eams.domain.system.model.User;
 import com.ztdx.eams.domain.system.model.UserDesItemConf;
 import com.ztdx.eams.query.SystemQuery;
 import org.apache.commons.lang.StringUtils;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.jooq.types.UInteger;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.elasticsearch.core.aggregation.AggregatedPage;
 import org.springframework.scheduling.annotation.Async;
@@ -44,6 +46,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.*;
 import java.net.URLEncoder;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -53,6 +56,9 @@ import java.util.stream.Collectors;
 @RequestMapping(value = "/entry")
 public class EntryController {
 
+    //会话中最近一次导入的错误数据标识
+    private static final String IMPORT_ERROR_TOKEN = "IMPORT_ERROR_TOKEN";
+
     private EntryService entryService;
 
     private DescriptionItemService descriptionItemService;
@@ -69,7 +75,7 @@ public class EntryController {
 
     private OriginalTextService originalTextService;
 
-    private EntryAsyncTask entryAsyncTask;
+    private EntryReindexer entryReindexer;
 
     private BoxService boxService;
 
@@ -87,7 +93,15 @@ public class EntryController {
 
     private UserDesItemConfService userDesItemConfService;
 
-    public EntryController(EntryService entryService, DescriptionItemService descriptionItemService, CatalogueService catalogueService, ArchivesService archivesService, ArchivesGroupService archivesGroupService, FondsService fondsService, ConditionService conditionService, OriginalTextService originalTextService, EntryAsyncTask entryAsyncTask, BoxService boxService, ApplicationContext applicationContext, ContentTypeService contentTypeService, PermissionService permissionService, RoleService roleService, SystemQuery systemQuery,UserService userService,UserDesItemConfService userDesItemConfService) {
+    private IndexOutboxDrainer indexOutboxDrainer;
+
+    private CatalogueMetadataCache catalogueMetadataCache;
+
+    private ExpiringFileStore expiringFileStore;
+
+    private StatisticsRollupService statisticsRollupService;
+
+    public EntryController(EntryService entryService, DescriptionItemService descriptionItemService, CatalogueService catalogueService, ArchivesService archivesService, ArchivesGroupService archivesGroupService, FondsService fondsService, ConditionService conditionService, OriginalTextService originalTextService, EntryReindexer entryReindexer, BoxService boxService, ApplicationContext applicationContext, ContentTypeService contentTypeService, PermissionService permissionService, RoleService roleService, SystemQuery systemQuery,UserService userService,UserDesItemConfService userDesItemConfService, IndexOutboxDrainer indexOutboxDrainer, CatalogueMetadataCache catalogueMetadataCache, ExpiringFileStore expiringFileStore, StatisticsRollupService statisticsRollupService) {
         this.entryService = entryService;
         this.descriptionItemService = descriptionItemService;
         this.catalogueService = catalogueService;
@@ -96,7 +110,7 @@ public class EntryController {
         this.fondsService = fondsService;
         this.conditionService = conditionService;
         this.originalTextService = originalTextService;
-        this.entryAsyncTask = entryAsyncTask;
+        this.entryReindexer = entryReindexer;
         this.boxService = boxService;
         this.applicationContext = applicationContext;
         this.contentTypeService = contentTypeService;
@@ -105,6 +119,10 @@ public class EntryController {
         this.systemQuery = systemQuery;
         this.userService = userService;
         this.userDesItemConfService = userDesItemConfService;
+        this.indexOutboxDrainer = indexOutboxDrainer;
+        this.catalogueMetadataCache = catalogueMetadataCache;
+        this.expiringFileStore = expiringFileStore;
+        this.statisticsRollupService = statisticsRollupService;
     }
 
     /**
@@ -296,6 +314,8 @@ public class EntryController {
      * @apiParam {Number} [page] 页码(QueryString)
      * @apiParam {Number} [size] 页行数(QueryString)
      * @apiParam {Number} [isDeleted] 是否为回收站数据(默认为0，查询回收站数据传1)(QueryString)
+     * @apiParam {String} [after] 分页游标(QueryString)，传上一页返回的cursor取下一页，深度翻页时使用
+     * @apiParam {Boolean} [hydrate] 是否从数据库加载完整条目(默认false，直接返回索引中用户显示列的数据)(QueryString)
      * @apiSuccess (Success 200) {Array} content 列表内容
      * @apiSuccess (Success 200) {Number} content.id 条目id
      * @apiSuccess (Success 200) {Number} content.catalogueId 目录id
@@ -318,6 +338,7 @@ public class EntryController {
      * @apiSuccess (Success 200) {Number} totalElements 总行数
      * @apiSuccess (Success 200) {Number} totalPages 总页数
      * @apiSuccess (Success 200) {Number} innerCatalogueId 卷内目录id
+     * @apiSuccess (Success 200) {String} cursor 下一页的分页游标，没有下一页时为空
      * @apiSuccessExample {json} Success-Response:
      * {
      * "data":{
@@ -380,8 +401,11 @@ public class EntryController {
             , @RequestParam(value = "q", required = false, defaultValue = "") String queryString
             , @RequestParam(value = "page", required = false, defaultValue = "0") int page
             , @RequestParam(value = "size", required = false, defaultValue = "20") int size
-            , @RequestParam(value = "isDeleted", required = false, defaultValue = "0") int isDeleted) {
-        Page<Entry> content = entryService.search(catalogueId, queryString, null, PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "gmtCreate")), isDeleted);
+            , @RequestParam(value = "isDeleted", required = false, defaultValue = "0") int isDeleted
+            , @RequestParam(value = "after", required = false) String after
+            , @RequestParam(value = "hydrate", required = false, defaultValue = "false") boolean hydrate) {
+        Page<Entry> content = search(LOGIN_USER.getUserId(), catalogueId, queryString, null, null
+                , PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "gmtCreate")), isDeleted, after, hydrate);
 
         return getSearchMap(LOGIN_USER.getUserId(), catalogueId, content);
     }
@@ -396,6 +420,8 @@ public class EntryController {
      * @apiParam {Number} [page] 页码(QueryString)
      * @apiParam {Number} [size] 页行数(QueryString)
      * @apiParam {Number} [isDeleted] 是否为回收站数据(默认为0，查询回收站数据传1)(QueryString)
+     * @apiParam {String} [after] 分页游标(QueryString)，传上一页返回的cursor取下一页，深度翻页时使用
+     * @apiParam {Boolean} [hydrate] 是否从数据库加载完整条目(默认false，直接返回索引中用户显示列的数据)(QueryString)
      * @apiSuccess (Success 200) {Array} content 列表内容
      * @apiSuccess (Success 200) {Number} content.id 条目id
      * @apiSuccess (Success 200) {Number} content.catalogueId 目录id
@@ -414,6 +440,7 @@ public class EntryController {
      * @apiSuccess (Success 200) {String} column.metadataName 字段名称
      * @apiSuccess (Success 200) {String} column.displayName 字段显示名称
      * @apiSuccess (Success 200) {Number} column.width 字段列表宽度
+     * @apiSuccess (Success 200) {String} cursor 下一页的分页游标，没有下一页时为空
      * @apiSuccessExample {json} Success-Response:
      * {
      * "data":{
@@ -473,22 +500,42 @@ public class EntryController {
             , @RequestParam(value = "q", required = false, defaultValue = "") String queryString
             , @RequestParam(value = "page", required = false, defaultValue = "0") int page
             , @RequestParam(value = "size", required = false, defaultValue = "20") int size
-            , @RequestParam(value = "isDeleted", required = false, defaultValue = "0") int isDeleted) {
+            , @RequestParam(value = "isDeleted", required = false, defaultValue = "0") int isDeleted
+            , @RequestParam(value = "after", required = false) String after
+            , @RequestParam(value = "hydrate", required = false, defaultValue = "false") boolean hydrate) {
         Catalogue folderFile = catalogueService.getFolderFileCatalogueByFolderCatalogueId(catalogueId);
         if (folderFile == null) {
             throw new InvalidArgumentException("卷内目录未找到");
         }
-        Page<Entry> content = entryService.search(
-                folderFile.getId()
+        Page<Entry> content = search(
+                LOGIN_USER.getUserId()
+                , folderFile.getId()
                 , queryString
                 , null
                 , parentId
-                , null
-                , PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "gmtCreate")), isDeleted);
+                , PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "gmtCreate")), isDeleted, after, hydrate);
 
         return getSearchMap(LOGIN_USER.getUserId(), catalogueId, content);
     }
 
+    /**
+     * 默认直接返回索引中用户显示列的数据，hydrate时从mongo加载完整条目
+     */
+    private Page<Entry> search(int userId, int catalogueId, String queryString, QueryBuilder itemQuery, String parentId, Pageable pageable, int isDeleted, String after, boolean hydrate) {
+        if (hydrate) {
+            return entryService.search(catalogueId, queryString, itemQuery, parentId, null, pageable, isDeleted, after);
+        }
+        List<String> columns = getColumns(userId, catalogueId).stream()
+                .map(a -> (String) a.get("metadataName"))
+                .collect(Collectors.toList());
+        return entryService.searchSource(catalogueId, queryString, itemQuery, parentId, null, pageable, isDeleted, columns, after);
+    }
+
+    private List<Map<String, Object>> getColumns(int userId, int catalogueId) {
+        return catalogueMetadataCache.get(catalogueId).getColumns(userId,
+                () -> systemQuery.getUserDesItemConfByCatalogueId(UInteger.valueOf(catalogueId), UInteger.valueOf(userId)));
+    }
+
     private Map<String, Object> getSearchMap(int userId, int catalogueId, Page<Entry> content) {
 //        Map<String, Map<String, Object>> list = descriptionItemService.list(catalogueId, a -> {
 //            Map<String, Object> result = new HashMap<>();
@@ -508,10 +555,9 @@ public class EntryController {
 //                }
 //            });
 //        });
-        List<Map<String, Object>> list = systemQuery.getUserDesItemConfByCatalogueId(UInteger.valueOf(catalogueId), UInteger.valueOf(userId));
-
+        List<Map<String, Object>> list = getColumns(userId, catalogueId);
 
-        Catalogue folderFileCatalogue = catalogueService.getFolderFileCatalogueByFolderCatalogueId(catalogueId);
+        Catalogue folderFileCatalogue = catalogueMetadataCache.get(catalogueId).getFolderFileCatalogue();
 
         Map<String, Object> result = new HashMap<>();
         result.put("content", content.getContent());
@@ -521,6 +567,9 @@ public class EntryController {
         if (folderFileCatalogue != null) {
             result.put("innerCatalogueId", folderFileCatalogue.getId());
         }
+        if (content instanceof CursorPage) {
+            result.put("cursor", ((CursorPage<Entry>) content).getCursor());
+        }
         return result;
     }
 
@@ -531,6 +580,8 @@ public class EntryController {
      * @apiParam {String} q 关键字(QueryString)
      * @apiParam {Number} page 页码(QueryString)
      * @apiParam {Number} size 页行数(QueryString)
+     * @apiParam {String} [after] 分页游标(QueryString)，传上一页返回的cursor取下一页，深度翻页时使用
+     * @apiParam {Boolean} [hydrate] 是否从数据库加载完整条目(默认false，直接返回索引中用户显示列的数据)(QueryString)
      * @apiParam {String} cid 档案目录id
      * @apiParam {Object[]} conditions 条件数组
      * @apiParam {String="and","or"} conditions.logical 逻辑操作符。第一个条件可以为空。
@@ -657,9 +708,12 @@ public class EntryController {
             , @RequestBody EntryCondition entryCondition
             , @RequestParam("q") String queryString
             , @RequestParam("page") int page
-            , @RequestParam("size") int size) {
+            , @RequestParam("size") int size
+            , @RequestParam(value = "after", required = false) String after
+            , @RequestParam(value = "hydrate", required = false, defaultValue = "false") boolean hydrate) {
         QueryBuilder query = conditionService.convert2ElasticsearchQuery(entryCondition.getCatalogueId(), entryCondition.getConditions());
-        Page<Entry> content = entryService.search(entryCondition.getCatalogueId(), queryString, query, PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "gmtCreate")), 0);
+        Page<Entry> content = search(LOGIN_USER.getUserId(), entryCondition.getCatalogueId(), queryString, query, null
+                , PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "gmtCreate")), 0, after, hydrate);
         return getSearchMap(LOGIN_USER.getUserId(), entryCondition.getCatalogueId(), content);
     }
 
@@ -670,11 +724,14 @@ public class EntryController {
      * @apiParam {String} boxId 盒id(QueryString)
      * @apiParam {Number} page 页码(QueryString)
      * @apiParam {Number} size 页行数(QueryString)
+     * @apiParam {String} [after] 分页游标(QueryString)，传上一页返回的cursor取下一页，深度翻页时使用
+     * @apiParam {Boolean} [withTotal] 是否统计总数(默认true)，按游标翻页不需要总数时传false(QueryString)
      * @apiSuccess (Success 200) {Array} content 列表内容
      * @apiSuccess (Success 200) {Number} content.id 条目id
      * @apiSuccess (Success 200) {Number} content.title 标题
      * @apiSuccess (Success 200) {Number=1,2,3} content.danghao 档号
-     * @apiSuccess (Success 200) {Number} totalElements 总元素数
+     * @apiSuccess (Success 200) {Number} totalElements 总元素数，withTotal为false时没有
+     * @apiSuccess (Success 200) {String} cursor 下一页的分页游标，没有下一页时为空
      * @apiSuccessExample {json} Success-Response:
      * {
      * "data":{
@@ -694,7 +751,9 @@ public class EntryController {
     public Map<String, Object> searchByBox(
             @RequestParam(value = "boxId") int boxId
             , @RequestParam(value = "page", required = false, defaultValue = "0") int page
-            , @RequestParam(value = "size", required = false, defaultValue = "20") int size) {
+            , @RequestParam(value = "size", required = false, defaultValue = "20") int size
+            , @RequestParam(value = "after", required = false) String after
+            , @RequestParam(value = "withTotal", required = false, defaultValue = "true") boolean withTotal) {
 
         Box box = boxService.get(boxId);
 
@@ -721,7 +780,14 @@ public class EntryController {
                 , null
                 , PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "gmtCreate")));*/
 
-        Page<Entry> content = entryService.listInBox(catalogue.getId(), box.getCode(), PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "gmtCreate")));
+        //第一页和带游标的请求按游标分页，其它页码仍按页码跳过
+        Sort sort = Sort.by(Sort.Direction.DESC, "gmtCreate");
+        Page<Entry> content;
+        if (after != null || page == 0) {
+            content = entryService.listInBox(catalogue.getId(), box.getCode(), sort, after, size, withTotal);
+        } else {
+            content = entryService.listInBox(catalogue.getId(), box.getCode(), PageRequest.of(page, size, sort));
+        }
 
         DescriptionItem titleItem = descriptionItemService.findByCatalogueIdAndPropertyType(catalogue.getId(), PropertyType.Title);
 
@@ -746,8 +812,13 @@ public class EntryController {
 
         Map<String, Object> result = new HashMap<>();
         result.put("content", maps);
-        result.put("totalElements", content.getTotalElements());
-        result.put("totalPages", content.getTotalPages());
+        if (!(content instanceof CursorPage) || ((CursorPage<Entry>) content).isTotalKnown()) {
+            result.put("totalElements", content.getTotalElements());
+            result.put("totalPages", content.getTotalPages());
+        }
+        if (content instanceof CursorPage) {
+            result.put("cursor", ((CursorPage<Entry>) content).getCursor());
+        }
         return result;
     }
 
@@ -1017,19 +1088,15 @@ public class EntryController {
     }
 
     private Collection<Integer> getHasPermissionCatalogueIds(int userId) {
-        List<Catalogue> catalogues = catalogueService.list(2);
-        List<Integer> ids = catalogues.stream().map(Catalogue::getId).collect(Collectors.toList());
+        //档案库和目录变更时缓存失效，检索时不再查询MySQL
+        List<Integer> ids = catalogueMetadataCache.getCatalogueIds(2);
         if (permissionService.hasAnyAuthority("ROLE_ADMIN")) {
             return ids;
         }
 
-        List<Permission> permissions = roleService.listUserPermissionSimple(userId);
-        List<Integer> mainCatalogueIds = permissions.stream()
-                .filter(a -> a.getArchiveId() != null
-                        && a.getResourceUrl() != null
-                        && a.getResourceUrl().equals("archive_file_search_" + a.getArchiveId()))
-                .map(Permission::getArchiveId).collect(Collectors.toList());
-        mainCatalogueIds.retainAll(ids);
+        //有检索权限的目录id直接取自权限快照
+        List<Integer> mainCatalogueIds = permissionService.currentPermission().ids("archive_file_search_");
+        mainCatalogueIds.retainAll(new HashSet<>(ids));
         return mainCatalogueIds;
     }
 
@@ -1303,11 +1370,88 @@ public class EntryController {
         return result;
     }
 
-    @RequestMapping(value = "/test/{id}", method = RequestMethod.GET)
-    public void test(@PathVariable("id") String id) {
-        entryAsyncTask.test(id);
-        //entryService.groupCountPageCountByBox(Collections.singletonList("222"), 7);
-        //Object a = entryService.groupByBox(Collections.singletonList("222"), 7);
+    /**
+     * @api {get} /entry/indexBacklog 条目索引积压情况
+     * @apiName indexBacklog
+     * @apiGroup entry
+     * @apiSuccess (Success 200) {Number} count 待索引条目数
+     * @apiSuccess (Success 200) {Date} oldest 最早待索引变更时间
+     * @apiSuccess (Success 200) {Number} lag 索引延迟(毫秒)
+     * @apiSuccess (Success 200) {Number} retrying 失败重试中的条目数
+     * @apiSuccessExample {json} Response-Example:
+     * {
+     * "data": {
+     * "count": 120,
+     * "oldest": "2018-08-20 10:00:00",
+     * "lag": 3500,
+     * "retrying": 0
+     * }
+     * }
+     */
+    @RequestMapping(value = "/indexBacklog", method = RequestMethod.GET)
+    public Map<String, Object> indexBacklog() {
+        return indexOutboxDrainer.backlogStatus();
+    }
+
+    /**
+     * @api {post} /entry/reindex 重建条目索引
+     * @apiName reindex
+     * @apiGroup entry
+     * @apiParam {Array} catalogueIds 目录id集合，为空时重建所有目录.
+     * @apiParam {Boolean} incremental 是否增量重建(只重建修改时间晚于索引时间的条目)，默认false.
+     * @apiDescription 全量重建按当前的索引设置和映射创建新索引，旧索引通过全量重建迁移(如包含查询用的n-gram分词)，迁移前包含查询使用通配符.
+     * @apiParamExample {json} Request-Example:
+     * {
+     * "catalogueIds":[10,11],
+     * "incremental":false
+     * }
+     */
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @RequestMapping(value = "/reindex", method = RequestMethod.POST)
+    public void reindex(@JsonParam List<Integer> catalogueIds, @JsonParam Boolean incremental) {
+        if (catalogueIds == null || catalogueIds.isEmpty()) {
+            catalogueIds = catalogueService.getAll().stream().map(Catalogue::getId).collect(Collectors.toList());
+        }
+        if (incremental != null && incremental) {
+            entryReindexer.rebuildIncremental(catalogueIds);
+        } else {
+            entryReindexer.rebuild(catalogueIds);
+        }
+    }
+
+    /**
+     * @api {get} /entry/reindex 条目索引重建进度
+     * @apiName reindexStatus
+     * @apiGroup entry
+     * @apiParam {Array} catalogueIds 目录id集合，为空时返回所有目录.
+     * @apiSuccess (Success 200) {Array} items 重建任务列表.
+     * @apiSuccess (Success 200) {Number} items.catalogueId 目录id
+     * @apiSuccess (Success 200) {String} items.targetIndex 新索引名
+     * @apiSuccess (Success 200) {Number} items.slices 分片数
+     * @apiSuccess (Success 200) {String} items.status 状态(running 进行中 done 完成 failed 失败)
+     * @apiSuccess (Success 200) {Number} items.entryCount 已写入条目数
+     * @apiSuccess (Success 200) {Number} items.originalTextCount 已写入原文数
+     * @apiSuccess (Success 200) {String} items.message 错误信息
+     * @apiSuccessExample {json} Response-Example:
+     * {
+     * "data": {
+     * "items": [{
+     * "catalogueId": 10,
+     * "targetIndex": "archive_record-10-20180820100000",
+     * "slices": 4,
+     * "status": "running",
+     * "entryCount": 12000,
+     * "originalTextCount": 3000,
+     * "message": null
+     * }]
+     * }
+     * }
+     */
+    @RequestMapping(value = "/reindex", method = RequestMethod.GET)
+    public Map<String, Object> reindexStatus(@RequestParam(value = "catalogueIds", required = false) List<Integer> catalogueIds) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("items", entryReindexer.status(catalogueIds));
+        return result;
     }
 
     /**
@@ -1698,13 +1842,14 @@ public class EntryController {
             throw new InvalidArgumentException("归档目录id不存在");
         }
 
-        int page = 0;
+        String after = null;
         int size = 100;
-        Page<OriginalText> mainOriginalTexts;
+        CursorPage<OriginalText> mainOriginalTexts;
 
         Map<String, String> result = new HashMap<>();
         do {
-            mainOriginalTexts = originalTextService.scroll(archivingAll, srcId, srcData, originalType, page++, size);
+            mainOriginalTexts = originalTextService.scroll(archivingAll, srcId, srcData, originalType, after, size);
+            after = mainOriginalTexts.getCursor();
             if (mainOriginalTexts.getNumberOfElements() == 0) {
                 return result;
             }
@@ -1766,18 +1911,19 @@ public class EntryController {
                 .findFirst()
                 .ifPresent(titleField::set);
 
-        int page = 0;
+        String after = null;
         int size = 100;
-        Page<Entry> entries;
+        CursorPage<Entry> entries;
 
         Map<String, String> result = new HashMap<>();
         do {
             //归档条目
             if (archivingAll || parentDataMap == null) {
-                entries = entryService.scrollEntry(archivingAll, srcId, srcData, page++, size);
+                entries = entryService.scrollEntry(archivingAll, srcId, srcData, after, size);
             } else {
-                entries = entryService.scrollSubEntry(srcId, parentDataMap.keySet(), page++, size);
+                entries = entryService.scrollSubEntry(srcId, parentDataMap.keySet(), after, size);
             }
+            after = entries.getCursor();
             if (entries.getNumberOfElements() == 0) {
                 return result;
             }
@@ -1849,9 +1995,10 @@ public class EntryController {
             throw new InvalidArgumentException("盒不存在");
         }
 
-        entryService.inBox(catalogueId, ids, boxCode);
+        Set<String> boxCodes = entryService.inBox(catalogueId, ids, boxCode);
+        boxCodes.add(boxCode);
 
-        applicationContext.publishEvent(new BoxInsideChangeEvent(this, catalogueId, catalogue.getArchivesId(), Collections.singletonList(boxCode)));
+        applicationContext.publishEvent(new BoxInsideChangeEvent(this, catalogueId, catalogue.getArchivesId(), boxCodes));
     }
 
     /**
@@ -1887,6 +2034,8 @@ public class EntryController {
      * @apiParam {Number} fondsId 全宗号（url参数）
      * @apiParam {Number} beginYear 起始年度（url参数）
      * @apiParam {Number} endYear 截止年度（url参数）
+     * @apiSuccess (Success 200) {Number} items.pages 页数合计
+     * @apiSuccess (Success 200) {Number} updatedAt 统计汇总的更新时间，从未生成汇总时为空
      * @apiSuccessExample {json} Response-Example
      * {
      * "items": [
@@ -1896,7 +2045,8 @@ public class EntryController {
      * "合计": 122,
      * "name": "文书档案",
      * "其他": 116,
-     * "短期": 2
+     * "短期": 2,
+     * "pages": 1560
      * },
      * {
      * "永久": 15,
@@ -1904,17 +2054,19 @@ public class EntryController {
      * "合计": 135,
      * "name": "科研档案",
      * "其他": 80,
-     * "短期": 10
+     * "短期": 10,
+     * "pages": 2210
      * }
      * ],
-     * "fields":["永久","长期","合计","其他","短期"]
+     * "fields":["永久","长期","合计","其他","短期"],
+     * "updatedAt": 1539840000000
      * }
      */
     @RequestMapping(value = "/statisticsTypeTerm", method = RequestMethod.GET)
     public Map<String, Object> statisticsTypeTerm(@RequestParam("fondsId") int fondsId
             , @RequestParam(name = "beginYear", defaultValue = "2000", required = false) int beginYear
             , @RequestParam(name = "endYear", defaultValue = "2050", required = false) int endYear) {
-        return entryService.statisticsTypeTerm(fondsId, beginYear, endYear);
+        return statisticsRollupService.statisticsTypeTerm(fondsId, beginYear, endYear);
     }
 
     /**
@@ -1924,6 +2076,8 @@ public class EntryController {
      * @apiParam {Number} fondsId 全宗号（url参数）
      * @apiParam {Number} beginYear 起始年度（url参数）
      * @apiParam {Number} endYear 截止年度（url参数）
+     * @apiSuccess (Success 200) {Number} items.pages 页数合计
+     * @apiSuccess (Success 200) {Number} updatedAt 统计汇总的更新时间，从未生成汇总时为空
      * @apiSuccessExample {json} Response-Example
      * {
      * "items": [
@@ -1933,7 +2087,8 @@ public class EntryController {
      * "科研档案": 3,
      * "合计": 122,
      * "设备档案": 116,
-     * "产品档案": 2
+     * "产品档案": 2,
+     * "pages": 1560
      * },
      * {
      * "name": "2012",
@@ -1941,17 +2096,36 @@ public class EntryController {
      * "科研档案": 30,
      * "合计": 135,
      * "设备档案": 80,
-     * "产品档案": 10
+     * "产品档案": 10,
+     * "pages": 2210
      * }
      * ],
-     * "fields":["文书档案","科研档案","合计","设备档案","产品档案"]
+     * "fields":["文书档案","科研档案","合计","设备档案","产品档案"],
+     * "updatedAt": 1539840000000
      * }
      */
     @RequestMapping(value = "/statisticsTypeYear", method = RequestMethod.GET)
     public Map<String, Object> statisticsTypeYear(@RequestParam("fondsId") int fondsId
             , @RequestParam(name = "beginYear", defaultValue = "2000", required = false) int beginYear
             , @RequestParam(name = "endYear", defaultValue = "2050", required = false) int endYear) {
-        return entryService.statisticsTypeYear(fondsId, beginYear, endYear);
+        return statisticsRollupService.statisticsTypeYear(fondsId, beginYear, endYear);
+    }
+
+    /**
+     * @api {post} /entry/statisticsRollup 重算统计汇总
+     * @apiName statisticsRollup
+     * @apiGroup entry
+     * @apiDescription 后台按现有条目重算全部目录的统计汇总，目录著录项或档案库内容类型变更后执行.
+     * @apiSuccess (Success 200) {Boolean} started 是否已开始重算，已在重算时为false
+     * @apiSuccess (Success 200) {Number} updatedAt 统计汇总的更新时间
+     */
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @RequestMapping(value = "/statisticsRollup", method = RequestMethod.POST)
+    public Map<String, Object> statisticsRollup() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("started", statisticsRollupService.recomputeAll());
+        result.put("updatedAt", statisticsRollupService.updatedAt());
+        return result;
     }
 
     /**
@@ -1962,23 +2136,16 @@ public class EntryController {
      */
 //    @PreAuthorize("hasAnyRole('ADMIN') || hasAnyAuthority('archive_entry_read_' + #entry.catalogueId)")
     @RequestMapping(value = "/excelTemplate", method = RequestMethod.GET)
-    public void excelTemplate(@RequestParam("catalogueId") int catalogueId, HttpServletResponse response) {
-        XSSFWorkbook wb = entryService.excelTemplate(catalogueId);
-
+    public void excelTemplate(@RequestParam("catalogueId") int catalogueId, HttpServletResponse response) throws IOException {
         String fileName = archivesService.findArchivesNameByCatalogue_CatalogueId(catalogueId);
 
-        try {
-            response.setContentType("application/octet-stream");
-            response.setHeader("content-type", "application/octet-stream");
-            response.setHeader("Content-Disposition", "attachment;filename=" + URLEncoder.encode(fileName, "UTF-8"));
-
-            OutputStream os = response.getOutputStream();
-            wb.write(os);
-            os.flush();
-            os.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        response.setContentType("application/octet-stream");
+        response.setHeader("content-type", "application/octet-stream");
+        response.setHeader("Content-Disposition", "attachment;filename=" + URLEncoder.encode(fileName, "UTF-8"));
+
+        OutputStream os = response.getOutputStream();
+        entryService.excelTemplate(catalogueId, os);
+        os.flush();
     }
 
     /**
@@ -1987,7 +2154,9 @@ public class EntryController {
      * @apiGroup entry
      * @apiParam {Number} catalogueId 目录ID
      * @apiParam {File} file Excel文件
+     * @apiSuccess {Number} total 导入记录数
      * @apiSuccess {Number} errorTotal 错误记录数
+     * @apiSuccess {String} errorToken 错误数据标识，有错误时返回，用于获取导入错误数据
      */
 //    @PreAuthorize("hasAnyRole('ADMIN') || hasAnyAuthority('archive_entry_write_' + #entry.catalogueId)")
     @RequestMapping(value = "/importEntry", method = RequestMethod.POST)
@@ -1995,54 +2164,23 @@ public class EntryController {
             , @RequestParam("file") MultipartFile file
             , @SessionAttribute UserCredential LOGIN_USER
             , HttpSession session) {
-        //先存入本地
-        File tmpFile = new File(file.getOriginalFilename());
-        FileOutputStream fos = null;
-        BufferedOutputStream bos = null;
+        //先存入本地临时文件
+        File tmpFile = null;
         try {
-            byte[] bytes = file.getBytes();
-            fos = new FileOutputStream(tmpFile);
-            bos = new BufferedOutputStream(fos);
-            bos.write(bytes);
-            bos.flush();
-
-            XSSFWorkbook wb = entryService.importEntry(catalogueId, tmpFile, LOGIN_USER.getUserId());
-//            List<List<String>> errorData  = entryService.importEntry(catalogueId, tmpFile, LOGIN_USER.getUserId());
-
-            int errorTotal = 0;
-            if (wb != null) {
-                session.setAttribute("IMPORT_ERROR_DATA", wb);
-                Iterator<Sheet> iterator = wb.sheetIterator();
-                while (iterator.hasNext()) {
-                    errorTotal += iterator.next().getLastRowNum() - 1;
-                }
-            }
+            tmpFile = File.createTempFile("import-", ".xlsx");
+            file.transferTo(tmpFile);
 
-            Map<String, Object> resultMap = new HashMap<>();
-            resultMap.put("errorTotal", errorTotal);
-//            resultMap.put("errorData", errorData);
+            Map<String, Object> resultMap = entryService.importEntry(catalogueId, tmpFile, LOGIN_USER.getUserId());
 
+            //会话中只保留最近一次的错误数据标识
+            expiringFileStore.remove((String) session.getAttribute(IMPORT_ERROR_TOKEN));
+            session.setAttribute(IMPORT_ERROR_TOKEN, resultMap.get("errorToken"));
             return resultMap;
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new BusinessException("文件上传失败");
+        } catch (IOException e) {
+            throw new BusinessException("文件上传失败", e);
         } finally {
-            if (bos != null) {
-                try {
-                    bos.close();
-                } catch (IOException e) {
-                    throw new BusinessException("文件传输流未关闭");
-                }
-            }
-            if (fos != null) {
-                try {
-                    fos.close();
-                } catch (IOException e) {
-                    throw new BusinessException("文件传输流未关闭");
-                }
-            }
             //删除本地临时文件
-            if (tmpFile.exists()) {
+            if (tmpFile != null && tmpFile.exists()) {
                 tmpFile.delete();
             }
         }
@@ -2052,53 +2190,58 @@ public class EntryController {
      * @api {get} /entry/importErrorData 获取导入错误数据
      * @apiName importErrorData
      * @apiGroup entry
+     * @apiParam {String} [token] 导入返回的错误数据标识，为空时取本会话最近一次导入的错误数据
+     * @apiError (Error 404) message 错误数据不存在或已过期
      */
     @RequestMapping(value = "/importErrorData", method = RequestMethod.GET)
-    public void importErrorData(@SessionAttribute XSSFWorkbook IMPORT_ERROR_DATA, HttpServletResponse response) {
-
-        try {
-            response.setContentType("application/octet-stream");
-            response.setHeader("content-type", "application/octet-stream");
-            response.setHeader("Content-Disposition", "attachment;filename=" + URLEncoder.encode("错误数据", "UTF-8"));
-
-            OutputStream os = response.getOutputStream();
-            IMPORT_ERROR_DATA.write(os);
-            os.flush();
-            os.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public void importErrorData(@RequestParam(value = "token", required = false) String token
+            , @SessionAttribute UserCredential LOGIN_USER
+            , HttpSession session
+            , HttpServletResponse response) throws IOException {
+        if (token == null) {
+            token = (String) session.getAttribute(IMPORT_ERROR_TOKEN);
         }
+        File errorFile = expiringFileStore.get(token, LOGIN_USER.getUserId());
+        if (errorFile == null || !errorFile.exists()) {
+            throw new NotFoundException("错误数据不存在或已过期");
+        }
+
+        response.setContentType("application/octet-stream");
+        response.setHeader("content-type", "application/octet-stream");
+        response.setHeader("Content-Disposition", "attachment;filename=" + URLEncoder.encode("错误数据", "UTF-8"));
+        response.setContentLengthLong(errorFile.length());
+
+        OutputStream os = response.getOutputStream();
+        Files.copy(errorFile.toPath(), os);
+        os.flush();
     }
 
 
-    @Async
+    @Async(AsyncConfig.BOX_EXECUTOR)
     @EventListener
     @Transactional
     public void resetBoxCount(BoxInsideChangeEvent boxInsideChangeEvent) throws InterruptedException {
-        System.out.println("处理盒变更事件");
         int catalogueId = boxInsideChangeEvent.getCatalogueId();
         int archiveId = boxInsideChangeEvent.getArchiveId();
         Collection<String> boxCodes = boxInsideChangeEvent.getBoxCodes();
-        Map<String, GroupCount> list =
-                entryService.groupCountPageCountByBox(boxCodes, catalogueId)
-                        .stream().collect(Collectors.toMap(a -> a.key, a -> a));
+        if (boxCodes == null || boxCodes.isEmpty()) {
+            return;
+        }
+
+        //页数按盒号聚合，件数先取盒内条目再一次聚合各条目的原文数，不再逐盒查询
+        List<GroupCount> pageCounts = entryService.groupCountPageCountByBox(boxCodes, catalogueId);
+        Map<String, Integer> pages = pageCounts == null ? Collections.emptyMap()
+                : pageCounts.stream().collect(Collectors.toMap(a -> a.key, a -> a.count));
 
         Map<String, List<String>> group = entryService.groupByBox(boxCodes, catalogueId);
+        List<String> entryIds = group.values().stream().flatMap(Collection::stream).collect(Collectors.toList());
+        Map<String, Integer> originalTexts = entryIds.isEmpty() ? Collections.emptyMap()
+                : originalTextService.countGroupByEntryId(catalogueId, entryIds);
 
-        boxCodes.forEach(a -> {
-            int files = 0;
-            int pages = 0;
-            GroupCount groupCount = list.getOrDefault(a, null);
-            if (groupCount != null) {
-                pages = groupCount.count;
-            }
-            //TODO @lijie 优化到循环外面
-            List<String> boxIds = group.getOrDefault(a, null);
-            if (boxIds != null && boxIds.size() > 0) {
-                files = originalTextService.countByCatalogueIdAndEntryIdIn(catalogueId, boxIds);
-            }
-            boxService.updateTotal(a, archiveId, pages, files);
-        });
+        Map<String, Integer> files = new HashMap<>();
+        group.forEach((boxCode, ids) -> files.put(boxCode, ids.stream().mapToInt(a -> originalTexts.getOrDefault(a, 0)).sum()));
+
+        boxService.updateTotals(archiveId, boxCodes, pages, files);
     }
 
     @EventListener
@@ -2116,8 +2259,9 @@ public class EntryController {
             throw new InvalidArgumentException("盒不存在");
         }
 
-        entryService.inBox(catalogueId, ids, boxCode);
-        applicationContext.publishEvent(new BoxInsideChangeEvent(this, catalogueId, catalogue.getArchivesId(), Collections.singletonList(boxCode)));
+        Set<String> boxCodes = entryService.inBox(catalogueId, ids, boxCode);
+        boxCodes.add(boxCode);
+        applicationContext.publishEvent(new BoxInsideChangeEvent(this, catalogueId, catalogue.getArchivesId(), boxCodes));
     }
 
     @EventListener
@@ -2129,7 +2273,7 @@ public class EntryController {
         }
     }
 
-    @Async
+    @Async(AsyncConfig.BOX_EXECUTOR)
     @EventListener
     public void entryUnBox(BoxDeleteEvent boxDeleteEvent) {
 
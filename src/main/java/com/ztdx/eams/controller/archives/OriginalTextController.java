@@ -48,6 +48,7 @@ public class OriginalTextController {
      * @apiParam {String} version 文件版本(form-data参数)
      * @apiParam {String} remark 备注(form-data参数)
      * @apiParam {File} file 原文文件(form-data参数)
+     * @apiParam {String} [md5] 原文文件MD5(form-data参数)，用于校验上传的文件，不一致时上传失败
      * @apiError (Error 400) message 1.全宗档案库不存在;2.条目不存在;3.原文文件未上传.
      * @apiError (Error 500) message 1.文件上传失败;2.未连接到ftp服务;3.ftp服务未正常关闭.4.文件传输流未关闭.
      * @apiUse ErrorExample
@@ -62,7 +63,7 @@ public class OriginalTextController {
         originalText.setType(Integer.parseInt(request.getParameter("type")));
         originalText.setVersion(request.getParameter("version"));
         originalText.setRemark(request.getParameter("remark"));
-        originalText = originalTextService.save(originalText, file);
+        originalText = originalTextService.save(originalText, file, request.getParameter("md5"));
         originalTextService.placeOnFile(originalText);
     }
 
@@ -101,6 +102,7 @@ public class OriginalTextController {
      * @apiParam {String} version 文件版本(form-data参数)
      * @apiParam {String} remark 备注(form-data参数)
      * @apiParam {File} file 原文文件(form-data参数)
+     * @apiParam {String} [md5] 原文文件MD5(form-data参数)，用于校验上传的文件，不一致时上传失败
      * @apiError (Error 400) message 全宗档案库不存在
      * @apiError (Error 500) message 1.文件上传失败;2.未连接到ftp服务;3.ftp服务未正常关闭;4.文件传输流未关闭.
      * @apiUse ErrorExample
@@ -116,7 +118,7 @@ public class OriginalTextController {
         originalText.setType(Integer.parseInt(request.getParameter("type")));
         originalText.setVersion(request.getParameter("version"));
         originalText.setRemark(request.getParameter("remark"));
-        originalText = originalTextService.update(originalText, file);
+        originalText = originalTextService.update(originalText, file, request.getParameter("md5"));
         if (null != originalText) {
             originalTextService.placeOnFile(originalText);
         }
@@ -165,13 +167,15 @@ public class OriginalTextController {
      * @apiGroup originalText
      * @apiParam {Number} catalogueId 目录ID(url参数)
      * @apiParam {String} id 原文ID(url参数)
+     * @apiHeader {String} [Range] 分段下载范围，如bytes=0-1023，返回206及Content-Range
+     * @apiHeader {String} [If-Range] 文件的ETag，不匹配时返回完整文件
      * @apiError (Error 400) message 1.全宗档案库不存在;2.文件下载失败;3.ftp服务未正常关闭;4.文件传输流未关闭.
      * @apiUse ErrorExample
      */
     @PreAuthorize("hasAnyRole('ADMIN') || hasAnyAuthority('archive_file_read_' + #catalogueId, 'object_original_text_download_' + #id)")
     @RequestMapping(value = "/download", method = RequestMethod.GET)
-    public void download(@RequestParam("catalogueId") int catalogueId, @RequestParam("id") String id, HttpServletResponse response) {
-        originalTextService.fileDownload(1, catalogueId, id, response);
+    public void download(@RequestParam("catalogueId") int catalogueId, @RequestParam("id") String id, HttpServletRequest request, HttpServletResponse response) {
+        originalTextService.fileDownload(1, catalogueId, id, request, response);
     }
 
     /**
@@ -180,13 +184,38 @@ public class OriginalTextController {
      * @apiGroup originalText
      * @apiParam {Number} catalogueId 目录ID(url参数)
      * @apiParam {String} id 原文ID(url参数)
+     * @apiHeader {String} [Range] 分段下载范围，如bytes=0-1023，返回206及Content-Range
+     * @apiHeader {String} [If-Range] 文件的ETag，不匹配时返回完整文件
      * @apiError (Error 400) message 1.全宗档案库不存在;2.文件下载失败;3.ftp服务未正常关闭;4.文件传输流未关闭.
      * @apiUse ErrorExample
      */
     @PreAuthorize("hasAnyRole('ADMIN') || hasAnyAuthority('archive_file_read_' + #catalogueId, 'object_original_text_view_' + #id)")
     @RequestMapping(value = "/downloadPDF", method = RequestMethod.GET)
-    public void downloadPDF(@RequestParam("catalogueId") int catalogueId, @RequestParam("id") String id, HttpServletResponse response) {
-        originalTextService.fileDownload(2, catalogueId, id, response);
+    public void downloadPDF(@RequestParam("catalogueId") int catalogueId, @RequestParam("id") String id, HttpServletRequest request, HttpServletResponse response) {
+        originalTextService.fileDownload(2, catalogueId, id, request, response);
+    }
+
+    /**
+     * @api {get} /originalText/converterStats PDF转换统计
+     * @apiName converterStats
+     * @apiGroup originalText
+     * @apiSuccess (Success 200) {Number} workers 转换进程数
+     * @apiSuccess (Success 200) {Number} active 正在转换数
+     * @apiSuccess (Success 200) {Number} queued 排队数
+     * @apiSuccess (Success 200) {Number} submitted 提交数
+     * @apiSuccess (Success 200) {Number} completed 完成数
+     * @apiSuccess (Success 200) {Number} failed 失败数
+     * @apiSuccess (Success 200) {Number} timedOut 超时数
+     * @apiSuccess (Success 200) {Number} rejected 队列满被拒绝数
+     * @apiSuccess (Success 200) {Number} restarts 进程重启次数
+     * @apiSuccess (Success 200) {Object} queueWait 排队等待时间(count 次数 avg 平均毫秒 max 最大毫秒)
+     * @apiSuccess (Success 200) {Object} convert 转换时间(count 次数 avg 平均毫秒 max 最大毫秒)
+     * @apiUse ErrorExample
+     */
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @RequestMapping(value = "/converterStats", method = RequestMethod.GET)
+    public Map<String, Object> converterStats() {
+        return originalTextService.converterStats();
     }
 
     /**
@@ -284,6 +313,7 @@ public class OriginalTextController {
      * @apiParam {String} version 文件版本(form-data参数)(上传文件的文件版本参数名均为version,按表单参数顺序对应)
      * @apiParam {String} remark 备注(form-data参数)(上传文件的备注参数名均为remark,按表单参数顺序对应)
      * @apiParam {File} file 原文文件(form-data参数)(上传文件的原文文件参数名均为file,按表单参数顺序对应)
+     * @apiParam {String} [md5] 原文文件MD5(form-data参数)(参数名均为md5,按表单参数顺序与file对应)，用于校验上传的文件，不一致时上传失败
      * @apiError (Error 400) message 1.全宗档案库不存在;2.条目不存在;3.原文文件未上传.
      * @apiError (Error 500) message 1.文件上传失败;2.未连接到ftp服务;3.ftp服务未正常关闭.4.文件传输流未关闭.
      * @apiUse ErrorExample
@@ -297,7 +327,8 @@ public class OriginalTextController {
             , @RequestParam("type") int[] type
             , @RequestParam("version") String[] version
             , @RequestParam("remark") String[] remark
-            , @RequestParam("file") MultipartFile[] files) {
+            , @RequestParam("file") MultipartFile[] files
+            , @RequestParam(value = "md5", required = false) String[] md5) {
         OriginalText[] originalTexts = new OriginalText[files.length];
         for (int i = 0; i < files.length; i++) {
             OriginalText originalText = new OriginalText();
@@ -309,7 +340,7 @@ public class OriginalTextController {
             originalText.setRemark(remark[i].equals(" ") ? "" : remark[i]);
             originalTexts[i] = originalText;
         }
-        originalTexts = originalTextService.saveMany(originalTexts, files);
+        originalTexts = originalTextService.saveMany(originalTexts, files, md5);
         originalTextService.placeOnFiles(originalTexts);
     }
 }
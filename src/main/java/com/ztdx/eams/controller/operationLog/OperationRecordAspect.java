@@ -4,28 +4,51 @@ import com.ztdx.eams.basic.UserCredential;
 import com.ztdx.eams.basic.WorkContext;
 import com.ztdx.eams.domain.system.application.OperationRecordService;
 import com.ztdx.eams.domain.system.model.OperationRecord;
+import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.stereotype.Component;
 
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 操作记录 拦截
+ * 日志模板按方法解析一次后缓存(多次执行后编译为字节码)，记录交给OperationRecordService异步批量写入
  */
+@Slf4j
 @Component
 @Aspect
 public class OperationRecordAspect {
 
+    //解析器线程安全，所有方法共用
+    private static final ExpressionParser EXPRESSION_PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, OperationRecordAspect.class.getClassLoader()));
+
     private final OperationRecordService operationRecordService;
 
+    //异常摘要中每层异常保留的调用栈层数
+    private final int stackDepth;
+
+    private final Map<Method, Expression> expressions = new ConcurrentHashMap<>();
+
     @Autowired
-    public OperationRecordAspect(OperationRecordService operationRecordService) {
+    public OperationRecordAspect(OperationRecordService operationRecordService
+            , @Value("${operation-log.stack-depth:8}") int stackDepth) {
         this.operationRecordService = operationRecordService;
+        this.stackDepth = stackDepth;
     }
 
     /**
@@ -36,6 +59,7 @@ public class OperationRecordAspect {
         UserCredential userCredential = (UserCredential) WorkContext.getSession().getAttribute(UserCredential.KEY);
         OperationContext operationContext = new OperationContext();
         operationContext.setArgs(joinPoint.getArgs());
+        operationContext.setUser(userCredential);
         Throwable exception =null;
         Boolean isSuccess =true;
 
@@ -48,11 +72,9 @@ public class OperationRecordAspect {
             isSuccess =false;
             throw new RuntimeException(e);
         } finally {
-            ExpressionParser expressionParser = new SpelExpressionParser();
-            EvaluationContext evaluationContext = new StandardEvaluationContext(operationContext);
-            String message = expressionParser.parseExpression(operationInfo.message()).getValue(evaluationContext).toString();
-            OperationRecord operationRecord = new OperationRecord(message, 1, "test");
-            operationRecord.setException(exception);
+            Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+            OperationRecord operationRecord = new OperationRecord(message(method, operationInfo, operationContext), 1, "test");
+            operationRecord.setExceptionSummary(summary(exception));
             operationRecord.setIsSuccess(isSuccess);
             if(userCredential !=null){
                 operationRecord.setOperatorId(userCredential.getUserId());
@@ -62,4 +84,44 @@ public class OperationRecordAspect {
         }
     }
 
+    /**
+     * 按日志模板生成日志内容，模板执行失败时记录模板本身，不影响请求
+     */
+    private String message(Method method, OperationInfo operationInfo, OperationContext operationContext) {
+        try {
+            Expression expression = expressions.computeIfAbsent(method, a -> EXPRESSION_PARSER.parseExpression(operationInfo.message()));
+            EvaluationContext evaluationContext = new StandardEvaluationContext(operationContext);
+            return String.valueOf(expression.getValue(evaluationContext));
+        } catch (RuntimeException e) {
+            log.warn("操作日志模板执行失败:" + method.getDeclaringClass().getSimpleName() + "." + method.getName(), e);
+            return operationInfo.message();
+        }
+    }
+
+    /**
+     * 异常摘要：每层异常的类型、消息和前stackDepth层调用栈
+     */
+    private String summary(Throwable exception) {
+        if (exception == null) {
+            return null;
+        }
+        StringBuilder summary = new StringBuilder();
+        //cause最多取5层，避免循环引用
+        Throwable current = exception;
+        for (int level = 0; current != null && level < 5; level++) {
+            if (level > 0) {
+                summary.append("Caused by: ");
+            }
+            summary.append(current).append('\n');
+            StackTraceElement[] stackTrace = current.getStackTrace();
+            for (int i = 0; i < Math.min(stackDepth, stackTrace.length); i++) {
+                summary.append("\tat ").append(stackTrace[i]).append('\n');
+            }
+            if (stackTrace.length > stackDepth) {
+                summary.append("\t... ").append(stackTrace.length - stackDepth).append(" more\n");
+            }
+            current = current.getCause() == current ? null : current.getCause();
+        }
+        return summary.toString();
+    }
 }
@@ -238,7 +238,6 @@ public class BoxController {
     @PreAuthorize("hasAnyRole('ADMIN') || hasAnyAuthority('global_box_write')")
     @RequestMapping(value = "/unBox", method = RequestMethod.POST)
     public void unBox(@JsonParam List<Integer> ids, @JsonParam int archiveId) {
-        catalogueService.getMainCatalogue(archiveId);
         Catalogue catalogue = catalogueService.getMainCatalogue(archiveId);
 
         if (catalogue == null) {
@@ -248,5 +247,7 @@ public class BoxController {
         List<String> boxCodes = boxService.getCodeByIds(ids);
 
         entryService.unBoxByBoxCode(catalogue.getId(), boxCodes);
+        //拆盒后盒内已没有条目，直接清零
+        boxService.updateTotals(archiveId, boxCodes, Collections.emptyMap(), Collections.emptyMap());
     }
 }
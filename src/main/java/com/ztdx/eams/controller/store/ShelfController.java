@@ -18,6 +18,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -106,6 +107,28 @@ public class ShelfController {
         return shelfService.save(shelf);
     }
 
+    /**
+     * @api {post} /shelf/{id}/cell 补全密集架格
+     * @apiName createCell_shelf
+     * @apiGroup shelf
+     * @apiParam {Number} id 密集架id(path参数)
+     * @apiSuccess {Number} total 新增的格数
+     * @apiSuccessExample {json} Response-Example
+     * {
+     *     "data": {
+     *         "total": 0
+     *     }
+     * }
+     * @apiError message 密集架不存在
+     */
+    @PreAuthorize("hasAnyRole('ADMIN') || hasAnyAuthority('global_storage_write')")
+    @RequestMapping(value = "/{id}/cell", method = RequestMethod.POST)
+    public Map<String, Object> createCell(@PathVariable("id") int id){
+        Map<String, Object> result = new HashMap<>();
+        result.put("total", shelfService.createCell(id));
+        return result;
+    }
+
     /**
      * @api {put} /shelf/{id} 修改密集架
      * @apiName update_shelf
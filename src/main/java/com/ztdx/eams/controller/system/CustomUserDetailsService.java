@@ -1,7 +1,6 @@
 package com.ztdx.eams.controller.system;
 
-import com.ztdx.eams.domain.system.application.PermissionService;
-import com.ztdx.eams.domain.system.model.UserPermission;
+import com.ztdx.eams.domain.system.application.PermissionSnapshotCache;
 import com.ztdx.eams.query.SystemSecurityQuery;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -19,7 +18,6 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class CustomUserDetailsService implements UserDetailsService {
@@ -27,28 +25,18 @@ public class CustomUserDetailsService implements UserDetailsService {
     private SystemSecurityQuery systemSecurityQuery;
 
     @Autowired
-    private PermissionService permissionService;
+    private PermissionSnapshotCache permissionSnapshotCache;
 
     @Override
     public UserDetails loadUserByUsername(String userName) throws UsernameNotFoundException {
 
-        Set<String> list = systemSecurityQuery.getUserPermissions(userName);
-
         Map<String, Object> map = systemSecurityQuery.getUser(userName);
         String pwd = (String)map.get("pwd");
         Integer flag = (Integer)map.get("flag");
-        Integer userId = (Integer)map.get("id");
-
-        list.addAll(
-            permissionService
-                    .listUserPermission(userId)
-                    .stream()
-                    .map(UserPermission::getResourceUrl)
-                    .collect(Collectors.toSet())
-        );
 
-        //权限设置
-        Collection<GrantedAuthority> grantedAuthorities = this.getGrantedAuthorities(list);
+        //权限设置，登录时重新加载快照
+        permissionSnapshotCache.evict((Integer) map.get("id"));
+        Collection<GrantedAuthority> grantedAuthorities = this.getGrantedAuthorities(permissionSnapshotCache.get(userName).getAuthorities());
 
         return new User(userName, pwd,
                 flag.equals(0), true, true, true, grantedAuthorities);
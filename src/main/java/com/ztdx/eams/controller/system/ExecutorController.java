@@ -0,0 +1,50 @@
+package com.ztdx.eams.controller.system;
+
+import com.ztdx.eams.basic.task.MonitoredThreadPoolTaskExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+@RestController
+@RequestMapping(value = "/executor")
+public class ExecutorController {
+
+    private final Map<String, MonitoredThreadPoolTaskExecutor> executors;
+
+    @Autowired
+    public ExecutorController(Map<String, MonitoredThreadPoolTaskExecutor> executors) {
+        this.executors = executors;
+    }
+
+    /**
+     * @api {get} /executor/stats 异步任务线程池统计
+     * @apiName stats
+     * @apiGroup executor
+     * @apiSuccess (Success 200) {Object} taskExecutor 按线程池名称(taskExecutor、indexExecutor、fileExecutor、boxExecutor、logExecutor)返回
+     * @apiSuccess (Success 200) {Number} taskExecutor.corePoolSize 核心线程数
+     * @apiSuccess (Success 200) {Number} taskExecutor.maxPoolSize 最大线程数
+     * @apiSuccess (Success 200) {Number} taskExecutor.poolSize 当前线程数
+     * @apiSuccess (Success 200) {Number} taskExecutor.active 正在执行数
+     * @apiSuccess (Success 200) {Number} taskExecutor.queued 排队数
+     * @apiSuccess (Success 200) {Number} taskExecutor.queueCapacity 队列容量
+     * @apiSuccess (Success 200) {String} taskExecutor.rejectionPolicy 队列满时的处理方式
+     * @apiSuccess (Success 200) {Number} taskExecutor.submitted 提交数
+     * @apiSuccess (Success 200) {Number} taskExecutor.completed 完成数
+     * @apiSuccess (Success 200) {Number} taskExecutor.rejected 队列满被拒绝数
+     * @apiSuccess (Success 200) {Object} taskExecutor.queueWait 排队等待时间(count 次数 avg 平均毫秒 max 最大毫秒)
+     * @apiSuccess (Success 200) {Object} taskExecutor.execute 执行时间(count 次数 avg 平均毫秒 max 最大毫秒)
+     * @apiUse ErrorExample
+     */
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @RequestMapping(value = "/stats", method = RequestMethod.GET)
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new TreeMap<>();
+        executors.forEach((name, executor) -> result.put(name, executor.getStats()));
+        return result;
+    }
+}
@@ -2,6 +2,7 @@ package com.ztdx.eams.controller.system;
 
 import com.ztdx.eams.basic.UserCredential;
 import com.ztdx.eams.basic.exception.ForbiddenException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.system.application.FondsService;
 import com.ztdx.eams.domain.system.application.PermissionService;
 import com.ztdx.eams.domain.system.application.RoleService;
@@ -11,6 +12,7 @@ import org.jooq.types.UInteger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -32,18 +34,22 @@ public class FondsController {
 
     private final PermissionService permissionService;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public FondsController(FondsService fondsService, SystemQuery systemQuery, RoleService roleService, PermissionService permissionService) {
+    public FondsController(FondsService fondsService, SystemQuery systemQuery, RoleService roleService, PermissionService permissionService, TreeCache treeCache) {
         this.fondsService = fondsService;
         this.systemQuery = systemQuery;
         this.roleService = roleService;
         this.permissionService = permissionService;
+        this.treeCache = treeCache;
     }
 
     /**
      * @api {get} /fonds/treeList 获取全宗树形列表
      * @apiName treeList
      * @apiGroup fonds
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiSuccess (Success 200) {Number} id 全宗ID.
      * @apiSuccess (Success 200) {String} code 全宗号.
      * @apiSuccess (Success 200) {String} name 全宗名称.
@@ -57,24 +63,26 @@ public class FondsController {
      * {"id": 全宗ID,"code": "全宗号","name": "子全宗1","parentId": 上级全宗ID,"orderNumber": 同级排序编号}]}]}}.
      */
     @RequestMapping(value = "/treeList", method = RequestMethod.GET)
-    public Map<String, Object> treeList(@SessionAttribute(required = false) UserCredential LOGIN_USER) {
+    public Map<String, Object> treeList(@SessionAttribute(required = false) UserCredential LOGIN_USER, WebRequest request) {
         int userId;
         if (LOGIN_USER != null) {
             userId = LOGIN_USER.getUserId();
         } else {
             throw new ForbiddenException("拒绝访问");
         }
-        //可以管理的全宗
-        Set<Integer> fondsIds = roleService.findUserManageFonds(userId);
-
-        //全宗树
-        return systemQuery.getFondsTreeMap(a -> {
-            if (permissionService.hasAnyAuthority("ROLE_ADMIN")) {
-                return true;
-            } else {
-                return fondsIds.contains(a);
-            }
+        boolean admin = permissionService.hasAnyAuthority("ROLE_ADMIN");
+
+        TreeCache.Tree tree = treeCache.get("fonds.treeList:" + TreeCache.userScope(userId, admin), () -> {
+            //可以管理的全宗
+            Set<Integer> fondsIds = admin ? null : roleService.findUserManageFonds(userId);
+
+            //全宗树
+            return systemQuery.getFondsTreeMap(a -> admin || fondsIds.contains(a));
         });
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
     /**
@@ -0,0 +1,82 @@
+package com.ztdx.eams.controller.system;
+
+import com.ztdx.eams.basic.repository.CursorPage;
+import com.ztdx.eams.domain.system.application.OperationRecordService;
+import com.ztdx.eams.domain.system.model.OperationRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping(value = "/operationLog")
+public class OperationLogController {
+
+    private final OperationRecordService operationRecordService;
+
+    @Autowired
+    public OperationLogController(OperationRecordService operationRecordService) {
+        this.operationRecordService = operationRecordService;
+    }
+
+    /**
+     * @api {get} /operationLog/list?operatorId={operatorId}&from={from}&to={to}&isSuccess={isSuccess}&after={after}&size={size} 操作日志列表
+     * @apiName list
+     * @apiGroup operationLog
+     * @apiParam {Number} [operatorId] 操作人id(QueryString)
+     * @apiParam {Number} [from] 开始时间(含)，毫秒时间戳(QueryString)
+     * @apiParam {Number} [to] 结束时间(不含)，毫秒时间戳(QueryString)
+     * @apiParam {Boolean} [isSuccess] 是否成功(QueryString)
+     * @apiParam {String} [after] 分页游标(QueryString)，传上一页返回的cursor取下一页
+     * @apiParam {Number} [size] 页行数(默认20)(QueryString)
+     * @apiSuccess (Success 200) {Array} content 列表内容，按时间倒序
+     * @apiSuccess (Success 200) {String} content.id 日志id
+     * @apiSuccess (Success 200) {String} content.message 日志内容
+     * @apiSuccess (Success 200) {Boolean} content.isSuccess 是否成功
+     * @apiSuccess (Success 200) {Number} content.operatorId 操作人id
+     * @apiSuccess (Success 200) {String} content.operatorName 操作人姓名
+     * @apiSuccess (Success 200) {String} content.exceptionSummary 异常摘要
+     * @apiSuccess (Success 200) {Date} content.gmtCreate 操作时间
+     * @apiSuccess (Success 200) {String} cursor 下一页游标，没有下一页时为空
+     * @apiUse ErrorExample
+     */
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @RequestMapping(value = "/list", method = RequestMethod.GET)
+    public Map<String, Object> list(@RequestParam(value = "operatorId", required = false) Integer operatorId
+            , @RequestParam(value = "from", required = false) Long from
+            , @RequestParam(value = "to", required = false) Long to
+            , @RequestParam(value = "isSuccess", required = false) Boolean isSuccess
+            , @RequestParam(value = "after", required = false) String after
+            , @RequestParam(value = "size", required = false, defaultValue = "20") int size) {
+        CursorPage<OperationRecord> page = operationRecordService.list(operatorId
+                , from == null ? null : new Date(from), to == null ? null : new Date(to), isSuccess, after, Math.max(1, Math.min(size, 1000)));
+        Map<String, Object> result = new HashMap<>();
+        result.put("content", page.getContent());
+        result.put("cursor", page.getCursor());
+        return result;
+    }
+
+    /**
+     * @api {get} /operationLog/writerStats 操作日志写入统计
+     * @apiName writerStats
+     * @apiGroup operationLog
+     * @apiSuccess (Success 200) {Number} buffered 缓冲区中待写入的记录数
+     * @apiSuccess (Success 200) {Number} capacity 缓冲区容量
+     * @apiSuccess (Success 200) {Number} written 已写入数
+     * @apiSuccess (Success 200) {Number} spilled 缓冲区满或写入失败时转存到本地文件的记录数
+     * @apiSuccess (Success 200) {Number} replayed 从本地文件重放写入的记录数
+     * @apiSuccess (Success 200) {Number} dropped 转存失败丢弃的记录数
+     * @apiUse ErrorExample
+     */
+    @PreAuthorize("hasAnyRole('ADMIN')")
+    @RequestMapping(value = "/writerStats", method = RequestMethod.GET)
+    public Map<String, Object> writerStats() {
+        return operationRecordService.writerStats();
+    }
+}
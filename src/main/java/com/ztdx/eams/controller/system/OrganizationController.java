@@ -1,5 +1,6 @@
 package com.ztdx.eams.controller.system;
 
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.system.application.OrganizationService;
 import com.ztdx.eams.domain.system.model.Organization;
 import com.ztdx.eams.query.SystemQuery;
@@ -7,6 +8,7 @@ import org.jooq.types.UInteger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.Map;
 
@@ -21,16 +23,20 @@ public class OrganizationController {
 
     private final SystemQuery systemQuery;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public OrganizationController(OrganizationService organizationService, SystemQuery systemQuery) {
+    public OrganizationController(OrganizationService organizationService, SystemQuery systemQuery, TreeCache treeCache) {
         this.organizationService = organizationService;
         this.systemQuery = systemQuery;
+        this.treeCache = treeCache;
     }
 
     /**
      * @api {get} /organization/treeList 通过上级机构节点与机构类型获取下级机构树
      * @apiName treeList
      * @apiGroup organization
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} id 上级机构ID（url参数）（非必需，默认为1根机构节点）
      * @apiParam {Number} type 机构类型（url参数）（非必需，默认为0）（可选值：0-获取全部 1-获取类型为公司的机构）
      * @apiSuccess (Success 200) {Number} id 机构ID.
@@ -48,14 +54,19 @@ public class OrganizationController {
      */
     @PreAuthorize("hasAnyRole('ADMIN') || hasAnyAuthority('global_organization_read', 'global_role_user_set')")
     @RequestMapping(value = "/treeList", method = RequestMethod.GET)
-    public Map<String, Object> treeList(@RequestParam(required = false, defaultValue = "1", name = "id") int id, @RequestParam(name = "type", required = false, defaultValue = "0") int type) {
-        return systemQuery.getOrganizationTreeMap(null, UInteger.valueOf(id), type == 0 ? null : type);
+    public Map<String, Object> treeList(@RequestParam(required = false, defaultValue = "1", name = "id") int id, @RequestParam(name = "type", required = false, defaultValue = "0") int type, WebRequest request) {
+        TreeCache.Tree tree = treeCache.get("organization.treeList:" + id + ":" + type, () -> systemQuery.getOrganizationTreeMap(null, UInteger.valueOf(id), type == 0 ? null : type));
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
     /**
      * @api {get} /organization/treeListByFonds 获取全宗关联的组织机构树
      * @apiName treeListByFonds
      * @apiGroup organization
+     * @apiHeader {String} [If-None-Match] 上次返回的ETag，树未变化时返回304
      * @apiParam {Number} fondsId 关联全宗ID（url参数）
      * @apiSuccess (Success 200) {Number} id 机构ID.
      * @apiSuccess (Success 200) {String} code 机构编码.
@@ -72,8 +83,12 @@ public class OrganizationController {
      */
     @PreAuthorize("hasAnyRole('ADMIN') || hasAnyAuthority('global_organization_read', 'fonds_role_user_set_' + #fondsId)")
     @RequestMapping(value = "/treeListByFonds", method = RequestMethod.GET)
-    public Map<String, Object> treeListByFonds(@RequestParam("fondsId") int fondsId) {
-        return systemQuery.getOrganizationTreeMap(UInteger.valueOf(fondsId), null, null);
+    public Map<String, Object> treeListByFonds(@RequestParam("fondsId") int fondsId, WebRequest request) {
+        TreeCache.Tree tree = treeCache.get("organization.treeListByFonds:" + fondsId, () -> systemQuery.getOrganizationTreeMap(UInteger.valueOf(fondsId), null, null));
+        if (request.checkNotModified(tree.getEtag())) {
+            return null;
+        }
+        return tree.getValue();
     }
 
     /**
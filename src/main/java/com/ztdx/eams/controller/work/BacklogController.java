@@ -4,18 +4,18 @@ import com.ztdx.eams.basic.UserCredential;
 import com.ztdx.eams.domain.system.application.OrganizationService;
 import com.ztdx.eams.domain.system.application.UserService;
 import com.ztdx.eams.domain.system.model.User;
+import com.ztdx.eams.domain.work.application.WorkService;
 import org.apache.commons.lang.StringUtils;
 import org.flowable.engine.HistoryService;
 import org.flowable.engine.RuntimeService;
 import org.flowable.engine.TaskService;
 import org.flowable.engine.history.HistoricProcessInstance;
 import org.flowable.task.api.Task;
-import org.flowable.variable.api.history.HistoricVariableInstance;
-import org.flowable.variable.api.persistence.entity.VariableInstance;
 import org.springframework.context.ApplicationContext;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,13 +37,16 @@ public class BacklogController {
 
     private ApplicationContext applicationContext;
 
-    public BacklogController(RuntimeService runtimeService, TaskService taskService, UserService userService, OrganizationService organizationService, HistoryService historyService, ApplicationContext applicationContext) {
+    private WorkService workService;
+
+    public BacklogController(RuntimeService runtimeService, TaskService taskService, UserService userService, OrganizationService organizationService, HistoryService historyService, ApplicationContext applicationContext, WorkService workService) {
         this.runtimeService = runtimeService;
         this.taskService = taskService;
         this.userService = userService;
         this.organizationService = organizationService;
         this.historyService = historyService;
         this.applicationContext = applicationContext;
+        this.workService = workService;
     }
 
     /**
@@ -98,10 +101,14 @@ public class BacklogController {
                 .desc()
                 .listPage(page * size, size);
 
+        //本页任务的流程变量一次查询
+        Map<String, Map<String, Object>> variables = workService.getProcessVariables(
+                list.stream().map(Task::getProcessInstanceId).collect(Collectors.toList()));
+
         Collection<Integer> ids = list.stream().map(
                 a -> {
-                    Map<String, VariableInstance> vars = taskService.getVariableInstances(a.getId());
-                    return vars.get("applicantId") == null ? 0 : Integer.parseInt(vars.get("applicantId").getValue().toString());
+                    Map<String, Object> vars = variables.getOrDefault(a.getProcessInstanceId(), Collections.emptyMap());
+                    return vars.get("applicantId") == null ? 0 : Integer.parseInt(vars.get("applicantId").toString());
                 }).collect(Collectors.toSet());
         ids.remove(0);
 
@@ -115,20 +122,20 @@ public class BacklogController {
 
         Map<String, Object> result = new HashMap<>();
         result.put("content", list.stream().map(a -> {
-            Map<String, VariableInstance> vars = taskService.getVariableInstances(a.getId());
+            Map<String, Object> vars = variables.getOrDefault(a.getProcessInstanceId(), Collections.emptyMap());
 
             Map<String, Object> item = new HashMap<>();
             if (vars.size() != 0) {
                 item.put("taskId", a.getId());
-                item.put("id", vars.get("id").getValue());
-                item.put("type", vars.get("type").getValue());
-                item.put("title", vars.get("title").getValue());
-                item.put("orderCode", vars.get("orderCode").getValue());
-                item.put("orderId", vars.get("orderId").getValue());
+                item.put("id", vars.get("id"));
+                item.put("type", vars.get("type"));
+                item.put("title", vars.get("title"));
+                item.put("orderCode", vars.get("orderCode"));
+                item.put("orderId", vars.get("orderId"));
 
                 String applicantId = null;
                 if (vars.get("applicantId") != null) {
-                    applicantId = vars.get("applicantId").getValue().toString();
+                    applicantId = vars.get("applicantId").toString();
                 }
 
                 String name = null;
@@ -203,14 +210,13 @@ public class BacklogController {
                 .desc()
                 .listPage(page * size, size);
 
+        //本页流程的变量一次查询
+        Map<String, Map<String, Object>> variables = workService.getHistoricProcessVariables(
+                list.stream().map(HistoricProcessInstance::getId).collect(Collectors.toList()));
+
         Map<String, Object> result = new HashMap<>();
         result.put("content", list.stream().map(a -> {
-            Map<String, Object> vars = historyService
-                    .createHistoricVariableInstanceQuery()
-                    .processInstanceId(a.getId())
-                    .list()
-                    .stream()
-                    .collect(Collectors.toMap(HistoricVariableInstance::getVariableName, HistoricVariableInstance::getValue));
+            Map<String, Object> vars = variables.getOrDefault(a.getId(), Collections.emptyMap());
 
             Map<String, Object> item = new HashMap<>();
 
@@ -2,6 +2,7 @@ package com.ztdx.eams.domain.archives.application;
 
 import com.ztdx.eams.basic.exception.BusinessException;
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.archives.application.event.ArchivesGroupDeleteEvent;
 import com.ztdx.eams.domain.archives.model.Archives;
 import com.ztdx.eams.domain.archives.model.ArchivesGroup;
@@ -25,10 +26,16 @@ public class ArchivesGroupService {
 
     private final ArchivesGroupRepository archivesGroupRepository;
 
+    private final CatalogueMetadataCache catalogueMetadataCache;
+
+    private final TreeCache treeCache;
+
     @Autowired
-    public ArchivesGroupService(ArchivesRepository archivesRepository, ArchivesGroupRepository archivesGroupRepository) {
+    public ArchivesGroupService(ArchivesRepository archivesRepository, ArchivesGroupRepository archivesGroupRepository, CatalogueMetadataCache catalogueMetadataCache, TreeCache treeCache) {
         this.archivesRepository = archivesRepository;
         this.archivesGroupRepository = archivesGroupRepository;
+        this.catalogueMetadataCache = catalogueMetadataCache;
+        this.treeCache = treeCache;
     }
 
     public List<ArchivesGroup> findAllById(List<Integer> archiveGroupIds) {
@@ -42,6 +49,7 @@ public class ArchivesGroupService {
     @Transactional
     public void save(ArchivesGroup archivesGroup) {
         archivesGroupRepository.save(archivesGroup);
+        treeCache.evictAll();
     }
 
     @Transactional
@@ -56,16 +64,21 @@ public class ArchivesGroupService {
             throw new InvalidArgumentException("该项不存在或已被删除");
         }
         archivesGroupRepository.setDeleteById(id, 1);
+        catalogueMetadataCache.evictAll();
 //        archivesRepository.setDeleteByArchivesGroupId(id, 1);
+        treeCache.evictAll();
     }
 
     @Transactional
     public void update(ArchivesGroup archivesGroup) {
         archivesGroupRepository.update(archivesGroup);
+        catalogueMetadataCache.evictAll();
+        treeCache.evictAll();
     }
 
     @EventListener
     public void validateBoxNumber(ArchivesGroupDeleteEvent event) {
         archivesGroupRepository.setDeleteByFondsId(event.getFondsId(), 1);
+        catalogueMetadataCache.evictAll();
     }
 }
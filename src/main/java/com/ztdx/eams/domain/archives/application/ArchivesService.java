@@ -1,5 +1,6 @@
 package com.ztdx.eams.domain.archives.application;
 
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.archives.application.task.EntryAsyncTask;
 import com.ztdx.eams.domain.archives.model.Archives;
 import com.ztdx.eams.domain.archives.model.Catalogue;
@@ -26,14 +27,20 @@ public class ArchivesService {
 
     private final EntryAsyncTask entryAsyncTask;
 
+    private final CatalogueMetadataCache catalogueMetadataCache;
+
+    private final TreeCache treeCache;
+
     /**
      * 构造函数
      */
     @Autowired
-    public ArchivesService(ArchivesRepository archivesRepository, CatalogueRepository catalogueRepository, EntryAsyncTask entryAsyncTask) {
+    public ArchivesService(ArchivesRepository archivesRepository, CatalogueRepository catalogueRepository, EntryAsyncTask entryAsyncTask, CatalogueMetadataCache catalogueMetadataCache, TreeCache treeCache) {
         this.archivesRepository = archivesRepository;
         this.catalogueRepository = catalogueRepository;
         this.entryAsyncTask = entryAsyncTask;
+        this.catalogueMetadataCache = catalogueMetadataCache;
+        this.treeCache = treeCache;
     }
 
     /**
@@ -75,6 +82,8 @@ public class ArchivesService {
                 break;
             }
         }
+        catalogueMetadataCache.evict(catalogueIds);
+        treeCache.evictAll();
         return catalogueIds;
     }
 
@@ -95,10 +104,14 @@ public class ArchivesService {
     @Transactional
     public void delete(int id) {
         archivesRepository.setDeleteById(id, 1);
+        catalogueMetadataCache.evictArchives(id);
+        treeCache.evictAll();
     }
 
     @Transactional
     public void update(Archives archives) {
         archivesRepository.update(archives);
+        catalogueMetadataCache.evictArchives(archives.getId());
+        treeCache.evictAll();
     }
 }
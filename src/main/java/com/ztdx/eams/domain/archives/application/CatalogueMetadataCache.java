@@ -0,0 +1,180 @@
+package com.ztdx.eams.domain.archives.application;
+
+import com.ztdx.eams.domain.archives.model.*;
+import com.ztdx.eams.domain.archives.repository.ArchivesGroupRepository;
+import com.ztdx.eams.domain.archives.repository.ArchivesRepository;
+import com.ztdx.eams.domain.archives.repository.CatalogueRepository;
+import com.ztdx.eams.domain.archives.repository.DescriptionItemRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 按目录缓存元数据快照，供条目保存、装盒、检索等热点路径使用，避免每次请求重复查询MySQL。
+ * 目录、著录项、档案库变更时使对应目录版本号递增，读取时版本不一致即重新加载。
+ * 另按档案库类型缓存目录id，任一目录缓存失效时整体失效
+ */
+@Component
+public class CatalogueMetadataCache {
+
+    private final CatalogueRepository catalogueRepository;
+
+    private final ArchivesRepository archivesRepository;
+
+    private final ArchivesGroupRepository archivesGroupRepository;
+
+    private final DescriptionItemRepository descriptionItemRepository;
+
+    private final Map<Integer, CatalogueMetadata> cache = new ConcurrentHashMap<>();
+
+    private final Map<Integer, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    //档案库类型->未删除档案库下的目录id
+    private final Map<Integer, List<Integer>> catalogueIdsByType = new ConcurrentHashMap<>();
+
+    private final AtomicLong catalogueIdsVersion = new AtomicLong();
+
+    public CatalogueMetadataCache(CatalogueRepository catalogueRepository, ArchivesRepository archivesRepository, ArchivesGroupRepository archivesGroupRepository, DescriptionItemRepository descriptionItemRepository) {
+        this.catalogueRepository = catalogueRepository;
+        this.archivesRepository = archivesRepository;
+        this.archivesGroupRepository = archivesGroupRepository;
+        this.descriptionItemRepository = descriptionItemRepository;
+    }
+
+    /**
+     * 获取目录元数据，目录不存在时catalogue为空
+     */
+    public CatalogueMetadata get(int catalogueId) {
+        long version = version(catalogueId).get();
+        long gen = generation.get();
+        CatalogueMetadata cached = cache.get(catalogueId);
+        if (cached != null && cached.getVersion() == version && cached.getGeneration() == gen) {
+            return cached;
+        }
+
+        CatalogueMetadata loaded = load(catalogueId, version, gen);
+        //加载期间发生变更的快照不放入缓存
+        if (isCurrent(loaded)) {
+            cache.put(catalogueId, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * 指定类型的未删除档案库下的全部目录id，不可修改
+     */
+    public List<Integer> getCatalogueIds(int archivesType) {
+        List<Integer> cached = catalogueIdsByType.get(archivesType);
+        if (cached != null) {
+            return cached;
+        }
+
+        long version = catalogueIdsVersion.get();
+        List<Integer> archivesIds = archivesRepository.findByTypeAndGmtDeleted(archivesType, 0)
+                .stream().map(Archives::getId).collect(Collectors.toList());
+        List<Integer> loaded = archivesIds.isEmpty() ? Collections.emptyList()
+                : Collections.unmodifiableList(catalogueRepository.findAllByArchivesIdIn(archivesIds)
+                .stream().map(Catalogue::getId).collect(Collectors.toList()));
+        //加载期间发生变更的结果不放入缓存
+        if (version == catalogueIdsVersion.get()) {
+            catalogueIdsByType.put(archivesType, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * 快照是否仍为最新
+     */
+    public boolean isCurrent(CatalogueMetadata metadata) {
+        return metadata.getVersion() == version(metadata.getCatalogueId()).get()
+                && metadata.getGeneration() == generation.get();
+    }
+
+    public void evict(int catalogueId) {
+        evict(Collections.singleton(catalogueId));
+    }
+
+    /**
+     * 使目录缓存失效。处于事务中时提交后再失效一次，避免并发请求在提交前把旧数据重新加载进缓存
+     */
+    public void evict(Collection<Integer> catalogueIds) {
+        Runnable evict = () -> {
+            catalogueIds.forEach(id -> {
+                version(id).incrementAndGet();
+                cache.remove(id);
+            });
+            evictCatalogueIds();
+        };
+        evict.run();
+        afterCommit(evict);
+    }
+
+    /**
+     * 使档案库下所有目录缓存失效
+     */
+    public void evictArchives(int archivesId) {
+        List<Integer> catalogueIds = catalogueRepository.findAllByArchivesIdIn(Collections.singletonList(archivesId))
+                .stream().map(Catalogue::getId).collect(Collectors.toList());
+        evict(catalogueIds);
+    }
+
+    /**
+     * 使全部缓存失效，用于档案库分组等影响范围不确定的变更
+     */
+    public void evictAll() {
+        Runnable evict = () -> {
+            generation.incrementAndGet();
+            cache.clear();
+            evictCatalogueIds();
+        };
+        evict.run();
+        afterCommit(evict);
+    }
+
+    private void evictCatalogueIds() {
+        catalogueIdsVersion.incrementAndGet();
+        catalogueIdsByType.clear();
+    }
+
+    private CatalogueMetadata load(int catalogueId, long version, long gen) {
+        Catalogue catalogue = catalogueRepository.findById(catalogueId).orElse(null);
+        Archives archives = null;
+        ArchivesGroup archivesGroup = null;
+        Catalogue folderFileCatalogue = null;
+        if (catalogue != null) {
+            archives = archivesRepository.findById(catalogue.getArchivesId()).orElse(null);
+            folderFileCatalogue = catalogueRepository.findByArchivesIdAndCatalogueType(catalogue.getArchivesId(), CatalogueType.FolderFile).orElse(null);
+        }
+        if (archives != null) {
+            archivesGroup = archivesGroupRepository.findById(archives.getArchivesGroupId()).orElse(null);
+        }
+        List<DescriptionItem> descriptionItems = descriptionItemRepository.findByCatalogueId(catalogueId);
+        return new CatalogueMetadata(catalogueId, version, gen, catalogue, archives, archivesGroup, folderFileCatalogue, descriptionItems);
+    }
+
+    private AtomicLong version(int catalogueId) {
+        return versions.computeIfAbsent(catalogueId, k -> new AtomicLong());
+    }
+
+    private void afterCommit(Runnable runnable) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                runnable.run();
+            }
+        });
+    }
+}
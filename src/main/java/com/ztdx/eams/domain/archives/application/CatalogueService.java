@@ -15,10 +15,12 @@ import java.util.stream.Collectors;
 public class CatalogueService {
     private CatalogueRepository catalogueRepository;
     private ArchivesRepository archivesRepository;
+    private CatalogueMetadataCache catalogueMetadataCache;
 
-    public CatalogueService(CatalogueRepository catalogueRepository, ArchivesRepository archivesRepository) {
+    public CatalogueService(CatalogueRepository catalogueRepository, ArchivesRepository archivesRepository, CatalogueMetadataCache catalogueMetadataCache) {
         this.catalogueRepository = catalogueRepository;
         this.archivesRepository = archivesRepository;
+        this.catalogueMetadataCache = catalogueMetadataCache;
     }
 
     public List<Catalogue> findAllById(Collection<Integer> ids) {
@@ -26,19 +28,11 @@ public class CatalogueService {
     }
 
     public Catalogue get(int id) {
-        return catalogueRepository.findById(id).orElse(null);
+        return catalogueMetadataCache.get(id).getCatalogue();
     }
 
     public Catalogue getFolderFileCatalogueByFolderCatalogueId(int id) {
-        Catalogue folder = catalogueRepository.findById(id).orElse(null);
-        if (folder == null) {
-            return null;
-        }
-        Catalogue folderFile = catalogueRepository.findByArchivesIdAndCatalogueType(folder.getArchivesId(), CatalogueType.FolderFile).orElse(null);
-        if (folderFile == null) {
-            return null;
-        }
-        return folderFile;
+        return catalogueMetadataCache.get(id).getFolderFileCatalogue();
     }
 
     public boolean exists(int id) {
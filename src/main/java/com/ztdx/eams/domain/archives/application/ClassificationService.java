@@ -1,6 +1,7 @@
 package com.ztdx.eams.domain.archives.application;
 
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.archives.model.Classification;
 import com.ztdx.eams.domain.archives.repository.ClassificationRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,9 +18,12 @@ public class ClassificationService {
 
     private final ClassificationRepository classificationRepository;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public ClassificationService(ClassificationRepository classificationRepository) {
+    public ClassificationService(ClassificationRepository classificationRepository, TreeCache treeCache) {
         this.classificationRepository = classificationRepository;
+        this.treeCache = treeCache;
     }
 
     /**
@@ -37,6 +41,7 @@ public class ClassificationService {
         }
         //存储数据
         classificationRepository.save(classification);
+        treeCache.evictAll();
     }
 
     /**
@@ -54,6 +59,7 @@ public class ClassificationService {
         }
         //删除本档案分类
         classificationRepository.deleteById(id);
+        treeCache.evictAll();
     }
 
     /**
@@ -66,6 +72,7 @@ public class ClassificationService {
             throw new InvalidArgumentException("该档案分类不存在或已被删除");
         }
         classificationRepository.updateById(classification);
+        treeCache.evictAll();
     }
 
     /**
@@ -83,6 +90,7 @@ public class ClassificationService {
         }
         classificationRepository.updateOrderNumberById(upId, down.get().getOrderNumber());
         classificationRepository.updateOrderNumberById(downId, up.get().getOrderNumber());
+        treeCache.evictAll();
     }
 
     public Classification get(int id) {
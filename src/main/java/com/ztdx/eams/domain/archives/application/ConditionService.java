@@ -29,14 +29,17 @@ public class ConditionService {
 
     private GroupMongoRepository groupMongoRepository;
 
+    private NgramIndexSupport ngramIndexSupport;
+
     /**
      * 构造函数
      */
     @Autowired
-    public ConditionService(ConditionMongoRepository conditionMongoRepository, DescriptionItemRepository descriptionItemRepository,GroupMongoRepository groupMongoRepository) {
+    public ConditionService(ConditionMongoRepository conditionMongoRepository, DescriptionItemRepository descriptionItemRepository,GroupMongoRepository groupMongoRepository, NgramIndexSupport ngramIndexSupport) {
         this.conditionMongoRepository = conditionMongoRepository;
         this.descriptionItemRepository = descriptionItemRepository;
         this.groupMongoRepository = groupMongoRepository;
+        this.ngramIndexSupport = ngramIndexSupport;
     }
 
     /**
@@ -214,6 +217,9 @@ public class ConditionService {
             default:
                 throw new BusinessException("解析查询条件时，不支持的类型");
         }
+        if (condition.getOperator() == Operator.contain || condition.getOperator() == Operator.notContain) {
+            conditionEsQueryBuilder.setNgram(ngramIndexSupport.supports(item.getCatalogueId()));
+        }
 
         switch (condition.getOperator()) {
             case equal:
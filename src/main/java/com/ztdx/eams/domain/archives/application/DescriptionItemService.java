@@ -2,6 +2,7 @@ package com.ztdx.eams.domain.archives.application;
 
 import com.ztdx.eams.basic.exception.BusinessException;
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import com.ztdx.eams.basic.repository.MongoIndexManager;
 import com.ztdx.eams.domain.archives.application.task.EntryAsyncTask;
 import com.ztdx.eams.domain.archives.model.*;
 import com.ztdx.eams.domain.archives.repository.CatalogueRepository;
@@ -28,11 +29,17 @@ public class DescriptionItemService {
 
     private final CatalogueRepository catalogueRepository;
 
+    private final CatalogueMetadataCache catalogueMetadataCache;
+
+    private final MongoIndexManager mongoIndexManager;
+
     @Autowired
-    public DescriptionItemService(DescriptionItemRepository descriptionItemRepository, MetadataRepository metadataRepository, CatalogueRepository catalogueRepository) {
+    public DescriptionItemService(DescriptionItemRepository descriptionItemRepository, MetadataRepository metadataRepository, CatalogueRepository catalogueRepository, CatalogueMetadataCache catalogueMetadataCache, MongoIndexManager mongoIndexManager) {
         this.descriptionItemRepository = descriptionItemRepository;
         this.metadataRepository = metadataRepository;
         this.catalogueRepository = catalogueRepository;
+        this.catalogueMetadataCache = catalogueMetadataCache;
+        this.mongoIndexManager = mongoIndexManager;
     }
 
     public <R> Map<String, R> list(int catalogueId, Function<DescriptionItem, R> map) {
@@ -75,6 +82,8 @@ public class DescriptionItemService {
             catalogue.setMetadataStandardsId(null);
             catalogueRepository.save(catalogue);
         }
+        catalogueMetadataCache.evict(catalogueId);
+        mongoIndexManager.evict("archive_record_" + catalogueId);
     }
 
     @Transactional
@@ -125,7 +134,10 @@ public class DescriptionItemService {
             descriptionItem.setFieldPrecision(metadata.getFieldPrecision());
             newItems.add(descriptionItem);
         }
-        return descriptionItemRepository.saveAll(newItems);
+        List<DescriptionItem> result = descriptionItemRepository.saveAll(newItems);
+        catalogueMetadataCache.evict(catalogueId);
+        mongoIndexManager.evict("archive_record_" + catalogueId);
+        return result;
     }
 
     @Transactional
@@ -134,6 +146,11 @@ public class DescriptionItemService {
             throw new BusinessException("设置自增时，数据类型必须为数值 ");
         }
         descriptionItemRepository.updateById(descriptionItem);
+        descriptionItemRepository.findById(descriptionItem.getId())
+                .ifPresent(a -> {
+                    catalogueMetadataCache.evict(a.getCatalogueId());
+                    mongoIndexManager.evict("archive_record_" + a.getCatalogueId());
+                });
     }
 
     public List<DescriptionItem> findByMetadataId(int metadataId) {
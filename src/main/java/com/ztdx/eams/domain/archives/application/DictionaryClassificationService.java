@@ -1,6 +1,7 @@
 package com.ztdx.eams.domain.archives.application;
 
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.archives.model.DictionaryClassification;
 import com.ztdx.eams.domain.archives.repository.DictionaryClassificationRepository;
 import com.ztdx.eams.domain.archives.repository.DictionaryRepository;
@@ -18,10 +19,13 @@ public class DictionaryClassificationService {
 
     private final DictionaryRepository dictionaryRepository;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public DictionaryClassificationService(DictionaryClassificationRepository dictionaryClassificationRepository, DictionaryRepository dictionaryRepository) {
+    public DictionaryClassificationService(DictionaryClassificationRepository dictionaryClassificationRepository, DictionaryRepository dictionaryRepository, TreeCache treeCache) {
         this.dictionaryClassificationRepository = dictionaryClassificationRepository;
         this.dictionaryRepository = dictionaryRepository;
+        this.treeCache = treeCache;
     }
 
     /**
@@ -34,6 +38,7 @@ public class DictionaryClassificationService {
         }
         //存储数据
         dictionaryClassificationRepository.save(dictionaryClassification);
+        treeCache.evictAll();
     }
 
     /**
@@ -47,6 +52,7 @@ public class DictionaryClassificationService {
             //删除词典分类
             dictionaryClassificationRepository.deleteById(id);
         }
+        treeCache.evictAll();
     }
 
     /**
@@ -63,6 +69,7 @@ public class DictionaryClassificationService {
         if (dictionaryClassificationRepository.existsById(dictionaryClassification.getId())) {
             dictionaryClassificationRepository.updateById(dictionaryClassification);
         }
+        treeCache.evictAll();
     }
 
     public DictionaryClassification get(int id) {
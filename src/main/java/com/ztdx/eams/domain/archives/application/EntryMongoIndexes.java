@@ -0,0 +1,62 @@
+package com.ztdx.eams.domain.archives.application;
+
+import com.ztdx.eams.basic.repository.MongoIndexProvider;
+import com.ztdx.eams.domain.archives.model.DescriptionItem;
+import com.ztdx.eams.domain.archives.model.PropertyType;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 条目(archive_record_目录id)和原文(archive_record_originalText_目录id)集合的索引：
+ * 卷内按上级id查询、归档按来源条目查询、原文按条目id查询，以及按目录著录项中的盒号装盒、统计页数
+ */
+@Component
+public class EntryMongoIndexes implements MongoIndexProvider {
+
+    private static final Pattern ENTRY_COLLECTION = Pattern.compile("archive_record_(\\d+)");
+
+    private static final Pattern ORIGINAL_TEXT_COLLECTION = Pattern.compile("archive_record_originalText_(\\d+)");
+
+    private final CatalogueMetadataCache catalogueMetadataCache;
+
+    public EntryMongoIndexes(CatalogueMetadataCache catalogueMetadataCache) {
+        this.catalogueMetadataCache = catalogueMetadataCache;
+    }
+
+    @Override
+    public List<Index> indexes(String collectionName) {
+        Matcher matcher = ENTRY_COLLECTION.matcher(collectionName);
+        if (matcher.matches()) {
+            return entryIndexes(Integer.parseInt(matcher.group(1)));
+        }
+        if (ORIGINAL_TEXT_COLLECTION.matcher(collectionName).matches()) {
+            List<Index> indexes = new ArrayList<>();
+            indexes.add(new Index().on("entryId", Sort.Direction.ASC).on("gmtDeleted", Sort.Direction.ASC).background());
+            //原文处理时按md5查找已处理过的相同文件
+            indexes.add(new Index().on("md5", Sort.Direction.ASC).background());
+            return indexes;
+        }
+        return Collections.emptyList();
+    }
+
+    private List<Index> entryIndexes(int catalogueId) {
+        List<Index> indexes = new ArrayList<>();
+        indexes.add(new Index().on("parentId", Sort.Direction.ASC).on("gmtDeleted", Sort.Direction.ASC).background());
+        indexes.add(new Index().on("srcEntryId", Sort.Direction.ASC).sparse().background());
+        indexes.add(new Index().on("gmtDeleted", Sort.Direction.ASC).background());
+
+        //盒号著录项随目录配置变化，修改著录项时由DescriptionItemService通知重新补建
+        DescriptionItem boxNumber = catalogueMetadataCache.get(catalogueId).getItem(PropertyType.BoxNumber);
+        if (boxNumber != null) {
+            indexes.add(new Index().on("items." + boxNumber.getMetadataName(), Sort.Direction.ASC).on("gmtDeleted", Sort.Direction.ASC).background());
+        }
+        return indexes;
+    }
+}
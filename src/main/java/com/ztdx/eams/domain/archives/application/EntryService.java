@@ -3,10 +3,11 @@ package com.ztdx.eams.domain.archives.application;
 import com.ztdx.eams.basic.exception.BusinessException;
 import com.ztdx.eams.basic.exception.EntryValueConverException;
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import com.ztdx.eams.basic.repository.CursorPage;
+import com.ztdx.eams.basic.utils.ExpiringFileStore;
 import com.ztdx.eams.basic.utils.FileHandler;
 import com.ztdx.eams.domain.archives.application.task.EntryAsyncTask;
 import com.ztdx.eams.domain.archives.model.*;
-import com.ztdx.eams.domain.archives.model.Dictionary;
 import com.ztdx.eams.domain.archives.model.entryItem.EntryItemConverter;
 import com.ztdx.eams.domain.archives.model.event.EntryBoxNumberValidateEvent;
 import com.ztdx.eams.domain.archives.repository.*;
@@ -15,10 +16,9 @@ import com.ztdx.eams.domain.archives.repository.elasticsearch.OriginalTextElasti
 import com.ztdx.eams.domain.archives.repository.mongo.EntryMongoRepository;
 import com.ztdx.eams.domain.archives.repository.mongo.IdGeneratorRepository;
 import com.ztdx.eams.domain.archives.repository.mongo.IdGeneratorValue;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.elasticsearch.action.search.SearchRequestBuilder;
-import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.Operator;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -30,23 +30,29 @@ import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.aggregation.AggregatedPage;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.repository.support.PageableExecutionUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -65,6 +71,18 @@ public class EntryService {
     private static final String FULL_CONTENT = "full_content";
     private static final String INDEX_NAME_PREFIX = "archive_record_";
 
+    //导出Excel时内存中保留的行数
+    private static final int EXCEL_WINDOW_SIZE = 100;
+
+    //批量写入时自增字段先不取编号，校验通过后由assignIncrements分配
+    private static final BiFunction<String, Integer, Long> DEFERRED_INCREMENT = (idKey, inc) -> null;
+
+    /**
+     * 列表展示用到的条目字段，著录项按用户列配置另取
+     */
+    private static final String[] SOURCE_FIELDS = {"id", "catalogueId", "catalogueType", "archiveId", "archiveType"
+            , "archiveContentType", "fondsId", "owner", "parentId", "gmtCreate", "gmtModified"};
+
     private EntryElasticsearchRepository entryElasticsearchRepository;
 
     private EntryMongoRepository entryMongoRepository;
@@ -89,14 +107,15 @@ public class EntryService {
 
     private ApplicationContext applicationContext;
 
-    private ContentTypeRepository contentTypeRepository;
-
-    private DictionaryRepository dictionaryRepository;
+    private CatalogueMetadataCache catalogueMetadataCache;
 
-    private DictionaryClassificationRepository dictionaryClassificationRepository;
+    private ExpiringFileStore expiringFileStore;
 
+    //导入时每多少行校验保存一次
+    @Value("${entry.import.chunk-size:1000}")
+    private int importChunkSize;
 
-    public EntryService(EntryElasticsearchRepository entryElasticsearchRepository, EntryMongoRepository entryMongoRepository, DescriptionItemRepository descriptionItemRepository, CatalogueRepository catalogueRepository, ArchivesRepository archivesRepository, ArchivesGroupRepository archivesGroupRepository, ElasticsearchOperations elasticsearchOperations, OriginalTextElasticsearchRepository originalTextElasticsearchRepository, MongoOperations mongoOperations, IdGeneratorRepository idGeneratorRepository, EntryAsyncTask entryAsyncTask, ApplicationContext applicationContext, ContentTypeRepository contentTypeRepository, DictionaryRepository dictionaryRepository, DictionaryClassificationRepository dictionaryClassificationRepository) {
+    public EntryService(EntryElasticsearchRepository entryElasticsearchRepository, EntryMongoRepository entryMongoRepository, DescriptionItemRepository descriptionItemRepository, CatalogueRepository catalogueRepository, ArchivesRepository archivesRepository, ArchivesGroupRepository archivesGroupRepository, ElasticsearchOperations elasticsearchOperations, OriginalTextElasticsearchRepository originalTextElasticsearchRepository, MongoOperations mongoOperations, IdGeneratorRepository idGeneratorRepository, EntryAsyncTask entryAsyncTask, ApplicationContext applicationContext, CatalogueMetadataCache catalogueMetadataCache, ExpiringFileStore expiringFileStore) {
         this.entryElasticsearchRepository = entryElasticsearchRepository;
         this.entryMongoRepository = entryMongoRepository;
         this.descriptionItemRepository = descriptionItemRepository;
@@ -109,23 +128,23 @@ public class EntryService {
         this.idGeneratorRepository = idGeneratorRepository;
         this.entryAsyncTask = entryAsyncTask;
         this.applicationContext = applicationContext;
-        this.contentTypeRepository = contentTypeRepository;
-        this.dictionaryRepository = dictionaryRepository;
-        this.dictionaryClassificationRepository = dictionaryClassificationRepository;
+        this.catalogueMetadataCache = catalogueMetadataCache;
+        this.expiringFileStore = expiringFileStore;
     }
 
     public Entry save(Entry entry) {
-        Catalogue catalog = catalogueRepository.findById(entry.getCatalogueId()).orElse(null);
+        CatalogueMetadata metadata = catalogueMetadataCache.get(entry.getCatalogueId());
+        Catalogue catalog = metadata.getCatalogue();
         if (catalog == null) {
             throw new InvalidArgumentException("目录id不存在");
         }
 
-        Archives archives = archivesRepository.findById(catalog.getArchivesId()).orElse(null);
+        Archives archives = metadata.getArchives();
         if (archives == null) {
             throw new InvalidArgumentException("档案库不存在");
         }
 
-        ArchivesGroup archivesGroup = archivesGroupRepository.findById(archives.getArchivesGroupId()).orElse(null);
+        ArchivesGroup archivesGroup = metadata.getArchivesGroup();
         if (archivesGroup == null) {
             throw new InvalidArgumentException("档案库分组不存在");
         }
@@ -188,6 +207,91 @@ public class EntryService {
             , Integer owner
             , Pageable pageable
             , int isDeleted) {
+        return search(catalogueId, queryString, itemQuery, parentId, owner, pageable, isDeleted, null);
+    }
+
+    /**
+     * ES只取id，条目从mongo加载，after为上一页返回的游标
+     */
+    public CursorPage<Entry> search(int catalogueId
+            , String queryString
+            , QueryBuilder itemQuery
+            , String parentId
+            , Integer owner
+            , Pageable pageable
+            , int isDeleted
+            , String after) {
+        BoolQueryBuilder query = searchQuery(queryString, itemQuery, parentId, owner, isDeleted);
+
+        CursorPage<Entry> searchResult = entryElasticsearchRepository.searchAfter(
+                query, pageable, new String[]{"id"}, after, new String[]{getIndexName(catalogueId)}
+        );
+
+        List<String> ids = searchResult.getContent().stream().map(Entry::getId).collect(Collectors.toList());
+        Map<String, Integer> order = new HashMap<>(ids.size() * 2);
+        for (int i = 0; i < ids.size(); i++) {
+            order.put(ids.get(i), i);
+        }
+
+        List<Entry> result = (List<Entry>) entryMongoRepository.findAllById(ids, getIndexName(catalogueId));
+
+        result.sort(Comparator.comparing(a -> order.get(a.getId())));
+
+        result.forEach(a -> {
+            convertEntryItems(a, EntryItemConverter::format, false);
+            Map<String, Object> items = a.getItems();
+            items.put("id", a.getId());
+        });
+
+        return new CursorPage<>(result, pageable, searchResult.getTotalElements(), searchResult.getCursor());
+    }
+
+    /**
+     * 直接以ES的_source作为结果，不再回查mongo。只取columns中的著录项(为空时取全部)，after为上一页返回的游标
+     */
+    public CursorPage<Entry> searchSource(int catalogueId
+            , String queryString
+            , QueryBuilder itemQuery
+            , String parentId
+            , Integer owner
+            , Pageable pageable
+            , int isDeleted
+            , Collection<String> columns
+            , String after) {
+        BoolQueryBuilder query = searchQuery(queryString, itemQuery, parentId, owner, isDeleted);
+
+        String[] includes = null;
+        if (columns != null && !columns.isEmpty()) {
+            List<String> fields = new ArrayList<>(Arrays.asList(SOURCE_FIELDS));
+            columns.forEach(a -> fields.add("items." + a));
+            includes = fields.toArray(new String[0]);
+        }
+
+        CursorPage<Entry> result = entryElasticsearchRepository.searchAfter(
+                query, pageable, includes, after, new String[]{getIndexName(catalogueId)}
+        );
+
+        Map<String, DescriptionItem> descriptionItems = getDescriptionItems(catalogueId);
+        Collection<String> names = includes == null ? descriptionItems.keySet() : columns;
+        result.forEach(a -> {
+            if (a.getItems() == null) {
+                a.setItems(new HashMap<>());
+            }
+            Map<String, Object> items = new HashMap<>();
+            names.forEach(name -> {
+                DescriptionItem item = descriptionItems.get(name);
+                if (item != null) {
+                    items.put(name, EntryItemConverter.format(a, item));
+                }
+            });
+            items.put("id", a.getId());
+            a.setItems(items);
+        });
+
+        return result;
+    }
+
+    private BoolQueryBuilder searchQuery(String queryString, QueryBuilder itemQuery, String parentId, Integer owner, int isDeleted) {
         BoolQueryBuilder query = QueryBuilders.boolQuery();
         if (queryString != null && queryString.length() > 0) {
             query.must(queryStringQuery(queryString).defaultOperator(Operator.AND));
@@ -212,35 +316,25 @@ public class EntryService {
         }
 
         query.filter(termQuery("gmtDeleted", isDeleted));
-
-        Page<Entry> searchResult = entryElasticsearchRepository.search(
-                query, pageable, new String[]{getIndexName(catalogueId)}
-        );
-
-        List<String> ids = searchResult.getContent().stream().map(Entry::getId).collect(Collectors.toList());
-
-        List<Entry> result = (List<Entry>) entryMongoRepository.findAllById(ids, getIndexName(catalogueId));
-
-        result.sort(Comparator.comparing(a -> ids.indexOf(a.getId())));
-
-        result.forEach(a -> {
-            convertEntryItems(a, EntryItemConverter::format, false);
-            Map<String, Object> items = a.getItems();
-            items.put("id", a.getId());
-        });
-
-        return PageableExecutionUtils.getPage(result, pageable, searchResult::getTotalElements);
+        return query;
     }
 
     private void convertEntryItems(Entry entry, BiFunction<Entry, DescriptionItem, Object> operator, boolean isGenerator, boolean isValidate) {
+        convertEntryItems(entry, operator, isGenerator ? idGeneratorRepository::next : null, isValidate);
+    }
+
+    /**
+     * @param generator 自增字段编号生成(编号键, 步长)，为空时不生成
+     */
+    private void convertEntryItems(Entry entry, BiFunction<Entry, DescriptionItem, Object> operator, BiFunction<String, Integer, Long> generator, boolean isValidate) {
         Map<String, DescriptionItem> descriptionItemMap = this.getDescriptionItems(entry.getCatalogueId());
         Map<String, Object> convert = new HashMap<>();
 
         descriptionItemMap.forEach((key, item) -> {
             Object val;
-            if (isGenerator && item.getIsIncrement() == 1 && item.getIncrement() > 0) {
+            if (generator != null && item.getIsIncrement() == 1 && item.getIncrement() > 0) {
                 String idKey = String.format(IdGeneratorValue.ENTRY_ITEM_INCREMENT_FORMAT, entry.getCatalogueId(), item.getMetadataName());
-                val = idGeneratorRepository.get(idKey, item.getIncrement());
+                val = generator.apply(idKey, item.getIncrement());
             } else {
                 val = operator.apply(entry, item);
             }
@@ -257,6 +351,22 @@ public class EntryService {
         entry.setItems(convert);
     }
 
+    /**
+     * 为校验通过、将要写入的条目分配自增字段编号，每个自增字段按条目数一次预留连续编号，校验失败的行不占用编号
+     */
+    private void assignIncrements(int catalogueId, List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (DescriptionItem item : catalogueMetadataCache.get(catalogueId).getIncrementItems()) {
+            String idKey = String.format(IdGeneratorValue.ENTRY_ITEM_INCREMENT_FORMAT, catalogueId, item.getMetadataName());
+            IdRange range = idGeneratorRepository.reserve(idKey, item.getIncrement(), entries.size());
+            for (Entry entry : entries) {
+                entry.getItems().put(item.getMetadataName(), range.next());
+            }
+        }
+    }
+
     private void convertEntryItems(Entry entry, BiFunction<Entry, DescriptionItem, Object> operator, boolean isGenerator) {
         convertEntryItems(entry, operator, isGenerator, false);
     }
@@ -279,7 +389,7 @@ public class EntryService {
     }
 
     private Map<String, DescriptionItem> getDescriptionItems(int catalogueId) {
-        return descriptionItemRepository.findByCatalogueId(catalogueId).stream().collect(Collectors.toMap(DescriptionItem::getMetadataName, (d) -> d, (d1, d2) -> d2));
+        return catalogueMetadataCache.get(catalogueId).getItemsByName();
     }
 
     public Map<Integer, Long> aggsCatalogueCount(List<Integer> catalogueIds, List<Integer> archiveContentType, String keyWord, Integer archiveType) {
@@ -771,35 +881,33 @@ public class EntryService {
     }
 
 
-    public Page<Entry> scrollEntry(boolean archivingAll, int catalogueId, Collection<String> srcData, int page, int size) {
+    /**
+     * 按_id游标分批读取条目
+     *
+     * @param after 上一批返回的cursor，第一批为空
+     */
+    public CursorPage<Entry> scrollEntry(boolean archivingAll, int catalogueId, Collection<String> srcData, String after, int size) {
         Query query;
         if (archivingAll) {
             query = query(where("gmtDeleted")
-                    .is(0))
-                    .with(PageRequest.of(page, size));
+                    .is(0));
         } else {
             query = query(where("gmtDeleted")
                     .is(0)
                     .and("_id")
-                    .in(srcData))
-                    .with(PageRequest.of(page, size));
+                    .in(srcData));
         }
-        long total = mongoOperations.count(query, getIndexName(catalogueId));
-        List<Entry> list = entryMongoRepository.findAll(query, getIndexName(catalogueId));
-        return PageableExecutionUtils.getPage(list, PageRequest.of(page, size), () -> total);
+        return entryMongoRepository.findAll(query, Sort.unsorted(), after, size, false, getIndexName(catalogueId));
     }
 
-    public Page<Entry> scrollSubEntry(int catalogueId, Collection<String> parentIds, int page, int size) {
+    public CursorPage<Entry> scrollSubEntry(int catalogueId, Collection<String> parentIds, String after, int size) {
         Query query = query(where("gmtDeleted")
                 .is(0)
                 .and("parentId")
                 .in(parentIds));
-        long total = mongoOperations.count(query, getIndexName(catalogueId));
-        List<Entry> list = entryMongoRepository.findAll(query, getIndexName(catalogueId));
-        return PageableExecutionUtils.getPage(list, PageRequest.of(page, size), () -> total);
+        return entryMongoRepository.findAll(query, Sort.unsorted(), after, size, false, getIndexName(catalogueId));
     }
 
-    //TODO @lijie mongo中的索引 parentId parentCatalogueId catalogueId srcEntryId srcCatalogueId
     public List<ArchivingResult> archivingEntry(
             int trgId
             , Integer parentTrgId
@@ -812,13 +920,14 @@ public class EntryService {
             , Function<Entry, String> getTitle
     ) {
 
-        Catalogue trgCatalogue = catalogueRepository.findById(trgId).orElse(null);
+        CatalogueMetadata trgMetadata = catalogueMetadataCache.get(trgId);
+        Catalogue trgCatalogue = trgMetadata.getCatalogue();
         Assert.notNull(trgCatalogue, "目标目录不存在");
 
-        Archives trgArchives = archivesRepository.findById(trgCatalogue.getArchivesId()).orElse(null);
+        Archives trgArchives = trgMetadata.getArchives();
         Assert.notNull(trgArchives, "目标档案库不存在");
 
-        ArchivesGroup trgArchivesGroup = archivesGroupRepository.findById(trgArchives.getArchivesGroupId()).orElse(null);
+        ArchivesGroup trgArchivesGroup = trgMetadata.getArchivesGroup();
         Assert.notNull(trgArchivesGroup, "目标档案库分组不存在");
 
         List<Entry> targets = new ArrayList<>();
@@ -844,7 +953,8 @@ public class EntryService {
                         , parentId
                         , owner
                         , srcFields
-                        , trgFields);
+                        , trgFields
+                        , DEFERRED_INCREMENT);
                 targets.add(add);
             } catch (EntryValueConverException e) {
                 msg = e.getMessage();
@@ -863,6 +973,7 @@ public class EntryService {
             );
         });
 
+        assignIncrements(trgId, targets);
         entryMongoRepository.saveAll(targets);
         entryAsyncTask.indexAll(targets, trgId);
 
@@ -884,7 +995,8 @@ public class EntryService {
             , String parentId
             , int owner
             , List<String> srcFields
-            , List<String> trgFields) {
+            , List<String> trgFields
+            , BiFunction<String, Integer, Long> generator) {
         Entry result = new Entry();
         result.setId(id);
         result.setCatalogueId(trgId);
@@ -909,70 +1021,83 @@ public class EntryService {
         }
         result.setItems(items);
 
-        this.convertEntryItems(result, EntryItemConverter::from, true, true);
+        this.convertEntryItems(result, EntryItemConverter::from, generator, true);
 
         return result;
     }
 
-    public void inBox(int catalogueId, Collection<String> ids, String boxCode) {
-        DescriptionItem item =
-                descriptionItemRepository.findByCatalogueIdAndPropertyType(catalogueId, PropertyType.BoxNumber);
-        if (item == null) {
-            throw new InvalidArgumentException("没有盒号字段");
-        }
+    /**
+     * 装盒，只更新盒号字段。返回条目原来所在的其它盒的盒号，这些盒的统计也要重新计算
+     */
+    public Set<String> inBox(int catalogueId, Collection<String> ids, String boxCode) {
+        String boxNumberName = getBoxNumberName(catalogueId);
 
-        Iterable<Entry> list = findAllById(ids, catalogueId);
-        if (list == null || !list.iterator().hasNext()) {
+        List<Entry> list = entryMongoRepository.findAll(query(where("_id").in(ids)), getIndexName(catalogueId));
+        if (list.isEmpty()) {
             throw new InvalidArgumentException("条目不存在");
         }
 
-        list.forEach(entry -> entry.getItems().put(item.getMetadataName(), boxCode));
+        Set<String> result = new HashSet<>();
+        list.forEach(entry -> {
+            Object oldBoxCode = entry.getItems().get(boxNumberName);
+            if (oldBoxCode != null && !StringUtils.isEmpty(oldBoxCode.toString()) && !boxCode.equals(oldBoxCode.toString())) {
+                result.add(oldBoxCode.toString());
+            }
+            entry.getItems().put(boxNumberName, boxCode);
+        });
 
-        entryMongoRepository.saveAll(list);
+        entryMongoRepository.updateAllById(
+                list.stream().map(Entry::getId).collect(Collectors.toList())
+                , Update.update("items." + boxNumberName, boxCode)
+                , getIndexName(catalogueId));
         entryAsyncTask.indexAll(list, catalogueId);
+        return result;
     }
 
+    /**
+     * 拆盒，只更新有盒号的条目，返回涉及的盒号
+     */
     public Set<String> unBox(int catalogueId, Collection<String> ids) {
-        DescriptionItem item =
-                descriptionItemRepository.findByCatalogueIdAndPropertyType(catalogueId, PropertyType.BoxNumber);
-        if (item == null) {
-            throw new InvalidArgumentException("没有盒号字段");
-        }
+        String boxNumberName = getBoxNumberName(catalogueId);
 
-        Iterable<Entry> list = findAllById(ids, catalogueId);
-        if (list == null || !list.iterator().hasNext()) {
+        List<Entry> list = entryMongoRepository.findAll(query(where("_id").in(ids)), getIndexName(catalogueId));
+        if (list.isEmpty()) {
             throw new InvalidArgumentException("条目不存在");
         }
 
         Set<String> result = new HashSet<>();
+        List<Entry> unBoxed = new ArrayList<>();
         list.forEach(entry -> {
-            Object boxCode = entry.getItems().getOrDefault(item.getMetadataName(), null);
+            Object boxCode = entry.getItems().getOrDefault(boxNumberName, null);
             if (boxCode == null || StringUtils.isEmpty(boxCode.toString())) {
                 return;
             }
 
             //盒号字段置空
-            entry.getItems().put(item.getMetadataName(), null);
+            entry.getItems().put(boxNumberName, null);
+            unBoxed.add(entry);
 
             result.add(boxCode.toString());
         });
 
-        entryMongoRepository.saveAll(list);
-        entryAsyncTask.indexAll(list, catalogueId);
+        unBox(unBoxed, boxNumberName, catalogueId);
 
         return result;
     }
 
+    /**
+     * 按盒号分组统计盒内条目的页数和
+     */
     public List<GroupCount> groupCountPageCountByBox(Collection<String> boxCodes, int catalogueId) {
 
         DescriptionItem boxNoItem =
-                descriptionItemRepository.findByCatalogueIdAndPropertyType(catalogueId, PropertyType.BoxNumber);
+                catalogueMetadataCache.get(catalogueId).getItem(PropertyType.BoxNumber);
         if (boxNoItem == null) {
             return null;
         }
 
         DescriptionItem pageTotalItem =
-                descriptionItemRepository.findByCatalogueIdAndPropertyType(catalogueId, PropertyType.PageTotal);
+                catalogueMetadataCache.get(catalogueId).getItem(PropertyType.PageTotal);
         if (pageTotalItem == null) {
             return null;
         }
@@ -989,19 +1114,22 @@ public class EntryService {
         return mongoOperations.aggregate(agg, getIndexName(catalogueId), GroupCount.class).getMappedResults();
     }
 
+    /**
+     * 按盒号分组的条目id，只读取id和盒号字段
+     */
     public Map<String, List<String>> groupByBox(Collection<String> boxCodes, int catalogueId) {
         DescriptionItem boxNoItem =
-                descriptionItemRepository.findByCatalogueIdAndPropertyType(catalogueId, PropertyType.BoxNumber);
+                catalogueMetadataCache.get(catalogueId).getItem(PropertyType.BoxNumber);
         if (boxNoItem == null) {
             return null;
         }
 
         String boxNoField = String.format("items.%s", boxNoItem.getMetadataName());
 
-        return entryMongoRepository.findAll(
-                query(where(boxNoField).in(boxCodes).and("gmtDeleted").is(0))
-                , getIndexName(catalogueId)
-        ).stream()
+        Query query = query(where(boxNoField).in(boxCodes).and("gmtDeleted").is(0));
+        query.fields().include("_id").include(boxNoField);
+
+        return entryMongoRepository.findAll(query, getIndexName(catalogueId)).stream()
                 .collect(
                         Collectors.groupingBy(
                                 (Entry a) -> a.getItems().get(boxNoItem.getMetadataName()).toString()
@@ -1016,362 +1144,288 @@ public class EntryService {
     }
 
     public void unBoxByBoxCode(int catalogueId, List<String> boxCodes) {
-
-        DescriptionItem item =
-                descriptionItemRepository.findByCatalogueIdAndPropertyType(catalogueId, PropertyType.BoxNumber);
-        if (item == null) {
-            throw new InvalidArgumentException("没有盒号字段");
-        }
-
-        String boxNumberColumnName = String.format("items.%s", item.getMetadataName());
+        String boxNumberName = getBoxNumberName(catalogueId);
 
         List<Entry> searchResult = entryMongoRepository.findAll(
-                query(where(boxNumberColumnName).in(boxCodes))
+                query(where("items." + boxNumberName).in(boxCodes))
                 , getIndexName(catalogueId)
         );
 
-        searchResult.forEach(entry -> entry.getItems().put(item.getMetadataName(), null));
+        searchResult.forEach(entry -> entry.getItems().put(boxNumberName, null));
+
+        unBox(searchResult, boxNumberName, catalogueId);
+    }
+
+    /**
+     * 盒号字段置空，一次更新所有条目
+     */
+    private void unBox(List<Entry> entries, String boxNumberName, int catalogueId) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        entryMongoRepository.updateAllById(
+                entries.stream().map(Entry::getId).collect(Collectors.toList())
+                , Update.update("items." + boxNumberName, null)
+                , getIndexName(catalogueId));
+        entryAsyncTask.indexAll(entries, catalogueId);
+    }
 
-        entryMongoRepository.saveAll(searchResult);
-        entryAsyncTask.indexAll(searchResult, catalogueId);
+    private String getBoxNumberName(int catalogueId) {
+        DescriptionItem item =
+                catalogueMetadataCache.get(catalogueId).getItem(PropertyType.BoxNumber);
+        if (item == null) {
+            throw new InvalidArgumentException("没有盒号字段");
+        }
+        return item.getMetadataName();
     }
 
     public Page<Entry> listInBox(int catalogueId, String boxCode, Pageable pageable) {
-        DescriptionItem boxNumberItem = descriptionItemRepository.findByCatalogueIdAndPropertyType(catalogueId, PropertyType.BoxNumber);
+        DescriptionItem boxNumberItem = catalogueMetadataCache.get(catalogueId).getItem(PropertyType.BoxNumber);
         String prefix = "items.%s";
         String boxNumberColumnName = String.format(prefix, boxNumberItem.getMetadataName());
 
         Query query = query(where(boxNumberColumnName).is(boxCode)).with(pageable);
-        long total = mongoOperations.count(query, getIndexName(catalogueId));
         List<Entry> list = entryMongoRepository.findAll(query, getIndexName(catalogueId));
-        return PageableExecutionUtils.getPage(list, pageable, () -> total);
+        return PageableExecutionUtils.getPage(list, pageable, () -> mongoOperations.count(query(where(boxNumberColumnName).is(boxCode)), getIndexName(catalogueId)));
     }
 
-    //统计（按档案类型-保管期限）
-    public Map<String, Object> statisticsTypeTerm(int fondsId, int beginYear, int endYear) {
-        //查询全宗下归档库除去案卷所有目录
-        List<Integer> catalogueIds = catalogueRepository.findCatalogueIdByfondsId(fondsId);
+    /**
+     * 按游标分页查询盒内条目，withTotal为false时不统计总数
+     */
+    public CursorPage<Entry> listInBox(int catalogueId, String boxCode, Sort sort, String after, int size, boolean withTotal) {
+        DescriptionItem boxNumberItem = catalogueMetadataCache.get(catalogueId).getItem(PropertyType.BoxNumber);
+        String boxNumberColumnName = String.format("items.%s", boxNumberItem.getMetadataName());
 
-        Collection<String> indices = new ArrayList<>();
-        if (catalogueIds == null || catalogueIds.size() == 0) {
-            indices.add(INDEX_NAME_PREFIX + "*");
-        } else {
-            catalogueIds.forEach(a -> indices.add(getIndexName(a)));
+        return entryMongoRepository.findAll(query(where(boxNumberColumnName).is(boxCode)), sort, after, size, withTotal, getIndexName(catalogueId));
+    }
+
+    /*
+     * 获取导入Excel模板，直接写入输出流
+     * */
+    public void excelTemplate(int catalogueId, OutputStream os) throws IOException {
+        //根据目录类型确定库结构
+        CatalogueMetadata metadata = catalogueMetadataCache.get(catalogueId);
+        Catalogue catalogue = metadata.getCatalogue();
+        if (catalogue == null) {
+            throw new InvalidArgumentException("目录不存在");
         }
-        SearchRequestBuilder srBuilder = elasticsearchOperations.getClient().prepareSearch(indices.toArray(new String[0]));
-//        SearchRequestBuilder srBuilder = elasticsearchOperations.getClient().prepareSearch("archive_record_10");
-        srBuilder.setTypes("record").addAggregation(
-                AggregationBuilders
-                        .terms("archiveContentType")
-                        .field("archiveContentType")
-                        .subAggregation(AggregationBuilders
-                                .terms("timeLimitForStorage")
-                                .field("timeLimitForStorage.keyword"))).setSize(0);
 
-        BoolQueryBuilder query = QueryBuilders.boolQuery();
-        query.filter(QueryBuilders.termQuery("gmtDeleted", 0));
-        query.filter(QueryBuilders.rangeQuery("year").gte(beginYear).lte(endYear));
-        srBuilder.setQuery(query);
+        SXSSFWorkbook wb = new SXSSFWorkbook(EXCEL_WINDOW_SIZE);
+        try {
+            FileHandler.buildSheet(wb, sheetName(catalogue), Collections.singletonList(displayNames(metadata)));
+            if (catalogue.getCatalogueType().equals(CatalogueType.Folder)) {
+                //传统立卷
+                //通过档案库id和目录类型获得卷内目录
+                Catalogue folderFileCatalogue = metadata.getFolderFileCatalogue();
+                if (folderFileCatalogue == null) {
+                    throw new InvalidArgumentException("卷内目录不存在");
+                }
+                FileHandler.buildSheet(wb, "卷内", Collections.singletonList(displayNames(catalogueMetadataCache.get(folderFileCatalogue.getId()))));
+            }
+            wb.write(os);
+        } finally {
+            wb.dispose();
+            wb.close();
+        }
+    }
 
-        SearchResponse response = srBuilder.get();
+    /**
+     * 导入Excel文件条目数据：逐行流式读取，每importChunkSize行校验保存一次，
+     * 错误数据写入有效期内的临时文件，返回总数、错误数和错误数据标识(有错误时)
+     */
+    public Map<String, Object> importEntry(int catalogueId, File tmpFile, int userId) {
+        CatalogueMetadata metadata = catalogueMetadataCache.get(catalogueId);
+        Catalogue catalogue = metadata.getCatalogue();
+        if (catalogue == null) {
+            throw new InvalidArgumentException("目录不存在");
+        }
+        if (metadata.getArchives() == null) {
+            throw new InvalidArgumentException("档案库不存在");
+        }
+        if (metadata.getArchivesGroup() == null) {
+            throw new InvalidArgumentException("档案库分组不存在");
+        }
 
-        List<ContentType> contentTypes = contentTypeRepository.findAll();
+        //存储错误数据的Excel对象，超出窗口的行写入临时文件
+        SXSSFWorkbook wb = new SXSSFWorkbook(EXCEL_WINDOW_SIZE);
+        try {
+            //第几个sheet导入到哪个目录
+            List<CatalogueImport> imports = new ArrayList<>();
+            imports.add(new CatalogueImport(metadata, wb.createSheet(sheetName(catalogue)), userId));
+            //传统立卷
+            if (catalogue.getCatalogueType().equals(CatalogueType.Folder)) {
+                Catalogue folderFileCatalogue = metadata.getFolderFileCatalogue();
+                if (folderFileCatalogue == null) {
+                    throw new InvalidArgumentException("卷内目录不存在");
+                }
+                imports.add(new CatalogueImport(catalogueMetadataCache.get(folderFileCatalogue.getId()), wb.createSheet("卷内"), userId));
+            }
 
-        Optional<DictionaryClassification> optional = dictionaryClassificationRepository.findByCode("BGQX");
-        if (!optional.isPresent()) {
-            throw new BusinessException("保管期限词典分类不存在");
-        }
-        List<Dictionary> dictionaries = dictionaryRepository.findByClassificationId(optional.get().getId());
-
-        List<Terms.Bucket> typeBuckets = (List<Terms.Bucket>) ((Terms) response.getAggregations().get("archiveContentType")).getBuckets();
-
-        HashMap<String, Object> result = new HashMap<>();
-        List<Map<String, Object>> items = new ArrayList<>();
-
-        //内容类型
-        for (Terms.Bucket typeBucket : typeBuckets) {
-            //档案内容类型总数
-            long otherTotal = typeBucket.getDocCount();
-
-            for (ContentType contentType : contentTypes) {
-                if (contentType.getId() == typeBucket.getKeyAsNumber().intValue()) {
-                    HashMap<String, Object> map = new HashMap<>();
-                    map.put("name", contentType.getName());
-
-                    //保管期限
-                    Terms terms = typeBucket.getAggregations().get("timeLimitForStorage");
-                    List<Terms.Bucket> timeLimitBuckets = (List<Terms.Bucket>) terms.getBuckets();
-                    for (Dictionary dictionary : dictionaries) {
-                        long timeLimitTotal = 0;
-                        for (Terms.Bucket timeLimitBucket : timeLimitBuckets) {
-
-                            if (dictionary.getName().equals(timeLimitBucket.getKey())
-                                    || dictionary.getCode().equals(timeLimitBucket.getKey())
-                                    || (dictionary.getCode() + " " + dictionary.getName()).equals(timeLimitBucket.getKey())
-                                    || (dictionary.getName() + " " + dictionary.getCode()).equals(timeLimitBucket.getKey())) {
-                                //减去使用的保管期限类型数量
-                                otherTotal -= timeLimitBucket.getDocCount();
-
-                                timeLimitTotal = timeLimitBucket.getDocCount();
-                            }
-                        }
-                        map.put(dictionary.getName(), timeLimitTotal);
-                    }
-                    map.put("其他", otherTotal);
-                    map.put("合计", typeBucket.getDocCount());
-                    items.add(map);
+            FileHandler.xlsxRead(tmpFile, (sheetIndex, row) -> {
+                if (sheetIndex < imports.size()) {
+                    imports.get(sheetIndex).row(row);
                 }
+            });
+            imports.forEach(CatalogueImport::flush);
+
+            int total = imports.stream().mapToInt(a -> a.total).sum();
+            int errorTotal = imports.stream().mapToInt(a -> a.errorTotal).sum();
+            Map<String, Object> result = new HashMap<>();
+            result.put("total", total);
+            result.put("errorTotal", errorTotal);
+            if (errorTotal > 0) {
+                File errorFile = expiringFileStore.newFile(".xlsx");
+                try (OutputStream os = new BufferedOutputStream(new FileOutputStream(errorFile))) {
+                    wb.write(os);
+                }
+                result.put("errorToken", expiringFileStore.register(errorFile, userId));
+            }
+            return result;
+        } catch (IOException e) {
+            throw new BusinessException("错误数据写入失败", e);
+        } finally {
+            wb.dispose();
+            try {
+                wb.close();
+            } catch (IOException ignored) {
             }
         }
-        List<String> timeLimitNames = new ArrayList<>();
-        dictionaries.forEach(a -> timeLimitNames.add(a.getName()));
-
-        timeLimitNames.add("其他");
-        timeLimitNames.add("合计");
-        result.put("fields", timeLimitNames);
-        result.put("items", items);
-        return result;
     }
 
-    //统计（按档案类型-年度）
-    public Map<String, Object> statisticsTypeYear(int fondsId, int beginYear, int endYear) {
-        //查询全宗下归档库除去案卷所有目录
-        List<Integer> catalogueIds = catalogueRepository.findCatalogueIdByfondsId(fondsId);
-
-        Collection<String> indices = new ArrayList<>();
-        if (catalogueIds == null || catalogueIds.size() == 0) {
-            indices.add(INDEX_NAME_PREFIX + "*");
-        } else {
-            catalogueIds.forEach(a -> indices.add(getIndexName(a)));
+    private String sheetName(Catalogue catalogue) {
+        switch (catalogue.getCatalogueType()) {
+            case Folder:
+                return "案卷";
+            case File:
+                return "一文一件";
+            default:
+                return "项目";
         }
-        SearchRequestBuilder srBuilder = elasticsearchOperations.getClient().prepareSearch(indices.toArray(new String[0]));
-//        SearchRequestBuilder srBuilder = elasticsearchOperations.getClient().prepareSearch(INDEX_NAME_PREFIX + "10");
-        srBuilder.setTypes("record").addAggregation(
-                AggregationBuilders
-                        .terms("year")
-                        .field("year")
-                        .subAggregation(AggregationBuilders
-                                .terms("archiveContentType")
-                                .field("archiveContentType"))).setSize(0);
-
-        BoolQueryBuilder query = QueryBuilders.boolQuery();
-        query.filter(QueryBuilders.termQuery("gmtDeleted", 0));
-        query.filter(QueryBuilders.rangeQuery("year").gte(beginYear).lte(endYear));
-        srBuilder.setQuery(query);
+    }
 
-        SearchResponse response = srBuilder.get();
+    private List<String> displayNames(CatalogueMetadata metadata) {
+        return metadata.getDescriptionItems().stream().map(DescriptionItem::getDisplayName).collect(Collectors.toList());
+    }
 
-        List<ContentType> contentTypes = contentTypeRepository.findAll();
+    /**
+     * 一个sheet导入到一个目录：首行为标题，数据行攒够importChunkSize行后校验保存，错误行写入错误sheet
+     */
+    private class CatalogueImport {
+        private final Catalogue catalogue;
 
-        List<Terms.Bucket> yearBuckets = (List<Terms.Bucket>) ((Terms) response.getAggregations().get("year")).getBuckets();
+        private final Archives archives;
 
-        HashMap<String, Object> result = new HashMap<>();
-        List<Map<String, Object>> items = new ArrayList<>();
+        private final ArchivesGroup archivesGroup;
 
-        //年度
-        for (int year = beginYear; year <= endYear; year++) {
+        //未对应到标题的著录项
+        private final List<DescriptionItem> descriptionItems;
 
-            HashMap<String, Object> map = new HashMap<>();
-            map.put("name", year);
-            boolean flag = false;
+        private final Sheet errorSheet;
 
-            for (Terms.Bucket yearBucket : yearBuckets) {
-                if (year == yearBucket.getKeyAsNumber().intValue()) {
-                    flag = true;
+        private final int userId;
 
-                    //档案内容类型
-                    Terms terms = yearBucket.getAggregations().get("archiveContentType");
-                    List<Terms.Bucket> typeBuckets = (List<Terms.Bucket>) terms.getBuckets();
-                    for (ContentType contentType : contentTypes) {
-                        long typeTotal = 0;
-                        for (Terms.Bucket typeBucket : typeBuckets) {
+        //标题对应的著录项，读到标题行前为空
+        private List<DescriptionItem> importItems;
 
-                            if (contentType.getId() == typeBucket.getKeyAsNumber().intValue()) {
+        private boolean titleInvalid;
 
-                                typeTotal = typeBucket.getDocCount();
-                            }
-                        }
-                        map.put(contentType.getName(), typeTotal);
-                    }
-                    map.put("合计", yearBucket.getDocCount());
-                }
-            }
-            if (!flag) {
-                contentTypes.forEach(a -> {
-                    map.put(a.getName(), 0);
-                });
-                map.put("合计", 0);
-            }
-            items.add(map);
-        }
-        List<String> contentTypeNames = new ArrayList<>();
-        contentTypes.forEach(a -> contentTypeNames.add(a.getName()));
+        private final List<List<String>> rows = new ArrayList<>();
 
-        contentTypeNames.add("合计");
-        result.put("fields", contentTypeNames);
-        result.put("items", items);
-        return result;
+        private int total;
 
-    }
+        private int errorTotal;
 
-    /*
-     * 获取导入Excel模板
-     * */
-    public XSSFWorkbook excelTemplate(int catalogueId) {
-        //根据目录类型确定库结构
-        Catalogue catalogue = catalogueRepository.findById(catalogueId).orElse(null);
-        XSSFWorkbook wb = new XSSFWorkbook();
-
-        List<DescriptionItem> itemList = descriptionItemRepository.findByCatalogueId(catalogueId);
-        List<List<String>> content = new ArrayList<>();
-        List<String> title = new ArrayList<>();
-        itemList.forEach(a -> title.add(a.getDisplayName()));
-        content.add(title);
-        if (catalogue.getCatalogueType().equals(CatalogueType.Folder)) {
-            //传统立卷
-            //通过档案库id和目录类型获得卷内目录
-            Optional<Catalogue> folderFileCatalogue = catalogueRepository.findByArchivesIdAndCatalogueType(catalogue.getArchivesId(), CatalogueType.FolderFile);
+        private CatalogueImport(CatalogueMetadata metadata, Sheet errorSheet, int userId) {
+            this.catalogue = metadata.getCatalogue();
+            this.archives = metadata.getArchives();
+            this.archivesGroup = metadata.getArchivesGroup();
+            this.descriptionItems = new ArrayList<>(metadata.getDescriptionItems());
+            this.errorSheet = errorSheet;
+            this.userId = userId;
+        }
 
-            if (!folderFileCatalogue.isPresent()) {
-                throw new InvalidArgumentException("卷内目录不存在");
+        private void row(List<String> row) {
+            if (importItems == null) {
+                title(row);
+                return;
             }
-            List<DescriptionItem> folderFileItems = descriptionItemRepository.findByCatalogueId(folderFileCatalogue.get().getId());
-            List<List<String>> folderFileContent = new ArrayList<>();
-            List<String> folderFileTitle = new ArrayList<>();
-            folderFileItems.forEach(a -> folderFileTitle.add(a.getDisplayName()));
-            folderFileContent.add(folderFileTitle);
-            FileHandler.buildXSSFWorkbook("案卷", content, wb);
-            FileHandler.buildXSSFWorkbook("卷内", folderFileContent, wb);
-        } else {
-            //项目
-            if (catalogue.getCatalogueType().equals(CatalogueType.File)) {
-                FileHandler.buildXSSFWorkbook("一文一件", content, wb);
-            } else {
-                FileHandler.buildXSSFWorkbook("项目", content, wb);
-
+            total++;
+            if (titleInvalid) {
+                error(row, "著录项校验失败");
+                return;
+            }
+            rows.add(row);
+            if (rows.size() >= importChunkSize) {
+                flush();
             }
         }
-        return wb;
-    }
 
-    //导入Excel文件条目数据
-    public XSSFWorkbook importEntry(int catalogueId, File tmpFile, int userId) {
-        Catalogue catalogue = catalogueRepository.findById(catalogueId).orElse(null);
-        if (catalogue == null) {
-            throw new InvalidArgumentException("目录不存在");
-        }
-        Archives archives = archivesRepository.findById(catalogue.getArchivesId()).orElse(null);
-        if (archives == null) {
-            throw new InvalidArgumentException("档案库不存在");
+        private void title(List<String> title) {
+            List<String> errorTitle = new ArrayList<>(title);
+            errorTitle.add("错误信息");
+            FileHandler.appendRow(errorSheet, errorTitle);
+
+            //将导入文件title与著录项对应
+            importItems = new ArrayList<>();
+            DescriptionItem del = null;
+            for (String displayName : title) {
+                for (DescriptionItem descriptionItem : descriptionItems) {
+                    if (descriptionItem.getDisplayName().equals(displayName)) {
+                        importItems.add(descriptionItem);
+                        del = descriptionItem;
+                    }
+                }
+                descriptionItems.remove(del);
+            }
+            titleInvalid = importItems.size() != title.size();
         }
 
-        ArchivesGroup archivesGroup = archivesGroupRepository.findById(archives.getArchivesGroupId()).orElse(null);
-        if (archivesGroup == null) {
-            throw new InvalidArgumentException("档案库分组不存在");
+        private void error(List<String> row, String message) {
+            List<String> errorRow = new ArrayList<>(row);
+            errorRow.add(message);
+            FileHandler.appendRow(errorSheet, errorRow);
+            errorTotal++;
         }
-        //读取数据
-        List<List<List<String>>> data = FileHandler.xlsxRead(tmpFile);
-        //存储错误数据的Excel对象
-        XSSFWorkbook wb = null;
-
-        //所有的著录项
-        List<DescriptionItem> descriptionItems = descriptionItemRepository.findByCatalogueId(catalogueId);
-
-        List<List<String>> errorData = this.importCatalogueEntry(archivesGroup, archives, catalogue, data.get(0), descriptionItems, userId);
-
-
-        //传统立卷
-        if (catalogue.getCatalogueType().equals(CatalogueType.Folder)) {
-            Optional<Catalogue> folderFileCatalogue = catalogueRepository.findByArchivesIdAndCatalogueType(catalogue.getArchivesId(), CatalogueType.FolderFile);
-            if (!folderFileCatalogue.isPresent()) {
-                throw new InvalidArgumentException("卷内目录不存在");
-            }
-            List<DescriptionItem> folderFileItems = descriptionItemRepository.findByCatalogueId(folderFileCatalogue.get().getId());
 
-            List<List<String>> folderFileErrorData = this.importCatalogueEntry(archivesGroup, archives, folderFileCatalogue.get(), data.get(1), folderFileItems, userId);
-            if (folderFileErrorData.size() != 1 || errorData.size() != 1) {
-                wb = FileHandler.buildXSSFWorkbook("案卷", errorData, wb);
-                wb = FileHandler.buildXSSFWorkbook("卷内", folderFileErrorData, wb);
+        /**
+         * 校验并保存已读取的行，校验失败的行不保存
+         */
+        private void flush() {
+            if (rows.isEmpty()) {
+                return;
             }
-        } else {
-            //项目
-            if (errorData.size() != 1) {
-                if (catalogue.getCatalogueType().equals(CatalogueType.File)) {
-                    wb = FileHandler.buildXSSFWorkbook("一文一件", errorData, wb);
-                } else {
-                    wb = FileHandler.buildXSSFWorkbook("项目", errorData, wb);
+            List<Entry> entries = new ArrayList<>();
+            for (List<String> row : rows) {
+                Entry entry = new Entry();
+                entry.setOwner(userId);
+                entry.setArchiveId(catalogue.getArchivesId());
+                entry.setCatalogueId(catalogue.getId());
+                entry.setCatalogueType(catalogue.getCatalogueType());
+                entry.setArchiveContentType(archives.getContentTypeId());
+                entry.setArchiveType(archives.getType());
+                entry.setFondsId(archivesGroup.getFondsId());
+                entry.setId(UUID.randomUUID().toString());
+                entry.setGmtCreate(new Date());
+                entry.setGmtModified(new Date());
+                HashMap<String, Object> entryItems = new HashMap<>();
+                //遍历每行数据
+                for (int i = 0; i < importItems.size(); i++) {
+                    entryItems.put(importItems.get(i).getMetadataName(), row.get(i));
                 }
-            }
-
-        }
-        return wb;
-//        return errorData;
-    }
-
-    public List<List<String>> importCatalogueEntry(ArchivesGroup archivesGroup
-            , Archives archives
-            , Catalogue catalogue
-            , List<List<String>> data
-            , List<DescriptionItem> descriptionItems
-            , int userId) {
-
-        List<List<String>> errorData = new ArrayList<>();
-        //导入文件的title
-        List<String> title = data.get(0);
-
-        List<String> errorTitle = new ArrayList<>();
-        errorTitle.addAll(title);
-        errorTitle.add("错误信息");
-        errorData.add(errorTitle);
-        //将导入文件title与著录项对应
-        List<DescriptionItem> importItems = new ArrayList<>();
-
-        DescriptionItem del = null;
-        for (String displayName : title) {
-            for (DescriptionItem descriptionItem : descriptionItems) {
-                if (descriptionItem.getDisplayName().equals(displayName)) {
-                    importItems.add(descriptionItem);
-                    del = descriptionItem;
+                entry.setItems(entryItems);
+                try {
+                    convertEntryItems(entry, EntryItemConverter::from, DEFERRED_INCREMENT, true);
+                    entries.add(entry);
+                } catch (Exception e) {
+                    error(row, e.getMessage());
                 }
             }
-            descriptionItems.remove(del);
-        }
-        if (importItems.size() != title.size()) {
-            data.forEach(row -> row.add("著录项校验失败"));
-            errorData.addAll(data);
-            return errorData;
-        }
-        List<Entry> entries = new ArrayList<>();
-        //校验并保存数据
-        data.remove(0);//去除标题行
-        for (List<String> row : data) {
-            Entry entry = new Entry();
-            entry.setOwner(userId);
-            entry.setArchiveId(catalogue.getArchivesId());
-            entry.setCatalogueId(catalogue.getId());
-            entry.setCatalogueType(catalogue.getCatalogueType());
-            entry.setArchiveContentType(archives.getContentTypeId());
-            entry.setArchiveType(archives.getType());
-            entry.setFondsId(archivesGroup.getFondsId());
-            entry.setId(UUID.randomUUID().toString());
-            entry.setGmtCreate(new Date());
-            entry.setGmtModified(new Date());
-            HashMap<String, Object> entryItems = new HashMap<>();
-            //遍历每行数据
-            for (int i = 0; i < importItems.size(); i++) {
-                entryItems.put(importItems.get(i).getMetadataName(), row.get(i));
-            }
-            entry.setItems(entryItems);
-            try {
-                this.convertEntryItems(entry, EntryItemConverter::from, true, true);
-            } catch (Exception e) {
-                row.add(e.getMessage());
-                errorData.add(row);
+            rows.clear();
+            if (!entries.isEmpty()) {
+                assignIncrements(catalogue.getId(), entries);
+                entryMongoRepository.saveAll(entries);
+                entryAsyncTask.indexAll(entries, catalogue.getId());
             }
-            entries.add(entry);
         }
-        entryMongoRepository.saveAll(entries);
-        entryAsyncTask.indexAll(entries, catalogue.getId());
-        return errorData;
     }
 }
@@ -0,0 +1,93 @@
+package com.ztdx.eams.domain.archives.application;
+
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 判断条目索引是否定义了n-gram分词器。包含查询和映射中的ngram子字段依赖它，
+ * 分词器只能在建索引时设置，旧索引全量重建(EntryReindexer)后才有，之前包含查询退回通配符。
+ * 有分词器的结果一直缓存；没有的缓存一段时间，重建完成后主动失效
+ */
+@Component
+public class NgramIndexSupport {
+
+    /**
+     * 分词器名，与elasticsearch/archive_record_settings.json一致
+     */
+    public static final String ANALYZER = "eams_ngram";
+
+    private static final String INDEX_NAME_PREFIX = "archive_record_";
+
+    private static final long UNSUPPORTED_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    private final ElasticsearchOperations elasticsearchOperations;
+
+    private final Set<String> supported = ConcurrentHashMap.newKeySet();
+
+    //索引名->检查时间
+    private final Map<String, Long> unsupported = new ConcurrentHashMap<>();
+
+    public NgramIndexSupport(ElasticsearchOperations elasticsearchOperations) {
+        this.elasticsearchOperations = elasticsearchOperations;
+    }
+
+    public boolean supports(int catalogueId) {
+        return supports(INDEX_NAME_PREFIX + catalogueId);
+    }
+
+    /**
+     * @param indexName 索引名或别名，别名指向的所有索引都有分词器时返回true
+     */
+    public boolean supports(String indexName) {
+        if (supported.contains(indexName)) {
+            return true;
+        }
+        Long checkedAt = unsupported.get(indexName);
+        long now = System.currentTimeMillis();
+        if (checkedAt != null && checkedAt + UNSUPPORTED_TTL > now) {
+            return false;
+        }
+
+        if (load(indexName)) {
+            supported.add(indexName);
+            unsupported.remove(indexName);
+            return true;
+        }
+        unsupported.put(indexName, now);
+        return false;
+    }
+
+    public void evict(String indexName) {
+        supported.remove(indexName);
+        unsupported.remove(indexName);
+    }
+
+    private boolean load(String indexName) {
+        ImmutableOpenMap<String, Settings> settings;
+        try {
+            settings = elasticsearchOperations.getClient().admin().indices()
+                    .prepareGetSettings(indexName).get().getIndexToSettings();
+        } catch (IndexNotFoundException e) {
+            return false;
+        }
+        if (settings.isEmpty()) {
+            return false;
+        }
+        Iterator<Settings> iterator = settings.valuesIt();
+        while (iterator.hasNext()) {
+            if (iterator.next().get("index.analysis.analyzer." + ANALYZER + ".tokenizer") == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
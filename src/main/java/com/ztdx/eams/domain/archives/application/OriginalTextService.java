@@ -1,17 +1,23 @@
 package com.ztdx.eams.domain.archives.application;
 
+import com.ztdx.eams.basic.config.AsyncConfig;
 import com.ztdx.eams.basic.exception.BusinessException;
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
-import com.ztdx.eams.basic.utils.FileHandler;
+import com.ztdx.eams.basic.repository.CursorPage;
+import com.ztdx.eams.basic.repository.IndexRefreshPolicy;
 import com.ztdx.eams.basic.utils.FtpUtil;
 import com.ztdx.eams.basic.utils.PDFConverter;
+import com.ztdx.eams.domain.archives.application.task.OriginalTextPipeline;
 import com.ztdx.eams.domain.archives.model.ArchivingResult;
 import com.ztdx.eams.domain.archives.model.Entry;
+import com.ztdx.eams.domain.archives.model.GroupCount;
 import com.ztdx.eams.domain.archives.model.OriginalText;
+import com.ztdx.eams.domain.archives.model.condition.AbstractConditionEsQueryBuilder;
 import com.ztdx.eams.domain.archives.repository.ArchivesGroupRepository;
 import com.ztdx.eams.domain.archives.repository.elasticsearch.OriginalTextElasticsearchRepository;
 import com.ztdx.eams.domain.archives.repository.mongo.EntryMongoRepository;
 import com.ztdx.eams.domain.archives.repository.mongo.OriginalTextMongoRepository;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.index.query.BoolQueryBuilder;
@@ -24,18 +30,25 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.repository.support.PageableExecutionUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.springframework.util.NumberUtils;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.net.URLEncoder;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import static jdk.nashorn.internal.objects.Global.Infinity;
 import static org.springframework.data.mongodb.core.query.Criteria.where;
@@ -46,6 +59,9 @@ import static org.springframework.data.mongodb.core.query.Criteria.where;
 @Service
 public class OriginalTextService {
 
+    //下载缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final EntryMongoRepository entryMongoRepository;
 
     private final OriginalTextMongoRepository originalTextMongoRepository;
@@ -62,8 +78,12 @@ public class OriginalTextService {
 
     private final MongoOperations mongoOperations;
 
+    private final NgramIndexSupport ngramIndexSupport;
+
+    private final OriginalTextPipeline originalTextPipeline;
+
     @Autowired
-    public OriginalTextService(EntryMongoRepository entryMongoRepository, OriginalTextMongoRepository originalTextMongoRepository, OriginalTextElasticsearchRepository originalTextElasticsearchRepository, ArchivesGroupRepository archivesGroupRepository, FtpUtil ftpUtil, PDFConverter pdfConverter, ElasticsearchOperations elasticsearchOperations, MongoOperations mongoOperations) {
+    public OriginalTextService(EntryMongoRepository entryMongoRepository, OriginalTextMongoRepository originalTextMongoRepository, OriginalTextElasticsearchRepository originalTextElasticsearchRepository, ArchivesGroupRepository archivesGroupRepository, FtpUtil ftpUtil, PDFConverter pdfConverter, ElasticsearchOperations elasticsearchOperations, MongoOperations mongoOperations, NgramIndexSupport ngramIndexSupport, OriginalTextPipeline originalTextPipeline) {
         this.entryMongoRepository = entryMongoRepository;
         this.originalTextMongoRepository = originalTextMongoRepository;
         this.originalTextElasticsearchRepository = originalTextElasticsearchRepository;
@@ -72,12 +92,21 @@ public class OriginalTextService {
         this.pdfConverter = pdfConverter;
         this.elasticsearchOperations = elasticsearchOperations;
         this.mongoOperations = mongoOperations;
+        this.ngramIndexSupport = ngramIndexSupport;
+        this.originalTextPipeline = originalTextPipeline;
     }
 
     /**
      * 新增原文
      */
     public OriginalText save(OriginalText originalText, MultipartFile file) {
+        return save(originalText, file, null);
+    }
+
+    /**
+     * 新增原文，md5为客户端计算的文件MD5(可为空)，用于校验上传的文件
+     */
+    public OriginalText save(OriginalText originalText, MultipartFile file, String md5) {
         if (file.isEmpty()) {
             throw new InvalidArgumentException("原文文件未上传");
         }
@@ -89,8 +118,8 @@ public class OriginalTextService {
         if (!find.isPresent()) {
             throw new InvalidArgumentException("条目不存在");
         }
-        //文件上传到本地服务器,然后上传至ftp
-        fileUpload(fondsId, originalText, file);
+        //文件上传至ftp
+        fileUpload(fondsId, originalText, file, md5);
 
         //设置排序号
         SearchRequestBuilder srBuilder = elasticsearchOperations.getClient().prepareSearch("archive_record_" + originalText.getCatalogueId());
@@ -138,13 +167,20 @@ public class OriginalTextService {
      * 修改原文
      */
     public OriginalText update(OriginalText originalText, MultipartFile file) {
+        return update(originalText, file, null);
+    }
+
+    /**
+     * 修改原文，md5为客户端计算的文件MD5(可为空)
+     */
+    public OriginalText update(OriginalText originalText, MultipartFile file, String md5) {
         Integer fondsId = archivesGroupRepository.findFondsIdByCatalogue_CatalogueId(originalText.getCatalogueId());
         if (null == fondsId) {
             throw new InvalidArgumentException("全宗档案库不存在");
         }
         Optional<OriginalText> find = originalTextMongoRepository.findById(originalText.getId(), "archive_record_originalText_" + originalText.getCatalogueId());
         if (!find.isPresent()) {
-            save(originalText, file);
+            save(originalText, file, md5);
             return null;
         }
         if (!file.isEmpty()) {
@@ -153,8 +189,8 @@ public class OriginalTextService {
             originalText.setPdfMd5(null);
             originalText.setContentIndexStatus(0);
             originalText.setContentIndex(null);
-            //文件上传到本地服务器读取文件属性,然后上传至ftp
-            fileUpload(fondsId, originalText, file);
+            //文件上传至ftp
+            fileUpload(fondsId, originalText, file, md5);
         }
         originalText.setCreateTime(find.get().getCreateTime());
         originalText.setGmtCreate(find.get().getGmtCreate());
@@ -169,69 +205,64 @@ public class OriginalTextService {
     }
 
     /**
-     * 原文文件上传
+     * 原文文件上传：MD5由服务器按上传的文件计算，客户端提供的MD5只用于校验，不一致时拒绝上传。
+     * ftp上按MD5存放的位置已有同样大小的文件时不再传输，否则传到ftp临时文件，完成后移到按MD5存放的位置，内容已存在时丢弃临时文件
      */
-    private void fileUpload(int fondsId, OriginalText originalText, MultipartFile file) {
-        //先存入本地
-        File tmpFile = new File(file.getOriginalFilename());
-        FileOutputStream fos = null;
-        BufferedOutputStream bos = null;
-        FileInputStream fisMD5 = null;
+    private void fileUpload(int fondsId, OriginalText originalText, MultipartFile file, String clientMd5) {
+        String fileName = file.getOriginalFilename();
+        ftpUtil.checkAllowType(fileName);
+        String md5;
         try {
-            byte[] bytes = file.getBytes();
-            fos = new FileOutputStream(tmpFile);
-            bos = new BufferedOutputStream(fos);
-            bos.write(bytes);
-            bos.flush();
-            //计算MD5
-            fisMD5 = new FileInputStream(tmpFile);
-            String MD5 = DigestUtils.md5Hex(fisMD5);
-            //设置路径
-            String[] path = new String[]{String.valueOf(fondsId), MD5.substring(0, 2), MD5.substring(2, 4)};
-
-            originalText.setName(file.getOriginalFilename());
-            originalText.setSize(String.valueOf(tmpFile.length()));
-            originalText.setMd5(MD5);
-            if (file.getOriginalFilename().endsWith(".pdf")) {
-                originalText.setPdfMd5(MD5);
-                originalText.setPdfConverStatus(1);
-            }
-            //上传文件到FTP
-            ftpUtil.uploadFile(path, MD5, tmpFile);
-        } catch (BusinessException e) {
-            throw e;
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new BusinessException("文件上传失败");
-        } finally {
-            if (fisMD5 != null) {
-                try {
-                    fisMD5.close();
-                } catch (IOException e) {
-                    throw new BusinessException("文件传输流未关闭");
-                }
+            try (InputStream is = file.getInputStream()) {
+                md5 = DigestUtils.md5Hex(is);
             }
-            if (bos != null) {
-                try {
-                    bos.close();
-                } catch (IOException e) {
-                    throw new BusinessException("文件传输流未关闭");
-                }
+            if (clientMd5 != null && !clientMd5.isEmpty() && !clientMd5.equalsIgnoreCase(md5)) {
+                throw new InvalidArgumentException("原文文件MD5校验失败");
             }
-            if (fos != null) {
-                try {
-                    fos.close();
-                } catch (IOException e) {
-                    throw new BusinessException("文件传输流未关闭");
-                }
+            if (ftpUtil.size(md5Path(fondsId, md5), md5) != file.getSize()) {
+                transfer(fondsId, fileName, file, md5);
             }
-            //删除本地临时文件
-            if (tmpFile.exists()) {
-                tmpFile.delete();
+        } catch (IOException e) {
+            throw new BusinessException("文件上传失败", e);
+        }
+
+        originalText.setName(fileName);
+        originalText.setSize(String.valueOf(file.getSize()));
+        originalText.setMd5(md5);
+        if (fileName.endsWith(".pdf")) {
+            originalText.setPdfMd5(md5);
+            originalText.setPdfConverStatus(1);
+        }
+    }
+
+    private void transfer(int fondsId, String fileName, MultipartFile file, String md5) throws IOException {
+        String[] tmpPath = new String[]{String.valueOf(fondsId), "tmp"};
+        String tmpName = String.valueOf(UUID.randomUUID());
+        MessageDigest digest = DigestUtils.getMd5Digest();
+        try (InputStream is = new DigestInputStream(file.getInputStream(), digest)) {
+            ftpUtil.uploadFile(tmpPath, tmpName, fileName, is);
+        }
+        //计算MD5后文件被改动时不按该MD5存放
+        if (!md5.equals(Hex.encodeHexString(digest.digest()))) {
+            ftpUtil.deleteFile(tmpPath, tmpName);
+            throw new BusinessException("文件上传失败");
+        }
+        String[] path = md5Path(fondsId, md5);
+
+        boolean moved = ftpUtil.size(path, md5) < 0 && ftpUtil.rename(tmpPath, tmpName, path, md5);
+        if (!moved) {
+            ftpUtil.deleteFile(tmpPath, tmpName);
+            //移动失败且目标不存在
+            if (ftpUtil.size(path, md5) < 0) {
+                throw new BusinessException("文件上传失败");
             }
         }
     }
 
+    private String[] md5Path(int fondsId, String md5) {
+        return new String[]{String.valueOf(fondsId), md5.substring(0, 2), md5.substring(2, 4)};
+    }
+
     /**
      * 获取原文文件元数据
      */
@@ -260,89 +291,114 @@ public class OriginalTextService {
     }
 
     /**
-     * 文件下载
+     * 文件下载，从ftp直接写到响应。支持单段Range请求，ETag为文件MD5
      */
-    public void fileDownload(int type, int catalogueId, String id, HttpServletResponse response) {
+    public void fileDownload(int type, int catalogueId, String id, HttpServletRequest request, HttpServletResponse response) {
         Integer fondsId = archivesGroupRepository.findFondsIdByCatalogue_CatalogueId(catalogueId);
         if (null == fondsId) {
             throw new InvalidArgumentException("全宗档案库不存在");
         }
         Optional<OriginalText> find = originalTextMongoRepository.findById(id, "archive_record_originalText_" + catalogueId);
-        if (find.isPresent()) {
-            File file;
-            String fileName = find.get().getName();
-            String md5;
-            if (type == 1) {
-                md5 = find.get().getMd5();
-            } else {
-                //下载PDF格式文件
-                if (find.get().getPdfConverStatus() != 1) {
-                    throw new BusinessException("没有PDF格式提供下载");
-                }
-                md5 = find.get().getPdfMd5();
-                fileName = fileName.substring(0, fileName.lastIndexOf(".")) + ".pdf";
+        if (!find.isPresent()) {
+            throw new BusinessException("文件下载失败");
+        }
+        String fileName = find.get().getName();
+        String md5;
+        if (type == 1) {
+            md5 = find.get().getMd5();
+        } else {
+            //下载PDF格式文件
+            if (find.get().getPdfConverStatus() != 1) {
+                throw new BusinessException("没有PDF格式提供下载");
             }
-            file = new File(fileName);
-            String[] path = new String[]{String.valueOf(fondsId), md5.substring(0, 2), md5.substring(2, 4)};
-            ftpUtil.downloadFile(path, md5, file);
-
-            byte[] buff = new byte[1024];
-            FileInputStream fis = null;
-            BufferedInputStream bis = null;
-            OutputStream os = null;
+            md5 = find.get().getPdfMd5();
+            fileName = fileName.substring(0, fileName.lastIndexOf(".")) + ".pdf";
+        }
+        String[] path = md5Path(fondsId, md5);
+        long length = ftpUtil.size(path, md5);
+        if (length < 0) {
+            throw new BusinessException("文件下载失败");
+        }
+
+        String etag = "\"" + md5 + "\"";
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        //If-Range不匹配时返回完整文件
+        boolean partial = range != null && (ifRange == null || ifRange.equals(etag));
+        if (partial) {
             try {
-                response.setContentType("application/octet-stream");
-                response.setHeader("content-type", "application/octet-stream");
-                response.setHeader("Content-Disposition", "attachment;filename=" + URLEncoder.encode(fileName, "UTF-8"));
-                os = response.getOutputStream();
-                fis = new FileInputStream(file);
-                bis = new BufferedInputStream(fis);
-                int i = bis.read(buff);
-                while (i != -1) {
-                    os.write(buff, 0, i);
-                    os.flush();
-                    i = bis.read(buff);
+                List<HttpRange> ranges = HttpRange.parseRanges(range);
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(length);
+                    end = Math.min(ranges.get(0).getRangeEnd(length), length - 1);
+                } else {
+                    //多段请求按完整文件返回
+                    partial = false;
                 }
-            } catch (IOException e) {
-                throw new BusinessException("文件下载失败");
-            } finally {
-                if (fis != null) {
-                    try {
-                        fis.close();
-                    } catch (IOException e) {
-                        throw new BusinessException("文件传输流未关闭");
-                    }
-                }
-                if (bis != null) {
-                    try {
-                        bis.close();
-                    } catch (IOException e) {
-                        throw new BusinessException("文件传输流未关闭");
-                    }
-                }
-                if (os != null) {
-                    try {
-                        os.close();
-                    } catch (IOException e) {
-                        throw new BusinessException("文件传输流未关闭");
+            } catch (IllegalArgumentException e) {
+                start = length;
+            }
+            if (partial && (start >= length || start > end)) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+        }
+
+        try {
+            response.setContentType("application/octet-stream");
+            response.setHeader("Content-Disposition", "attachment;filename=" + URLEncoder.encode(fileName, "UTF-8"));
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setHeader(HttpHeaders.ETAG, etag);
+            if (partial) {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+            long count = end - start + 1;
+            response.setContentLengthLong(count);
+            if (count == 0) {
+                return;
+            }
+            try (InputStream is = ftpUtil.retrieveFileStream(path, md5, start)) {
+                OutputStream os = response.getOutputStream();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = count;
+                while (remaining > 0) {
+                    int read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        break;
                     }
+                    os.write(buffer, 0, read);
+                    remaining -= read;
                 }
-                if (file.exists()) {
-                    file.delete();
-                }
+                os.flush();
             }
-        } else {
-            throw new BusinessException("文件下载失败");
+        } catch (IOException e) {
+            throw new BusinessException("文件下载失败", e);
         }
     }
 
+    /**
+     * PDF转换统计
+     */
+    public Map<String, Object> converterStats() {
+        return pdfConverter.getStats();
+    }
+
     /**
      * 原文列表
      */
     public Page<OriginalText> list(int catalogueId, String entryId, String title, int page, int size) {
         BoolQueryBuilder query = QueryBuilders.boolQuery();
-        query.must(QueryBuilders.wildcardQuery("title",
-                "*" + title + "*"));
+        if (title != null && title.length() >= AbstractConditionEsQueryBuilder.NGRAM_SIZE && ngramIndexSupport.supports(catalogueId)) {
+            query.must(QueryBuilders.matchPhraseQuery("title." + AbstractConditionEsQueryBuilder.NGRAM_FIELD, title));
+        } else {
+            //单个字符或旧索引退回通配符
+            query.must(QueryBuilders.wildcardQuery("title",
+                    "*" + title + "*"));
+        }
         query.must(QueryBuilders.termQuery("entryId", entryId));
         query.must(QueryBuilders.termQuery("gmtDeleted", 0));
         return originalTextElasticsearchRepository.search(query, PageRequest.of(page, size, Sort.by(Sort.Order.asc("orderNumber"))), new String[]{"archive_record_" + catalogueId});
@@ -372,183 +428,34 @@ public class OriginalTextService {
     /**
      * 异步处理文件（全文索引，元数据信息，PDF转换）
      */
-    @Async
+    @Async(AsyncConfig.FILE_EXECUTOR)
     public void placeOnFile(OriginalText originalText) {
-        Integer fondsId = archivesGroupRepository.findFondsIdByCatalogue_CatalogueId(originalText.getCatalogueId());
-        if (null == fondsId) {
-            return;
-        }
-        String name = originalText.getName();
-        File file = new File(name);
-        //设置路径
-        String[] path = new String[]{String.valueOf(fondsId), originalText.getMd5().substring(0, 2), originalText.getMd5().substring(2, 4)};
-        //下载到本地
-        ftpUtil.downloadFile(path, originalText.getMd5(), file);
-        //生成全文索引
-        createContentIndex(originalText, file);
-        //转为pdf格式文件并上传ftp
-        converter2PdfAndUpload(fondsId, originalText, file);
-        //获取文件元数据属性
-        getFileMetadata(originalText, file);
-
-        Optional<Entry> find = entryMongoRepository.findById(originalText.getEntryId(), "archive_record_" + originalText.getCatalogueId());
-        if (find.isPresent() && find.get().getGmtDeleted() == 0) {
-            originalTextMongoRepository.save(originalText);
-            originalTextElasticsearchRepository.save(originalText);
-        }
-        //删除本地文件
-        if (file.exists()) {
-            file.delete();
-        }
+        originalTextPipeline.submit(originalText);
     }
 
     /**
-     * 异步处理文件（全文索引，元数据信息，PDF转换）（批量）
+     * 异步处理文件（全文索引，元数据信息，PDF转换）（批量），各文件在流水线中并行处理
      */
-    @Async
+    @Async(AsyncConfig.FILE_EXECUTOR)
     public void placeOnFiles(OriginalText[] originalTexts) {
-        for (OriginalText originalText : originalTexts) {
-            Integer fondsId = archivesGroupRepository.findFondsIdByCatalogue_CatalogueId(originalText.getCatalogueId());
-            if (null == fondsId) {
-                return;
-            }
-            String name = originalText.getName();
-            File file = new File(name);
-            //设置路径
-            String[] path = new String[]{String.valueOf(fondsId), originalText.getMd5().substring(0, 2), originalText.getMd5().substring(2, 4)};
-            //下载到本地
-            ftpUtil.downloadFile(path, originalText.getMd5(), file);
-            //生成全文索引
-            createContentIndex(originalText, file);
-            //转为pdf格式文件并上传ftp
-            converter2PdfAndUpload(fondsId, originalText, file);
-            //获取文件元数据属性
-            getFileMetadata(originalText, file);
-
-            //删除本地文件
-            if (file.exists()) {
-                file.delete();
-            }
-        }
-        Optional<Entry> find = entryMongoRepository.findById(originalTexts[0].getEntryId(), "archive_record_" + originalTexts[0].getCatalogueId());
-        if (find.isPresent() && find.get().getGmtDeleted() == 0) {
-            originalTextMongoRepository.saveAll(Arrays.asList(originalTexts));
-            originalTextElasticsearchRepository.saveAll(Arrays.asList(originalTexts));
-        }
+        originalTextPipeline.submitAll(Arrays.asList(originalTexts));
     }
 
     /**
-     * 生成全文索引
+     * 按_id游标分批读取原文
+     *
+     * @param after 上一批返回的cursor，第一批为空
      */
-    private void createContentIndex(OriginalText originalText, File file) {
-        try {
-            //读取内容
-            //设置全文索引状态为已生成
-            if (originalText.getName().endsWith(".txt")) {
-                originalText.setContentIndex(FileHandler.txtContentRead(file));
-                originalText.setContentIndexStatus(1);
-            } else if (originalText.getName().endsWith(".doc")) {
-                originalText.setContentIndex(FileHandler.docContentRead(file));
-                originalText.setContentIndexStatus(1);
-            } else if (originalText.getName().endsWith(".docx")) {
-                originalText.setContentIndex(FileHandler.docxContentRead(file));
-                originalText.setContentIndexStatus(1);
-            } else if (originalText.getName().endsWith(".ppt")) {
-                originalText.setContentIndex(FileHandler.pptContentRead(file));
-                originalText.setContentIndexStatus(1);
-            } else if (originalText.getName().endsWith(".pptx")) {
-                originalText.setContentIndex(FileHandler.pptxContentRead(file));
-                originalText.setContentIndexStatus(1);
-            } else if (originalText.getName().endsWith(".xls")) {
-                originalText.setContentIndex(FileHandler.xlsContentRead(file));
-                originalText.setContentIndexStatus(1);
-            } else if (originalText.getName().endsWith(".xlsx") || originalText.getName().endsWith(".xlsm")) {
-                originalText.setContentIndex(FileHandler.xlsxContentRead(file));
-                originalText.setContentIndexStatus(1);
-            } else {
-                //此类型无法生成全文索引
-                originalText.setContentIndexStatus(3);
-            }
-        } catch (Exception e) {
-            //设置全文索引状态为生成失败
-            originalText.setContentIndex(null);
-            originalText.setContentIndexStatus(2);
-        }
-    }
-
-    /**
-     * 抽取文件元数据属性
-     */
-    private void getFileMetadata(OriginalText originalText, File file) {
-        if (originalText.getName().endsWith(".doc") || originalText.getName().endsWith(".xls") || originalText.getName().endsWith(".ppt")) {
-            originalText.setFileAttributesMap(FileHandler.office2003MetadataRead(file));
-        } else if (originalText.getName().endsWith(".docx") || originalText.getName().endsWith(".xlsx") || originalText.getName().endsWith(".xlsm") || originalText.getName().endsWith(".pptx")) {
-            originalText.setFileAttributesMap(FileHandler.office2007MetadataRead(file));
-        } else {
-            originalText.setFileAttributesMap(new HashMap<>());
-        }
-    }
-
-    /**
-     * 转换为PDF格式并上传到ftp
-     */
-    private void converter2PdfAndUpload(int fondsId, OriginalText originalText, File file) {
-        File pdfFile = new File(file.getName().substring(0, file.getName().lastIndexOf(".")) + ".pdf");
-        FileInputStream fisMD5 = null;
-        try {
-            if (originalText.getName().endsWith(".ppt") || originalText.getName().endsWith(".pptx") ||
-                    originalText.getName().endsWith(".xls") || originalText.getName().endsWith(".xlsx") ||
-                    originalText.getName().endsWith(".doc") || originalText.getName().endsWith(".docx")) {
-                //转换
-                pdfConverter.converterPDF(file, pdfFile);
-                //计算MD5
-                fisMD5 = new FileInputStream(pdfFile);
-                String MD5 = DigestUtils.md5Hex(fisMD5);
-                //设置路径
-                String[] path = new String[]{String.valueOf(fondsId), MD5.substring(0, 2), MD5.substring(2, 4)};
-                //上传文件到FTP
-                ftpUtil.uploadFile(path, MD5, pdfFile);
-
-                originalText.setPdfMd5(MD5);
-                originalText.setPdfConverStatus(1);
-            } else if (originalText.getName().endsWith(".pdf")) {
-                originalText.setPdfConverStatus(1);
-            } else {
-                originalText.setPdfConverStatus(3);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            //设置转换状态失败
-            originalText.setPdfConverStatus(2);
-        } finally {
-            if (fisMD5 != null) {
-                try {
-                    fisMD5.close();
-                } catch (IOException e) {
-                    throw new BusinessException("文件传输流未关闭");
-                }
-            }
-            //删除本地文件
-            if (pdfFile.exists()) {
-                pdfFile.delete();
-            }
-        }
-    }
-
-    public Page<OriginalText> scroll(boolean archivingAll, int catalogueId, Collection<String> entryIds, Collection<Integer> originalType, int page, int size) {
+    public CursorPage<OriginalText> scroll(boolean archivingAll, int catalogueId, Collection<String> entryIds, Collection<Integer> originalType, String after, int size) {
         Query query;
         /*if (archivingAll) {
-            query = Query.query(where("type").in(originalType))
-                    .with(PageRequest.of(page, size));
+            query = Query.query(where("type").in(originalType));
         } else {*/
         query = Query.query(where("entryId").in(entryIds)
-                .and("type").in(originalType).and("gmtDeleted").is(0))
-                .with(PageRequest.of(page, size));
+                .and("type").in(originalType).and("gmtDeleted").is(0));
         /*}*/
         String indexName = "archive_record_originalText_" + catalogueId;
-        long total = mongoOperations.count(query, indexName);
-        List<OriginalText> list = originalTextMongoRepository.findAll(query, indexName);
-        return PageableExecutionUtils.getPage(list, PageRequest.of(page, size), () -> total);
+        return originalTextMongoRepository.findAll(query, Sort.unsorted(), after, size, false, indexName);
     }
 
     public List<ArchivingResult> archivingOriginal(
@@ -592,7 +499,7 @@ public class OriginalTextService {
 
         originalTextMongoRepository.saveAll(targets);
         //TODO @lijie 增加索引时间，用于重做索引
-        originalTextElasticsearchRepository.saveAll(targets);
+        originalTextElasticsearchRepository.saveAll(targets, IndexRefreshPolicy.BATCHED);
         //indexAll(targets, trgId);
 
         return error;
@@ -641,7 +548,28 @@ public class OriginalTextService {
                 ), indexName), Integer.class);
     }
 
+    /**
+     * 按条目id分组统计原文数，一次聚合查询
+     */
+    public Map<String, Integer> countGroupByEntryId(int catalogueId, Collection<String> ids) {
+        String indexName = "archive_record_originalText_" + catalogueId;
+        Aggregation agg = Aggregation.newAggregation(
+                Aggregation.match(where("entryId").in(ids).and("gmtDeleted").is(0))
+                , Aggregation.group("entryId").count().as("count")
+                , Aggregation.project("count").and("key").previousOperation()
+        );
+        return mongoOperations.aggregate(agg, indexName, GroupCount.class).getMappedResults().stream()
+                .collect(Collectors.toMap(a -> a.key, a -> a.count));
+    }
+
     public OriginalText[] saveMany(OriginalText[] originalTexts, MultipartFile[] files) {
+        return saveMany(originalTexts, files, null);
+    }
+
+    /**
+     * 批量新增原文，md5s与files按顺序对应(可为空)
+     */
+    public OriginalText[] saveMany(OriginalText[] originalTexts, MultipartFile[] files, String[] md5s) {
 
 
         if (files.length == 0 || originalTexts.length != files.length) {
@@ -670,8 +598,8 @@ public class OriginalTextService {
         }
 
         for (int i = 0; i < originalTexts.length; i++) {
-            //文件上传到本地服务器,然后上传至ftp
-            fileUpload(fondsId, originalTexts[i], files[i]);
+            //文件上传至ftp
+            fileUpload(fondsId, originalTexts[i], files[i], md5s != null && md5s.length == files.length ? md5s[i] : null);
 
             originalTexts[i].setId(String.valueOf(UUID.randomUUID()));
             originalTexts[i].setOrderNumber((int) maxOrderNumber + i);
@@ -683,7 +611,7 @@ public class OriginalTextService {
         //存入MongoDB
         originalTextMongoRepository.saveAll(Arrays.asList(originalTexts));
         //存入Elasticsearch
-        originalTextElasticsearchRepository.saveAll(Arrays.asList(originalTexts));
+        originalTextElasticsearchRepository.saveAll(Arrays.asList(originalTexts), IndexRefreshPolicy.BATCHED);
 
         return originalTexts;
     }
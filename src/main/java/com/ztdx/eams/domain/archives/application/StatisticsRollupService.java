@@ -0,0 +1,621 @@
+package com.ztdx.eams.domain.archives.application;
+
+import com.mongodb.BulkWriteError;
+import com.ztdx.eams.basic.config.AsyncConfig;
+import com.ztdx.eams.basic.exception.BusinessException;
+import com.ztdx.eams.domain.archives.model.*;
+import com.ztdx.eams.domain.archives.model.Dictionary;
+import com.ztdx.eams.domain.archives.repository.CatalogueRepository;
+import com.ztdx.eams.domain.archives.repository.ContentTypeRepository;
+import com.ztdx.eams.domain.archives.repository.DictionaryClassificationRepository;
+import com.ztdx.eams.domain.archives.repository.DictionaryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * 条目统计汇总(按档案类型-保管期限、按档案类型-年度)：统计接口从汇总读取，不再每次在ES上聚合。
+ * 条目变更经索引待办增量计入；目录著录项或档案库内容类型变更后需要重算
+ */
+@Slf4j
+@Service
+public class StatisticsRollupService {
+
+    private static final String ENTRY_COLLECTION_PREFIX = "archive_record_";
+
+    private static final String STATUS_COLLECTION = "archive_statistics_rollup_status";
+
+    private static final String STATUS_ID = "rollup";
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoOperations mongoOperations;
+
+    private final CatalogueMetadataCache catalogueMetadataCache;
+
+    private final CatalogueRepository catalogueRepository;
+
+    private final ContentTypeRepository contentTypeRepository;
+
+    private final DictionaryRepository dictionaryRepository;
+
+    private final DictionaryClassificationRepository dictionaryClassificationRepository;
+
+    private final Executor executor;
+
+    //重算时每批写入的条目数
+    @Value("${statistics.rollup.batch-size:1000}")
+    private int batchSize;
+
+    //汇总上保留已计入变更号的时长(毫秒)，应远大于索引待办的领取租约，期间读到同一登记的其它线程不会重复计入
+    @Value("${statistics.rollup.op-retention:3600000}")
+    private long opRetention;
+
+    private final AtomicBoolean recomputing = new AtomicBoolean();
+
+    //目录id->增量更新(读锁)与重算(写锁)的互斥锁
+    private final Map<Integer, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+
+    //正在重算的目录，增量更新见到后直接失败，不与等待中的重算抢锁
+    private final Set<Integer> recomputingCatalogues = ConcurrentHashMap.newKeySet();
+
+    public StatisticsRollupService(MongoOperations mongoOperations, CatalogueMetadataCache catalogueMetadataCache, CatalogueRepository catalogueRepository, ContentTypeRepository contentTypeRepository, DictionaryRepository dictionaryRepository, DictionaryClassificationRepository dictionaryClassificationRepository
+            , @Qualifier(AsyncConfig.INDEX_EXECUTOR) Executor executor) {
+        this.mongoOperations = mongoOperations;
+        this.catalogueMetadataCache = catalogueMetadataCache;
+        this.catalogueRepository = catalogueRepository;
+        this.contentTypeRepository = contentTypeRepository;
+        this.dictionaryRepository = dictionaryRepository;
+        this.dictionaryClassificationRepository = dictionaryClassificationRepository;
+        this.executor = executor;
+    }
+
+    @PostConstruct
+    public void ensureIndexes() {
+        mongoOperations.indexOps(StatisticsRollup.class).ensureIndex(
+                new Index().on("catalogueId", Sort.Direction.ASC).on("year", Sort.Direction.ASC));
+        mongoOperations.indexOps(StatisticsRollupEntry.class).ensureIndex(new Index().on("catalogueId", Sort.Direction.ASC));
+    }
+
+    /**
+     * 从未生成过汇总时(首次部署)启动后全量计算
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialize() {
+        if (!mongoOperations.exists(query(where("_id").is(STATUS_ID)), STATUS_COLLECTION)) {
+            recomputeAll();
+        }
+    }
+
+    /**
+     * 计入一个目录下条目的变更，entries为条目id->条目，条目已物理删除时为null。
+     * 每个条目的变更先登记到条目状态上，再按变更号计入汇总并改为新值，任一步失败时抛出异常由调用方重试，
+     * 重试时先做完上次登记的变更，同一变更不会重复计数。条目正被其它线程计入或目录正在重算时也抛出异常，稍后重试
+     */
+    public void apply(int catalogueId, Map<String, Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        ReentrantReadWriteLock lock = lock(catalogueId);
+        if (recomputingCatalogues.contains(catalogueId) || !lock.readLock().tryLock()) {
+            throw new BusinessException("目录正在重算条目统计汇总，稍后重试");
+        }
+        try {
+            doApply(catalogueId, entries);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void doApply(int catalogueId, Map<String, Entry> entries) {
+        CatalogueMetadata metadata = catalogueMetadataCache.get(catalogueId);
+        List<String> ids = entries.keySet().stream().map(a -> StatisticsRollupEntry.id(catalogueId, a)).collect(Collectors.toList());
+
+        //上次中断的变更
+        finish(mongoOperations.find(query(where("_id").in(ids).and("pendingOp").exists(true)), StatisticsRollupEntry.class));
+
+        Map<String, StatisticsRollupEntry> previous = mongoOperations.find(query(where("_id").in(ids)), StatisticsRollupEntry.class)
+                .stream().collect(Collectors.toMap(StatisticsRollupEntry::getId, Function.identity()));
+
+        //登记变更，条件中的版本号保证登记时的旧值就是计入汇总的值
+        BulkOperations begin = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, StatisticsRollupEntry.class);
+        List<String> ops = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            String id = StatisticsRollupEntry.id(catalogueId, entry.getKey());
+            StatisticsRollupEntry before = previous.get(id);
+            StatisticsRollupEntry after = contribution(catalogueId, entry.getKey(), entry.getValue(), metadata);
+            if (same(before, after)) {
+                continue;
+            }
+            String op = UUID.randomUUID().toString();
+            Update update = new Update().set("catalogueId", catalogueId).set("pendingOp", op).set("pending", after);
+            if (before == null) {
+                begin.upsert(query(where("_id").is(id).and("version").exists(false).and("pendingOp").exists(false)), update);
+            } else {
+                begin.updateOne(query(where("_id").is(id).and("version").is(before.getVersion()).and("pendingOp").exists(false)), update);
+            }
+            ops.add(op);
+        }
+        if (ops.isEmpty()) {
+            return;
+        }
+        executeIgnoringDuplicates(begin);
+
+        List<StatisticsRollupEntry> begun = mongoOperations.find(
+                query(where("_id").in(ids).and("pendingOp").in(ops)), StatisticsRollupEntry.class);
+        finish(begun);
+        touch("updatedAt");
+        if (begun.size() < ops.size()) {
+            throw new BusinessException("条目统计汇总正被并发更新，稍后重试");
+        }
+    }
+
+    /**
+     * 后台全量重算全部目录的汇总，已在重算时返回false
+     */
+    public boolean recomputeAll() {
+        if (!recomputing.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    long start = System.currentTimeMillis();
+                    List<Integer> catalogueIds = catalogueRepository.findAll().stream().map(Catalogue::getId).collect(Collectors.toList());
+                    for (Integer catalogueId : catalogueIds) {
+                        recompute(catalogueId);
+                    }
+                    //已删除目录的汇总
+                    mongoOperations.remove(query(where("catalogueId").nin(catalogueIds)), StatisticsRollup.class);
+                    mongoOperations.remove(query(where("catalogueId").nin(catalogueIds)), StatisticsRollupEntry.class);
+                    touch("recomputedAt");
+                    log.info("条目统计汇总重算完成，{}个目录，耗时{}ms", catalogueIds.size(), System.currentTimeMillis() - start);
+                } catch (RuntimeException e) {
+                    log.error("条目统计汇总重算失败", e);
+                } finally {
+                    recomputing.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            recomputing.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * 按目录下现有条目重算该目录的汇总。先等正在进行的增量更新完成，重算期间该目录的增量更新失败，由索引待办退避后重试
+     */
+    public void recompute(int catalogueId) {
+        ReentrantReadWriteLock lock = lock(catalogueId);
+        recomputingCatalogues.add(catalogueId);
+        lock.writeLock().lock();
+        try {
+            doRecompute(catalogueId);
+        } finally {
+            lock.writeLock().unlock();
+            recomputingCatalogues.remove(catalogueId);
+        }
+    }
+
+    private void doRecompute(int catalogueId) {
+        CatalogueMetadata metadata = catalogueMetadataCache.get(catalogueId);
+        Query entryQuery = query(where("gmtDeleted").is(0));
+        entryQuery.fields().include("_id").include("fondsId").include("archiveId").include("archiveContentType")
+                .include("year").include("timeLimitForStorage").include("gmtDeleted");
+        for (PropertyType propertyType : Arrays.asList(PropertyType.Year, PropertyType.TimeLimitForStorage, PropertyType.PageTotal)) {
+            DescriptionItem item = metadata.getItem(propertyType);
+            if (item != null) {
+                entryQuery.fields().include("items." + item.getMetadataName());
+            }
+        }
+
+        mongoOperations.remove(query(where("catalogueId").is(catalogueId)), StatisticsRollupEntry.class);
+        Map<String, Delta> totals = new HashMap<>();
+        List<StatisticsRollupEntry> batch = new ArrayList<>(batchSize);
+        try (CloseableIterator<Entry> entries = mongoOperations.stream(entryQuery, Entry.class, ENTRY_COLLECTION_PREFIX + catalogueId)) {
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                StatisticsRollupEntry contribution = contribution(catalogueId, entry.getId(), entry, metadata);
+                if (contribution == null) {
+                    continue;
+                }
+                contribution.setVersion(1);
+                add(totals, contribution, 1);
+                batch.add(contribution);
+                if (batch.size() >= batchSize) {
+                    mongoOperations.insert(batch, StatisticsRollupEntry.class);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            mongoOperations.insert(batch, StatisticsRollupEntry.class);
+        }
+        mongoOperations.remove(query(where("catalogueId").is(catalogueId)), StatisticsRollup.class);
+        write(totals);
+    }
+
+    //统计（按档案类型-保管期限）
+    public Map<String, Object> statisticsTypeTerm(int fondsId, int beginYear, int endYear) {
+        List<StatisticsRollup> rollups = find(fondsId, beginYear, endYear);
+
+        Map<Integer, ContentType> contentTypes = contentTypeRepository.findAll().stream()
+                .collect(Collectors.toMap(ContentType::getId, Function.identity(), (a, b) -> a));
+
+        Optional<DictionaryClassification> optional = dictionaryClassificationRepository.findByCode("BGQX");
+        if (!optional.isPresent()) {
+            throw new BusinessException("保管期限词典分类不存在");
+        }
+        List<Dictionary> dictionaries = dictionaryRepository.findByClassificationId(optional.get().getId());
+        //保管期限可能著录为名称、编码或两者组合
+        Map<String, String> termNames = new HashMap<>();
+        for (Dictionary dictionary : dictionaries) {
+            termNames.putIfAbsent(dictionary.getName(), dictionary.getName());
+            termNames.putIfAbsent(dictionary.getCode(), dictionary.getName());
+            termNames.putIfAbsent(dictionary.getCode() + " " + dictionary.getName(), dictionary.getName());
+            termNames.putIfAbsent(dictionary.getName() + " " + dictionary.getCode(), dictionary.getName());
+        }
+
+        //档案内容类型->(保管期限名称->条目数)，合计和页数单独累计
+        Map<Integer, Map<String, Long>> counts = new HashMap<>();
+        for (StatisticsRollup rollup : rollups) {
+            if (!contentTypes.containsKey(rollup.getArchiveContentType())) {
+                continue;
+            }
+            Map<String, Long> map = counts.computeIfAbsent(rollup.getArchiveContentType(), k -> new HashMap<>());
+            String termName = termNames.getOrDefault(rollup.getTimeLimitForStorage(), "其他");
+            map.merge(termName, rollup.getCount(), Long::sum);
+            map.merge("合计", rollup.getCount(), Long::sum);
+            map.merge("pages", rollup.getPages(), Long::sum);
+        }
+
+        List<Map<String, Object>> items = new ArrayList<>();
+        counts.forEach((contentTypeId, map) -> {
+            HashMap<String, Object> item = new HashMap<>();
+            item.put("name", contentTypes.get(contentTypeId).getName());
+            for (Dictionary dictionary : dictionaries) {
+                item.put(dictionary.getName(), map.getOrDefault(dictionary.getName(), 0L));
+            }
+            item.put("其他", map.getOrDefault("其他", 0L));
+            item.put("合计", map.get("合计"));
+            item.put("pages", map.get("pages"));
+            items.add(item);
+        });
+        //与按条目数排序的聚合结果顺序一致
+        items.sort((a, b) -> Long.compare((long) b.get("合计"), (long) a.get("合计")));
+
+        List<String> timeLimitNames = new ArrayList<>();
+        dictionaries.forEach(a -> timeLimitNames.add(a.getName()));
+        timeLimitNames.add("其他");
+        timeLimitNames.add("合计");
+
+        HashMap<String, Object> result = new HashMap<>();
+        result.put("fields", timeLimitNames);
+        result.put("items", items);
+        result.put("updatedAt", updatedAt());
+        return result;
+    }
+
+    //统计（按档案类型-年度）
+    public Map<String, Object> statisticsTypeYear(int fondsId, int beginYear, int endYear) {
+        List<StatisticsRollup> rollups = find(fondsId, beginYear, endYear);
+
+        List<ContentType> contentTypes = contentTypeRepository.findAll();
+
+        //年度->(档案内容类型->条目数)
+        Map<Integer, Map<Integer, Long>> counts = new HashMap<>();
+        Map<Integer, long[]> totals = new HashMap<>();
+        for (StatisticsRollup rollup : rollups) {
+            Integer year = parseYear(rollup.getYear());
+            if (year == null) {
+                continue;
+            }
+            counts.computeIfAbsent(year, k -> new HashMap<>()).merge(rollup.getArchiveContentType(), rollup.getCount(), Long::sum);
+            long[] total = totals.computeIfAbsent(year, k -> new long[2]);
+            total[0] += rollup.getCount();
+            total[1] += rollup.getPages();
+        }
+
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (int year = beginYear; year <= endYear; year++) {
+            Map<Integer, Long> yearCounts = counts.getOrDefault(year, Collections.emptyMap());
+            long[] total = totals.getOrDefault(year, new long[2]);
+
+            HashMap<String, Object> map = new HashMap<>();
+            map.put("name", year);
+            contentTypes.forEach(a -> map.put(a.getName(), yearCounts.getOrDefault(a.getId(), 0L)));
+            map.put("合计", total[0]);
+            map.put("pages", total[1]);
+            items.add(map);
+        }
+        List<String> contentTypeNames = new ArrayList<>();
+        contentTypes.forEach(a -> contentTypeNames.add(a.getName()));
+        contentTypeNames.add("合计");
+
+        HashMap<String, Object> result = new HashMap<>();
+        result.put("fields", contentTypeNames);
+        result.put("items", items);
+        result.put("updatedAt", updatedAt());
+        return result;
+    }
+
+    /**
+     * 汇总最后一次增量更新或重算的时间，从未生成过时为空
+     */
+    public Date updatedAt() {
+        org.bson.Document status = mongoOperations.findById(STATUS_ID, org.bson.Document.class, STATUS_COLLECTION);
+        if (status == null) {
+            return null;
+        }
+        Date updatedAt = status.getDate("updatedAt");
+        Date recomputedAt = status.getDate("recomputedAt");
+        if (updatedAt == null || (recomputedAt != null && recomputedAt.after(updatedAt))) {
+            return recomputedAt;
+        }
+        return updatedAt;
+    }
+
+    /**
+     * 全宗下归档库(除去案卷目录)在年度范围内的汇总，年度按字符串比较，与原ES上keyword字段的范围查询一致
+     */
+    private List<StatisticsRollup> find(int fondsId, int beginYear, int endYear) {
+        //查询全宗下归档库除去案卷所有目录
+        List<Integer> catalogueIds = catalogueRepository.findCatalogueIdByfondsId(fondsId);
+
+        Criteria criteria = where("year").gte(String.valueOf(beginYear)).lte(String.valueOf(endYear)).and("count").gt(0);
+        if (catalogueIds != null && !catalogueIds.isEmpty()) {
+            criteria.and("catalogueId").in(catalogueIds);
+        }
+        return mongoOperations.find(query(criteria), StatisticsRollup.class);
+    }
+
+    /**
+     * 条目计入汇总的维度和页数，已删除的条目不计入。年度、保管期限优先取著录项，没有时取系统字段
+     */
+    private StatisticsRollupEntry contribution(int catalogueId, String entryId, Entry entry, CatalogueMetadata metadata) {
+        if (entry == null || entry.getGmtDeleted() != 0) {
+            return null;
+        }
+        StatisticsRollupEntry contribution = new StatisticsRollupEntry();
+        contribution.setId(StatisticsRollupEntry.id(catalogueId, entryId));
+        contribution.setCatalogueId(catalogueId);
+        contribution.setFondsId(entry.getFondsId());
+        contribution.setArchivesId(entry.getArchiveId());
+        contribution.setArchiveContentType(entry.getArchiveContentType());
+        contribution.setYear(text(itemValue(entry, metadata, PropertyType.Year), entry.getYear()));
+        contribution.setTimeLimitForStorage(text(itemValue(entry, metadata, PropertyType.TimeLimitForStorage), entry.getTimeLimitForStorage()));
+        contribution.setPages(pages(itemValue(entry, metadata, PropertyType.PageTotal)));
+        return contribution;
+    }
+
+    private static Object itemValue(Entry entry, CatalogueMetadata metadata, PropertyType propertyType) {
+        DescriptionItem item = metadata.getItem(propertyType);
+        if (item == null || entry.getItems() == null) {
+            return null;
+        }
+        return entry.getItems().get(item.getMetadataName());
+    }
+
+    private static String text(Object value, String systemValue) {
+        if (value != null && !value.toString().isEmpty()) {
+            return value.toString();
+        }
+        return systemValue == null ? "" : systemValue;
+    }
+
+    private static long pages(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value != null) {
+            try {
+                return Long.parseLong(value.toString().trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return 0;
+    }
+
+    private static Integer parseYear(String year) {
+        try {
+            return Integer.parseInt(year);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void add(Map<String, Delta> deltas, StatisticsRollupEntry contribution, int sign) {
+        Delta delta = deltas.computeIfAbsent(contribution.rollupId(), k -> new Delta(contribution));
+        delta.count += sign;
+        delta.pages += sign * contribution.getPages();
+    }
+
+    private static Update stateUpdate(StatisticsRollupEntry contribution) {
+        return new Update()
+                .set("catalogueId", contribution.getCatalogueId())
+                .set("fondsId", contribution.getFondsId())
+                .set("archivesId", contribution.getArchivesId())
+                .set("archiveContentType", contribution.getArchiveContentType())
+                .set("year", contribution.getYear())
+                .set("timeLimitForStorage", contribution.getTimeLimitForStorage())
+                .set("pages", contribution.getPages());
+    }
+
+    private static Update rollupUpdate(Delta delta, Date now) {
+        StatisticsRollupEntry dimensions = delta.dimensions;
+        return new Update()
+                .inc("count", delta.count)
+                .inc("pages", delta.pages)
+                .set("gmtModified", now)
+                .setOnInsert("catalogueId", dimensions.getCatalogueId())
+                .setOnInsert("fondsId", dimensions.getFondsId())
+                .setOnInsert("archivesId", dimensions.getArchivesId())
+                .setOnInsert("archiveContentType", dimensions.getArchiveContentType())
+                .setOnInsert("year", dimensions.getYear())
+                .setOnInsert("timeLimitForStorage", dimensions.getTimeLimitForStorage());
+    }
+
+    private void write(Map<String, Delta> deltas) {
+        Date now = new Date();
+        BulkOperations bulkOps = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, StatisticsRollup.class);
+        int count = 0;
+        for (Map.Entry<String, Delta> entry : deltas.entrySet()) {
+            Delta delta = entry.getValue();
+            if (delta.count == 0 && delta.pages == 0) {
+                continue;
+            }
+            bulkOps.upsert(query(where("_id").is(entry.getKey())), rollupUpdate(delta, now));
+            count++;
+        }
+        if (count > 0) {
+            bulkOps.execute();
+        }
+    }
+
+    /**
+     * 完成已登记的变更：先按变更号计入汇总(汇总上已有该变更号的跳过)，再把条目状态改为新值。
+     * 中断时条目状态上仍有登记的变更，重做时已计入的汇总不会再计；
+     * 变更号在汇总上保留opRetention后才清除，并发读到同一登记的线程在此期间计入也会被挡住
+     */
+    private void finish(List<StatisticsRollupEntry> states) {
+        if (states.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        List<Pair<Query, Update>> rollups = new ArrayList<>();
+        Set<String> rollupIds = new HashSet<>();
+        BulkOperations done = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, StatisticsRollupEntry.class);
+        for (StatisticsRollupEntry state : states) {
+            String op = state.getPendingOp();
+            StatisticsRollupEntry after = state.getPending();
+            //同一条目在一个汇总上只有一次增减，去重的变更号才不会挡住另一半
+            Map<String, Delta> deltas = new HashMap<>();
+            if (state.getVersion() > 0) {
+                add(deltas, state, -1);
+            }
+            if (after != null) {
+                add(deltas, after, 1);
+            }
+            deltas.forEach((rollupId, delta) -> {
+                if (delta.count == 0 && delta.pages == 0) {
+                    return;
+                }
+                rollups.add(Pair.of(query(where("_id").is(rollupId).and("ops.op").ne(op))
+                        , rollupUpdate(delta, now).push("ops", new org.bson.Document("op", op).append("at", now))));
+                rollupIds.add(rollupId);
+            });
+
+            Query pending = query(where("_id").is(state.getId()).and("pendingOp").is(op));
+            if (after != null) {
+                done.updateOne(pending, stateUpdate(after).set("version", state.getVersion() + 1).unset("pendingOp").unset("pending"));
+            } else {
+                done.remove(pending);
+            }
+        }
+        if (!rollups.isEmpty()) {
+            upsertRollups(rollups);
+        }
+        done.execute();
+        if (!rollupIds.isEmpty()) {
+            //只清除过期的变更号，刚计入的仍用于挡住并发的重复计入
+            Date expired = new Date(now.getTime() - opRetention);
+            mongoOperations.updateMulti(query(where("_id").in(rollupIds).and("ops.at").lt(expired))
+                    , new Update().pull("ops", new org.bson.Document("at", new org.bson.Document("$lt", expired)))
+                    , StatisticsRollup.class);
+        }
+    }
+
+    /**
+     * 按变更号去重写入汇总。汇总已有该变更号时upsert插入报主键重复，即已计入；
+     * 并发插入同一个新汇总时也报主键重复，重试一次后按已有汇总更新
+     */
+    private void upsertRollups(List<Pair<Query, Update>> updates) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, StatisticsRollup.class).upsert(updates).execute();
+                return;
+            } catch (BulkOperationException e) {
+                if (e.getErrors().stream().anyMatch(a -> a.getCode() != DUPLICATE_KEY)) {
+                    throw e;
+                }
+                if (attempt > 0) {
+                    return;
+                }
+                List<Pair<Query, Update>> duplicates = new ArrayList<>();
+                for (BulkWriteError error : e.getErrors()) {
+                    duplicates.add(updates.get(error.getIndex()));
+                }
+                updates = duplicates;
+            }
+        }
+    }
+
+    private void executeIgnoringDuplicates(BulkOperations bulkOps) {
+        try {
+            bulkOps.execute();
+        } catch (BulkOperationException e) {
+            //条目状态已被其它线程登记或重新插入，登记不上的条目由调用方重试
+            if (e.getErrors().stream().anyMatch(a -> a.getCode() != DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
+    }
+
+    private static boolean same(StatisticsRollupEntry before, StatisticsRollupEntry after) {
+        boolean counted = before != null && before.getVersion() > 0;
+        if (!counted || after == null) {
+            //正被其它线程登记的条目不算相同，由登记条件挡住
+            return !counted && after == null && (before == null || before.getPendingOp() == null);
+        }
+        return before.rollupId().equals(after.rollupId()) && before.getPages() == after.getPages();
+    }
+
+    private ReentrantReadWriteLock lock(int catalogueId) {
+        return locks.computeIfAbsent(catalogueId, k -> new ReentrantReadWriteLock());
+    }
+
+    private void touch(String field) {
+        mongoOperations.upsert(query(where("_id").is(STATUS_ID)), new Update().set(field, new Date()), STATUS_COLLECTION);
+    }
+
+    /**
+     * 一个汇总的增减量
+     */
+    private static class Delta {
+        private final StatisticsRollupEntry dimensions;
+
+        private long count;
+
+        private long pages;
+
+        private Delta(StatisticsRollupEntry dimensions) {
+            this.dimensions = dimensions;
+        }
+    }
+}
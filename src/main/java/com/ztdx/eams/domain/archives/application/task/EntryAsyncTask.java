@@ -1,22 +1,21 @@
 package com.ztdx.eams.domain.archives.application.task;
 
+import com.ztdx.eams.basic.config.AsyncConfig;
 import com.ztdx.eams.basic.exception.BusinessException;
-import com.ztdx.eams.basic.task.Job;
+import com.ztdx.eams.basic.repository.IndexRefreshPolicy;
+import com.ztdx.eams.domain.archives.application.CatalogueMetadataCache;
+import com.ztdx.eams.domain.archives.application.NgramIndexSupport;
 import com.ztdx.eams.domain.archives.model.*;
-import com.ztdx.eams.domain.archives.repository.CatalogueRepository;
+import com.ztdx.eams.domain.archives.model.condition.AbstractConditionEsQueryBuilder;
 import com.ztdx.eams.domain.archives.repository.DescriptionItemRepository;
 import com.ztdx.eams.domain.archives.repository.elasticsearch.EntryElasticsearchRepository;
 import com.ztdx.eams.domain.archives.repository.elasticsearch.OriginalTextElasticsearchRepository;
 import com.ztdx.eams.domain.archives.repository.mongo.EntryMongoRepository;
-import com.ztdx.eams.domain.archives.repository.mongo.OriginalTextMongoRepository;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.FieldType;
-import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.scheduling.annotation.Async;
@@ -24,6 +23,9 @@ import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,8 +43,6 @@ public class EntryAsyncTask {
 
     private MongoOperations mongoOperations;
 
-    private ElasticsearchOperations elasticsearchOperations;
-
     private EntryElasticsearchRepository entryElasticsearchRepository;
 
     private EntryMongoRepository entryMongoRepository;
@@ -51,24 +51,50 @@ public class EntryAsyncTask {
 
     private OriginalTextElasticsearchRepository originalTextElasticsearchRepository;
 
-    private OriginalTextMongoRepository originalTextMongoRepository;
+    private CatalogueMetadataCache catalogueMetadataCache;
 
-    private CatalogueRepository catalogueRepository;
+    private NgramIndexSupport ngramIndexSupport;
 
-    public EntryAsyncTask(EntryElasticsearchRepository entryElasticsearchRepository, DescriptionItemRepository descriptionItemRepository, MongoOperations mongoOperations, ElasticsearchOperations elasticsearchOperations, OriginalTextElasticsearchRepository originalTextElasticsearchRepository, CatalogueRepository catalogueRepository, EntryMongoRepository entryMongoRepository, OriginalTextMongoRepository originalTextMongoRepository) {
+    public EntryAsyncTask(EntryElasticsearchRepository entryElasticsearchRepository, DescriptionItemRepository descriptionItemRepository, MongoOperations mongoOperations, OriginalTextElasticsearchRepository originalTextElasticsearchRepository, EntryMongoRepository entryMongoRepository, CatalogueMetadataCache catalogueMetadataCache, NgramIndexSupport ngramIndexSupport) {
         this.entryElasticsearchRepository = entryElasticsearchRepository;
         this.descriptionItemRepository = descriptionItemRepository;
         this.mongoOperations = mongoOperations;
-        this.elasticsearchOperations = elasticsearchOperations;
         this.originalTextElasticsearchRepository = originalTextElasticsearchRepository;
-        this.catalogueRepository = catalogueRepository;
         this.entryMongoRepository = entryMongoRepository;
-        this.originalTextMongoRepository = originalTextMongoRepository;
+        this.catalogueMetadataCache = catalogueMetadataCache;
+        this.ngramIndexSupport = ngramIndexSupport;
     }
 
-    @Job
+    /**
+     * 条目写入索引待办，由IndexOutboxDrainer异步批量索引。只记录条目id，不序列化条目内容
+     */
     public void indexAll(Iterable<Entry> entries, int catalogueId) {
-        indexAllJob(entries, catalogueId);
+        if (entries == null || !entries.iterator().hasNext()) {
+            return;
+        }
+        Set<String> ids = StreamSupport.stream(entries.spliterator(), false).map(Entry::getId).collect(Collectors.toSet());
+        enqueue(catalogueId, ids, IndexOutbox.Op.index);
+    }
+
+    public void enqueue(int catalogueId, Collection<String> entryIds, IndexOutbox.Op op) {
+        if (entryIds == null || entryIds.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        BulkOperations bulkOps = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, IndexOutbox.class);
+        entryIds.forEach(entryId -> bulkOps.upsert(
+                query(where("_id").is(IndexOutbox.id(catalogueId, entryId)))
+                , new Update()
+                        .set("catalogueId", catalogueId)
+                        .set("entryId", entryId)
+                        .set("op", op)
+                        .inc("version", 1)
+                        .set("attempts", 0)
+                        .set("nextAttemptAt", now)
+                        .set("gmtModified", now)
+                        .setOnInsert("lockedUntil", new Date(0))
+                        .setOnInsert("gmtCreate", now)));
+        bulkOps.execute();
     }
 
     public void indexAllJob(Iterable<Entry> entries, int catalogueId) {
@@ -78,13 +104,30 @@ public class EntryAsyncTask {
             return;
         }
         initIndex(catalogueId);
-        entryElasticsearchRepository.saveAll(entries);
-        Set<String> ids = StreamSupport.stream(entries.spliterator(), true).map(Entry::getId).collect(Collectors.toSet());
-        //采用索引更新时间方案
-        mongoOperations.updateFirst(
-                query(where("_id").in(ids))
-                , new Update().currentDate("indexDate")
-                , this.getIndexName(catalogueId));
+        entryElasticsearchRepository.saveAll(entries, IndexRefreshPolicy.BATCHED);
+        stampIndexed(entries, this.getIndexName(catalogueId));
+    }
+
+    /**
+     * 批量记录条目的索引时间和索引版本号，用于增量重建索引
+     */
+    public void stampIndexed(Iterable<Entry> entries, String collectionName) {
+        stampIndexed(entries, collectionName, null);
+    }
+
+    /**
+     * indexDate为空时使用数据库当前时间
+     */
+    public void stampIndexed(Iterable<Entry> entries, String collectionName, Date indexDate) {
+        BulkOperations bulkOps = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, collectionName);
+        entries.forEach(entry -> {
+            Update update = indexDate == null ? new Update().currentDate("indexDate") : Update.update("indexDate", indexDate);
+            if (entry.getVersion() != null) {
+                update.set("indexVersion", entry.getVersion());
+            }
+            bulkOps.updateOne(query(where("_id").is(entry.getId())), update);
+        });
+        bulkOps.execute();
     }
 
     public void index(Entry entry) {
@@ -103,7 +146,7 @@ public class EntryAsyncTask {
                 , this.getIndexName(entry.getCatalogueId()));
     }
 
-    @Async
+    @Async(AsyncConfig.INDEX_EXECUTOR)
     public void copyItemsFieldToSystemField(Entry entry) {
         List<PropertyType> propertyTypes = Arrays.asList(
                 PropertyType.Rank
@@ -115,15 +158,16 @@ public class EntryAsyncTask {
                 , PropertyType.Year
         );
 
-        List<DescriptionItem> items = descriptionItemRepository.findByCatalogueId(entry.getCatalogueId());
-        Map<PropertyType, String> map = items.stream().collect(Collectors.toMap(DescriptionItem::getPropertyType, DescriptionItem::getMetadataName, (a, b) -> a));
-        map.forEach((propertyType, fieldName) -> {
+        //只更新复制的系统字段，不覆盖整条条目
+        Update update = new Update();
+        Map<PropertyType, DescriptionItem> map = catalogueMetadataCache.get(entry.getCatalogueId()).getItemsByPropertyType();
+        map.forEach((propertyType, item) -> {
 
             if (!propertyTypes.contains(propertyType)) {
                 return;
             }
 
-            Object value = entry.getItems().getOrDefault(fieldName, null);
+            Object value = entry.getItems().getOrDefault(item.getMetadataName(), null);
             if (value == null) {
                 return;
             }
@@ -138,37 +182,47 @@ public class EntryAsyncTask {
             switch (propertyType) {
                 case Rank:
                     entry.setRank(value.toString());
+                    update.set("rank", value.toString());
                     break;
                 case CarrierType:
                     entry.setCarrierType(value.toString());
+                    update.set("carrierType", value.toString());
                     break;
                 case ClassificationNumber:
                     entry.setClassificationNumber(value.toString());
+                    update.set("classificationNumber", value.toString());
                     break;
                 case department:
                     entry.setDepartment(value.toString());
+                    update.set("department", value.toString());
                     break;
                 case RecordType:
                     entry.setRecordType(value.toString());
+                    update.set("RecordType", value.toString());
                     break;
                 case TimeLimitForStorage:
                     entry.setTimeLimitForStorage(value.toString());
+                    update.set("timeLimitForStorage", value.toString());
                     break;
                 case Year:
                     entry.setYear(value.toString());
+                    update.set("year", value.toString());
                     break;
                 default:
                     break;
             }
         });
 
-        entryMongoRepository.save(entry);
+        if (!update.getUpdateObject().isEmpty()) {
+            entryMongoRepository.updateAllById(Collections.singletonList(entry.getId()), update, this.getIndexName(entry.getCatalogueId()));
+        }
         index(entry);
     }
 
     public void createCatalogueInit(int id) {
         try {
             originalTextElasticsearchRepository.createIndex(this.getIndexName(id));
+            putOriginalTextMapping(this.getIndexName(id));
             initIndex(id);
             putMapping(id);
 
@@ -177,74 +231,36 @@ public class EntryAsyncTask {
         }
     }
 
-    public void test(String uuid) {
-        rebuild();
-        //rebuildById(Integer.parseInt(uuid));
-    }
-
-    private void rebuildById(int id) {
-        try {
-            elasticsearchOperations.deleteIndex(this.getIndexName(id));
-            originalTextElasticsearchRepository.createIndex(this.getIndexName(id));
-
-            initIndex(id);
-            putMapping(id);
-
-            rebuildCatalogueEntry(id);
-            rebuildCatalogueOriginalText(id);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public void rebuild() {
-        catalogueRepository.findAll().forEach(a -> rebuildById(a.getId()));
-    }
-
-    private void rebuildCatalogueEntry(int catalogueId) {
-        long total = entryMongoRepository.count(getIndexName(catalogueId));
-        long pageCount = total / 100 + 1;
-        for (long i = 0; i < pageCount; i++) {
-            Page<Entry> list = entryMongoRepository.findAll(PageRequest.of((int) i, 100, Sort.by(Sort.Direction.ASC, "gmtCreate")), getIndexName(catalogueId));
-            if (list.getContent().size() == 0) {
-                return;
-            }
-            entryElasticsearchRepository.saveAll(list);
+    /**
+     * 索引有n-gram分词器时原文标题增加ngram子字段用于包含查询，分词器只在新建或全量重建的索引上才有
+     */
+    public void putOriginalTextMapping(String indexName) throws IOException {
+        //索引刚创建，不用之前缓存的检查结果
+        ngramIndexSupport.evict(indexName);
+        if (!ngramIndexSupport.supports(indexName)) {
+            return;
         }
+        XContentBuilder contentBuilder = XContentFactory.jsonBuilder().startObject()
+                .startObject(getIndexType(OriginalText.class))
+                .startObject("properties")
+                .startObject("title")
+                .field("type", "text")
+                .startObject("fields")
+                .startObject(AbstractConditionEsQueryBuilder.NGRAM_FIELD)
+                .field("type", "text")
+                .field("analyzer", NgramIndexSupport.ANALYZER)
+                .endObject()
+                .endObject()
+                .endObject()
+                .endObject().endObject().endObject();
+        originalTextElasticsearchRepository.putMapping(indexName, contentBuilder);
     }
 
-    private void rebuildCatalogueOriginalText(int catalogueId) {
-        long total = originalTextMongoRepository.count("archive_record_originalText_" + catalogueId);
-        long pageCount = total / 100 + 1;
-        for (long i = 0; i < pageCount; i++) {
-            Page<OriginalText> list = originalTextMongoRepository.findAll(
-                    PageRequest.of(
-                            (int) i, 100, Sort.by(Sort.Direction.ASC, "gmtCreate"))
-                    , "archive_record_originalText_" + catalogueId);
-            if (list.getContent().size() == 0) {
-                return;
-            }
-
-            List<String> ids = list.getContent().stream().map(OriginalText::getEntryId).collect(Collectors.toList());
-
-            Iterable<Entry> list1 = entryMongoRepository.findAllById(ids, "archive_record_" + catalogueId);
-
-            Map<String, Entry> map = StreamSupport.stream(list1.spliterator(), true).collect(Collectors.toMap(Entry::getId, a -> a));
-
-            list.forEach(a -> {
-                Entry entry = map.getOrDefault(a.getEntryId(), null);
-                if (entry == null) {
-                    return;
-                }
-                a.setArchiveContentType(entry.getArchiveContentType());
-                a.setFondsId(entry.getFondsId());
-            });
-
-            originalTextElasticsearchRepository.saveAll(list);
-        }
+    private void putMapping(int catalogueId) throws IOException {
+        putMapping(catalogueId, this.getIndexName(catalogueId));
     }
 
-    private void putMapping(int catalogueId) throws IOException {
+    public void putMapping(int catalogueId, String indexName) throws IOException {
 
         List<DescriptionItem> list = descriptionItemRepository.findByCatalogueId(catalogueId);
         XContentBuilder contentBuilder;
@@ -254,18 +270,19 @@ public class EntryAsyncTask {
 
         contentBuilder
                 .startObject("full_content")
-                .field("type", FieldType.text.name().toLowerCase())
+                .field("type", "text")
                 .endObject();
 
         contentBuilder.startObject("items")
                 .startObject("properties");
+        boolean ngram = ngramIndexSupport.supports(indexName);
         for (DescriptionItem descriptionItem : list) {
-            addSingleFieldMapping(contentBuilder, descriptionItem);
+            addSingleFieldMapping(contentBuilder, descriptionItem, ngram);
         }
 
         contentBuilder.endObject().endObject().endObject().endObject().endObject();
 
-        entryElasticsearchRepository.putMapping(this.getIndexName(catalogueId), contentBuilder);
+        entryElasticsearchRepository.putMapping(indexName, contentBuilder);
     }
 
     public void putMapping(List<DescriptionItem> descriptionItems) {
@@ -278,18 +295,20 @@ public class EntryAsyncTask {
 
             contentBuilder
                     .startObject("full_content")
-                    .field("type", FieldType.text.name().toLowerCase())
+                    .field("type", "text")
                     .endObject();
 
+            String indexName = this.getIndexName(descriptionItems.get(0).getCatalogueId());
             contentBuilder.startObject("items")
                     .startObject("properties");
+            boolean ngram = ngramIndexSupport.supports(indexName);
             for (DescriptionItem descriptionItem : descriptionItems) {
-                addSingleFieldMapping(contentBuilder, descriptionItem);
+                addSingleFieldMapping(contentBuilder, descriptionItem, ngram);
             }
 
             contentBuilder.endObject().endObject().endObject().endObject().endObject();
 
-            entryElasticsearchRepository.putMapping(this.getIndexName(descriptionItems.get(0).getCatalogueId()), contentBuilder);
+            entryElasticsearchRepository.putMapping(indexName, contentBuilder);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -314,18 +333,32 @@ public class EntryAsyncTask {
         return FieldType.Auto;
     }
 
-    private void addSingleFieldMapping(XContentBuilder xContentBuilder, DescriptionItem descriptionItem) throws IOException {
+    /**
+     * @param ngram 索引有n-gram分词器时，字符串和文本著录项增加ngram子字段用于包含查询
+     */
+    private void addSingleFieldMapping(XContentBuilder xContentBuilder, DescriptionItem descriptionItem, boolean ngram) throws IOException {
         xContentBuilder.startObject(descriptionItem.getMetadataName());
 
         FieldType fieldType = convertDescriptionItemDateType(descriptionItem.getDataType());
         if (FieldType.Auto != fieldType) {
             xContentBuilder.field("type", fieldType.name().toLowerCase());
-            if (FieldType.text == fieldType) {
+            boolean ngramField = ngram && (descriptionItem.getDataType() == DescriptionItemDataType.String
+                    || descriptionItem.getDataType() == DescriptionItemDataType.Text);
+            if (FieldType.text == fieldType || ngramField) {
                 xContentBuilder.startObject("fields");
-                xContentBuilder.startObject("keyword");
-                xContentBuilder.field("type", "keyword");
-                xContentBuilder.field("ignore_above", 256);
-                xContentBuilder.endObject().endObject();
+                if (FieldType.text == fieldType) {
+                    xContentBuilder.startObject("keyword");
+                    xContentBuilder.field("type", "keyword");
+                    xContentBuilder.field("ignore_above", 256);
+                    xContentBuilder.endObject();
+                }
+                if (ngramField) {
+                    xContentBuilder.startObject(AbstractConditionEsQueryBuilder.NGRAM_FIELD);
+                    xContentBuilder.field("type", "text");
+                    xContentBuilder.field("analyzer", NgramIndexSupport.ANALYZER);
+                    xContentBuilder.endObject();
+                }
+                xContentBuilder.endObject();
             }
         }
 
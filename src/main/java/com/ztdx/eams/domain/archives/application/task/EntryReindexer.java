@@ -0,0 +1,472 @@
+package com.ztdx.eams.domain.archives.application.task;
+
+import com.ztdx.eams.basic.exception.BusinessException;
+import com.ztdx.eams.basic.repository.IndexRefreshPolicy;
+import com.ztdx.eams.domain.archives.application.NgramIndexSupport;
+import com.ztdx.eams.domain.archives.model.Entry;
+import com.ztdx.eams.domain.archives.model.OriginalText;
+import com.ztdx.eams.domain.archives.model.ReindexCheckpoint;
+import com.ztdx.eams.domain.archives.model.ReindexJob;
+import com.ztdx.eams.domain.archives.repository.CatalogueRepository;
+import com.ztdx.eams.domain.archives.repository.elasticsearch.EntryElasticsearchRepository;
+import com.ztdx.eams.domain.archives.repository.elasticsearch.OriginalTextElasticsearchRepository;
+import com.ztdx.eams.domain.archives.repository.mongo.EntryMongoRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.Settings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * 条目索引重建。
+ * 全量模式：按_id区间分片、键集分页并行写入带版本号的新索引，完成后原子切换别名，断点记录在Mongo中可恢复；
+ * 增量模式：只重建gmtModified晚于indexDate(或从未索引)的条目。
+ * 新索引按当前设置和映射创建，旧索引(如没有n-gram分词器)通过全量重建迁移。
+ */
+@Service
+public class EntryReindexer {
+
+    private static final String INDEX_NAME_PREFIX = "archive_record_";
+
+    private static final String ORIGINAL_TEXT_COLLECTION_PREFIX = "archive_record_originalText_";
+
+    //条目和原文id均为UUID，按首个十六进制字符划分分片
+    private static final String ID_CHARS = "0123456789abcdef";
+
+    private Log log = LogFactory.getLog(EntryReindexer.class);
+
+    private final MongoOperations mongoOperations;
+
+    private final ElasticsearchOperations elasticsearchOperations;
+
+    private final EntryElasticsearchRepository entryElasticsearchRepository;
+
+    private final OriginalTextElasticsearchRepository originalTextElasticsearchRepository;
+
+    private final EntryMongoRepository entryMongoRepository;
+
+    private final CatalogueRepository catalogueRepository;
+
+    private final EntryAsyncTask entryAsyncTask;
+
+    private final NgramIndexSupport ngramIndexSupport;
+
+    //并行线程数
+    @Value("${reindex.threads:4}")
+    private int threads;
+
+    //每个目录的分片数(1-16)
+    @Value("${reindex.slices:4}")
+    private int slices;
+
+    //每页读取数量
+    @Value("${reindex.page-size:1000}")
+    private int pageSize;
+
+    //启动时恢复未完成的重建任务
+    @Value("${reindex.resume-on-startup:true}")
+    private boolean resumeOnStartup;
+
+    private ExecutorService executor;
+
+    //正在重建的目录
+    private final Set<Integer> running = ConcurrentHashMap.newKeySet();
+
+    public EntryReindexer(MongoOperations mongoOperations, ElasticsearchOperations elasticsearchOperations, EntryElasticsearchRepository entryElasticsearchRepository, OriginalTextElasticsearchRepository originalTextElasticsearchRepository, EntryMongoRepository entryMongoRepository, CatalogueRepository catalogueRepository, EntryAsyncTask entryAsyncTask, NgramIndexSupport ngramIndexSupport) {
+        this.mongoOperations = mongoOperations;
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.entryElasticsearchRepository = entryElasticsearchRepository;
+        this.originalTextElasticsearchRepository = originalTextElasticsearchRepository;
+        this.entryMongoRepository = entryMongoRepository;
+        this.catalogueRepository = catalogueRepository;
+        this.entryAsyncTask = entryAsyncTask;
+        this.ngramIndexSupport = ngramIndexSupport;
+    }
+
+    @PostConstruct
+    public void start() {
+        slices = Math.max(1, Math.min(slices, ID_CHARS.length()));
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "entry-reindexer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (resumeOnStartup) {
+            try {
+                List<Integer> unfinished = mongoOperations.find(
+                        query(where("status").is(ReindexJob.Status.running)), ReindexJob.class)
+                        .stream().map(ReindexJob::getCatalogueId).collect(Collectors.toList());
+                if (!unfinished.isEmpty()) {
+                    log.info("恢复未完成的索引重建:" + unfinished);
+                    rebuild(unfinished);
+                }
+            } catch (Exception e) {
+                log.error("恢复索引重建失败", e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 全量重建所有目录
+     */
+    public void rebuild() {
+        rebuild(catalogueRepository.findAll().stream().map(a -> a.getId()).collect(Collectors.toList()));
+    }
+
+    /**
+     * 全量重建指定目录，已在重建中的目录忽略。存在未完成任务时从断点继续
+     */
+    public void rebuild(Collection<Integer> catalogueIds) {
+        catalogueIds.forEach(catalogueId -> submit(catalogueId, () ->
+                CompletableFuture.supplyAsync(() -> prepare(catalogueId), executor)
+                        .thenCompose(job -> CompletableFuture.allOf(sliceRange()
+                                .mapToObj(slice -> CompletableFuture.runAsync(() -> copySlice(job, slice), executor))
+                                .toArray(CompletableFuture[]::new))
+                                .thenRun(() -> finish(job)))));
+    }
+
+    /**
+     * 增量重建指定目录：只索引修改时间晚于索引时间的条目。
+     * 已索引的条目会记录indexDate，中断后再次执行即从剩余部分继续
+     */
+    public void rebuildIncremental(Collection<Integer> catalogueIds) {
+        catalogueIds.forEach(catalogueId -> submit(catalogueId, () ->
+                CompletableFuture.allOf(sliceRange()
+                        .mapToObj(slice -> CompletableFuture.runAsync(() -> reindexStale(catalogueId, slice), executor))
+                        .toArray(CompletableFuture[]::new))));
+    }
+
+    /**
+     * 重建任务状态
+     */
+    public List<ReindexJob> status(Collection<Integer> catalogueIds) {
+        Query query = catalogueIds == null || catalogueIds.isEmpty()
+                ? new Query()
+                : query(where("_id").in(catalogueIds));
+        return mongoOperations.find(query.with(Sort.by(Sort.Direction.DESC, "gmtModified")), ReindexJob.class);
+    }
+
+    private void submit(int catalogueId, Supplier<CompletableFuture<Void>> task) {
+        if (!running.add(catalogueId)) {
+            log.info("目录" + catalogueId + "正在重建索引，忽略");
+            return;
+        }
+        try {
+            task.get().whenComplete((v, e) -> {
+                running.remove(catalogueId);
+                if (e != null) {
+                    log.error("目录" + catalogueId + "索引重建失败", e);
+                    fail(catalogueId, e);
+                }
+            });
+        } catch (RuntimeException e) {
+            running.remove(catalogueId);
+            throw e;
+        }
+    }
+
+    private IntStream sliceRange() {
+        return IntStream.range(0, slices);
+    }
+
+    /**
+     * 创建或恢复重建任务及新索引。新索引名不以archive_record_开头，构建期间不会被通配符检索到
+     */
+    private ReindexJob prepare(int catalogueId) {
+        ReindexJob job = mongoOperations.findById(catalogueId, ReindexJob.class);
+        if (job != null && job.getStatus() != ReindexJob.Status.done
+                && job.getSlices() == slices
+                && elasticsearchOperations.indexExists(job.getTargetIndex())) {
+            log.info("目录" + catalogueId + "从断点继续重建:" + job.getTargetIndex());
+            job.setStatus(ReindexJob.Status.running);
+            job.setMessage(null);
+            mongoOperations.save(job);
+            return job;
+        }
+
+        Date now = new Date();
+        job = new ReindexJob();
+        job.setCatalogueId(catalogueId);
+        job.setTargetIndex(String.format("archive_record-%d-%s", catalogueId, new SimpleDateFormat("yyyyMMddHHmmss").format(now)));
+        job.setSlices(slices);
+        job.setStatus(ReindexJob.Status.running);
+        job.setGmtCreate(now);
+        job.setGmtModified(now);
+
+        try {
+            //父子关系要求先创建原文类型
+            originalTextElasticsearchRepository.createIndex(job.getTargetIndex());
+            entryAsyncTask.putOriginalTextMapping(job.getTargetIndex());
+            entryElasticsearchRepository.createIndex(job.getTargetIndex());
+            entryAsyncTask.putMapping(catalogueId, job.getTargetIndex());
+        } catch (IOException e) {
+            throw new BusinessException("索引初始化失败", e);
+        }
+        //构建期间关闭自动刷新和副本
+        indices().prepareUpdateSettings(job.getTargetIndex())
+                .setSettings(Settings.builder()
+                        .put("index.refresh_interval", "-1")
+                        .put("index.number_of_replicas", 0))
+                .get();
+
+        mongoOperations.save(job);
+        return job;
+    }
+
+    private void copySlice(ReindexJob job, int slice) {
+        String checkpointId = ReindexCheckpoint.id(job.getTargetIndex(), slice);
+        ReindexCheckpoint checkpoint = mongoOperations.findById(checkpointId, ReindexCheckpoint.class);
+        if (checkpoint == null) {
+            checkpoint = new ReindexCheckpoint();
+            checkpoint.setId(checkpointId);
+            checkpoint.setCatalogueId(job.getCatalogueId());
+            checkpoint.setTargetIndex(job.getTargetIndex());
+            checkpoint.setSlice(slice);
+        }
+
+        String entryCollection = INDEX_NAME_PREFIX + job.getCatalogueId();
+        while (!checkpoint.isEntryDone()) {
+            List<Entry> page = mongoOperations.find(
+                    sliceQuery(slice, checkpoint.getLastEntryId()), Entry.class, entryCollection);
+            if (!page.isEmpty()) {
+                entryElasticsearchRepository.saveAll(page, job.getTargetIndex(), IndexRefreshPolicy.NONE);
+                //索引时间记为任务开始时间，切换后据此区分构建期间重新索引过的条目
+                entryAsyncTask.stampIndexed(page, entryCollection, job.getGmtCreate());
+                checkpoint.setLastEntryId(page.get(page.size() - 1).getId());
+            }
+            checkpoint.setEntryDone(page.size() < pageSize);
+            saveCheckpoint(checkpoint, "entryCount", page.size());
+        }
+
+        String originalTextCollection = ORIGINAL_TEXT_COLLECTION_PREFIX + job.getCatalogueId();
+        while (!checkpoint.isOriginalTextDone()) {
+            List<OriginalText> page = mongoOperations.find(
+                    sliceQuery(slice, checkpoint.getLastOriginalTextId()), OriginalText.class, originalTextCollection);
+            if (!page.isEmpty()) {
+                fillFromEntry(page, entryCollection);
+                originalTextElasticsearchRepository.saveAll(page, job.getTargetIndex(), IndexRefreshPolicy.NONE);
+                checkpoint.setLastOriginalTextId(page.get(page.size() - 1).getId());
+            }
+            checkpoint.setOriginalTextDone(page.size() < pageSize);
+            saveCheckpoint(checkpoint, "originalTextCount", page.size());
+        }
+    }
+
+    /**
+     * 切换别名并补齐构建期间的变更
+     */
+    private void finish(ReindexJob job) {
+        int catalogueId = job.getCatalogueId();
+        String alias = INDEX_NAME_PREFIX + catalogueId;
+
+        indices().prepareUpdateSettings(job.getTargetIndex())
+                .setSettings(Settings.builder()
+                        .putNull("index.refresh_interval")
+                        .putNull("index.number_of_replicas"))
+                .get();
+        elasticsearchOperations.refresh(job.getTargetIndex());
+
+        List<String> oldIndices = switchAlias(alias, job.getTargetIndex());
+        ngramIndexSupport.evict(alias);
+
+        //构建期间的变更写入了旧索引，切换后按修改时间和索引时间补齐到新索引
+        String entryCollection = INDEX_NAME_PREFIX + catalogueId;
+        Criteria changed = new Criteria().orOperator(
+                where("gmtModified").gte(job.getGmtCreate()),
+                where("indexDate").gt(job.getGmtCreate()));
+        keysetScan(entryCollection, Entry.class, Entry::getId, changed, null, null, page -> entryAsyncTask.indexAllJob(page, catalogueId));
+
+        String originalTextCollection = ORIGINAL_TEXT_COLLECTION_PREFIX + catalogueId;
+        keysetScan(originalTextCollection, OriginalText.class, OriginalText::getId, where("gmtModified").gte(job.getGmtCreate()), null, null, page -> {
+            fillFromEntry(page, entryCollection);
+            originalTextElasticsearchRepository.saveAll(page, IndexRefreshPolicy.BATCHED);
+        });
+
+        oldIndices.forEach(elasticsearchOperations::deleteIndex);
+        mongoOperations.remove(query(where("targetIndex").is(job.getTargetIndex())), ReindexCheckpoint.class);
+        mongoOperations.updateFirst(
+                query(where("_id").is(catalogueId))
+                , new Update().set("status", ReindexJob.Status.done).set("gmtModified", new Date())
+                , ReindexJob.class);
+        log.info("目录" + catalogueId + "索引重建完成:" + job.getTargetIndex());
+    }
+
+    /**
+     * 在一个请求内把别名指向新索引，返回需要删除的旧索引。旧数据是同名实体索引时直接原子删除
+     */
+    private List<String> switchAlias(String alias, String targetIndex) {
+        IndicesAliasesRequestBuilder request = indices().prepareAliases()
+                .addAliasAction(IndicesAliasesRequest.AliasActions.add().index(targetIndex).alias(alias));
+
+        List<String> aliased = new ArrayList<>();
+        ImmutableOpenMap<String, List<AliasMetaData>> aliases = indices().prepareGetAliases(alias).get().getAliases();
+        aliases.forEach(a -> {
+            if (!a.value.isEmpty()) {
+                aliased.add(a.key);
+            }
+        });
+        List<String> oldIndices = aliased.stream().filter(a -> !a.equals(targetIndex)).collect(Collectors.toList());
+
+        if (aliased.isEmpty() && elasticsearchOperations.indexExists(alias)) {
+            request.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(alias));
+        } else {
+            oldIndices.forEach(index -> request.addAliasAction(
+                    IndicesAliasesRequest.AliasActions.remove().index(index).alias(alias)));
+        }
+        request.get();
+        return oldIndices;
+    }
+
+    private void reindexStale(int catalogueId, int slice) {
+        String entryCollection = INDEX_NAME_PREFIX + catalogueId;
+        String[] bounds = sliceBounds(slice);
+        //Mongo 3.4不支持$expr比较两个字段，只取时间字段在内存中筛选
+        keysetScan(entryCollection, Entry.class, Entry::getId, null, bounds, new String[]{"gmtModified", "indexDate"}, page -> {
+            List<String> stale = page.stream()
+                    .filter(a -> a.getIndexDate() == null
+                            || (a.getGmtModified() != null && a.getGmtModified().after(a.getIndexDate())))
+                    .map(Entry::getId)
+                    .collect(Collectors.toList());
+            if (stale.isEmpty()) {
+                return;
+            }
+            List<Entry> entries = StreamSupport.stream(entryMongoRepository.findAllById(stale, entryCollection).spliterator(), false)
+                    .collect(Collectors.toList());
+            entryAsyncTask.indexAllJob(entries, catalogueId);
+        });
+    }
+
+    private <T> void keysetScan(String collectionName, Class<T> clazz, Function<T, String> idOf, Criteria filter, String[] bounds, String[] fields, Consumer<List<T>> consumer) {
+        String lastId = null;
+        while (true) {
+            Criteria criteria = idCriteria(bounds == null ? null : bounds[0], bounds == null ? null : bounds[1], lastId);
+            Query query = new Query(filter == null ? criteria : new Criteria().andOperator(criteria, filter))
+                    .with(Sort.by(Sort.Direction.ASC, "_id"))
+                    .limit(pageSize);
+            if (fields != null) {
+                Arrays.stream(fields).forEach(query.fields()::include);
+            }
+            List<T> page = mongoOperations.find(query, clazz, collectionName);
+            if (page.isEmpty()) {
+                return;
+            }
+            consumer.accept(page);
+            if (page.size() < pageSize) {
+                return;
+            }
+            lastId = idOf.apply(page.get(page.size() - 1));
+        }
+    }
+
+    private Query sliceQuery(int slice, String lastId) {
+        String[] bounds = sliceBounds(slice);
+        return new Query(idCriteria(bounds[0], bounds[1], lastId))
+                .with(Sort.by(Sort.Direction.ASC, "_id"))
+                .limit(pageSize);
+    }
+
+    /**
+     * 分片的_id区间[下界, 上界)，首个分片无下界，最后一个分片无上界
+     */
+    private String[] sliceBounds(int slice) {
+        int size = ID_CHARS.length();
+        String lower = slice == 0 ? null : String.valueOf(ID_CHARS.charAt(slice * size / slices));
+        String upper = slice == slices - 1 ? null : String.valueOf(ID_CHARS.charAt((slice + 1) * size / slices));
+        return new String[]{lower, upper};
+    }
+
+    private Criteria idCriteria(String lower, String upper, String lastId) {
+        if (lower == null && upper == null && lastId == null) {
+            return new Criteria();
+        }
+        Criteria criteria = where("_id");
+        if (lastId != null) {
+            criteria.gt(lastId);
+        } else if (lower != null) {
+            criteria.gte(lower);
+        }
+        if (upper != null) {
+            criteria.lt(upper);
+        }
+        return criteria;
+    }
+
+    /**
+     * 原文索引中的档案类型和全宗取自所属条目
+     */
+    private void fillFromEntry(List<OriginalText> originalTexts, String entryCollection) {
+        Set<String> entryIds = originalTexts.stream().map(OriginalText::getEntryId).collect(Collectors.toSet());
+        Map<String, Entry> entries = StreamSupport.stream(entryMongoRepository.findAllById(entryIds, entryCollection).spliterator(), false)
+                .collect(Collectors.toMap(Entry::getId, a -> a));
+        originalTexts.forEach(a -> {
+            Entry entry = entries.get(a.getEntryId());
+            if (entry == null) {
+                return;
+            }
+            a.setArchiveContentType(entry.getArchiveContentType());
+            a.setFondsId(entry.getFondsId());
+        });
+    }
+
+    private void saveCheckpoint(ReindexCheckpoint checkpoint, String counter, int count) {
+        Date now = new Date();
+        checkpoint.setGmtModified(now);
+        mongoOperations.save(checkpoint);
+        mongoOperations.updateFirst(
+                query(where("_id").is(checkpoint.getCatalogueId()))
+                , new Update().inc(counter, count).set("gmtModified", now)
+                , ReindexJob.class);
+    }
+
+    private void fail(int catalogueId, Throwable e) {
+        Throwable cause = e.getCause() == null ? e : e.getCause();
+        mongoOperations.updateFirst(
+                query(where("_id").is(catalogueId).and("status").is(ReindexJob.Status.running))
+                , new Update().set("status", ReindexJob.Status.failed).set("message", String.valueOf(cause.getMessage())).set("gmtModified", new Date())
+                , ReindexJob.class);
+    }
+
+    private IndicesAdminClient indices() {
+        return elasticsearchOperations.getClient().admin().indices();
+    }
+}
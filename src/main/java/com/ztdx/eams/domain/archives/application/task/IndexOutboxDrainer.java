@@ -0,0 +1,275 @@
+package com.ztdx.eams.domain.archives.application.task;
+
+import com.ztdx.eams.domain.archives.application.StatisticsRollupService;
+import com.ztdx.eams.domain.archives.model.Entry;
+import com.ztdx.eams.domain.archives.model.IndexOutbox;
+import com.ztdx.eams.domain.archives.repository.elasticsearch.EntryElasticsearchRepository;
+import com.ztdx.eams.domain.archives.repository.mongo.EntryMongoRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.ElasticsearchException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * 消费条目索引待办：批量领取、按目录批量写入ES、失败退避重试
+ */
+@Component
+public class IndexOutboxDrainer {
+
+    private static final String INDEX_NAME_PREFIX = "archive_record_";
+
+    private static final long MAX_BACKOFF = 10 * 60 * 1000L;
+
+    private Log log = LogFactory.getLog(IndexOutboxDrainer.class);
+
+    private final MongoOperations mongoOperations;
+
+    private final EntryMongoRepository entryMongoRepository;
+
+    private final EntryElasticsearchRepository entryElasticsearchRepository;
+
+    private final EntryAsyncTask entryAsyncTask;
+
+    private final StatisticsRollupService statisticsRollupService;
+
+    //消费线程数
+    @Value("${index.outbox.drainers:2}")
+    private int drainers;
+
+    //每批领取数量
+    @Value("${index.outbox.batch-size:500}")
+    private int batchSize;
+
+    //无待办时的轮询间隔(毫秒)
+    @Value("${index.outbox.poll-interval:1000}")
+    private long pollInterval;
+
+    //领取租约时长(毫秒)，超时未完成的待办可被其他线程重新领取
+    @Value("${index.outbox.lease:300000}")
+    private long lease;
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+    public IndexOutboxDrainer(MongoOperations mongoOperations, EntryMongoRepository entryMongoRepository, EntryElasticsearchRepository entryElasticsearchRepository, EntryAsyncTask entryAsyncTask, StatisticsRollupService statisticsRollupService) {
+        this.mongoOperations = mongoOperations;
+        this.entryMongoRepository = entryMongoRepository;
+        this.entryElasticsearchRepository = entryElasticsearchRepository;
+        this.entryAsyncTask = entryAsyncTask;
+        this.statisticsRollupService = statisticsRollupService;
+    }
+
+    @PostConstruct
+    public void start() {
+        mongoOperations.indexOps(IndexOutbox.class).ensureIndex(
+                new Index().on("nextAttemptAt", Sort.Direction.ASC).on("lockedUntil", Sort.Direction.ASC));
+        mongoOperations.indexOps(IndexOutbox.class).ensureIndex(new Index().on("lockedBy", Sort.Direction.ASC));
+
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(drainers, r -> {
+            Thread thread = new Thread(r, "index-outbox-drainer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < drainers; i++) {
+            executor.submit(this::loop);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 待办积压数量
+     */
+    public long backlog() {
+        return mongoOperations.count(new Query(), IndexOutbox.class);
+    }
+
+    /**
+     * 积压统计：数量、最早待办时间、索引延迟(毫秒)
+     */
+    public Map<String, Object> backlogStatus() {
+        Map<String, Object> result = new HashMap<>();
+        IndexOutbox oldest = mongoOperations.findOne(
+                new Query().with(Sort.by(Sort.Direction.ASC, "gmtModified")), IndexOutbox.class);
+        result.put("count", backlog());
+        result.put("oldest", oldest == null ? null : oldest.getGmtModified());
+        result.put("lag", oldest == null ? 0 : System.currentTimeMillis() - oldest.getGmtModified().getTime());
+        result.put("retrying", mongoOperations.count(query(where("attempts").gt(0)), IndexOutbox.class));
+        return result;
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                if (drainOnce() == 0) {
+                    Thread.sleep(pollInterval);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("索引待办处理失败", e);
+                try {
+                    Thread.sleep(pollInterval);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 领取并处理一批待办，返回处理数量
+     */
+    public int drainOnce() {
+        List<IndexOutbox> claimed = claim();
+        if (claimed.isEmpty()) {
+            return 0;
+        }
+
+        Map<Integer, List<IndexOutbox>> byCatalogue = claimed.stream().collect(Collectors.groupingBy(IndexOutbox::getCatalogueId));
+        List<IndexOutbox> succeeded = new ArrayList<>();
+        List<IndexOutbox> failed = new ArrayList<>();
+        byCatalogue.forEach((catalogueId, items) -> process(catalogueId, items, succeeded, failed));
+
+        complete(succeeded);
+        retry(failed);
+        //处理期间再次入队的待办(版本已变化)释放租约，下一轮按最新数据重新索引
+        release(claimed.get(0).getLockedBy());
+        return claimed.size();
+    }
+
+    private List<IndexOutbox> claim() {
+        Date now = new Date();
+        Query candidates = query(where("nextAttemptAt").lte(now).and("lockedUntil").lt(now))
+                .with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"))
+                .limit(batchSize);
+        candidates.fields().include("_id");
+        List<String> ids = mongoOperations.find(candidates, IndexOutbox.class)
+                .stream().map(IndexOutbox::getId).collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        String token = UUID.randomUUID().toString();
+        mongoOperations.updateMulti(
+                query(where("_id").in(ids).and("lockedUntil").lt(now))
+                , new Update().set("lockedBy", token).set("lockedUntil", new Date(now.getTime() + lease))
+                , IndexOutbox.class);
+        return mongoOperations.find(query(where("lockedBy").is(token)), IndexOutbox.class);
+    }
+
+    private void process(int catalogueId, List<IndexOutbox> items, List<IndexOutbox> succeeded, List<IndexOutbox> failed) {
+        String indexName = INDEX_NAME_PREFIX + catalogueId;
+        try {
+            Set<String> ids = items.stream().map(IndexOutbox::getEntryId).collect(Collectors.toSet());
+            Map<String, Entry> entries = StreamSupport.stream(
+                    entryMongoRepository.findAllById(ids, indexName).spliterator(), false)
+                    .collect(Collectors.toMap(Entry::getId, Function.identity()));
+
+            updateStatistics(catalogueId, items, entries);
+
+            List<Entry> toIndex = new ArrayList<>();
+            for (IndexOutbox item : items) {
+                Entry entry = entries.get(item.getEntryId());
+                if (item.getOp() == IndexOutbox.Op.delete || entry == null) {
+                    entryElasticsearchRepository.deleteById(item.getEntryId(), indexName);
+                } else {
+                    toIndex.add(entry);
+                }
+            }
+
+            if (!toIndex.isEmpty()) {
+                entryAsyncTask.indexAllJob(toIndex, catalogueId);
+            }
+            succeeded.addAll(items);
+        } catch (ElasticsearchException e) {
+            //批量写入部分失败时只重试失败的条目
+            Map<String, String> failedDocuments = e.getFailedDocuments();
+            if (failedDocuments == null || failedDocuments.isEmpty()) {
+                log.error("索引写入失败:" + indexName, e);
+                failed.addAll(items);
+                return;
+            }
+            log.error("索引写入部分失败:" + indexName + " " + failedDocuments);
+            items.forEach(a -> (failedDocuments.containsKey(a.getEntryId()) ? failed : succeeded).add(a));
+        } catch (Exception e) {
+            log.error("索引写入失败:" + indexName, e);
+            failed.addAll(items);
+        }
+    }
+
+    /**
+     * 计入条目统计汇总，失败时这批待办按索引失败重试，重复计入不会重复计数
+     */
+    private void updateStatistics(int catalogueId, List<IndexOutbox> items, Map<String, Entry> entries) {
+        Map<String, Entry> changed = new HashMap<>();
+        items.forEach(a -> changed.put(a.getEntryId(), a.getOp() == IndexOutbox.Op.delete ? null : entries.get(a.getEntryId())));
+        statisticsRollupService.apply(catalogueId, changed);
+    }
+
+    private void complete(List<IndexOutbox> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        BulkOperations bulkOps = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, IndexOutbox.class);
+        items.forEach(a -> bulkOps.remove(
+                query(where("_id").is(a.getId()).and("version").is(a.getVersion()))));
+        bulkOps.execute();
+    }
+
+    private void retry(List<IndexOutbox> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        BulkOperations bulkOps = mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, IndexOutbox.class);
+        items.forEach(a -> {
+            long backoff = Math.min(MAX_BACKOFF, 1000L << Math.min(a.getAttempts(), 20));
+            bulkOps.updateOne(
+                    query(where("_id").is(a.getId()).and("version").is(a.getVersion()))
+                    , new Update()
+                            .inc("attempts", 1)
+                            .set("nextAttemptAt", new Date(now + backoff))
+                            .set("lockedUntil", new Date(0)));
+        });
+        bulkOps.execute();
+    }
+
+    private void release(String token) {
+        mongoOperations.updateMulti(
+                query(where("lockedBy").is(token))
+                , new Update().unset("lockedBy").set("lockedUntil", new Date(0))
+                , IndexOutbox.class);
+    }
+}
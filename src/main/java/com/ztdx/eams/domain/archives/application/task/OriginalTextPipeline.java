@@ -0,0 +1,507 @@
+package com.ztdx.eams.domain.archives.application.task;
+
+import com.ztdx.eams.basic.repository.IndexRefreshPolicy;
+import com.ztdx.eams.basic.utils.FileHandler;
+import com.ztdx.eams.basic.utils.FtpUtil;
+import com.ztdx.eams.basic.utils.PDFConverter;
+import com.ztdx.eams.domain.archives.model.Catalogue;
+import com.ztdx.eams.domain.archives.model.Entry;
+import com.ztdx.eams.domain.archives.model.OriginalText;
+import com.ztdx.eams.domain.archives.repository.ArchivesGroupRepository;
+import com.ztdx.eams.domain.archives.repository.CatalogueRepository;
+import com.ztdx.eams.domain.archives.repository.elasticsearch.OriginalTextElasticsearchRepository;
+import com.ztdx.eams.domain.archives.repository.mongo.EntryMongoRepository;
+import com.ztdx.eams.domain.archives.repository.mongo.OriginalTextMongoRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * 原文处理流水线：下载、全文抽取、PDF转换、保存分为四个阶段，各阶段线程数单独配置，阶段之间用有界队列连接，
+ * 下游积压时上游提交等待。ftp读写和保存等可能暂时失败的操作失败后重试，抽取超时、文件解析或转换失败不重试，
+ * 失败的把对应状态置为失败后继续后面的阶段，不影响其它文件。
+ * 同一目录下已有相同md5的原文处理成功时直接复用全文和PDF，不再下载转换。
+ * 外部提交不等待：下载队列满时放弃，原文保持未处理状态，由定时重扫重新提交
+ */
+@Slf4j
+@Component
+public class OriginalTextPipeline {
+
+    private static final String INDEX_NAME_PREFIX = "archive_record_";
+
+    private static final String ORIGINAL_TEXT_INDEX_NAME_PREFIX = "archive_record_originalText_";
+
+    private static final List<String> EXTRACTABLE = Arrays.asList(".txt", ".doc", ".docx", ".ppt", ".pptx", ".xls", ".xlsx", ".xlsm");
+
+    private static final List<String> CONVERTIBLE = Arrays.asList(".doc", ".docx", ".ppt", ".pptx", ".xls", ".xlsx");
+
+    private final ArchivesGroupRepository archivesGroupRepository;
+
+    private final CatalogueRepository catalogueRepository;
+
+    private final EntryMongoRepository entryMongoRepository;
+
+    private final OriginalTextMongoRepository originalTextMongoRepository;
+
+    private final OriginalTextElasticsearchRepository originalTextElasticsearchRepository;
+
+    private final FtpUtil ftpUtil;
+
+    private final PDFConverter pdfConverter;
+
+    //下载线程数
+    @Value("${original-text.pipeline.download-threads:4}")
+    private int downloadThreads;
+
+    //全文抽取线程数
+    @Value("${original-text.pipeline.extract-threads:2}")
+    private int extractThreads;
+
+    //PDF转换线程数，超过openoffice进程数时多出的线程在转换池排队
+    @Value("${original-text.pipeline.convert-threads:2}")
+    private int convertThreads;
+
+    //保存线程数
+    @Value("${original-text.pipeline.persist-threads:2}")
+    private int persistThreads;
+
+    //每个阶段的队列容量
+    @Value("${original-text.pipeline.queue-capacity:100}")
+    private int queueCapacity;
+
+    //ftp读写、保存失败后的重试次数
+    @Value("${original-text.pipeline.retries:2}")
+    private int retries;
+
+    //重试间隔(毫秒)，按重试次数递增
+    @Value("${original-text.pipeline.retry-delay:1000}")
+    private long retryDelay;
+
+    //提交时等待下载队列的最长时间(毫秒)，超时放弃，由重扫重新提交
+    @Value("${original-text.pipeline.admit-timeout:1000}")
+    private long admitTimeout;
+
+    //有提交被放弃后重扫未处理原文的间隔(毫秒)
+    @Value("${original-text.pipeline.rescan-interval:300000}")
+    private long rescanInterval;
+
+    //全文索引的字数上限，超出部分截断(Mongo单个文档不超过16MB)
+    @Value("${original-text.extract.max-chars:2000000}")
+    private int maxChars;
+
+    //单个文件全文抽取的超时时间(毫秒)
+    @Value("${original-text.extract.timeout:60000}")
+    private long extractTimeout;
+
+    private ThreadPoolExecutor download;
+
+    private ThreadPoolExecutor extract;
+
+    private ThreadPoolExecutor convert;
+
+    private ThreadPoolExecutor persist;
+
+    private ScheduledExecutorService rescanner;
+
+    //处理中的原文id->任务，重扫时跳过
+    private final Map<String, Job> inFlight = new ConcurrentHashMap<>();
+
+    //有提交被放弃，下次重扫时执行
+    private final AtomicBoolean rescanNeeded = new AtomicBoolean();
+
+    public OriginalTextPipeline(ArchivesGroupRepository archivesGroupRepository, CatalogueRepository catalogueRepository, EntryMongoRepository entryMongoRepository, OriginalTextMongoRepository originalTextMongoRepository, OriginalTextElasticsearchRepository originalTextElasticsearchRepository, FtpUtil ftpUtil, PDFConverter pdfConverter) {
+        this.archivesGroupRepository = archivesGroupRepository;
+        this.catalogueRepository = catalogueRepository;
+        this.entryMongoRepository = entryMongoRepository;
+        this.originalTextMongoRepository = originalTextMongoRepository;
+        this.originalTextElasticsearchRepository = originalTextElasticsearchRepository;
+        this.ftpUtil = ftpUtil;
+        this.pdfConverter = pdfConverter;
+    }
+
+    @PostConstruct
+    public void start() {
+        download = newStage("download", downloadThreads);
+        extract = newStage("extract", extractThreads);
+        convert = newStage("convert", convertThreads);
+        persist = newStage("persist", persistThreads);
+        rescanner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "original-text-rescan");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rescanner.scheduleWithFixedDelay(this::rescan, rescanInterval, rescanInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 按阶段顺序停止，已排队的文件处理完后再停止下一阶段
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        rescanner.shutdownNow();
+        for (ThreadPoolExecutor stage : Arrays.asList(download, extract, convert, persist)) {
+            stage.shutdown();
+            stage.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    public void submit(OriginalText originalText) {
+        submitAll(Collections.singletonList(originalText));
+    }
+
+    /**
+     * 提交原文处理，只放入下载队列，查询和处理都在流水线线程中执行。
+     * 队列满时最多等待admitTimeout，仍放不进的保持未处理状态，由重扫重新提交；之后的文件不再等待
+     */
+    public void submitAll(Collection<OriginalText> originalTexts) {
+        long timeout = admitTimeout;
+        for (OriginalText originalText : originalTexts) {
+            if (!admit(originalText, timeout)) {
+                timeout = 0;
+                log.warn("原文处理队列已满，稍后重新提交:" + originalText.getId());
+            }
+        }
+    }
+
+    private boolean admit(OriginalText originalText, long timeout) {
+        Job job = new Job(originalText);
+        inFlight.put(originalText.getId(), job);
+        boolean admitted = false;
+        try {
+            admitted = !download.isShutdown()
+                    && download.getQueue().offer(task(job, this::begin), timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!admitted) {
+            inFlight.remove(originalText.getId(), job);
+            rescanNeeded.set(true);
+        }
+        return admitted;
+    }
+
+    /**
+     * 下载阶段的第一步：确定全宗和需要执行的阶段，需要下载的在当前线程继续下载
+     */
+    private void begin(Job job) {
+        OriginalText originalText = job.originalText;
+        job.fondsId = archivesGroupRepository.findFondsIdByCatalogue_CatalogueId(originalText.getCatalogueId());
+        if (job.fondsId == null) {
+            log.warn("全宗档案库不存在，跳过原文处理:" + originalText.getId());
+            inFlight.remove(originalText.getId(), job);
+            return;
+        }
+
+        prepare(job);
+        if (job.needExtract || job.needConvert) {
+            download(job);
+        } else {
+            execute(persist, job, this::persist);
+        }
+    }
+
+    /**
+     * 重新提交未处理(全文索引或PDF转换状态为0)且不在流水线中的原文，队列再次满时停止，下次继续
+     */
+    private void rescan() {
+        if (!rescanNeeded.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            for (Catalogue catalogue : catalogueRepository.findAll()) {
+                Query query = query(where("gmtDeleted").is(0)
+                        .orOperator(where("contentIndexStatus").is(0), where("pdfConverStatus").is(0)));
+                for (OriginalText originalText : originalTextMongoRepository.findAll(query, ORIGINAL_TEXT_INDEX_NAME_PREFIX + catalogue.getId())) {
+                    if (!inFlight.containsKey(originalText.getId()) && !admit(originalText, admitTimeout)) {
+                        return;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            rescanNeeded.set(true);
+            log.error("重扫未处理原文失败", e);
+        }
+    }
+
+    /**
+     * 判断需要执行的阶段：已完成或不支持的跳过，相同md5已处理过的复用结果
+     */
+    private void prepare(Job job) {
+        OriginalText originalText = job.originalText;
+        String name = originalText.getName();
+
+        job.needExtract = originalText.getContentIndexStatus() != 1;
+        if (job.needExtract && !endsWith(name, EXTRACTABLE)) {
+            //此类型无法生成全文索引
+            originalText.setContentIndexStatus(3);
+            originalText.setFileAttributesMap(new HashMap<>());
+            job.needExtract = false;
+        }
+
+        job.needConvert = originalText.getPdfConverStatus() != 1;
+        if (job.needConvert && !endsWith(name, CONVERTIBLE)) {
+            originalText.setPdfConverStatus(name.endsWith(".pdf") ? 1 : 3);
+            job.needConvert = false;
+        }
+
+        if (!job.needExtract && !job.needConvert) {
+            return;
+        }
+
+        Query query = query(where("md5").is(originalText.getMd5()).and("gmtDeleted").is(0)
+                .and("_id").ne(originalText.getId())
+                .orOperator(where("contentIndexStatus").is(1), where("pdfConverStatus").is(1)))
+                .limit(1);
+        List<OriginalText> same = originalTextMongoRepository.findAll(query, ORIGINAL_TEXT_INDEX_NAME_PREFIX + originalText.getCatalogueId());
+        if (same.isEmpty()) {
+            return;
+        }
+        OriginalText done = same.get(0);
+        if (job.needExtract && done.getContentIndexStatus() == 1) {
+            originalText.setContentIndex(done.getContentIndex());
+            originalText.setContentIndexStatus(1);
+            originalText.setFileAttributesMap(done.getFileAttributesMap());
+            job.needExtract = false;
+        }
+        if (job.needConvert && done.getPdfConverStatus() == 1) {
+            originalText.setPdfMd5(done.getPdfMd5());
+            originalText.setPdfConverStatus(1);
+            job.needConvert = false;
+        }
+    }
+
+    private void download(Job job) {
+        OriginalText originalText = job.originalText;
+        try {
+            String name = originalText.getName();
+            //保留扩展名，转换时按扩展名判断文档格式
+            job.file = File.createTempFile("original-", name.contains(".") ? name.substring(name.lastIndexOf(".")) : null);
+            String[] path = new String[]{String.valueOf(job.fondsId), originalText.getMd5().substring(0, 2), originalText.getMd5().substring(2, 4)};
+            retry("原文下载", originalText, () -> ftpUtil.downloadFile(path, originalText.getMd5(), job.file));
+        } catch (Exception e) {
+            log.error("原文下载失败:" + originalText.getId(), e);
+            if (job.needExtract) {
+                originalText.setContentIndex(null);
+                originalText.setContentIndexStatus(2);
+            }
+            if (job.needConvert) {
+                originalText.setPdfConverStatus(2);
+            }
+            finish(job);
+            return;
+        }
+
+        if (job.needExtract) {
+            execute(extract, job, this::extract);
+        } else {
+            execute(convert, job, this::convert);
+        }
+    }
+
+    private void extract(Job job) {
+        OriginalText originalText = job.originalText;
+        try {
+            //超时和解析失败重试结果相同，不重试
+            extractContent(originalText, job.file);
+            originalText.setContentIndexStatus(1);
+        } catch (Exception e) {
+            log.warn("全文抽取失败:" + originalText.getId(), e);
+            //设置全文索引状态为生成失败
+            originalText.setContentIndex(null);
+            originalText.setContentIndexStatus(2);
+        }
+
+        try {
+            readMetadata(originalText, job.file);
+        } catch (Exception e) {
+            log.warn("文件元数据读取失败:" + originalText.getId(), e);
+            originalText.setFileAttributesMap(new HashMap<>());
+        }
+
+        if (job.needConvert) {
+            execute(convert, job, this::convert);
+        } else {
+            finish(job);
+        }
+    }
+
+    private void convert(Job job) {
+        OriginalText originalText = job.originalText;
+        try {
+            convertAndUpload(job);
+            originalText.setPdfConverStatus(1);
+        } catch (Exception e) {
+            log.warn("PDF转换失败:" + originalText.getId(), e);
+            //设置转换状态失败
+            originalText.setPdfConverStatus(2);
+        }
+        finish(job);
+    }
+
+    /**
+     * 条目未删除时保存处理结果
+     */
+    private void persist(Job job) {
+        OriginalText originalText = job.originalText;
+        try {
+            retry("原文保存", originalText, () -> {
+                Optional<Entry> find = entryMongoRepository.findById(originalText.getEntryId(), INDEX_NAME_PREFIX + originalText.getCatalogueId());
+                if (find.isPresent() && find.get().getGmtDeleted() == 0) {
+                    originalTextMongoRepository.save(originalText);
+                    originalTextElasticsearchRepository.save(originalText, IndexRefreshPolicy.BATCHED);
+                }
+            });
+        } catch (Exception e) {
+            log.error("原文处理结果保存失败:" + originalText.getId(), e);
+        } finally {
+            inFlight.remove(originalText.getId(), job);
+        }
+    }
+
+    /**
+     * 删除本地文件后进入保存阶段
+     */
+    private void finish(Job job) {
+        if (job.file != null && job.file.exists()) {
+            job.file.delete();
+        }
+        execute(persist, job, this::persist);
+    }
+
+    private void extractContent(OriginalText originalText, File file) {
+        originalText.setContentIndex(FileHandler.contentRead(file, originalText.getName(), maxChars, extractTimeout));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readMetadata(OriginalText originalText, File file) {
+        String name = originalText.getName();
+        if (name.endsWith(".doc") || name.endsWith(".xls") || name.endsWith(".ppt")) {
+            originalText.setFileAttributesMap(FileHandler.office2003MetadataRead(file));
+        } else if (name.endsWith(".docx") || name.endsWith(".xlsx") || name.endsWith(".xlsm") || name.endsWith(".pptx")) {
+            originalText.setFileAttributesMap(FileHandler.office2007MetadataRead(file));
+        } else {
+            originalText.setFileAttributesMap(new HashMap<>());
+        }
+    }
+
+    /**
+     * 转换为PDF格式并上传到ftp，已有相同文件时不再上传。转换失败不重试，只重试上传
+     */
+    private void convertAndUpload(Job job) throws Exception {
+        File pdfFile = File.createTempFile("original-", ".pdf");
+        try {
+            pdfConverter.converterPDF(job.file, pdfFile);
+            String md5;
+            try (InputStream is = new FileInputStream(pdfFile)) {
+                md5 = DigestUtils.md5Hex(is);
+            }
+            String[] path = new String[]{String.valueOf(job.fondsId), md5.substring(0, 2), md5.substring(2, 4)};
+            retry("PDF上传", job.originalText, () -> {
+                if (ftpUtil.size(path, md5) < 0) {
+                    ftpUtil.uploadFile(path, md5, pdfFile);
+                }
+            });
+            job.originalText.setPdfMd5(md5);
+        } finally {
+            if (pdfFile.exists()) {
+                pdfFile.delete();
+            }
+        }
+    }
+
+    private void retry(String stage, OriginalText originalText, Action action) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                action.run();
+                return;
+            } catch (Exception e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                log.info(stage + "失败，第" + (attempt + 1) + "次重试:" + originalText.getId() + " " + e.getMessage());
+                Thread.sleep(retryDelay * (attempt + 1));
+            }
+        }
+    }
+
+    /**
+     * 提交到阶段执行，阶段内未处理的异常只记录日志，不影响线程继续处理其它文件
+     */
+    private void execute(ThreadPoolExecutor stage, Job job, Consumer<Job> action) {
+        stage.execute(task(job, action));
+    }
+
+    private Runnable task(Job job, Consumer<Job> action) {
+        return () -> {
+            try {
+                action.accept(job);
+            } catch (Exception e) {
+                inFlight.remove(job.originalText.getId(), job);
+                log.error("原文处理失败:" + job.originalText.getId(), e);
+            }
+        };
+    }
+
+    private ThreadPoolExecutor newStage(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor stage = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, "original-text-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (r, executor) -> {
+            //阶段之间队列满时上游阶段线程等待，随之放慢
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("原文处理已停止");
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("原文处理被中断", e);
+            }
+        });
+        //提交时直接放入队列，线程需预先启动
+        stage.prestartAllCoreThreads();
+        return stage;
+    }
+
+    private static boolean endsWith(String name, List<String> suffixes) {
+        return suffixes.stream().anyMatch(name::endsWith);
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    private static class Job {
+        private final OriginalText originalText;
+
+        private Integer fondsId;
+
+        private File file;
+
+        private boolean needExtract;
+
+        private boolean needConvert;
+
+        private Job(OriginalText originalText) {
+            this.originalText = originalText;
+        }
+    }
+}
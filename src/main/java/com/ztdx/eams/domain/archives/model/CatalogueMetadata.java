@@ -0,0 +1,88 @@
+package com.ztdx.eams.domain.archives.model;
+
+import lombok.Getter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 目录元数据快照：目录、所属档案库/分组、著录项及其索引、用户列配置。
+ * 快照只读，变更时整体失效重建，通过版本号判断是否过期
+ */
+@Getter
+public class CatalogueMetadata {
+
+    private final int catalogueId;
+
+    /**
+     * 加载时的目录版本号
+     */
+    private final long version;
+
+    /**
+     * 加载时的全局版本号(档案库分组等影响多个目录的变更)
+     */
+    private final long generation;
+
+    private final Catalogue catalogue;
+
+    private final Archives archives;
+
+    private final ArchivesGroup archivesGroup;
+
+    /**
+     * 同档案库下的卷内目录，没有时为空
+     */
+    private final Catalogue folderFileCatalogue;
+
+    private final List<DescriptionItem> descriptionItems;
+
+    /**
+     * 元数据名称->著录项
+     */
+    private final Map<String, DescriptionItem> itemsByName;
+
+    /**
+     * 字段属性->著录项，同一属性有多个时取第一个
+     */
+    private final Map<PropertyType, DescriptionItem> itemsByPropertyType;
+
+    /**
+     * 自增著录项
+     */
+    private final List<DescriptionItem> incrementItems;
+
+    /**
+     * 用户id->列表列配置，按需加载
+     */
+    private final Map<Integer, List<Map<String, Object>>> columns = new ConcurrentHashMap<>();
+
+    public CatalogueMetadata(int catalogueId, long version, long generation, Catalogue catalogue, Archives archives, ArchivesGroup archivesGroup, Catalogue folderFileCatalogue, List<DescriptionItem> descriptionItems) {
+        this.catalogueId = catalogueId;
+        this.version = version;
+        this.generation = generation;
+        this.catalogue = catalogue;
+        this.archives = archives;
+        this.archivesGroup = archivesGroup;
+        this.folderFileCatalogue = folderFileCatalogue;
+        this.descriptionItems = Collections.unmodifiableList(new ArrayList<>(descriptionItems));
+        this.itemsByName = Collections.unmodifiableMap(descriptionItems.stream()
+                .collect(Collectors.toMap(DescriptionItem::getMetadataName, d -> d, (d1, d2) -> d2, LinkedHashMap::new)));
+        this.itemsByPropertyType = Collections.unmodifiableMap(descriptionItems.stream()
+                .filter(d -> d.getPropertyType() != null)
+                .collect(Collectors.toMap(DescriptionItem::getPropertyType, d -> d, (d1, d2) -> d1, () -> new EnumMap<>(PropertyType.class))));
+        this.incrementItems = Collections.unmodifiableList(descriptionItems.stream()
+                .filter(d -> d.getIsIncrement() == 1 && d.getIncrement() > 0)
+                .collect(Collectors.toList()));
+    }
+
+    public DescriptionItem getItem(PropertyType propertyType) {
+        return itemsByPropertyType.get(propertyType);
+    }
+
+    public List<Map<String, Object>> getColumns(int userId, Supplier<List<Map<String, Object>>> loader) {
+        return columns.computeIfAbsent(userId, k -> loader.get());
+    }
+}
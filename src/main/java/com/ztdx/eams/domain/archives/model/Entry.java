@@ -1,12 +1,15 @@
 package com.ztdx.eams.domain.archives.model;
 
+import com.ztdx.eams.basic.repository.IndexRefreshPolicy;
 import com.ztdx.eams.basic.repository.annotation.IndexNamePostfix;
+import com.ztdx.eams.basic.repository.annotation.IndexRefresh;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Version;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.Setting;
 
 import javax.persistence.Convert;
 import java.io.Serializable;
@@ -14,7 +17,9 @@ import java.util.Date;
 import java.util.Map;
 
 @Data
+@IndexRefresh(IndexRefreshPolicy.Type.WAIT_FOR)
 @Document(indexName = "archive_record", type = "record", createIndex = false)
+@Setting(settingPath = "elasticsearch/archive_record_settings.json")
 @org.springframework.data.mongodb.core.mapping.Document(collection = "archive_record")
 public class Entry implements Serializable {
     @Id
@@ -0,0 +1,45 @@
+package com.ztdx.eams.domain.archives.model;
+
+import lombok.Getter;
+
+/**
+ * 一次预留的连续编号区间(first, first+step, ... last)，按顺序取用，非线程安全
+ */
+@Getter
+public class IdRange {
+
+    private final long first;
+
+    private final long last;
+
+    private final int step;
+
+    private long next;
+
+    public IdRange(long first, long last, int step) {
+        this.first = first;
+        this.last = last;
+        this.step = step;
+        this.next = first;
+    }
+
+    public boolean hasNext() {
+        return next <= last;
+    }
+
+    public Long next() {
+        if (!hasNext()) {
+            throw new IllegalStateException("编号区间已用完:" + first + "-" + last);
+        }
+        long value = next;
+        next += step;
+        return value;
+    }
+
+    /**
+     * 剩余可用数量
+     */
+    public long remaining() {
+        return hasNext() ? (last - next) / step + 1 : 0;
+    }
+}
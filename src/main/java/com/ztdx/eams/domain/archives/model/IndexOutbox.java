@@ -0,0 +1,65 @@
+package com.ztdx.eams.domain.archives.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * 条目索引待办(发件箱)。每个条目只保留一条记录，重复更新只递增版本号
+ */
+@Data
+@Document(collection = "archive_entry_index_outbox")
+public class IndexOutbox {
+
+    /**
+     * 目录id:条目id
+     */
+    @Id
+    private String id;
+
+    private int catalogueId;
+
+    private String entryId;
+
+    private Op op;
+
+    /**
+     * 入队次数，处理完成时版本不变才允许删除，保证同一条目按最后一次变更索引
+     */
+    private long version;
+
+    /**
+     * 失败重试次数
+     */
+    private int attempts;
+
+    /**
+     * 下次可处理时间
+     */
+    private Date nextAttemptAt;
+
+    /**
+     * 处理者标识
+     */
+    private String lockedBy;
+
+    /**
+     * 租约到期时间
+     */
+    private Date lockedUntil;
+
+    private Date gmtCreate;
+
+    private Date gmtModified;
+
+    public enum Op {
+        index,
+        delete
+    }
+
+    public static String id(int catalogueId, String entryId) {
+        return catalogueId + ":" + entryId;
+    }
+}
@@ -1,12 +1,15 @@
 package com.ztdx.eams.domain.archives.model;
 
+import com.ztdx.eams.basic.repository.IndexRefreshPolicy;
 import com.ztdx.eams.basic.repository.annotation.IndexNamePostfix;
+import com.ztdx.eams.basic.repository.annotation.IndexRefresh;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
 import org.springframework.data.elasticsearch.annotations.Parent;
+import org.springframework.data.elasticsearch.annotations.Setting;
 
 import java.util.Date;
 import java.util.HashMap;
@@ -15,7 +18,9 @@ import java.util.HashMap;
  * Created by li on 2018/5/22.
  */
 @Data
+@IndexRefresh(IndexRefreshPolicy.Type.WAIT_FOR)
 @Document(indexName = "archive_record", type = "originalText", createIndex = false)
+@Setting(settingPath = "elasticsearch/archive_record_settings.json")
 @org.springframework.data.mongodb.core.mapping.Document(collection = "archive_record_originalText")
 public class OriginalText {
 
@@ -44,7 +49,7 @@ public class OriginalText {
     //排序号
     @Field(type = FieldType.Integer)
     private int orderNumber;
-    //标题
+    //标题，索引有n-gram分词器时由EntryAsyncTask.putOriginalTextMapping增加ngram子字段用于包含查询
     @Field(type = FieldType.text)
     private String title;
     //文件类型id
@@ -0,0 +1,47 @@
+package com.ztdx.eams.domain.archives.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * 索引重建分片进度
+ */
+@Data
+@Document(collection = "archive_reindex_checkpoint")
+public class ReindexCheckpoint {
+
+    /**
+     * 目标索引名:分片序号
+     */
+    @Id
+    private String id;
+
+    private int catalogueId;
+
+    private String targetIndex;
+
+    private int slice;
+
+    /**
+     * 已写入的最后一个条目id
+     */
+    private String lastEntryId;
+
+    private boolean entryDone;
+
+    /**
+     * 已写入的最后一个原文id
+     */
+    private String lastOriginalTextId;
+
+    private boolean originalTextDone;
+
+    private Date gmtModified;
+
+    public static String id(String targetIndex, int slice) {
+        return targetIndex + ":" + slice;
+    }
+}
@@ -0,0 +1,58 @@
+package com.ztdx.eams.domain.archives.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * 目录索引重建任务，每个目录一条，用于中断后恢复
+ */
+@Data
+@Document(collection = "archive_reindex_job")
+public class ReindexJob {
+
+    /**
+     * 目录id
+     */
+    @Id
+    private int catalogueId;
+
+    /**
+     * 本次重建写入的新索引名
+     */
+    private String targetIndex;
+
+    /**
+     * 并行分片数
+     */
+    private int slices;
+
+    private Status status;
+
+    /**
+     * 已写入条目数
+     */
+    private long entryCount;
+
+    /**
+     * 已写入原文数
+     */
+    private long originalTextCount;
+
+    /**
+     * 错误信息
+     */
+    private String message;
+
+    private Date gmtCreate;
+
+    private Date gmtModified;
+
+    public enum Status {
+        running,
+        done,
+        failed
+    }
+}
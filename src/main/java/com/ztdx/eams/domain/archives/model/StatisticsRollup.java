@@ -0,0 +1,53 @@
+package com.ztdx.eams.domain.archives.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * 条目统计汇总：按目录(全宗、档案库)、档案内容类型、年度、保管期限累计的条目数和页数，
+ * 条目变更时由IndexOutboxDrainer增量更新，可按目录全量重算。
+ * 文档上另有ops数组记录最近计入的变更号和计入时间，用于去重，保留一段时间后清除
+ */
+@Data
+@Document(collection = "archive_statistics_rollup")
+public class StatisticsRollup {
+
+    /**
+     * 由汇总维度拼装，见StatisticsRollupEntry.rollupId
+     */
+    @Id
+    private String id;
+
+    private int catalogueId;
+
+    private int fondsId;
+
+    private int archivesId;
+
+    private int archiveContentType;
+
+    /**
+     * 年度(原值)，没有时为空字符串
+     */
+    private String year;
+
+    /**
+     * 保管期限(原值)，没有时为空字符串
+     */
+    private String timeLimitForStorage;
+
+    /**
+     * 条目数
+     */
+    private long count;
+
+    /**
+     * 页数合计
+     */
+    private long pages;
+
+    private Date gmtModified;
+}
@@ -0,0 +1,61 @@
+package com.ztdx.eams.domain.archives.model;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * 条目当前计入统计汇总的维度和页数，条目变更时与新值比较得出汇总的增减。
+ * 变更先登记在pendingOp、pending上，计入汇总后再改为新值，中断后可按登记的变更重做。
+ * 已删除(含回收站)的条目没有记录
+ */
+@Data
+@Document(collection = "archive_statistics_rollup_entry")
+public class StatisticsRollupEntry {
+
+    /**
+     * 目录id:条目id
+     */
+    @Id
+    private String id;
+
+    private int catalogueId;
+
+    private int fondsId;
+
+    private int archivesId;
+
+    private int archiveContentType;
+
+    private String year;
+
+    private String timeLimitForStorage;
+
+    private long pages;
+
+    /**
+     * 每完成一次变更加1，为0时(新条目的变更尚未完成)上面的维度未计入汇总
+     */
+    private long version;
+
+    /**
+     * 待完成的变更号，汇总上按变更号去重
+     */
+    private String pendingOp;
+
+    /**
+     * 待完成变更的新值，为空时表示从汇总中去掉该条目
+     */
+    private StatisticsRollupEntry pending;
+
+    /**
+     * 所属汇总的id，年度带长度前缀，保管期限可以是任意文本
+     */
+    public String rollupId() {
+        return catalogueId + ":" + archiveContentType + ":" + year.length() + ":" + year + ":" + timeLimitForStorage;
+    }
+
+    public static String id(int catalogueId, String entryId) {
+        return catalogueId + ":" + entryId;
+    }
+}
@@ -7,18 +7,29 @@ import com.ztdx.eams.domain.archives.repository.ArchivalCodeRulerRepository;
 import com.ztdx.eams.domain.archives.repository.CatalogueRepository;
 import com.ztdx.eams.domain.archives.repository.DescriptionItemRepository;
 import com.ztdx.eams.domain.archives.repository.mongo.EntryMongoRepository;
+import com.ztdx.eams.domain.system.model.Fonds;
 import com.ztdx.eams.domain.system.repository.FondsRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.StringOperators;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 /**
- * 档号生成与清除
+ * 档号生成与清除。
+ * 只按id和上级id(parentId)查询需要生成的条目，最大序号由聚合查询得出；批量生成按批读取、保存并记录进度
  */
+@Slf4j
 @Service
 public class GeneratingBusiness {
 
@@ -28,14 +39,21 @@ public class GeneratingBusiness {
     private final FondsRepository fondsRepository;
     private final DescriptionItemRepository descriptionItemRepository;
     private final EntryAsyncTask entryAsyncTask;
+    private final MongoOperations mongoOperations;
+
+    //每批生成的条目数
+    private final int batchSize;
 
-    public GeneratingBusiness(ArchivalCodeRulerRepository archivalcodeRulerRepository, EntryMongoRepository entryMongoRepository, CatalogueRepository catalogueRepository, FondsRepository fondsRepository, DescriptionItemRepository descriptionItemRepository, EntryAsyncTask entryAsyncTask) {
+    public GeneratingBusiness(ArchivalCodeRulerRepository archivalcodeRulerRepository, EntryMongoRepository entryMongoRepository, CatalogueRepository catalogueRepository, FondsRepository fondsRepository, DescriptionItemRepository descriptionItemRepository, EntryAsyncTask entryAsyncTask, MongoOperations mongoOperations
+            , @Value("${archival-code.batch-size:500}") int batchSize) {
         this.archivalcodeRulerRepository = archivalcodeRulerRepository;
         this.entryMongoRepository = entryMongoRepository;
         this.catalogueRepository = catalogueRepository;
         this.fondsRepository = fondsRepository;
         this.descriptionItemRepository = descriptionItemRepository;
         this.entryAsyncTask = entryAsyncTask;
+        this.mongoOperations = mongoOperations;
+        this.batchSize = batchSize;
     }
 
     /**
@@ -49,10 +67,6 @@ public class GeneratingBusiness {
 
         //创建错误信息集合
         List<Map<String, String>> errorsList = new ArrayList<>();
-        //创建新条目集合存入MongoDB
-        List<Entry> entriesForSave = new ArrayList<>();
-        //创建新卷内条目集合存入MongoDB
-        List<Entry> folderFileEntriesForSave = new ArrayList<>();
 
         //得到目录类型
         Catalogue catalogue = catalogueRepository.findById(catalogueId).orElse(null);
@@ -62,19 +76,7 @@ public class GeneratingBusiness {
             throw new BusinessException("错误的接口");
         }
 
-        generatingFileAndFolder(entryIds, catalogueId, errorsList, entriesForSave, catalogueType, folderFileEntriesForSave);
-
-        //把条目集合存入MongoDB
-        if (entriesForSave.size() > 0) {
-            entryMongoRepository.saveAll(entriesForSave);
-            entryAsyncTask.indexAll(entriesForSave, catalogueId);
-        }
-
-        //把卷内条目集合存入MongoDB
-        if (folderFileEntriesForSave.size() > 0) {
-            entryMongoRepository.saveAll(folderFileEntriesForSave);
-            entryAsyncTask.indexAll(folderFileEntriesForSave, folderFileEntriesForSave.get(0).getCatalogueId());
-        }
+        generatingFileAndFolder(entryIds, catalogue, errorsList);
 
         //返回错误信息集合
         if (errorsList.size() > 0) {
@@ -96,8 +98,6 @@ public class GeneratingBusiness {
         List<Map<String, String>> errorsList = new ArrayList<>();
         //创建新条目集合存入MongoDB
         List<Entry> entriesForSave = new ArrayList<>();
-        //卷内条目集合
-        List<Entry> folderFileList = new ArrayList<>();
         //定义案卷档号
         String folderArchivalCode = "";
         String archivalCodeNameOfFolderFile = "";
@@ -132,25 +132,17 @@ public class GeneratingBusiness {
             throw new BusinessException(catalogueType.getDescription() + "没有档号列");
         }
 
-        //通过卷内目录id获得所有卷内条目集合
-        List<Entry> entryList = entryMongoRepository.findAll("archive_record_" + catalogueId);
+        //只查询上级id是传进来的案卷id的卷内条目
+        List<Entry> folderFileList = entryMongoRepository.findAll(query(where("parentId").is(folderId)), "archive_record_" + catalogueId);
 
-        //筛选出来上级id是传进来的案卷id的条目集合进行生成档号
-        for (Entry entry : entryList) {
-            if (folderId.equals(entry.getParentId())) {
-                folderFileList.add(entry);
-            }
-        }
-
-        //通过卷内目录id获得目录
-        Catalogue folderFileCatalogue = catalogueRepository.findById(catalogueId).orElse(null);
-        //通过档案库id和目录类型为案卷获得案卷目录
-        Optional<Catalogue> folderCatalogueList = catalogueRepository.findByArchivesIdAndCatalogueType(folderFileCatalogue.getArchivesId(), CatalogueType.Folder);
         //通过案卷id和案卷目录id获得案卷条目
-        Optional<Entry> folderEntry = entryMongoRepository.findById(folderId, "archive_record_" + folderCatalogueList.get().getId());
+        Optional<Entry> folderEntry = entryMongoRepository.findById(folderId, "archive_record_" + folder.getId());
         //得到案卷档号
         if (folderEntry.isPresent()) {
-            folderArchivalCode = (String) folderEntry.get().getItems().get(archivalCodeNameOfFolderFile);
+            String folderArchivalCodeName = getArchivalCodeMetadataName(folder.getId());
+            if (folderArchivalCodeName != null) {
+                folderArchivalCode = (String) folderEntry.get().getItems().getOrDefault(folderArchivalCodeName, "");
+            }
         }
 
         //生成档号
@@ -177,8 +169,8 @@ public class GeneratingBusiness {
 
         //定义档号
         String archivalCode = "";
-        //定义卷内顺序号
-        Integer serialNumber = 0;
+        //定义卷内顺序号，从案卷内已有档号的最大顺序号接着编
+        int serialNumber = 0;
         String newSerialNumber = "";
         int serialLength = 4;
 
@@ -186,16 +178,23 @@ public class GeneratingBusiness {
             serialLength = serialNumberRuler.getFlowNumberLength();
         }
 
+        for (Entry entry : folderFileList) {
+            if (hasValue(entry.getItems(), archivalCodeNameOfFolderFile)) {
+                serialNumber = Math.max(serialNumber, parseSerialNumber(entry.getItems().get(serialNumberNameOfFolderFile)));
+            }
+        }
+
         //循环卷内
         for (Entry entry : folderFileList) {
 
             //获取卷内条目
             Map<String, Object> items = entry.getItems();
 
-            Map<String, String> errorsMap = new HashMap<>();
             //如果档号已经存在，则返回错误信息
-            if (null != items.get(archivalCode) && !"".equals(items.get(archivalCode))) {
+            if (hasValue(items, archivalCodeNameOfFolderFile)) {
+                Map<String, String> errorsMap = new HashMap<>();
                 errorsMap.put(entry.getId(), "档号已存在");
+                errorsList.add(errorsMap);
                 continue;
             }
 
@@ -210,36 +209,23 @@ public class GeneratingBusiness {
             items.put(serialNumberNameOfFolderFile, newSerialNumber);
             entry.setItems(items);
             entriesForSave.add(entry);
-            errorsList.add(errorsMap);
         }
 
     }
 
     /**
-     * 案卷和一文一件的档号生成
+     * 案卷和一文一件的档号生成，按批读取条目，每批生成后保存并建索引
      *
-     * @param entryIds                 案卷/一文一件 id集合
-     * @param catalogueId              目录id
-     * @param errorsList               错误信息集合
-     * @param entriesForSave           案卷/一文一件条目放入新集合存到MongoDb
-     * @param catalogueType            目录类型
-     * @param folderFileEntriesForSave 卷卷内条目放入新集合存到MongoDb
+     * @param entryIds   案卷/一文一件 id集合
+     * @param catalogue  目录
+     * @param errorsList 错误信息集合
      */
-    private void generatingFileAndFolder(List<String> entryIds, int catalogueId, List<Map<String, String>> errorsList, List<Entry> entriesForSave, CatalogueType catalogueType, List<Entry> folderFileEntriesForSave) {
+    private void generatingFileAndFolder(List<String> entryIds, Catalogue catalogue, List<Map<String, String>> errorsList) {
 
-        StringBuilder archivalCodeVal = new StringBuilder(); //定义档号
-        String splicingContent = ""; //拼接内容
-        List<List<Entry>> folderFileEntryAll = new ArrayList<>(); //创建卷内条目集合
+        int catalogueId = catalogue.getId();
         String archivalCodeName = "";
-        String serialNumberName = "";
-        String archivalCodeNameOfFolderFile = "";
-        String serialNumberNameOfFolderFile = "";
-        Integer folderFileCatalogueId = -1;
-        String maxSerialNumber = "";
-        Integer numberOfMaxSerialNumber = 1;
-        String messageOfErrors = "档号已存在";
+        String serialNumberName = null;
         ArchivalCodeRuler serialNumberRuler = null;
-        Map<String, String> errorsMapOfFolderFile = new HashMap<>();
 
         archivalCodeName = getArchivalCodeMetadataName(catalogueId);
         if (archivalCodeName == null) {
@@ -258,136 +244,143 @@ public class GeneratingBusiness {
             }
         }
 
-        //取出规则集合的序号
+        //取出目录中的最大序号
+        int maxSerialNumber = 0;
         if (serialNumberRuler != null) {
             serialNumberName = getSerialNumberName(catalogueId);
-            //调用仓储层得到最大序号
-            Query query = new Query();
-            query.with(Sort.by(Sort.Direction.DESC, "items.sn")).limit(1);
-            List<Entry> list = entryMongoRepository.findAll(query, "archive_record_" + catalogueId);
-
-            if (list.size() > 0) {
-                maxSerialNumber = list.get(0).getItems().getOrDefault(serialNumberName, "") + "";
-                if (!"".equals(maxSerialNumber)) {
-                    numberOfMaxSerialNumber = Integer.parseInt(maxSerialNumber);
-                }
+            if (serialNumberName == null) {
+                throw new BusinessException(getCatalogueType(catalogueId) + "没有序号列");
             }
+            maxSerialNumber = maxSerialNumber("archive_record_" + catalogueId, serialNumberName);
         }
 
-        //查找条目，要传入条目id和目录id
-        Iterable<Entry> entryList = entryMongoRepository.findAllById(entryIds, "archive_record_" + catalogueId);
-
-        //如果是案卷则查找所有卷内条目集合
-        if (catalogueType == CatalogueType.Folder) {
-
-            //1.通过案卷集合得到案卷目录id集合
-            List<Integer> catalogueIdList = StreamSupport.stream(entryList.spliterator(), false).map(Entry::getCatalogueId).collect(Collectors.toList());
-            //2.通过案卷目录id集合得到案卷目录集合
-            List<Catalogue> folderCatalogueList = catalogueRepository.findAllById(catalogueIdList);
-            //3.通过目录中的档案库id和目录类型为卷内得到卷内目录集合
-            List<Integer> archivesId = folderCatalogueList.stream().map(Catalogue::getArchivesId).collect(Collectors.toList());
-            List<Catalogue> folderFileCatalogueList = catalogueRepository.findAllByArchivesIdInAndCatalogueType(archivesId, CatalogueType.FolderFile);
-            //4.得到卷内的目录id集合
-            List<Integer> folderFileCatalogueIds = folderFileCatalogueList.stream().map(Catalogue::getId).collect(Collectors.toList());
-            //5.通过卷内的目录id集合得到卷内所有条目集合
-            for (Integer folderFileCid : folderFileCatalogueIds) {
-                folderFileEntryAll.add(entryMongoRepository.findAll("archive_record_" + folderFileCid));
-                folderFileCatalogueId = folderFileCid;
+        //如果是案卷则同时生成卷内档号，卷内目录与案卷目录属于同一档案库
+        Catalogue folderFileCatalogue = null;
+        String archivalCodeNameOfFolderFile = null;
+        String serialNumberNameOfFolderFile = null;
+        Map<String, String> errorsMapOfFolderFile = new HashMap<>();
+        if (catalogue.getCatalogueType() == CatalogueType.Folder) {
+            folderFileCatalogue = catalogueRepository.findByArchivesIdAndCatalogueType(catalogue.getArchivesId(), CatalogueType.FolderFile).orElse(null);
+            if (folderFileCatalogue != null) {
+                archivalCodeNameOfFolderFile = getArchivalCodeMetadataName(folderFileCatalogue.getId());
+                serialNumberNameOfFolderFile = getSerialNumberName(folderFileCatalogue.getId());
+                if (archivalCodeNameOfFolderFile == null) {
+                    errorsMapOfFolderFile.put(getCatalogueType(folderFileCatalogue.getId()), "没有档号列");
+                } else if (serialNumberNameOfFolderFile == null) {
+                    errorsMapOfFolderFile.put(getCatalogueType(folderFileCatalogue.getId()), "没有序号列");
+                }
             }
-
         }
 
-        //遍历条目集合
-        for (Entry entry : entryList) {
-            //取条目中的著录项集合
-            Map<String, Object> items = entry.getItems();
-            //如果档号已经存在，则返回错误信息
-            if (null != items.get(archivalCodeName) && !"".equals(items.get(archivalCodeName))) {
-                Map<String, String> errorsMap = new HashMap<>();
-                errorsMap.put(entry.getId(), messageOfErrors);
-                errorsList.add(errorsMap);
-                continue;
-            }
+        //全宗号在同一次生成中只查询一次
+        Map<Integer, String> fondsCodes = new HashMap<>();
+        int done = 0;
+        for (int from = 0; from < entryIds.size(); from += batchSize) {
+            List<String> batchIds = entryIds.subList(from, Math.min(from + batchSize, entryIds.size()));
 
-            //遍历规则集合
-            for (ArchivalCodeRuler archivalCodeRuler : archivalCodeRulers) {
-                //如果规则集合有序号
-                if (archivalCodeRuler.getType() == RulerType.SerialNumber) {
-                    //如果条目中没有序号
-                    if (items.get(serialNumberName) == null || items.get(serialNumberName).equals("")) {
-                        //生成序号
-                        splicingContent = generatingSerialNumber(items, archivalCodeRuler.getFlowNumberLength(), serialNumberName, numberOfMaxSerialNumber);
-                    } else {
-                        splicingContent = archivalCodeRuler(descriptionItems, archivalCodeRuler, items, errorsList, entry, serialNumberName);
-                    }
-                } else {
-                    splicingContent = archivalCodeRuler(descriptionItems, archivalCodeRuler, items, errorsList, entry, serialNumberName);
-                }
-                archivalCodeVal.append(splicingContent);
+            List<Entry> entriesForSave = new ArrayList<>();
+            List<Entry> folderFileEntriesForSave = new ArrayList<>();
+
+            //查找条目，要传入条目id和目录id
+            Iterable<Entry> entryList = entryMongoRepository.findAllById(batchIds, "archive_record_" + catalogueId);
+
+            //只查询本批案卷的卷内条目，按案卷id分组
+            Map<String, List<Entry>> folderFileEntries = Collections.emptyMap();
+            if (folderFileCatalogue != null && errorsMapOfFolderFile.isEmpty()) {
+                folderFileEntries = entryMongoRepository.findAll(query(where("parentId").in(batchIds)), "archive_record_" + folderFileCatalogue.getId())
+                        .stream()
+                        .collect(Collectors.groupingBy(Entry::getParentId));
             }
 
-            //生成卷内档号
-            if (folderFileEntryAll != null) {//如果所有卷内集合不为空
-                List<Entry> folderFileEntryList = new ArrayList<>();
-                //通过案卷id得到卷内集合
-                for (List<Entry> entries : folderFileEntryAll) {
-                    folderFileEntryList.addAll(StreamSupport.stream(entries.spliterator(), false).filter(entry1 -> entry.getId().equals(entry1.getParentId())).collect(Collectors.toList()));
+            //遍历条目集合
+            for (Entry entry : entryList) {
+                //取条目中的著录项集合
+                Map<String, Object> items = entry.getItems();
+                //如果档号已经存在，则返回错误信息
+                if (hasValue(items, archivalCodeName)) {
+                    Map<String, String> errorsMap = new HashMap<>();
+                    errorsMap.put(entry.getId(), "档号已存在");
+                    errorsList.add(errorsMap);
+                    continue;
                 }
-                if (folderFileEntryList.size() > 0) {
-                    //生成档号
-                    archivalCodeNameOfFolderFile = getArchivalCodeMetadataName(folderFileCatalogueId);
-                    serialNumberNameOfFolderFile = getSerialNumberName(folderFileCatalogueId);
-                    if (archivalCodeNameOfFolderFile == null) {
-                        errorsMapOfFolderFile.put(getCatalogueType(folderFileCatalogueId), "没有档号列");
-                    } else if (serialNumberNameOfFolderFile == null) {
-                        errorsMapOfFolderFile = new HashMap<>();
-                        errorsMapOfFolderFile.put(getCatalogueType(folderFileCatalogueId), "没有序号列");
+
+                StringBuilder archivalCodeVal = new StringBuilder();
+                //遍历规则集合
+                for (ArchivalCodeRuler archivalCodeRuler : archivalCodeRulers) {
+                    String splicingContent;
+                    //如果规则是序号且条目中没有序号，则生成序号
+                    if (archivalCodeRuler.getType() == RulerType.SerialNumber && !hasValue(items, serialNumberName)) {
+                        maxSerialNumber++;
+                        splicingContent = generatingAllTypeSerialNumber(maxSerialNumber, archivalCodeRuler.getFlowNumberLength());
+                        items.put(serialNumberName, splicingContent);
                     } else {
-                        generatingFolderFileArchivalCode(serialNumberRuler, folderFileEntryList, folderFileEntriesForSave, errorsList, archivalCodeVal.toString(), archivalCodeNameOfFolderFile, serialNumberNameOfFolderFile);
+                        splicingContent = archivalCodeRuler(descriptionItems, archivalCodeRuler, items, errorsList, entry, serialNumberName, fondsCodes);
                     }
+                    archivalCodeVal.append(splicingContent);
                 }
+
+                //生成卷内档号
+                List<Entry> folderFileEntryList = folderFileEntries.get(entry.getId());
+                if (folderFileEntryList != null) {
+                    generatingFolderFileArchivalCode(serialNumberRuler, folderFileEntryList, folderFileEntriesForSave, errorsList, archivalCodeVal.toString(), archivalCodeNameOfFolderFile, serialNumberNameOfFolderFile);
+                }
+
+                items.put(archivalCodeName, archivalCodeVal.toString());
+                entry.setItems(items);
+                entriesForSave.add(entry);
             }
 
-            items.put(archivalCodeName, archivalCodeVal.toString());
-            entry.setItems(items);
-            entriesForSave.add(entry);
-            if (errorsMapOfFolderFile.size() > 0) {
-                errorsList.add(errorsMapOfFolderFile);
+            //把条目集合存入MongoDB
+            if (entriesForSave.size() > 0) {
+                entryMongoRepository.saveAll(entriesForSave);
+                entryAsyncTask.indexAll(entriesForSave, catalogueId);
             }
 
-            archivalCodeVal.delete(0, archivalCodeVal.length());
-            numberOfMaxSerialNumber++;
+            //把卷内条目集合存入MongoDB
+            if (folderFileEntriesForSave.size() > 0) {
+                entryMongoRepository.saveAll(folderFileEntriesForSave);
+                entryAsyncTask.indexAll(folderFileEntriesForSave, folderFileCatalogue.getId());
+            }
 
+            done += batchIds.size();
+            log.info("生成档号，目录{}，进度{}/{}", catalogueId, done, entryIds.size());
+        }
+
+        if (errorsMapOfFolderFile.size() > 0) {
+            errorsList.add(errorsMapOfFolderFile);
         }
     }
 
     /**
-     * 生成案卷及一文一件序号
-     *
-     * @param items 条目
-     * @return 返回序号
+     * 目录中已有的最大序号，没有时为0。
+     * 序号是补零的字符串，也可能是数字，转成字符串后先比较长度再比较内容，只取出一条
      */
-    private String generatingSerialNumber(Map<String, Object> items, int serialLength, String nameOfFolderFile, Integer maxSerialNumber) {
-
-        //序号
-        Integer serialNumber = -1;
-        Integer condition = 1;
+    private int maxSerialNumber(String collectionName, String serialNumberName) {
+        String field = "items." + serialNumberName;
+        Aggregation agg = newAggregation(
+                match(where(field).exists(true).nin("", null))
+                , project().and(StringOperators.valueOf(field).substring(0, -1)).as("sn")
+                , project("sn").and(StringOperators.valueOf("sn").lengthCP()).as("length")
+                , sort(Sort.Direction.DESC, "length", "sn")
+                , limit(1)
+        );
+        Document max = mongoOperations.aggregate(agg, collectionName, Document.class).getUniqueMappedResult();
+        return max == null ? 0 : parseSerialNumber(max.get("sn"));
+    }
 
-        //如果要生成第一个序号  (也就是最大序号为空)
-        if (condition.equals(maxSerialNumber)) {
-            serialNumber = 1;
-        } else {//如果有则执行以下的
-            serialNumber = maxSerialNumber;
-            serialNumber++;
+    private int parseSerialNumber(Object value) {
+        if (value == null || "".equals(value)) {
+            return 0;
         }
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new BusinessException("序号" + value + "不是数字");
+        }
+    }
 
-        String newSerialNumber = generatingAllTypeSerialNumber(serialNumber, serialLength);
-
-        //放入条目
-        items.put(nameOfFolderFile, newSerialNumber);
-
-        //返回序号
-        return newSerialNumber;
+    private boolean hasValue(Map<String, Object> items, String name) {
+        return name != null && items.get(name) != null && !"".equals(items.get(name));
     }
 
     /**
@@ -397,9 +390,10 @@ public class GeneratingBusiness {
      * @param items             条目
      * @param errorsList        错误信息
      * @param entry             条目
+     * @param fondsCodes        全宗id->全宗号，同一次生成中共用
      * @return 返回根据档号规则获取的要拼接的内容
      */
-    private String archivalCodeRuler(List<DescriptionItem> descriptionItems, ArchivalCodeRuler archivalCodeRuler, Map<String, Object> items, List<Map<String, String>> errorsList, Entry entry, String serialNumberName) {
+    private String archivalCodeRuler(List<DescriptionItem> descriptionItems, ArchivalCodeRuler archivalCodeRuler, Map<String, Object> items, List<Map<String, String>> errorsList, Entry entry, String serialNumberName, Map<Integer, String> fondsCodes) {
 
         String str = "";
         Map<String, String> errorsMap = new HashMap<>();
@@ -440,7 +434,7 @@ public class GeneratingBusiness {
                 }
                 break;
             case FondsCode:
-                str = fondsRepository.findById(entry.getFondsId()).get().getCode();
+                str = fondsCodes.computeIfAbsent(entry.getFondsId(), fondsId -> fondsRepository.findById(fondsId).map(Fonds::getCode).orElse(""));
                 if (str.equals("")) {
                     errorsMap.put(entry.getId(), "全宗号不能为空");
                 }
@@ -452,7 +446,7 @@ public class GeneratingBusiness {
                 }
                 break;
             case SerialNumber:
-                str = entryMongoRepository.findById(entry.getId(), "archive_record_" + entry.getCatalogueId()).get().getItems().get(serialNumberName) + "";
+                str = items.getOrDefault(serialNumberName, "") + "";
                 if (str.equals("")) {
                     errorsMap.put(entry.getId(), "序号不能为空");
                 }
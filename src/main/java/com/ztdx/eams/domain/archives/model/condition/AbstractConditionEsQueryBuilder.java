@@ -4,13 +4,37 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 
 public abstract class AbstractConditionEsQueryBuilder {
+
+    /**
+     * 包含查询用的n-gram子字段名和分词长度，与索引设置一致
+     */
+    public static final String NGRAM_FIELD = "ngram";
+    public static final int NGRAM_SIZE = 2;
+
     protected String name;
     protected Object value;
+    //索引中有n-gram子字段
+    protected boolean ngram;
     public AbstractConditionEsQueryBuilder(String name, Object value) {
         this.name = name;
         this.value = value;
     }
 
+    public void setNgram(boolean ngram) {
+        this.ngram = ngram;
+    }
+
+    /**
+     * 在n-gram子字段上按短语匹配，即连续包含value。没有子字段或value短于分词长度时返回null
+     */
+    protected QueryBuilder ngramContain() {
+        String text = value.toString();
+        if (!ngram || text.length() < NGRAM_SIZE) {
+            return null;
+        }
+        return QueryBuilders.matchPhraseQuery(name + "." + NGRAM_FIELD, text);
+    }
+
     public QueryBuilder equal() {
         return QueryBuilders.termQuery(name, value);
     }
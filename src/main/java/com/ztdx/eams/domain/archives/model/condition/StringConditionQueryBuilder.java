@@ -10,6 +10,11 @@ public class StringConditionQueryBuilder extends AbstractConditionEsQueryBuilder
 
     @Override
     public QueryBuilder contain() {
+        QueryBuilder query = ngramContain();
+        if (query != null) {
+            return query;
+        }
+        //单个字符或旧索引退回通配符
         return QueryBuilders.wildcardQuery(name, String.format("*%s*", value));
     }
 }
@@ -13,6 +13,10 @@ public class TextConditionQueryBuilder extends AbstractConditionEsQueryBuilder {
         if (value.toString().contains("*") || value.toString().contains("?")){
             return QueryBuilders.wildcardQuery(name, value.toString());
         }else{
+            QueryBuilder query = ngramContain();
+            if (query != null) {
+                return query;
+            }
             return QueryBuilders.matchQuery(name, value);
         }
     }
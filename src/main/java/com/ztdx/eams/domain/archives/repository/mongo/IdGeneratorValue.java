@@ -1,11 +1,46 @@
 package com.ztdx.eams.domain.archives.repository.mongo;
 
+import com.ztdx.eams.domain.archives.model.IdRange;
+
 public interface IdGeneratorValue {
     /**
      * %d:目录id %s:字段名
      */
     String ENTRY_ITEM_INCREMENT_FORMAT = "archive_entry_%d_%s";
 
+    /**
+     * 严格模式：每次一个编号，直接在数据库递增，连续无间隙
+     */
     Long get(String id);
     Long get(String id, int inc);
+
+    /**
+     * 按间隙策略取下一个编号。STRICT等同于get，其他策略从本节点预租的号段中分配
+     */
+    Long next(String id, int inc);
+
+    /**
+     * 一次预留count个连续编号，用于批量导入、归档
+     */
+    IdRange reserve(String id, int inc, int count);
+
+    /**
+     * 归还本节点未用完的号段(仅RELEASE策略，且号段之后没有其他节点再租用时有效)
+     */
+    void release();
+
+    enum GapPolicy {
+        /**
+         * 逐个递增，无间隙
+         */
+        STRICT,
+        /**
+         * 按号段预租，节点重启丢弃未用完的编号
+         */
+        ALLOW,
+        /**
+         * 按号段预租，节点关闭时尝试归还未用完的编号
+         */
+        RELEASE
+    }
 }
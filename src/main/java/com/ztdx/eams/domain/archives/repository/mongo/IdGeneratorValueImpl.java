@@ -1,9 +1,17 @@
 package com.ztdx.eams.domain.archives.repository.mongo;
 
 import com.ztdx.eams.domain.archives.model.IdGenerator;
+import com.ztdx.eams.domain.archives.model.IdRange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.util.Assert;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.springframework.data.mongodb.core.query.Criteria.where;
 import static org.springframework.data.mongodb.core.query.Query.query;
@@ -11,8 +19,22 @@ import static org.springframework.data.mongodb.core.query.Query.query;
 public class IdGeneratorValueImpl implements IdGeneratorValue {
     private MongoOperations mongoOperations;
 
-    public IdGeneratorValueImpl(MongoOperations mongoOperations) {
+    //号段大小
+    private int blockSize;
+
+    private GapPolicy gapPolicy;
+
+    //本节点已租用的号段
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    @Autowired
+    public IdGeneratorValueImpl(MongoOperations mongoOperations
+            , @Value("${id-generator.block-size:100}") int blockSize
+            , @Value("${id-generator.gap-policy:STRICT}") GapPolicy gapPolicy) {
+        Assert.isTrue(blockSize > 0, "blockSize must be greater than 0");
         this.mongoOperations = mongoOperations;
+        this.blockSize = blockSize;
+        this.gapPolicy = gapPolicy;
         if (!mongoOperations.collectionExists(IdGenerator.class)){
             mongoOperations.createCollection(IdGenerator.class);
         }
@@ -25,6 +47,49 @@ public class IdGeneratorValueImpl implements IdGeneratorValue {
 
     @Override
     public Long get(String id, int inc) {
+        return increment(id, inc);
+    }
+
+    @Override
+    public Long next(String id, int inc) {
+        if (gapPolicy == GapPolicy.STRICT || blockSize == 1) {
+            return get(id, inc);
+        }
+        //同一编号键串行分配，号段用完或步长变化时租用新号段
+        Lease lease = leases.computeIfAbsent(id, k -> new Lease());
+        synchronized (lease) {
+            if (lease.range == null || !lease.range.hasNext() || lease.range.getStep() != inc) {
+                lease.range = reserve(id, inc, blockSize);
+            }
+            return lease.range.next();
+        }
+    }
+
+    @Override
+    public IdRange reserve(String id, int inc, int count) {
+        Assert.isTrue(count > 0, "count must be greater than 0");
+        long last = increment(id, (long) inc * count);
+        return new IdRange(last - (long) inc * (count - 1), last, inc);
+    }
+
+    @PreDestroy
+    @Override
+    public void release() {
+        leases.forEach((id, lease) -> {
+            synchronized (lease) {
+                if (gapPolicy == GapPolicy.RELEASE && lease.range != null && lease.range.hasNext()) {
+                    //号段之后没有再被租用时，回退到已分配的最后一个编号
+                    mongoOperations.updateFirst(
+                            query(where("_id").is(id).and("value").is(lease.range.getLast()))
+                            , Update.update("value", lease.range.getNext() - lease.range.getStep())
+                            , IdGenerator.class);
+                }
+                lease.range = null;
+            }
+        });
+    }
+
+    private Long increment(String id, long inc) {
         Update update = new Update().inc("value", inc);
         IdGenerator idGenerator = mongoOperations.findAndModify(
                 query(where("_id").is(id))
@@ -33,4 +98,8 @@ public class IdGeneratorValueImpl implements IdGeneratorValue {
                 , IdGenerator.class);
         return idGenerator.getValue();
     }
+
+    private static class Lease {
+        private IdRange range;
+    }
 }
@@ -1,5 +1,6 @@
 package com.ztdx.eams.domain.store.application;
 
+import com.ztdx.eams.basic.config.AsyncConfig;
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
 import com.ztdx.eams.domain.store.model.Box;
 import com.ztdx.eams.domain.store.model.BoxCodeRule;
@@ -15,7 +16,9 @@ import org.springframework.transaction.annotation.Transactional;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -67,9 +70,10 @@ public class BoxService {
      */
     @Transactional
     public void onFrame(String cellCode, List<Integer> ids) {
-        for (int id : ids) {
-            boxRepository.updateOnFrameById(id, 1, cellCode);
+        if (ids.isEmpty()) {
+            return;
         }
+        boxRepository.updateOnFrameByIdIn(ids, 1, cellCode);
     }
 
     /*
@@ -77,9 +81,10 @@ public class BoxService {
      */
     @Transactional
     public void downFrame(List<Integer> ids) {
-        for (int id : ids) {
-            boxRepository.updateOnFrameById(id, 0, null);
+        if (ids.isEmpty()) {
+            return;
         }
+        boxRepository.updateOnFrameByIdIn(ids, 0, null);
     }
 
     /*
@@ -161,6 +166,27 @@ public class BoxService {
         boxRepository.updateTotal(code, archivesId, pages, files);
     }
 
+    /**
+     * 批量更新盒内页数和件数，一次查出所有盒后修改，由事务提交时按批次写回
+     *
+     * @param pages 盒号->页数，没有的按0处理
+     * @param files 盒号->件数，没有的按0处理
+     */
+    @Transactional
+    public void updateTotals(int archivesId, Collection<String> codes, Map<String, Integer> pages, Map<String, Integer> files) {
+        if (codes.isEmpty()) {
+            return;
+        }
+        for (Box box : boxRepository.findByArchivesIdAndCodeIn(archivesId, codes)) {
+            int pagesTotal = pages.getOrDefault(box.getCode(), 0);
+            int filesTotal = files.getOrDefault(box.getCode(), 0);
+            if (box.getPagesTotal() != pagesTotal || box.getFilesTotal() != filesTotal) {
+                box.setPagesTotal(pagesTotal);
+                box.setFilesTotal(filesTotal);
+            }
+        }
+    }
+
     public boolean existsByCodeAndArchivesId(int archiveId, String boxCode) {
         return boxRepository.existsByCodeAndArchivesId(boxCode, archiveId);
     }
@@ -179,13 +205,15 @@ public class BoxService {
         }
     }
 
-    @Async
+    @Async(AsyncConfig.BOX_EXECUTOR)
     @EventListener
     @Transactional
     public void shelfCellDeleted(ShelfCellDeletedEvent shelfCellDeletedEvent) throws InterruptedException {
-        shelfCellDeletedEvent.getShelfCellPointCodes().forEach(point -> {
-            boxRepository.updateOnFrameByPoint(0, "", point);
-        });
+        Collection<String> points = shelfCellDeletedEvent.getShelfCellPointCodes();
+        if (points == null || points.isEmpty()) {
+            return;
+        }
+        boxRepository.updateOnFrameByPointIn(0, "", points);
 
     }
 }
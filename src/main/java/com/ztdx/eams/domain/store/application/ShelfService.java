@@ -10,8 +10,8 @@ import com.ztdx.eams.domain.store.repository.ShelfRepository;
 import com.ztdx.eams.domain.store.repository.ShelfSectionRepository;
 import com.ztdx.eams.domain.store.repository.StorageRepository;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import javax.transaction.Transactional;
 import java.time.Instant;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -27,40 +27,66 @@ public class ShelfService {
 
     private StorageRepository storageRepository;
 
-    public ShelfService(ShelfRepository shelfRepository, ShelfSectionRepository shelfSectionRepository, ShelfCellRepository shelfCellRepository, StorageRepository storageRepository) {
+    private TransactionTemplate transactionTemplate;
+
+    public ShelfService(ShelfRepository shelfRepository, ShelfSectionRepository shelfSectionRepository, ShelfCellRepository shelfCellRepository, StorageRepository storageRepository, TransactionTemplate transactionTemplate) {
         this.shelfRepository = shelfRepository;
         this.shelfSectionRepository = shelfSectionRepository;
         this.shelfCellRepository = shelfCellRepository;
         this.storageRepository = storageRepository;
+        this.transactionTemplate = transactionTemplate;
     }
 
-    @Transactional
+    /**
+     * 密集架和列在一个事务中保存，格按列分别提交
+     */
     public Shelf save(Shelf shelf) {
+        List<ShelfSection> sections = new ArrayList<>();
+        Shelf saved = transactionTemplate.execute(status -> {
+            if (existsByName(shelf.getStorageId(), shelf.getName())) {
+                throw new InvalidArgumentException("密集架名称已存在");
+            }
 
-        if (existsByName(shelf.getStorageId(), shelf.getName())) {
-            throw new InvalidArgumentException("密集架名称已存在");
-        }
-
-        if (existsByCode(shelf.getStorageId(), shelf.getCode())) {
-            throw new InvalidArgumentException("密集架编码已存在");
-        }
+            if (existsByCode(shelf.getStorageId(), shelf.getCode())) {
+                throw new InvalidArgumentException("密集架编码已存在");
+            }
 
-        shelf.setGmtCreate(Date.from(Instant.now()));
-        shelf.setGmtDeleted(0);
+            shelf.setGmtCreate(Date.from(Instant.now()));
+            shelf.setGmtDeleted(0);
 
-        shelf = shelfRepository.save(shelf);
+            Shelf result = shelfRepository.save(shelf);
+            sections.addAll(saveSections(result));
+            return result;
+        });
 
-        createSection(shelf);
+        createCells(sections);
 
-        return shelf;
+        return saved;
     }
 
-    @Transactional
+    /**
+     * 按密集架的列设置生成列，列在一个事务中保存，格按列分别提交
+     */
     public void createSection(Shelf shelf) {
+        createCells(transactionTemplate.execute(status -> saveSections(shelf)));
+    }
 
-        List<ShelfSection> sectionList = shelfSectionRepository.createSection(shelf);
+    /**
+     * 补全密集架下所有列缺少的格，用于大批量生成被中断后重新生成，已提交的列的格不会重复生成
+     *
+     * @return 新增的格数
+     */
+    public int createCell(int shelfId) {
+        Shelf shelf = shelfRepository.findById(shelfId).orElse(null);
+        if (shelf == null || shelf.getGmtDeleted() == 1) {
+            throw new NotFoundException("密集架不存在");
+        }
 
-        sectionList.forEach(section -> shelfCellRepository.createCell(section));
+        return createCells(shelfSectionRepository.findByShelfIdInAndGmtDeleted(Collections.singleton(shelfId), 0));
+    }
+
+    private List<ShelfSection> saveSections(Shelf shelf) {
+        List<ShelfSection> sectionList = shelfSectionRepository.createSection(shelf);
 
         int sectionCount = shelfSectionRepository.countByShelfIdAndGmtDeleted(shelf.getId(), 0);
 
@@ -68,6 +94,19 @@ public class ShelfService {
             shelf.setSectionNum(sectionCount);
             shelfRepository.save(shelf);
         }
+        return sectionList;
+    }
+
+    /**
+     * 每列的格在单独的事务中生成，中断时已提交的列保留，再次调用从未完成的列继续
+     */
+    private int createCells(Collection<ShelfSection> sections) {
+        int total = 0;
+        for (ShelfSection section : sections) {
+            Integer created = transactionTemplate.execute(status -> shelfCellRepository.createCell(section));
+            total += created == null ? 0 : created;
+        }
+        return total;
     }
 
     public boolean existsByName(int storageId, String name) {
@@ -2,7 +2,6 @@ package com.ztdx.eams.domain.store.application;
 
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
 import com.ztdx.eams.domain.store.model.Shelf;
-import com.ztdx.eams.domain.store.model.ShelfCell;
 import com.ztdx.eams.domain.store.model.Storage;
 import com.ztdx.eams.domain.store.model.event.ShelfCellDeletedEvent;
 import com.ztdx.eams.domain.store.repository.BoxRepository;
@@ -93,13 +92,13 @@ public class StorageService {
 
         shelfRepository.saveAll(shelfList);
         //下架盒
-        List<String> cellPointCodes = new ArrayList<>();
-
-        shelfCellRepository.findByShelfIdIn(shelfIds).forEach(a -> cellPointCodes.add(a.getPointCode()));
-
-        cellPointCodes.forEach(point -> {
-            boxRepository.updateOnFrameByPoint(0, "", point);
-        });
+        if (shelfIds.isEmpty()) {
+            return;
+        }
+        List<String> cellPointCodes = shelfCellRepository.findPointCodeByShelfIdIn(shelfIds);
+        if (!cellPointCodes.isEmpty()) {
+            boxRepository.updateOnFrameByPointIn(0, "", cellPointCodes);
+        }
     }
 
     public Storage get(int id) {
@@ -9,6 +9,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.Table;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -32,8 +33,15 @@ public interface BoxRepository extends JpaRepository<Box, Integer> {
     @Query("update Box b set b.onFrame=:onFrame,b.point=:point where b.id=:id")
     void updateOnFrameById(@Param("id") int id, @Param("onFrame") int onFrame, @Param("point") String point);
 
+    //批量修改上架信息
+    @Modifying
+    @Query("update Box b set b.onFrame=:onFrame,b.point=:point where b.id in :ids")
+    void updateOnFrameByIdIn(@Param("ids") Collection<Integer> ids, @Param("onFrame") int onFrame, @Param("point") String point);
+
     Box findByArchivesIdAndCode(int archiveId, String code);
 
+    List<Box> findByArchivesIdAndCodeIn(int archiveId, Collection<String> codes);
+
     @Modifying
     @Query("update Box b set b.pagesTotal = :pages, b.filesTotal = :files where b.code = :code and b.archivesId = :archivesId")
     void updateTotal(@Param("code") String code, @Param("archivesId") int archivesId, @Param("pages") int pages, @Param("files") int files);
@@ -43,4 +51,8 @@ public interface BoxRepository extends JpaRepository<Box, Integer> {
     @Modifying
     @Query("update Box b set b.onFrame = :onFrame, b.point = :beforePoint where b.point = :point")
     void updateOnFrameByPoint(@Param("onFrame") int onFrame, @Param("beforePoint") String beforePoint, @Param("point") String point);
+
+    @Modifying
+    @Query("update Box b set b.onFrame = :onFrame, b.point = :beforePoint where b.point in :points")
+    void updateOnFrameByPointIn(@Param("onFrame") int onFrame, @Param("beforePoint") String beforePoint, @Param("points") Collection<String> points);
 }
@@ -1,10 +1,13 @@
 package com.ztdx.eams.domain.store.repository;
 
-import com.ztdx.eams.domain.store.model.ShelfCell;
 import com.ztdx.eams.domain.store.model.ShelfSection;
 
-import java.util.List;
-
 public interface CustomShelfCellRepository {
-    List<ShelfCell> createCell(ShelfSection section);
+
+    /**
+     * 生成密集架列的所有格，已存在的库位码跳过，中断后再次调用只补全缺少的格
+     *
+     * @return 新增的格数
+     */
+    int createCell(ShelfSection section);
 }
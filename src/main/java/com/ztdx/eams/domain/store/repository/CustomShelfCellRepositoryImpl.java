@@ -1,33 +1,53 @@
 package com.ztdx.eams.domain.store.repository;
 
 import com.ztdx.eams.domain.store.model.Shelf;
-import com.ztdx.eams.domain.store.model.ShelfCell;
 import com.ztdx.eams.domain.store.model.ShelfSection;
 import com.ztdx.eams.domain.store.model.Storage;
-import org.springframework.transaction.annotation.Transactional;
+import com.ztdx.eams.query.jooq.Tables;
+import com.ztdx.eams.query.jooq.tables.StoreShelfCell;
+import com.ztdx.eams.query.jooq.tables.records.StoreShelfCellRecord;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.InsertValuesStepN;
+import org.jooq.types.UInteger;
+import org.springframework.beans.factory.annotation.Value;
 
 import javax.persistence.EntityManager;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Date;
+import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 public class CustomShelfCellRepositoryImpl implements CustomShelfCellRepository {
 
+    private final StoreShelfCell storeShelfCell = Tables.STORE_SHELF_CELL;
+
     private final EntityManager em;
 
-    public CustomShelfCellRepositoryImpl(EntityManager em) {
+    private final DSLContext dslContext;
+
+    //每条insert语句的行数
+    private final int batchSize;
+
+    public CustomShelfCellRepositoryImpl(EntityManager em, DSLContext dslContext
+            , @Value("${shelf.cell.batch-size:1000}") int batchSize) {
         this.em = em;
+        this.dslContext = dslContext;
+        this.batchSize = batchSize;
     }
 
-    //@Transactional
+    /**
+     * 库位码在内存中生成，按批次用多行insert写入，不再逐条persist
+     */
     @Override
-    public List<ShelfCell> createCell(ShelfSection section) {
-        List<ShelfCell> list = new ArrayList<>();
-        if (section.getSectionColNum() < 1 || section.getSectionRowNum() < 1){
-            return list;
+    public int createCell(ShelfSection section) {
+        if (section.getSectionColNum() < 1 || section.getSectionRowNum() < 1) {
+            return 0;
         }
 
+        //格由jdbc直接写入，先把密集架列等待写入的修改刷到数据库
+        em.flush();
+
         Shelf shelf = em.find(Shelf.class, section.getShelfId());
         Storage storage = em.find(Storage.class, section.getStorageId());
         String pointCodePrefix = String.format(
@@ -37,41 +57,73 @@ public class CustomShelfCellRepositoryImpl implements CustomShelfCellRepository
                 , shelf.getCode()
                 , section.getCode());
 
+        //已生成的格，重复调用时跳过
+        Set<String> exists = dslContext.select(storeShelfCell.POINT_CODE)
+                .from(storeShelfCell)
+                .where(storeShelfCell.SHELF_SECTION_ID.equal(UInteger.valueOf(section.getId())))
+                .and(storeShelfCell.GMT_DELETED.equal(0))
+                .fetch().intoSet(storeShelfCell.POINT_CODE);
+
+        List<Field<?>> fields = Arrays.asList(
+                storeShelfCell.SHELF_SECTION_ID
+                , storeShelfCell.SHELF_ID
+                , storeShelfCell.STORAGE_ID
+                , storeShelfCell.FONDS_ID
+                , storeShelfCell.POINT_CODE
+                , storeShelfCell.CODE
+                , storeShelfCell.SIDE
+                , storeShelfCell.COLUMN_NO
+                , storeShelfCell.ROW_NO
+                , storeShelfCell.SECTION_CELL_LENGTH
+                , storeShelfCell.GMT_CREATE
+                , storeShelfCell.GMT_DELETED);
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
         int side = 2;
+        int total = 0;
+        int rows = 0;
+        InsertValuesStepN<StoreShelfCellRecord> insert = null;
 
-        for (int o = 1; o <= side; o ++) {
+        for (int o = 1; o <= side; o++) {
+            String sideStr = o == 1 ? "左" : "右";
             for (int i = 0; i < section.getSectionRowNum(); i++) {
                 for (int j = 0; j < section.getSectionColNum(); j++) {
-                    ShelfCell cell = new ShelfCell();
-                    cell.setShelfSectionId(section.getId());
-                    cell.setShelfId(section.getShelfId());
-                    cell.setStorageId(section.getStorageId());
-                    cell.setFondsId(section.getFondsId());
-                    String sideStr;
-                    if (o == 1) {
-                        sideStr = "左";
-                    }else{
-                        sideStr = "右";
+                    String code = String.format("%s-%d-%d", sideStr, i + 1, j + 1);
+                    String pointCode = String.format("%s-%s", pointCodePrefix, code);
+                    if (exists.contains(pointCode)) {
+                        continue;
+                    }
+
+                    if (insert == null) {
+                        insert = dslContext.insertInto(storeShelfCell, fields);
+                    }
+                    insert = insert.values(Arrays.asList(
+                            section.getId()
+                            , section.getShelfId()
+                            , section.getStorageId()
+                            , section.getFondsId()
+                            , pointCode
+                            , code
+                            , o
+                            , j + 1
+                            , i + 1
+                            , section.getSectionCellLength()
+                            , now
+                            , 0));
+                    rows++;
+
+                    if (rows == batchSize) {
+                        total += insert.execute();
+                        insert = null;
+                        rows = 0;
                     }
-                    cell.setCode(String.format("%s-%d-%d", sideStr, i + 1, j + 1));
-                    cell.setPointCode(String.format("%s-%s", pointCodePrefix, cell.getCode()));
-                    cell.setSide(o);
-                    cell.setColumnNo(j + 1);
-                    cell.setRowNo(i + 1);
-                    cell.setSectionCellLength(section.getSectionCellLength());
-                    cell.setGmtCreate(Date.from(Instant.now()));
-                    cell.setGmtDeleted(0);
-                    list.add(cell);
                 }
             }
         }
 
-        List<ShelfCell> result = new ArrayList<>();
-
-        for (ShelfCell entity : list) {
-            em.persist(entity);
-            result.add(entity);
+        if (insert != null) {
+            total += insert.execute();
         }
-        return result;
+        return total;
     }
 }
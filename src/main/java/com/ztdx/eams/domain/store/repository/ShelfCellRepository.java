@@ -4,6 +4,8 @@ import com.ztdx.eams.domain.store.model.ShelfCell;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Collection;
@@ -18,4 +20,8 @@ public interface ShelfCellRepository extends JpaRepository<ShelfCell, Integer>,
     Page<ShelfCell> findByShelfSectionIdAndGmtDeleted(int shelfSectionId, Pageable pageable, int gmtDeleted);
 
     List<ShelfCell> findByShelfIdIn(Collection<Integer> shelfIds);
+
+    //只查询库位码
+    @Query("select c.pointCode from ShelfCell c where c.shelfId in :shelfIds")
+    List<String> findPointCodeByShelfIdIn(@Param("shelfIds") Collection<Integer> shelfIds);
 }
@@ -2,6 +2,7 @@ package com.ztdx.eams.domain.system.application;
 
 import com.ztdx.eams.basic.exception.BusinessException;
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.archives.application.event.ArchivesGroupDeleteEvent;
 import com.ztdx.eams.domain.system.model.Fonds;
 import com.ztdx.eams.domain.system.model.Organization;
@@ -29,11 +30,14 @@ public class FondsService {
 
     private final ApplicationContext applicationContext;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public FondsService(FondsRepository fondsRepository, OrganizationRepository organizationRepository, ApplicationContext applicationContext) {
+    public FondsService(FondsRepository fondsRepository, OrganizationRepository organizationRepository, ApplicationContext applicationContext, TreeCache treeCache) {
         this.fondsRepository = fondsRepository;
         this.organizationRepository = organizationRepository;
         this.applicationContext = applicationContext;
+        this.treeCache = treeCache;
     }
 
     /**
@@ -63,6 +67,7 @@ public class FondsService {
             }
             organizationRepository.updatefondsIdById(orgId, fonds.getId());
         }
+        treeCache.evictAll();
     }
 
     /**
@@ -84,6 +89,7 @@ public class FondsService {
         fondsRepository.updateGmtDeletedById(id, 1);
 
         applicationContext.publishEvent(new ArchivesGroupDeleteEvent(this, id));
+        treeCache.evictAll();
     }
 
     /**
@@ -112,6 +118,7 @@ public class FondsService {
             }
             organizationRepository.updatefondsIdById(orgId, fonds.getId());
         }
+        treeCache.evictAll();
     }
 
     /**
@@ -130,6 +137,7 @@ public class FondsService {
         }
         fondsRepository.updateOrderNumberById(upId, down.get().getOrderNumber());
         fondsRepository.updateOrderNumberById(downId, up.get().getOrderNumber());
+        treeCache.evictAll();
     }
 
     public Fonds get(Integer fondId) {
@@ -0,0 +1,29 @@
+package com.ztdx.eams.domain.system.application;
+
+import com.ztdx.eams.basic.repository.MongoIndexProvider;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 操作日志(operation_log)的索引：按操作人和时间范围查询，按时间倒序分页
+ */
+@Component
+public class OperationLogIndexes implements MongoIndexProvider {
+
+    @Override
+    public List<Index> indexes(String collectionName) {
+        if (!OperationLogWriter.COLLECTION.equals(collectionName)) {
+            return Collections.emptyList();
+        }
+        List<Index> indexes = new ArrayList<>();
+        //与列表的游标排序(gmtCreate倒序、_id正序)一致，分页不在内存中排序
+        indexes.add(new Index().on("operatorId", Sort.Direction.ASC).on("gmtCreate", Sort.Direction.DESC).on("_id", Sort.Direction.ASC).background());
+        indexes.add(new Index().on("gmtCreate", Sort.Direction.DESC).on("_id", Sort.Direction.ASC).background());
+        return indexes;
+    }
+}
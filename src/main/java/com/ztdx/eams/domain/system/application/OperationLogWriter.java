@@ -0,0 +1,265 @@
+package com.ztdx.eams.domain.system.application;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ztdx.eams.basic.config.AsyncConfig;
+import com.ztdx.eams.basic.repository.MongoIndexManager;
+import com.ztdx.eams.domain.system.model.OperationRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 操作日志写入：记录先放入有界缓冲区，由日志线程池批量写入operation_log，请求线程不等待MongoDB。
+ * 缓冲区满或写入失败时转存到本地文件(每行一条JSON)，之后写入成功时按文件顺序重放，重放时跳过已写入的记录
+ */
+@Slf4j
+@Component
+public class OperationLogWriter {
+
+    public static final String COLLECTION = "operation_log";
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    //正在写入的转存文件，重放前改名为replay-时间.jsonl
+    private static final String SPILL_FILE = "spill.jsonl";
+
+    private static final String REPLAY_PREFIX = "replay-";
+
+    private final MongoOperations mongoOperations;
+
+    private final MongoIndexManager mongoIndexManager;
+
+    private final Executor executor;
+
+    private final BlockingQueue<OperationRecord> buffer;
+
+    //每批写入数量
+    private final int batchSize;
+
+    private final File spillDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Object spillLock = new Object();
+
+    //同一时刻只有一个写入任务
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong spilled = new AtomicLong();
+
+    private final AtomicLong replayed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    public OperationLogWriter(MongoOperations mongoOperations, MongoIndexManager mongoIndexManager
+            , @Qualifier(AsyncConfig.LOG_EXECUTOR) Executor executor
+            , @Value("${operation-log.buffer-size:10000}") int bufferSize
+            , @Value("${operation-log.batch-size:500}") int batchSize
+            , @Value("${operation-log.spill-dir:${java.io.tmpdir}/eams-operation-log}") String spillDir) {
+        this.mongoOperations = mongoOperations;
+        this.mongoIndexManager = mongoIndexManager;
+        this.executor = executor;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.batchSize = batchSize;
+        this.spillDir = new File(spillDir);
+    }
+
+    /**
+     * 启动时重放上次未写入的转存文件
+     */
+    @PostConstruct
+    public void start() {
+        scheduleDrain();
+    }
+
+    /**
+     * 停止时把缓冲区中的记录写入，写入失败的转存到本地文件
+     */
+    @PreDestroy
+    public void stop() {
+        List<OperationRecord> batch = new ArrayList<>(batchSize);
+        while (buffer.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 追加一条记录，不等待写入
+     */
+    public void append(OperationRecord record) {
+        if (!buffer.offer(record)) {
+            spill(Collections.singletonList(record));
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * 写入统计：缓冲区记录数、已写入、已转存、已重放、转存失败丢弃的记录数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("buffered", buffer.size());
+        stats.put("capacity", buffer.size() + buffer.remainingCapacity());
+        stats.put("written", written.get());
+        stats.put("spilled", spilled.get());
+        stats.put("replayed", replayed.get());
+        stats.put("dropped", dropped.get());
+        return stats;
+    }
+
+    private void scheduleDrain() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            //线程池已停止，剩余记录由stop写入
+            draining.set(false);
+        }
+    }
+
+    private void drain() {
+        try {
+            boolean ok = true;
+            List<OperationRecord> batch = new ArrayList<>(batchSize);
+            while (buffer.drainTo(batch, batchSize) > 0) {
+                ok &= write(batch);
+                batch.clear();
+            }
+            //MongoDB不可用时不重放，避免反复读取转存文件
+            if (ok) {
+                replay();
+            }
+        } finally {
+            draining.set(false);
+        }
+        //释放标志前新追加的记录
+        if (!buffer.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private boolean write(List<OperationRecord> batch) {
+        try {
+            insert(batch);
+            written.addAndGet(batch.size());
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("操作日志写入失败，{}条记录转存到本地文件", batch.size(), e);
+            spill(batch);
+            return false;
+        }
+    }
+
+    private void insert(List<OperationRecord> records) {
+        mongoIndexManager.ensure(COLLECTION);
+        try {
+            mongoOperations.bulkOps(BulkOperations.BulkMode.UNORDERED, OperationRecord.class, COLLECTION)
+                    .insert(records)
+                    .execute();
+        } catch (BulkOperationException e) {
+            //重放的记录可能上次已部分写入，主键重复的跳过
+            if (e.getErrors().stream().anyMatch(a -> a.getCode() != DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
+    }
+
+    private void spill(List<OperationRecord> records) {
+        synchronized (spillLock) {
+            spillDir.mkdirs();
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(spillDir, SPILL_FILE), true), StandardCharsets.UTF_8))) {
+                for (OperationRecord record : records) {
+                    writer.write(objectMapper.writeValueAsString(record));
+                    writer.write('\n');
+                }
+                spilled.addAndGet(records.size());
+            } catch (IOException e) {
+                dropped.addAndGet(records.size());
+                log.error("操作日志转存失败，丢弃{}条记录", records.size(), e);
+            }
+        }
+    }
+
+    /**
+     * 按转存顺序重放，某个文件写入失败时保留该文件和之后的文件，下次再重放
+     */
+    private void replay() {
+        File[] files;
+        synchronized (spillLock) {
+            File current = new File(spillDir, SPILL_FILE);
+            if (current.exists()) {
+                current.renameTo(new File(spillDir, REPLAY_PREFIX + System.currentTimeMillis() + ".jsonl"));
+            }
+            files = spillDir.listFiles((dir, name) -> name.startsWith(REPLAY_PREFIX));
+        }
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                long count = replay(file);
+                Files.delete(file.toPath());
+                replayed.addAndGet(count);
+                log.info("操作日志转存文件{}已重放{}条记录", file.getName(), count);
+            } catch (IOException | RuntimeException e) {
+                log.warn("操作日志转存文件{}重放失败，下次写入成功后重试", file.getName(), e);
+                return;
+            }
+        }
+    }
+
+    private long replay(File file) throws IOException {
+        long count = 0;
+        List<OperationRecord> batch = new ArrayList<>(batchSize);
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    batch.add(objectMapper.readValue(line, OperationRecord.class));
+                } catch (JsonProcessingException e) {
+                    //进程异常退出时最后一行可能不完整
+                    log.warn("操作日志转存文件{}中的记录无法解析，已跳过", file.getName(), e);
+                    continue;
+                }
+                if (batch.size() >= batchSize) {
+                    insert(batch);
+                    count += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            insert(batch);
+            count += batch.size();
+        }
+        return count;
+    }
+}
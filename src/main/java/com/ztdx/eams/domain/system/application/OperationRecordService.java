@@ -1,30 +1,75 @@
 package com.ztdx.eams.domain.system.application;
 
+import com.ztdx.eams.basic.repository.CursorPage;
 import com.ztdx.eams.domain.system.model.OperationRecord;
 import com.ztdx.eams.domain.system.repository.OperationRecordRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
+import java.util.Date;
+import java.util.Map;
+
 @Service
 public class OperationRecordService {
 
     private final OperationRecordRepository operationRecordRepository;
 
+    private final OperationLogWriter operationLogWriter;
+
     @Autowired
-    public OperationRecordService(OperationRecordRepository operationRecordRepository) {
+    public OperationRecordService(OperationRecordRepository operationRecordRepository, OperationLogWriter operationLogWriter) {
         this.operationRecordRepository = operationRecordRepository;
+        this.operationLogWriter = operationLogWriter;
     }
 
 
     /**
-     * 添加日志
+     * 添加日志，异步批量写入
      */
     public void add(OperationRecord operationRecord){
 
-        this.operationRecordRepository.insert(operationRecord);
+        this.operationLogWriter.append(operationRecord);
     }
 
     public OperationRecord get(String id){
        return this.operationRecordRepository.findById(id).get();
     }
+
+    /**
+     * 按操作人、时间范围和是否成功查询日志，按时间倒序游标分页
+     *
+     * @param after 上一页返回的cursor，取第一页时为空
+     */
+    public CursorPage<OperationRecord> list(@Nullable Integer operatorId, @Nullable Date from, @Nullable Date to
+            , @Nullable Boolean isSuccess, @Nullable String after, int size) {
+        Criteria criteria = new Criteria();
+        if (operatorId != null) {
+            criteria.and("operatorId").is(operatorId);
+        }
+        if (from != null || to != null) {
+            Criteria time = criteria.and("gmtCreate");
+            if (from != null) {
+                time.gte(from);
+            }
+            if (to != null) {
+                time.lt(to);
+            }
+        }
+        if (isSuccess != null) {
+            criteria.and("isSuccess").is(isSuccess);
+        }
+        return operationRecordRepository.findAll(new Query(criteria), Sort.by(Sort.Direction.DESC, "gmtCreate")
+                , after, size, false, OperationLogWriter.COLLECTION);
+    }
+
+    /**
+     * 写入统计
+     */
+    public Map<String, Object> writerStats() {
+        return operationLogWriter.getStats();
+    }
 }
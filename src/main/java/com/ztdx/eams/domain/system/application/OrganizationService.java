@@ -1,6 +1,7 @@
 package com.ztdx.eams.domain.system.application;
 
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.system.model.Organization;
 import com.ztdx.eams.domain.system.repository.OrganizationRepository;
 import com.ztdx.eams.domain.system.repository.UserRepository;
@@ -20,10 +21,13 @@ public class OrganizationService {
 
     private final UserRepository userRepository;
 
+    private final TreeCache treeCache;
+
     @Autowired
-    public OrganizationService(OrganizationRepository organizationRepository, UserRepository userRepository) {
+    public OrganizationService(OrganizationRepository organizationRepository, UserRepository userRepository, TreeCache treeCache) {
         this.organizationRepository = organizationRepository;
         this.userRepository = userRepository;
+        this.treeCache = treeCache;
     }
 
     /**
@@ -43,6 +47,7 @@ public class OrganizationService {
             organization.setOrderNumber(1);
         }
         organizationRepository.save(organization);
+        treeCache.evictAll();
     }
 
     /**
@@ -60,6 +65,7 @@ public class OrganizationService {
                 throw new InvalidArgumentException("该项不存在或已被删除");
             }
             organizationRepository.deleteById(id);
+        treeCache.evictAll();
     }
 
     /**
@@ -75,6 +81,7 @@ public class OrganizationService {
         //机构结构验证
         validate(organization);
         organizationRepository.updateById(organization);
+        treeCache.evictAll();
     }
 
     /**
@@ -93,6 +100,7 @@ public class OrganizationService {
         }
         organizationRepository.updateOrderNumberById(upId, down.getOrderNumber());
         organizationRepository.updateOrderNumberById(downId, up.getOrderNumber());
+        treeCache.evictAll();
     }
 
     /**
@@ -1,7 +1,9 @@
 package com.ztdx.eams.domain.system.application;
 
 import com.ztdx.eams.basic.spel.TemplateParserContext;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.system.model.Permission;
+import com.ztdx.eams.domain.system.model.PermissionSnapshot;
 import com.ztdx.eams.domain.system.model.Resource;
 import com.ztdx.eams.domain.system.model.ResourceCategory;
 import com.ztdx.eams.domain.system.model.UserPermission;
@@ -10,8 +12,6 @@ import com.ztdx.eams.domain.system.repository.ResourceRepository;
 import com.ztdx.eams.domain.system.repository.UserPermissionRepository;
 import org.springframework.data.domain.Sort;
 import org.springframework.expression.ExpressionParser;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -31,11 +31,17 @@ public class PermissionService {
 
     private UserPermissionRepository userPermissionRepository;
 
-    public PermissionService(PermissionRepository permissionRepository, ResourceRepository resourceRepository, ExpressionParser parser, UserPermissionRepository userPermissionRepository) {
+    private PermissionSnapshotCache permissionSnapshotCache;
+
+    private TreeCache treeCache;
+
+    public PermissionService(PermissionRepository permissionRepository, ResourceRepository resourceRepository, ExpressionParser parser, UserPermissionRepository userPermissionRepository, PermissionSnapshotCache permissionSnapshotCache, TreeCache treeCache) {
         this.permissionRepository = permissionRepository;
         this.resourceRepository = resourceRepository;
         this.parser = parser;
         this.userPermissionRepository = userPermissionRepository;
+        this.permissionSnapshotCache = permissionSnapshotCache;
+        this.treeCache = treeCache;
     }
 
     public List<Map> listCategoryPermission(ResourceCategory resourceCategory) {
@@ -118,22 +124,28 @@ public class PermissionService {
 
         permissionRepository.saveAll(save);
         permissionRepository.deleteInBatch(delete);
+
+        //角色权限变更影响该角色下所有用户
+        permissionSnapshotCache.evictAll();
+        treeCache.evictAll();
     }
 
     public boolean hasAuthority(String expectedAuthority){
         return this.hasAnyAuthority(expectedAuthority);
     }
 
+    /**
+     * 按当前用户的权限快照判断，登录后授予或撤销的权限即时生效
+     */
     public boolean hasAnyAuthority(String... expectedAuthorities) {
+        return permissionSnapshotCache.current().hasAny(expectedAuthorities);
+    }
 
-        Collection<? extends GrantedAuthority> authorities = SecurityContextHolder.getContext().getAuthentication().getAuthorities();
-
-        for (String role : expectedAuthorities) {
-            if (authorities.stream().anyMatch(a -> a.getAuthority().equals(role))) {
-                return true;
-            }
-        }
-        return false;
+    /**
+     * 当前用户的权限快照
+     */
+    public PermissionSnapshot currentPermission() {
+        return permissionSnapshotCache.current();
     }
 
     private String getGroupKey(Permission permission){
@@ -190,6 +202,7 @@ public class PermissionService {
         });
 
         userPermissionRepository.saveAll(list);
+        permissionSnapshotCache.evict(userId);
     }
 
     public List<UserPermission> listUserPermission(int userId){
@@ -0,0 +1,128 @@
+package com.ztdx.eams.domain.system.application;
+
+import com.ztdx.eams.domain.system.model.PermissionSnapshot;
+import com.ztdx.eams.domain.system.model.UserPermission;
+import com.ztdx.eams.domain.system.repository.UserPermissionRepository;
+import com.ztdx.eams.query.SystemSecurityQuery;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按用户名缓存权限快照，@PreAuthorize和检索过滤据此判断权限，不再每次请求查询角色权限。
+ * 角色、权限、用户变更时失效；快照在最早过期的临时权限到期时或超过缓存有效期(多实例部署时其它实例的变更)后重新加载
+ */
+@Component
+public class PermissionSnapshotCache {
+
+    private final SystemSecurityQuery systemSecurityQuery;
+
+    private final UserPermissionRepository userPermissionRepository;
+
+    //缓存有效期(毫秒)
+    private final long ttl;
+
+    private final Map<String, PermissionSnapshot> cache = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    public PermissionSnapshotCache(SystemSecurityQuery systemSecurityQuery, UserPermissionRepository userPermissionRepository
+            , @Value("${permission.snapshot.ttl:300000}") long ttl) {
+        this.systemSecurityQuery = systemSecurityQuery;
+        this.userPermissionRepository = userPermissionRepository;
+        this.ttl = ttl;
+    }
+
+    /**
+     * 当前登录用户的权限快照，未登录时为空快照
+     */
+    public PermissionSnapshot current() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken) {
+            return PermissionSnapshot.EMPTY;
+        }
+        return get(authentication.getName());
+    }
+
+    public PermissionSnapshot get(String username) {
+        PermissionSnapshot cached = cache.get(username);
+        if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+            return cached;
+        }
+
+        long gen = generation.get();
+        PermissionSnapshot loaded = load(username, gen);
+        //加载期间发生变更的快照不放入缓存
+        if (gen == generation.get()) {
+            cache.put(username, loaded);
+        }
+        return loaded;
+    }
+
+    public void evict(int userId) {
+        evict(Collections.singleton(userId));
+    }
+
+    /**
+     * 使用户的快照失效。处于事务中时提交后再失效一次，避免并发请求在提交前把旧数据重新加载进缓存
+     */
+    public void evict(Collection<Integer> userIds) {
+        Set<Integer> ids = new HashSet<>(userIds);
+        Runnable evict = () -> {
+            generation.incrementAndGet();
+            cache.values().removeIf(a -> ids.contains(a.getUserId()));
+        };
+        evict.run();
+        afterCommit(evict);
+    }
+
+    /**
+     * 使全部快照失效，用于角色权限等影响多个用户的变更
+     */
+    public void evictAll() {
+        Runnable evict = () -> {
+            generation.incrementAndGet();
+            cache.clear();
+        };
+        evict.run();
+        afterCommit(evict);
+    }
+
+    private PermissionSnapshot load(String username, long gen) {
+        long now = System.currentTimeMillis();
+        Integer userId = systemSecurityQuery.getUserId(username);
+        if (userId == null) {
+            return new PermissionSnapshot(0, username, Collections.emptySet(), gen, now + ttl);
+        }
+
+        Set<String> authorities = new HashSet<>(systemSecurityQuery.getUserPermissions(username));
+        long expiresAt = now + ttl;
+        for (UserPermission userPermission : userPermissionRepository.findByUserIdAndExpiryTimeGreaterThanEqual(userId, new Date(now))) {
+            authorities.add(userPermission.getResourceUrl());
+            if (userPermission.getExpiryTime() != null) {
+                expiresAt = Math.min(expiresAt, userPermission.getExpiryTime().getTime());
+            }
+        }
+        return new PermissionSnapshot(userId, username, authorities, gen, expiresAt);
+    }
+
+    private void afterCommit(Runnable runnable) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                runnable.run();
+            }
+        });
+    }
+}
@@ -2,6 +2,7 @@ package com.ztdx.eams.domain.system.application;
 
 import com.ztdx.eams.basic.exception.BusinessException;
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import com.ztdx.eams.basic.utils.TreeCache;
 import com.ztdx.eams.domain.system.model.*;
 import com.ztdx.eams.domain.system.repository.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,8 +31,12 @@ public class RoleService {
 
     private OrganizationRepository organizationRepository;
 
+    private PermissionSnapshotCache permissionSnapshotCache;
+
+    private TreeCache treeCache;
+
     @Autowired
-    public RoleService(RoleRepository roleRepository, ResourceRepository resourceRepository, PermissionRepository permissionRepository, RoleOfUserRepository roleOfUserRepository, FondsRepository fondsRepository, UserRepository userRepository, OrganizationRepository organizationRepository) {
+    public RoleService(RoleRepository roleRepository, ResourceRepository resourceRepository, PermissionRepository permissionRepository, RoleOfUserRepository roleOfUserRepository, FondsRepository fondsRepository, UserRepository userRepository, OrganizationRepository organizationRepository, PermissionSnapshotCache permissionSnapshotCache, TreeCache treeCache) {
         this.roleRepository = roleRepository;
         this.resourceRepository = resourceRepository;
         this.permissionRepository = permissionRepository;
@@ -39,6 +44,8 @@ public class RoleService {
         this.fondsRepository = fondsRepository;
         this.userRepository = userRepository;
         this.organizationRepository = organizationRepository;
+        this.permissionSnapshotCache = permissionSnapshotCache;
+        this.treeCache = treeCache;
     }
 
     public void save(Role role) {
@@ -126,6 +133,12 @@ public class RoleService {
                 roleOfUserRepository.findByRoleIdAndUserIdIn(roleId, existsUserIds)
         );
 
+        Set<Integer> changed = new HashSet<>(addUserIdSet);
+        changed.addAll(existsUserIds);
+        permissionSnapshotCache.evict(changed);
+        //可管理的全宗、目录随角色变化，树按用户缓存
+        treeCache.evictAll();
+
         Map<String, Object> result = new HashMap<>();
         result.put("added", addUserIdSet);
         result.put("deleted", existsUserIds);
@@ -1,23 +1,29 @@
 package com.ztdx.eams.domain.system.application;
 
 import com.ztdx.eams.basic.exception.InvalidArgumentException;
+import com.ztdx.eams.domain.archives.application.CatalogueMetadataCache;
 import com.ztdx.eams.domain.system.model.UserDesItemConf;
 import com.ztdx.eams.domain.system.repository.UserDesItemConfRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Service
 public class UserDesItemConfService {
 
     private final UserDesItemConfRepository userDesItemConfRepository;
 
+    private final CatalogueMetadataCache catalogueMetadataCache;
+
     @Autowired
-    public UserDesItemConfService(UserDesItemConfRepository userDesItemConfRepository) {
+    public UserDesItemConfService(UserDesItemConfRepository userDesItemConfRepository, CatalogueMetadataCache catalogueMetadataCache) {
         this.userDesItemConfRepository = userDesItemConfRepository;
+        this.catalogueMetadataCache = catalogueMetadataCache;
     }
 
     /**
@@ -33,6 +39,7 @@ public class UserDesItemConfService {
         }
         userDesItemConfRepository.updateOrderNumberById(upId, down.get().getOrderNumber());
         userDesItemConfRepository.updateOrderNumberById(downId, up.get().getOrderNumber());
+        catalogueMetadataCache.evict(Arrays.asList(up.get().getCatalogueId(), down.get().getCatalogueId()));
     }
 
     public List<UserDesItemConf> getAllByIds(List<Integer> ids) {
@@ -42,6 +49,7 @@ public class UserDesItemConfService {
     @Transactional
     public void saveAll(List<UserDesItemConf> userDesItemConfs) {
         userDesItemConfRepository.saveAll(userDesItemConfs);
+        catalogueMetadataCache.evict(userDesItemConfs.stream().map(UserDesItemConf::getCatalogueId).collect(Collectors.toSet()));
     }
 
     public List<UserDesItemConf> getByUserIdAndCatalogueId(int userId, int catalogueId) {
@@ -53,5 +61,6 @@ public class UserDesItemConfService {
     }
     public void deleteAllByDescriptionItemIdIn(List<Integer> ids) {
         userDesItemConfRepository.deleteAllByDescriptionItemIdIn(ids);
+        catalogueMetadataCache.evictAll();
     }
 }
@@ -31,11 +31,14 @@ public class UserService {
 
     private final PasswordEncoder passwordEncoder;
 
+    private final PermissionSnapshotCache permissionSnapshotCache;
+
     @Autowired
-    public UserService(UserRepository userRepository, OrganizationRepository organizationRepository, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepository userRepository, OrganizationRepository organizationRepository, PasswordEncoder passwordEncoder, PermissionSnapshotCache permissionSnapshotCache) {
         this.userRepository = userRepository;
         this.organizationRepository = organizationRepository;
         this.passwordEncoder = passwordEncoder;
+        this.permissionSnapshotCache = permissionSnapshotCache;
     }
 
     /**
@@ -135,6 +138,8 @@ public class UserService {
         }
         //修改信息
         userRepository.updateById(user);
+        //快照按用户名缓存，用户名可能已修改
+        permissionSnapshotCache.evict(user.getId());
     }
 
     /**
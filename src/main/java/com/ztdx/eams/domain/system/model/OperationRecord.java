@@ -51,9 +51,9 @@ public class OperationRecord {
     private String operatorName;
 
     /**
-     * 异常内容
+     * 异常摘要：异常类型、消息和前几层调用栈，包括cause。以前的记录保存在exception字段中(整个异常对象)，不再读取
      */
-    private Throwable exception;
+    private String exceptionSummary;
 
     /**
      * 创建时间
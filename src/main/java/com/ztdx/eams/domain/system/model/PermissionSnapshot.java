@@ -0,0 +1,109 @@
+package com.ztdx.eams.domain.system.model;
+
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * 用户权限快照：角色权限和未过期的临时权限合并后的权限标识。
+ * 权限判断按哈希集合查找；末尾带资源id的权限(如archive_entry_read_10)另按前缀建立id位图，供检索时列出有权限的资源。
+ * 快照只读，变更时整体失效重建
+ */
+@Getter
+public class PermissionSnapshot {
+
+    public static final String ROLE_ADMIN = "ROLE_ADMIN";
+
+    public static final PermissionSnapshot EMPTY = new PermissionSnapshot(0, "", Collections.emptySet(), 0, Long.MAX_VALUE);
+
+    private final int userId;
+
+    private final String username;
+
+    private final Set<String> authorities;
+
+    /**
+     * 权限前缀(含末尾下划线)->资源id
+     */
+    private final Map<String, BitSet> resources;
+
+    /**
+     * 加载时的全局版本号
+     */
+    private final long generation;
+
+    /**
+     * 快照过期时间(毫秒)，取最早过期的临时权限和缓存有效期中较早者
+     */
+    private final long expiresAt;
+
+    public PermissionSnapshot(int userId, String username, Collection<String> authorities, long generation, long expiresAt) {
+        this.userId = userId;
+        this.username = username;
+        this.authorities = Collections.unmodifiableSet(new HashSet<>(authorities));
+        this.generation = generation;
+        this.expiresAt = expiresAt;
+
+        Map<String, BitSet> resources = new HashMap<>();
+        for (String authority : authorities) {
+            int index = resourceIdIndex(authority);
+            if (index > 0) {
+                resources.computeIfAbsent(authority.substring(0, index), k -> new BitSet())
+                        .set(Integer.parseInt(authority.substring(index)));
+            }
+        }
+        this.resources = Collections.unmodifiableMap(resources);
+    }
+
+    public boolean has(String authority) {
+        return authorities.contains(authority);
+    }
+
+    public boolean hasAny(String... authorities) {
+        for (String authority : authorities) {
+            if (this.authorities.contains(authority)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isAdmin() {
+        return has(ROLE_ADMIN);
+    }
+
+    /**
+     * 有指定前缀权限的资源id，如ids("archive_file_search_")为可检索的目录id
+     */
+    public List<Integer> ids(String prefix) {
+        BitSet ids = resources.get(prefix);
+        if (ids == null) {
+            return new ArrayList<>();
+        }
+        List<Integer> result = new ArrayList<>(ids.cardinality());
+        ids.stream().forEach(result::add);
+        return result;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * 末尾资源id的起始位置，没有(或超出int范围)时返回-1
+     */
+    private static int resourceIdIndex(String authority) {
+        int index = authority.lastIndexOf('_') + 1;
+        int length = authority.length() - index;
+        if (index <= 0 || length == 0 || length > 9) {
+            return -1;
+        }
+        for (int i = index; i < authority.length(); i++) {
+            char c = authority.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return index;
+    }
+}
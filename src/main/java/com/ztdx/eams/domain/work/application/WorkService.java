@@ -14,6 +14,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 @Service
 public class WorkService {
@@ -36,6 +37,44 @@ public class WorkService {
         runtimeService.startProcessInstanceByKey(processKey, map);
     }
 
+    //批量开启流程，在同一事务中提交
+    @Transactional
+    public void startAll(String processKey, List<Map<String, Object>> maps) {
+        maps.forEach(a -> runtimeService.startProcessInstanceByKey(processKey, a));
+    }
+
+    /**
+     * 一次查询多个运行中流程的流程变量，返回流程实例id->(变量名->值)
+     */
+    public Map<String, Map<String, Object>> getProcessVariables(Collection<String> processInstanceIds) {
+        Map<String, Map<String, Object>> result = new HashMap<>();
+        if (processInstanceIds.isEmpty()) {
+            return result;
+        }
+        //流程变量保存在流程实例(根执行)上，执行id即流程实例id
+        for (VariableInstance variable : runtimeService.getVariableInstancesByExecutionIds(new HashSet<>(processInstanceIds))) {
+            result.computeIfAbsent(variable.getExecutionId(), k -> new HashMap<>()).put(variable.getName(), variable.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * 一次查询多个流程(含已结束)的流程变量，返回流程实例id->(变量名->值)
+     */
+    public Map<String, Map<String, Object>> getHistoricProcessVariables(Collection<String> processInstanceIds) {
+        Map<String, Map<String, Object>> result = new HashMap<>();
+        if (processInstanceIds.isEmpty()) {
+            return result;
+        }
+        List<HistoricVariableInstance> variables = historyService.createHistoricVariableInstanceQuery()
+                .executionIds(new HashSet<>(processInstanceIds))
+                .list();
+        for (HistoricVariableInstance variable : variables) {
+            result.computeIfAbsent(variable.getProcessInstanceId(), k -> new HashMap<>()).put(variable.getVariableName(), variable.getValue());
+        }
+        return result;
+    }
+
     //同意
     @Transactional
     public void agree(List<String> taskIds) {
@@ -67,21 +106,19 @@ public class WorkService {
         long total = historyService.createHistoricProcessInstanceQuery().variableValueEquals("orderId", orderId).count();
         List<HistoricProcessInstance> list = historyService.createHistoricProcessInstanceQuery().variableValueEquals("orderId", orderId).listPage(page - 1, size);
 
-        List<HistoricVariableInstance> historicVariableInstances = null;
+        Map<String, Map<String, Object>> variables = getHistoricProcessVariables(
+                list.stream().map(HistoricProcessInstance::getId).collect(Collectors.toList()));
         for (HistoricProcessInstance historicProcessInstance : list) {
-            historicVariableInstances =
-                    historyService.createHistoricVariableInstanceQuery()
-                            .processInstanceId(historicProcessInstance.getId())
-                            .list();
+            Map<String, Object> vars = variables.getOrDefault(historicProcessInstance.getId(), Collections.emptyMap());
             Map<String, Object> borrowContent = new HashMap<>();
-            historicVariableInstances.forEach(b -> {
-                if (b.getVariableName().equals("archiveName")
-                        || b.getVariableName().equals("title")
-                        || b.getVariableName().equals("reference")
-                        || b.getVariableName().equals("approvalTime")
-                        || b.getVariableName().equals("status")
-                        || b.getVariableName().equals("days"))
-                    borrowContent.put(b.getVariableName(), b.getValue());
+            vars.forEach((name, value) -> {
+                if (name.equals("archiveName")
+                        || name.equals("title")
+                        || name.equals("reference")
+                        || name.equals("approvalTime")
+                        || name.equals("status")
+                        || name.equals("days"))
+                    borrowContent.put(name, value);
             });
             borrowContents.add(borrowContent);
         }
@@ -100,17 +137,19 @@ public class WorkService {
         long total = taskService.createTaskQuery().processVariableValueEquals("orderId", orderId).count();
         List<Task> list = taskService.createTaskQuery().processVariableValueEquals("orderId", orderId).listPage(page - 1, size);
 
+        Map<String, Map<String, Object>> variables = getProcessVariables(
+                list.stream().map(Task::getProcessInstanceId).collect(Collectors.toList()));
         for (Task task : list) {
             Map<String, Object> borrowContent = new HashMap<>();
-            Map<String, VariableInstance> variableMap = taskService.getVariableInstances(task.getId());
+            Map<String, Object> variableMap = variables.getOrDefault(task.getProcessInstanceId(), Collections.emptyMap());
 
             borrowContent.put("taskId", task.getId());
-            borrowContent.put("archiveName", variableMap.get("archiveName").getValue());
-            borrowContent.put("title", variableMap.get("title").getValue());
-            borrowContent.put("reference", variableMap.get("reference").getValue());
-            borrowContent.put("approvalTime", variableMap.get("approvalTime").getValue());
-            borrowContent.put("status", variableMap.get("status").getValue());
-            borrowContent.put("days", variableMap.get("days").getValue());
+            borrowContent.put("archiveName", variableMap.get("archiveName"));
+            borrowContent.put("title", variableMap.get("title"));
+            borrowContent.put("reference", variableMap.get("reference"));
+            borrowContent.put("approvalTime", variableMap.get("approvalTime"));
+            borrowContent.put("status", variableMap.get("status"));
+            borrowContent.put("days", variableMap.get("days"));
 
             borrowContents.add(borrowContent);
         }
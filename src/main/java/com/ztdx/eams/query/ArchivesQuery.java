@@ -63,7 +63,7 @@ public class ArchivesQuery {
         //伪造档案分类根节点，便于递归查询子档案分类
         resultMap.put("id", parentId);
         //查询
-        resultMap = getSubClassificationTreeMap(getAllClassificationList(), resultMap);
+        resultMap = getSubClassificationTreeMap(TreeNodes.groupBy(getAllClassificationList(), "parentId"), resultMap);
         //拼装返回数据信息
         if (null != resultMap.get("children")) {
             resultMap.put("items", resultMap.get("children"));
@@ -84,7 +84,7 @@ public class ArchivesQuery {
         //伪造档案分类根节点，便于递归查询子档案分类
         resultMap.put("id", UInteger.valueOf(1));
         //查询
-        resultMap = getSubClassificationTreeMap(getClassificationsByFondsId(fondsId), resultMap);
+        resultMap = getSubClassificationTreeMap(TreeNodes.groupBy(getClassificationsByFondsId(fondsId), "parentId"), resultMap);
         //拼装返回数据信息
         if (null != resultMap.get("children")) {
             resultMap.put("items", resultMap.get("children"));
@@ -99,17 +99,17 @@ public class ArchivesQuery {
 
     /**
      * 通过上级节点递归获取档案分类树形列表
+     *
+     * @param dataGroups 按parentId分组的档案分类数据
      */
-    public Map<String, Object> getSubClassificationTreeMap(List<Map<String, Object>> dataList, Map<String, Object> treeMap) {
+    public Map<String, Object> getSubClassificationTreeMap(Map<List<Object>, List<Map<String, Object>>> dataGroups, Map<String, Object> treeMap) {
         //创建一个空子档案分类列表
         List<Map<String, Object>> subClassificationList = new ArrayList<>();
-        //遍历档案分类数据，并递归添加子档案分类的下级档案分类
-        for (Map<String, Object> map : dataList) {
-            if (treeMap.get("id").equals(map.get("parentId"))) {
-                map = getSubClassificationTreeMap(dataList, map);
-                //将递归添加后的子档案分类放入子档案分类列表
-                subClassificationList.add(map);
-            }
+        //取下级档案分类，并递归添加子档案分类的下级档案分类
+        for (Map<String, Object> map : TreeNodes.children(dataGroups, treeMap.get("id"))) {
+            map = getSubClassificationTreeMap(dataGroups, map);
+            //将递归添加后的子档案分类放入子档案分类列表
+            subClassificationList.add(map);
         }
         //将子档案分类列表加入根节点档案分类信息
         if (!subClassificationList.isEmpty()) {
@@ -160,7 +160,13 @@ public class ArchivesQuery {
         //伪造全宗根节点，便于递归查询
         resultMap.put("id", UInteger.valueOf(1));
         //查询
-        resultMap = getSubFondsAndClassificationTreeMap(getAllFondsList(), getAllClassificationList(), hasFondsPermission, resultMap);
+        List<Map<String, Object>> classificationList = getAllClassificationList();
+        resultMap = getSubFondsAndClassificationTreeMap(
+                TreeNodes.groupBy(getAllFondsList(), "parentId")
+                , TreeNodes.groupBy(classificationList, "fondsId", "parentId")
+                , TreeNodes.groupBy(classificationList, "parentId")
+                , hasFondsPermission
+                , resultMap);
 
         if (null != resultMap.get("children")) {
             resultMap.put("items", resultMap.get("children"));
@@ -176,29 +182,30 @@ public class ArchivesQuery {
     /**
      * 通过全宗上级节点递归获取全宗、档案分类树.
      */
-    public Map<String, Object> getSubFondsAndClassificationTreeMap(List<Map<String, Object>> dataFondsList, List<Map<String, Object>> dataClassificationList, Function<Integer, Boolean> hasFondsPermission, Map<String, Object> treeMap) {
+    public Map<String, Object> getSubFondsAndClassificationTreeMap(
+            Map<List<Object>, List<Map<String, Object>>> dataFondsGroups
+            , Map<List<Object>, List<Map<String, Object>>> fondsClassificationGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataClassificationGroups
+            , Function<Integer, Boolean> hasFondsPermission
+            , Map<String, Object> treeMap) {
         //创建一个空的子列表
         List<Map<String, Object>> childrenList = new ArrayList<>();
 
-        //遍历档案分类数据，并将子档案分类加入子列表
-        for (Map<String, Object> map : dataClassificationList) {
-            if (treeMap.get("id").equals(map.get("fondsId")) && 1 == ((UInteger) map.get("parentId")).intValue()) {
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "Classification");
-                childrenMap = getSubClassificationTreeMap(dataClassificationList, childrenMap);
-                childrenList.add(childrenMap);
-            }
+        //取全宗的顶级档案分类，并将子档案分类加入子列表
+        for (Map<String, Object> map : TreeNodes.children(fondsClassificationGroups, treeMap.get("id"), UInteger.valueOf(1))) {
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "Classification");
+            childrenMap = getSubClassificationTreeMap(dataClassificationGroups, childrenMap);
+            childrenList.add(childrenMap);
         }
 
-        //遍历全宗数据，并将子全宗加入子列表
-        for (Map<String, Object> map : dataFondsList) {
-            if (treeMap.get("id").equals(map.get("parentId"))) {
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "Fonds");
-                //递归添加子全宗所属档案分类与下级全宗
-                childrenMap = getSubFondsAndClassificationTreeMap(dataFondsList, dataClassificationList, hasFondsPermission, childrenMap);
-                childrenList.add(childrenMap);
-            }
+        //取下级全宗，并将子全宗加入子列表
+        for (Map<String, Object> map : TreeNodes.children(dataFondsGroups, treeMap.get("id"))) {
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "Fonds");
+            //递归添加子全宗所属档案分类与下级全宗
+            childrenMap = getSubFondsAndClassificationTreeMap(dataFondsGroups, fondsClassificationGroups, dataClassificationGroups, hasFondsPermission, childrenMap);
+            childrenList.add(childrenMap);
         }
         int fondsId = ((UInteger) treeMap.get("id")).intValue();
         if (!hasFondsPermission.apply(fondsId)) {
@@ -262,7 +269,11 @@ public class ArchivesQuery {
         //伪造全宗根节点，便于递归查询
         resultMap.put("id", UInteger.valueOf(1));
         //查询
-        resultMap = getSubDictionaryClassificationTreeMap(getAllFondsList(), getAllDictionaryClassificationList(), hasFondsPermission, resultMap);
+        resultMap = getSubDictionaryClassificationTreeMap(
+                TreeNodes.groupBy(getAllFondsList(), "parentId")
+                , TreeNodes.groupBy(getAllDictionaryClassificationList(), "fondsId")
+                , hasFondsPermission
+                , resultMap);
 
         if (null != resultMap.get("children")) {
             resultMap.put("items", resultMap.get("children"));
@@ -278,28 +289,24 @@ public class ArchivesQuery {
     /**
      * 通过全宗上级节点递归获取全宗、词典分类树.
      */
-    public Map<String, Object> getSubDictionaryClassificationTreeMap(List<Map<String, Object>> dataFondsList, List<Map<String, Object>> dataDCList, Function<Integer, Boolean> hasFondsPermission, Map<String, Object> treeMap) {
+    public Map<String, Object> getSubDictionaryClassificationTreeMap(Map<List<Object>, List<Map<String, Object>>> dataFondsGroups, Map<List<Object>, List<Map<String, Object>>> dataDCGroups, Function<Integer, Boolean> hasFondsPermission, Map<String, Object> treeMap) {
         //创建一个空的子列表
         List<Map<String, Object>> childrenList = new ArrayList<>();
 
-        //遍历词典分类数据
-        for (Map<String, Object> map : dataDCList) {
-            if (map.get("fondsId").equals(treeMap.get("id"))) {
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "DictionaryClassification");
-                childrenList.add(childrenMap);
-            }
+        //取全宗的词典分类
+        for (Map<String, Object> map : TreeNodes.children(dataDCGroups, treeMap.get("id"))) {
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "DictionaryClassification");
+            childrenList.add(childrenMap);
         }
 
-        //遍历全宗数据，并将子全宗加入子列表
-        for (Map<String, Object> map : dataFondsList) {
-            if (treeMap.get("id").equals(map.get("parentId"))) {
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "Fonds");
-                //递归添加子全宗所属词典分类与下级全宗
-                childrenMap = getSubDictionaryClassificationTreeMap(dataFondsList, dataDCList, hasFondsPermission, childrenMap);
-                childrenList.add(childrenMap);
-            }
+        //取下级全宗，并将子全宗加入子列表
+        for (Map<String, Object> map : TreeNodes.children(dataFondsGroups, treeMap.get("id"))) {
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "Fonds");
+            //递归添加子全宗所属词典分类与下级全宗
+            childrenMap = getSubDictionaryClassificationTreeMap(dataFondsGroups, dataDCGroups, hasFondsPermission, childrenMap);
+            childrenList.add(childrenMap);
         }
         int fondsId = ((UInteger) treeMap.get("id")).intValue();
         if (!hasFondsPermission.apply(fondsId)) {
@@ -501,9 +508,9 @@ public class ArchivesQuery {
         resultMap.put("fondsId", UInteger.valueOf(fondsId));
         //查询
         resultMap = getSubArchivesGroupToArchivesTreeMap(
-                getAllArchivesGroupList()
-                , getAllArchivesList(archiveType)
-                , getAllCatalogueList()
+                TreeNodes.groupBy(getAllArchivesGroupList(), "fondsId", "parentId")
+                , TreeNodes.groupBy(getAllArchivesList(archiveType), "archivesGroupId")
+                , TreeNodes.groupBy(getAllCatalogueList(), "archivesId")
                 , resultMap
                 , hasCataloguePermission
         );
@@ -526,50 +533,46 @@ public class ArchivesQuery {
      * 通过上级节点递归获取库分组、库树.
      */
     private Map<String, Object> getSubArchivesGroupToArchivesTreeMap(
-            List<Map<String, Object>> dataArchivesGroupList
-            , List<Map<String, Object>> dataArchivesList
-            , List<Map<String, Object>> dataCatalogueList
+            Map<List<Object>, List<Map<String, Object>>> dataArchivesGroupGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataArchivesGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataCatalogueGroups
             , Map<String, Object> treeMap
             , Function<Integer, Boolean> hasCataloguePermission
     ) {
 
         //创建一个空的下级库节点列表
         List<Map<String, Object>> childrenList = new ArrayList<>();
-        //遍历库数据，获取下级库节点
-        for (Map<String, Object> map : dataArchivesList) {
-            if (treeMap.get("id").equals(map.get("archivesGroupId"))) {
-                //递归获取下级节点
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "Archives");
-                childrenMap = getSubCatalogueTreeMap(
-                        dataCatalogueList
-                        , childrenMap
-                        , hasCataloguePermission
-                );
-                Object childrenMapChildren = childrenMap.getOrDefault("children", null);
-                if (!(childrenMapChildren instanceof List)
-                        || ((List) childrenMapChildren).size() == 0) {
-                    continue;
-                }
-                childrenMap.remove("children");
-                childrenList.add(childrenMap);
+        //取库分组下的库节点
+        for (Map<String, Object> map : TreeNodes.children(dataArchivesGroups, treeMap.get("id"))) {
+            //递归获取下级节点
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "Archives");
+            childrenMap = getSubCatalogueTreeMap(
+                    dataCatalogueGroups
+                    , childrenMap
+                    , hasCataloguePermission
+            );
+            Object childrenMapChildren = childrenMap.getOrDefault("children", null);
+            if (!(childrenMapChildren instanceof List)
+                    || ((List) childrenMapChildren).size() == 0) {
+                continue;
             }
+            childrenMap.remove("children");
+            childrenList.add(childrenMap);
         }
 
-        //遍历库分组数据，并递归获取下级节点
-        for (Map<String, Object> map : dataArchivesGroupList) {
-            if (treeMap.get("fondsId").equals(map.get("fondsId")) && treeMap.get("id").equals(map.get("parentId"))) {
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "ArchivesGroup");
-                childrenMap = getSubArchivesGroupToArchivesTreeMap(
-                        dataArchivesGroupList
-                        , dataArchivesList
-                        , dataCatalogueList
-                        , childrenMap
-                        , hasCataloguePermission
-                );
-                childrenList.add(childrenMap);
-            }
+        //取下级库分组，并递归获取下级节点
+        for (Map<String, Object> map : TreeNodes.children(dataArchivesGroupGroups, treeMap.get("fondsId"), treeMap.get("id"))) {
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "ArchivesGroup");
+            childrenMap = getSubArchivesGroupToArchivesTreeMap(
+                    dataArchivesGroupGroups
+                    , dataArchivesGroups
+                    , dataCatalogueGroups
+                    , childrenMap
+                    , hasCataloguePermission
+            );
+            childrenList.add(childrenMap);
         }
         //将递归获取的下属库分组树加入上级节点
         if (!childrenList.isEmpty()) {
@@ -591,10 +594,10 @@ public class ArchivesQuery {
         resultMap.put("id", UInteger.valueOf(1));
         //查询
         resultMap = getSubFondsToArchivesTreeMap(
-                getAllFondsList()
-                , getAllArchivesGroupList()
-                , getAllArchivesList(archiveType)
-                , getAllCatalogueList()
+                TreeNodes.groupBy(getAllFondsList(), "parentId")
+                , TreeNodes.groupBy(getAllArchivesGroupList(), "fondsId", "parentId")
+                , TreeNodes.groupBy(getAllArchivesList(archiveType), "archivesGroupId")
+                , TreeNodes.groupBy(getAllCatalogueList(), "archivesId")
                 , resultMap
                 , hasFondsPermission
                 , hasCataloguePermission
@@ -617,10 +620,10 @@ public class ArchivesQuery {
      * 通过全宗上级节点递归获取全宗、库分组、库树.
      */
     private Map<String, Object> getSubFondsToArchivesTreeMap(
-            List<Map<String, Object>> dataFondsList
-            , List<Map<String, Object>> dataArchivesGroupList
-            , List<Map<String, Object>> dataArchivesList
-            , List<Map<String, Object>> dataCatalogueList
+            Map<List<Object>, List<Map<String, Object>>> dataFondsGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataArchivesGroupGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataArchivesGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataCatalogueGroups
             , Map<String, Object> treeMap
             , Function<Integer, Boolean> hasFondsPermission
             , Function<Integer, Boolean> hasCataloguePermission
@@ -635,9 +638,9 @@ public class ArchivesQuery {
         archivesGroupTreeMap.put("fondsId", treeMap.get("id"));
         //递归查询库分组、登记库、目录树
         archivesGroupTreeMap = getSubArchivesGroupToArchivesTreeMap(
-                dataArchivesGroupList
-                , dataArchivesList
-                , dataCatalogueList
+                dataArchivesGroupGroups
+                , dataArchivesGroups
+                , dataCatalogueGroups
                 , archivesGroupTreeMap
                 , hasCataloguePermission
         );
@@ -646,26 +649,24 @@ public class ArchivesQuery {
             childrenList = (List) archivesGroupTreeMap.get("children");
         }
 
-        //遍历全宗数据，获取下级全宗节点
-        for (Map<String, Object> map : dataFondsList) {
-            if (treeMap.get("id").equals(map.get("parentId"))) {
-                //递归获取下级节点
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "Fonds");
-                childrenMap = getSubFondsToArchivesTreeMap(
-                        dataFondsList
-                        , dataArchivesGroupList
-                        , dataArchivesList
-                        , dataCatalogueList
-                        , childrenMap
-                        , hasFondsPermission
-                        , hasCataloguePermission
-                );
-                if (null != childrenMap) {
-                    childrenList.add(childrenMap);
-                }
-
+        //取下级全宗节点
+        for (Map<String, Object> map : TreeNodes.children(dataFondsGroups, treeMap.get("id"))) {
+            //递归获取下级节点
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "Fonds");
+            childrenMap = getSubFondsToArchivesTreeMap(
+                    dataFondsGroups
+                    , dataArchivesGroupGroups
+                    , dataArchivesGroups
+                    , dataCatalogueGroups
+                    , childrenMap
+                    , hasFondsPermission
+                    , hasCataloguePermission
+            );
+            if (null != childrenMap) {
+                childrenList.add(childrenMap);
             }
+
         }
         //添加查询后的下级全宗节点数据到本节点
         if (!childrenList.isEmpty()) {
@@ -704,10 +705,10 @@ public class ArchivesQuery {
         resultMap.put("id", UInteger.valueOf(1));
         //查询
         resultMap = getSubFondsToCatalogueTreeMap(
-                getAllFondsList()
-                , getAllArchivesGroupList()
-                , getAllArchivesList(archiveType)
-                , getAllCatalogueList()
+                TreeNodes.groupBy(getAllFondsList(), "parentId")
+                , TreeNodes.groupBy(getAllArchivesGroupList(), "fondsId", "parentId")
+                , TreeNodes.groupBy(getAllArchivesList(archiveType), "archivesGroupId")
+                , TreeNodes.groupBy(getAllCatalogueList(), "archivesId")
                 , resultMap
                 , hasFondsPermission
                 , hasCataloguePermission
@@ -731,10 +732,10 @@ public class ArchivesQuery {
      * 通过全宗上级节点递归获取全宗、库分组、库、目录树.
      */
     private Map<String, Object> getSubFondsToCatalogueTreeMap(
-            List<Map<String, Object>> dataFondsList
-            , List<Map<String, Object>> dataArchivesGroupList
-            , List<Map<String, Object>> dataArchivesList
-            , List<Map<String, Object>> dataCatalogueList
+            Map<List<Object>, List<Map<String, Object>>> dataFondsGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataArchivesGroupGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataArchivesGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataCatalogueGroups
             , Map<String, Object> treeMap
             , Function<Integer, Boolean> hasFondsPermission
             , Function<Integer, Boolean> hasCataloguePermission
@@ -749,9 +750,9 @@ public class ArchivesQuery {
         archivesGroupTreeMap.put("fondsId", treeMap.get("id"));
         //递归查询库分组、登记库、目录树
         archivesGroupTreeMap = getSubArchivesGroupToCatalogueTreeMap(
-                dataArchivesGroupList
-                , dataArchivesList
-                , dataCatalogueList
+                dataArchivesGroupGroups
+                , dataArchivesGroups
+                , dataCatalogueGroups
                 , archivesGroupTreeMap
                 , hasCataloguePermission
         );
@@ -760,26 +761,24 @@ public class ArchivesQuery {
             childrenList = (List) archivesGroupTreeMap.get("children");
         }
 
-        //遍历全宗数据，获取下级全宗节点
-        for (Map<String, Object> map : dataFondsList) {
-            if (treeMap.get("id").equals(map.get("parentId"))) {
-                //递归获取下级节点
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "Fonds");
-                childrenMap = getSubFondsToCatalogueTreeMap(
-                        dataFondsList
-                        , dataArchivesGroupList
-                        , dataArchivesList
-                        , dataCatalogueList
-                        , childrenMap
-                        , hasFondsPermission
-                        , hasCataloguePermission
-                );
-                if (null != childrenMap) {
-                    childrenList.add(childrenMap);
-                }
-
+        //取下级全宗节点
+        for (Map<String, Object> map : TreeNodes.children(dataFondsGroups, treeMap.get("id"))) {
+            //递归获取下级节点
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "Fonds");
+            childrenMap = getSubFondsToCatalogueTreeMap(
+                    dataFondsGroups
+                    , dataArchivesGroupGroups
+                    , dataArchivesGroups
+                    , dataCatalogueGroups
+                    , childrenMap
+                    , hasFondsPermission
+                    , hasCataloguePermission
+            );
+            if (null != childrenMap) {
+                childrenList.add(childrenMap);
             }
+
         }
         //添加查询后的下级全宗节点数据到本节点
         if (!childrenList.isEmpty()) {
@@ -808,69 +807,65 @@ public class ArchivesQuery {
      * 通过上级节点递归获取库分组、库、目录树.
      */
     private Map<String, Object> getSubArchivesGroupToCatalogueTreeMap(
-            List<Map<String, Object>> dataArchivesGroupList
-            , List<Map<String, Object>> dataArchivesList
-            , List<Map<String, Object>> dataCatalogueList
+            Map<List<Object>, List<Map<String, Object>>> dataArchivesGroupGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataArchivesGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataCatalogueGroups
             , Map<String, Object> treeMap
             , Function<Integer, Boolean> hasCataloguePermission
     ) {
 
         //创建一个空的下级库节点列表
         List<Map<String, Object>> childrenList = new ArrayList<>();
-        //遍历库数据，获取下级库节点
-        for (Map<String, Object> map : dataArchivesList) {
-            if (treeMap.get("id").equals(map.get("archivesGroupId"))) {
-                //递归获取下级节点
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "Archives");
-                childrenMap = getSubCatalogueTreeMap(
-                        dataCatalogueList
-                        , childrenMap
-                        , hasCataloguePermission
-                );
-                Object childrenMapChildren = childrenMap.getOrDefault("children", null);
-                if (!(childrenMapChildren instanceof List)
-                        || ((List) childrenMapChildren).size() == 0) {
-                    continue;
+        //取库分组下的库节点
+        for (Map<String, Object> map : TreeNodes.children(dataArchivesGroups, treeMap.get("id"))) {
+            //递归获取下级节点
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "Archives");
+            childrenMap = getSubCatalogueTreeMap(
+                    dataCatalogueGroups
+                    , childrenMap
+                    , hasCataloguePermission
+            );
+            Object childrenMapChildren = childrenMap.getOrDefault("children", null);
+            if (!(childrenMapChildren instanceof List)
+                    || ((List) childrenMapChildren).size() == 0) {
+                continue;
+            }
+            CatalogueType catalogueType = null;
+            switch (Structure.create((byte) childrenMap.get("structure"))) {
+                case ArticleOne: {
+                    catalogueType = CatalogueType.File;
+                    break;
                 }
-                CatalogueType catalogueType = null;
-                switch (Structure.create((byte) childrenMap.get("structure"))) {
-                    case ArticleOne: {
-                        catalogueType = CatalogueType.File;
-                        break;
-                    }
-                    case TraditionalArchives: {
-                        catalogueType = CatalogueType.Folder;
-                        break;
-                    }
-                    case Project: {
-                        catalogueType = CatalogueType.Subject;
-                        break;
-                    }
+                case TraditionalArchives: {
+                    catalogueType = CatalogueType.Folder;
+                    break;
                 }
-                for (Map<String, Object> m : (List<Map<String, Object>>) childrenMapChildren) {
-                    if (CatalogueType.create((byte) m.get("catalogueType")).equals(catalogueType)) {
-                        childrenMap.put("catalogueId", m.get("id"));
-                    }
+                case Project: {
+                    catalogueType = CatalogueType.Subject;
+                    break;
                 }
-                childrenList.add(childrenMap);
             }
+            for (Map<String, Object> m : (List<Map<String, Object>>) childrenMapChildren) {
+                if (CatalogueType.create((byte) m.get("catalogueType")).equals(catalogueType)) {
+                    childrenMap.put("catalogueId", m.get("id"));
+                }
+            }
+            childrenList.add(childrenMap);
         }
 
-        //遍历库分组数据，并递归获取下级节点
-        for (Map<String, Object> map : dataArchivesGroupList) {
-            if (treeMap.get("fondsId").equals(map.get("fondsId")) && treeMap.get("id").equals(map.get("parentId"))) {
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "ArchivesGroup");
-                childrenMap = getSubArchivesGroupToCatalogueTreeMap(
-                        dataArchivesGroupList
-                        , dataArchivesList
-                        , dataCatalogueList
-                        , childrenMap
-                        , hasCataloguePermission
-                );
-                childrenList.add(childrenMap);
-            }
+        //取下级库分组，并递归获取下级节点
+        for (Map<String, Object> map : TreeNodes.children(dataArchivesGroupGroups, treeMap.get("fondsId"), treeMap.get("id"))) {
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "ArchivesGroup");
+            childrenMap = getSubArchivesGroupToCatalogueTreeMap(
+                    dataArchivesGroupGroups
+                    , dataArchivesGroups
+                    , dataCatalogueGroups
+                    , childrenMap
+                    , hasCataloguePermission
+            );
+            childrenList.add(childrenMap);
         }
         //将递归获取的下属库分组树加入上级节点
         if (!childrenList.isEmpty()) {
@@ -883,18 +878,16 @@ public class ArchivesQuery {
      * 通过上级库节点递归获取目录树.
      */
     private Map<String, Object> getSubCatalogueTreeMap(
-            List<Map<String, Object>> dataCatalogueList
+            Map<List<Object>, List<Map<String, Object>>> dataCatalogueGroups
             , Map<String, Object> treeMap
             , Function<Integer, Boolean> hasCataloguePermission
     ) {
         //创建一个空的下级目录节点列表
         List<Map<String, Object>> childrenList = new ArrayList<>();
-        //遍历目录数据，获取下级目录节点
-        for (Map<String, Object> map : dataCatalogueList) {
+        //取库下的目录节点
+        for (Map<String, Object> map : TreeNodes.children(dataCatalogueGroups, treeMap.get("id"))) {
             int catalogueId = ((UInteger) map.get("id")).intValue();
-            if (treeMap.get("id").equals(map.get("archivesId"))
-                    && hasCataloguePermission.apply(catalogueId)
-            ) {
+            if (hasCataloguePermission.apply(catalogueId)) {
                 //获取下级节点
                 map.put("childrenType", "Catalogue");
                 childrenList.add(map);
@@ -1133,7 +1126,7 @@ public class ArchivesQuery {
         resultMap.put("id", UInteger.valueOf(1));
         resultMap.put("fondsId", fondsId);
         //查询
-        resultMap = getSubArchivesGroupTreeMap(getArchivesGroups(fondsId, archivesGroupId), resultMap);
+        resultMap = getSubArchivesGroupTreeMap(TreeNodes.groupBy(getArchivesGroups(fondsId, archivesGroupId), "fondsId", "parentId"), resultMap);
         //拼装返回数据信息
         if (null != resultMap.get("children")) {
             resultMap.put("items", resultMap.get("children"));
@@ -1148,19 +1141,19 @@ public class ArchivesQuery {
 
     /**
      * 通过上级节点递归获取库分组树形列表
+     *
+     * @param dataGroups 按fondsId、parentId分组的库分组数据
      */
     public Map<String, Object> getSubArchivesGroupTreeMap
-    (List<Map<String, Object>> dataList, Map<String, Object> treeMap) {
+    (Map<List<Object>, List<Map<String, Object>>> dataGroups, Map<String, Object> treeMap) {
         //创建一个空子档案库分组列表
         List<Map<String, Object>> subArchivesGroupList = new ArrayList<>();
-        //遍历档案库分组数据，并递归添加子档案库分组的下级节点
-        for (Map<String, Object> map : dataList) {
-            if (treeMap.get("id").equals(map.get("parentId")) && treeMap.get("fondsId").equals(map.get("fondsId"))) {
-                map.put("childrenType", "ArchivesGroup");
-                map = getSubArchivesGroupTreeMap(dataList, map);
-                //将递归添加后的子档案库分组放入子节点列表
-                subArchivesGroupList.add(map);
-            }
+        //取下级档案库分组，并递归添加子档案库分组的下级节点
+        for (Map<String, Object> map : TreeNodes.children(dataGroups, treeMap.get("fondsId"), treeMap.get("id"))) {
+            map.put("childrenType", "ArchivesGroup");
+            map = getSubArchivesGroupTreeMap(dataGroups, map);
+            //将递归添加后的子档案库分组放入子节点列表
+            subArchivesGroupList.add(map);
         }
         //将子节点列表加入根节点档案分类信息
         if (!subArchivesGroupList.isEmpty()) {
@@ -1215,21 +1208,18 @@ public class ArchivesQuery {
         List<Map<String, Object>> resultList = new ArrayList<>();
 
         List<Map<String, Object>> dataArchivesList = getArchivesListByGroupId(archivesGroupId);
-        List<Map<String, Object>> dataCatalogueList = getAllCatalogueList();
-        //遍历库数据，获取下级库节点
+        Map<List<Object>, List<Map<String, Object>>> dataCatalogueGroups = TreeNodes.groupBy(getAllCatalogueList(), "archivesId");
+        //取库分组下的库节点
         for (Map<String, Object> archive : dataArchivesList) {
             //递归获取下级节点
             archive.put("childrenType", "Archives");
 
             //创建一个空的下级目录节点列表
             List<Map<String, Object>> catalogueList = new ArrayList<>();
-            //遍历目录数据，获取下级目录节点
-            for (Map<String, Object> catalogue : dataCatalogueList) {
-                if (archive.get("id").equals(catalogue.get("archivesId"))) {
-                    //获取下级节点
-                    catalogue.put("childrenType", "Catalogue");
-                    catalogueList.add(catalogue);
-                }
+            //取库下的目录节点
+            for (Map<String, Object> catalogue : TreeNodes.children(dataCatalogueGroups, archive.get("id"))) {
+                catalogue.put("childrenType", "Catalogue");
+                catalogueList.add(catalogue);
             }
             //添加查询后的下级全宗节点数据到本节点
             if (!catalogueList.isEmpty()) {
@@ -1292,8 +1282,8 @@ public class ArchivesQuery {
         resultMap.put("id", UInteger.valueOf(1));
         //查询
         resultMap = getSubFondsToArchivesGroupTreeMap(
-                getAllFondsList()
-                , getAllArchivesGroupList()
+                TreeNodes.groupBy(getAllFondsList(), "parentId")
+                , TreeNodes.groupBy(getAllArchivesGroupList(), "fondsId", "parentId")
                 , resultMap
                 , hasFondsPermission);
         //拼装返回数据信息
@@ -1313,8 +1303,8 @@ public class ArchivesQuery {
      * 通过全宗上级节点递归获取全宗、库分组树.
      */
     private Map<String, Object> getSubFondsToArchivesGroupTreeMap(
-            List<Map<String, Object>> dataFondsList
-            , List<Map<String, Object>> dataArchivesGroupList
+            Map<List<Object>, List<Map<String, Object>>> dataFondsGroups
+            , Map<List<Object>, List<Map<String, Object>>> dataArchivesGroupGroups
             , Map<String, Object> treeMap
             , Function<Integer, Boolean> hasFondsPermission
     ) {
@@ -1328,7 +1318,7 @@ public class ArchivesQuery {
         archivesGroupTreeMap.put("fondsId", treeMap.get("id"));
         //递归查询库分组树
         archivesGroupTreeMap = getSubArchivesGroupTreeMap(
-                dataArchivesGroupList
+                dataArchivesGroupGroups
                 , archivesGroupTreeMap
         );
         //添加查询后的下级库分组节点数据到本节点
@@ -1336,23 +1326,21 @@ public class ArchivesQuery {
             childrenList = (List) archivesGroupTreeMap.get("children");
         }
 
-        //遍历全宗数据，获取下级全宗节点
-        for (Map<String, Object> map : dataFondsList) {
-            if (treeMap.get("id").equals(map.get("parentId"))) {
-                //递归获取下级节点
-                Map<String, Object> childrenMap = map;
-                childrenMap.put("childrenType", "Fonds");
-                childrenMap = getSubFondsToArchivesGroupTreeMap(
-                        dataFondsList
-                        , dataArchivesGroupList
-                        , childrenMap
-                        , hasFondsPermission
-                );
-                if (null != childrenMap) {
-                    childrenList.add(childrenMap);
-                }
-
+        //取下级全宗节点
+        for (Map<String, Object> map : TreeNodes.children(dataFondsGroups, treeMap.get("id"))) {
+            //递归获取下级节点
+            Map<String, Object> childrenMap = map;
+            childrenMap.put("childrenType", "Fonds");
+            childrenMap = getSubFondsToArchivesGroupTreeMap(
+                    dataFondsGroups
+                    , dataArchivesGroupGroups
+                    , childrenMap
+                    , hasFondsPermission
+            );
+            if (null != childrenMap) {
+                childrenList.add(childrenMap);
             }
+
         }
         //添加查询后的下级全宗节点数据到本节点
         if (!childrenList.isEmpty()) {
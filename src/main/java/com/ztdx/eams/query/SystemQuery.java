@@ -51,7 +51,7 @@ public class SystemQuery {
 
         resultMap.put("id", id != null ? id : UInteger.valueOf(1));
         //查询
-        resultMap = getSubOrganizationTreeMap(getAllOrganizationList(fondsId, type), resultMap);
+        resultMap = getSubOrganizationTreeMap(TreeNodes.groupBy(getAllOrganizationList(fondsId, type), "parentId"), resultMap);
         //拼装返回数据信息
         if (null != resultMap.get("children")) {
             resultMap.put("items", resultMap.get("children"));
@@ -91,17 +91,17 @@ public class SystemQuery {
 
     /**
      * 通过节点递归获取机构子列表.
+     *
+     * @param dataGroups 按parentId分组的机构数据
      */
-    public Map<String, Object> getSubOrganizationTreeMap(List<Map<String, Object>> dataList, Map<String, Object> treeMap) {
+    public Map<String, Object> getSubOrganizationTreeMap(Map<List<Object>, List<Map<String, Object>>> dataGroups, Map<String, Object> treeMap) {
         //创建一个空的子列表
         List<Map<String, Object>> childrenList = new ArrayList<>();
-        //遍历机构数据，并递归添加子机构的下级机构
-        for (Map<String, Object> map : dataList) {
-            if (treeMap.get("id").equals(map.get("parentId"))) {
-                map = getSubOrganizationTreeMap(dataList, map);
-                //将递归添加后的子机构放入子列表
-                childrenList.add(map);
-            }
+        //取下级机构，并递归添加子机构的下级机构
+        for (Map<String, Object> map : TreeNodes.children(dataGroups, treeMap.get("id"))) {
+            map = getSubOrganizationTreeMap(dataGroups, map);
+            //将递归添加后的子机构放入子列表
+            childrenList.add(map);
         }
         //将子列表加入根节点
         if (!childrenList.isEmpty()) {
@@ -198,7 +198,7 @@ public class SystemQuery {
         //伪造根全宗，便于递归查询子全宗
         resultMap.put("id", UInteger.valueOf(1));
         //查询
-        resultMap = getSubFondsTreeMap(getAllFondsList(), resultMap, hasPermission);
+        resultMap = getSubFondsTreeMap(TreeNodes.groupBy(getAllFondsList(), "parentId"), resultMap, hasPermission);
         //拼装返回数据信息
         if (null != resultMap && null != resultMap.get("children")) {
             resultMap.put("items", resultMap.get("children"));
@@ -233,18 +233,18 @@ public class SystemQuery {
 
     /**
      * 递归获取全宗子列表.
+     *
+     * @param dataGroups 按parentId分组的全宗数据
      */
-    public Map<String, Object> getSubFondsTreeMap(List<Map<String, Object>> dataList, Map<String, Object> treeMap, Function<Integer, Boolean> hasPermission) {
+    public Map<String, Object> getSubFondsTreeMap(Map<List<Object>, List<Map<String, Object>>> dataGroups, Map<String, Object> treeMap, Function<Integer, Boolean> hasPermission) {
         //创建一个空的子列表
         List<Map<String, Object>> childrenList = new ArrayList<Map<String, Object>>();
-        //遍历全宗数据，并递归添加子全宗下级全宗
-        for (Map<String, Object> map : dataList) {
-            if (treeMap.get("id").equals(map.get("parentId"))) {
-                map = getSubFondsTreeMap(dataList, map, hasPermission);
-                if (map != null) {
-                    //将递归添加后的子全宗放入子列表
-                    childrenList.add(map);
-                }
+        //取下级全宗，并递归添加子全宗下级全宗
+        for (Map<String, Object> map : TreeNodes.children(dataGroups, treeMap.get("id"))) {
+            map = getSubFondsTreeMap(dataGroups, map, hasPermission);
+            if (map != null) {
+                //将递归添加后的子全宗放入子列表
+                childrenList.add(map);
             }
         }
         //将子列表加入
@@ -6,6 +6,7 @@ import com.ztdx.eams.query.jooq.tables.SysRoleUser;
 import com.ztdx.eams.query.jooq.tables.SysUser;
 import com.ztdx.eams.query.jooq.tables.records.SysUserRecord;
 import org.jooq.DSLContext;
+import org.jooq.types.UInteger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -40,6 +41,16 @@ public class SystemSecurityQuery {
                 .where(sysUser.USERNAME.equal(userName)).fetch().intoSet(sysPermission.RESOURCE_URL);
     }
 
+    /**
+     * 用户名对应的用户id，不存在时返回null
+     */
+    public Integer getUserId(String userName) {
+        UInteger id = dslContext.select(sysUser.ID)
+                .from(sysUser)
+                .where(sysUser.USERNAME.equal(userName)).fetchOne(sysUser.ID);
+        return id == null ? null : id.intValue();
+    }
+
     public Map<String,Object> getUser(String userName) {
         String sql = dslContext.select(sysUser.PWD,sysUser.FLAG,sysUser.ID)
                 .from(sysUser)
@@ -0,0 +1,35 @@
+package com.ztdx.eams.query;
+
+import java.util.*;
+
+/**
+ * 建树辅助：先把节点数据按上级字段分组，递归时按上级id直接取下级节点，
+ * 每个节点只访问一次，避免每一层都遍历全部数据
+ */
+final class TreeNodes {
+
+    private TreeNodes() {
+    }
+
+    /**
+     * 按一个或多个字段的值分组，组内保持原顺序
+     */
+    static Map<List<Object>, List<Map<String, Object>>> groupBy(List<Map<String, Object>> dataList, String... keys) {
+        Map<List<Object>, List<Map<String, Object>>> groups = new HashMap<>();
+        for (Map<String, Object> map : dataList) {
+            Object[] values = new Object[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = map.get(keys[i]);
+            }
+            groups.computeIfAbsent(Arrays.asList(values), k -> new ArrayList<>()).add(map);
+        }
+        return groups;
+    }
+
+    /**
+     * 取分组字段值依次为values的节点，没有时返回空列表
+     */
+    static List<Map<String, Object>> children(Map<List<Object>, List<Map<String, Object>>> groups, Object... values) {
+        return groups.getOrDefault(Arrays.asList(values), Collections.emptyList());
+    }
+}
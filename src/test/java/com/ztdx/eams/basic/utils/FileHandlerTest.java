@@ -0,0 +1,191 @@
+package com.ztdx.eams.basic.utils;
+
+import com.ztdx.eams.basic.exception.BusinessException;
+import org.apache.poi.hslf.usermodel.HSLFSlideShow;
+import org.apache.poi.hslf.usermodel.HSLFTextBox;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFTextBox;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FileHandlerTest {
+
+    private static final long TIMEOUT = 60000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 大文本文件读到字数上限即截断
+     */
+    @Test
+    public void truncatesLargeText() throws IOException {
+        File file = folder.newFile("large.txt");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            content.append("档案全文内容").append(i).append('\n');
+        }
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        String text = FileHandler.contentRead(file, "large.txt", 1000, TIMEOUT);
+
+        assertEquals(1000, text.length());
+        assertEquals(content.substring(0, 1000), text);
+    }
+
+    @Test
+    public void detectsTextCharset() throws IOException {
+        File gbk = folder.newFile("gbk.txt");
+        Files.write(gbk.toPath(), "中文档案".getBytes("GBK"));
+        File bom = folder.newFile("bom.txt");
+        byte[] utf8 = "中文档案".getBytes(StandardCharsets.UTF_8);
+        byte[] withBom = new byte[utf8.length + 3];
+        withBom[0] = (byte) 0xEF;
+        withBom[1] = (byte) 0xBB;
+        withBom[2] = (byte) 0xBF;
+        System.arraycopy(utf8, 0, withBom, 3, utf8.length);
+        Files.write(bom.toPath(), withBom);
+
+        assertEquals(Charset.forName("GB18030"), FileHandler.detectCharset(gbk));
+        assertEquals("中文档案", FileHandler.contentRead(gbk, "gbk.txt", 1000, TIMEOUT));
+        assertEquals("中文档案", FileHandler.contentRead(bom, "bom.txt", 1000, TIMEOUT));
+    }
+
+    @Test(expected = BusinessException.class)
+    public void failsWhenTimedOut() throws IOException {
+        File file = folder.newFile("timeout.txt");
+        Files.write(file.toPath(), "档案".getBytes(StandardCharsets.UTF_8));
+
+        FileHandler.contentRead(file, "timeout.txt", 1000, 0);
+    }
+
+    /**
+     * 没有文本的xls也按记录检查超时
+     */
+    @Test(expected = BusinessException.class)
+    public void failsWhenXlsWithoutTextTimedOut() throws IOException {
+        File file = folder.newFile("empty.xls");
+        try (HSSFWorkbook wb = new HSSFWorkbook(); OutputStream os = new FileOutputStream(file)) {
+            wb.createSheet();
+            wb.write(os);
+        }
+
+        FileHandler.contentRead(file, "empty.xls", 1000, 0);
+    }
+
+    @Test
+    public void truncatesLargeXlsx() throws IOException {
+        File file = folder.newFile("large.xlsx");
+        SXSSFWorkbook wb = new SXSSFWorkbook(100);
+        try (OutputStream os = new FileOutputStream(file)) {
+            Sheet sheet = wb.createSheet();
+            for (int i = 0; i < 50000; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("档号" + i);
+                row.createCell(1).setCellValue(i);
+            }
+            wb.write(os);
+        } finally {
+            wb.dispose();
+        }
+
+        String text = FileHandler.contentRead(file, "large.xlsx", 5000, TIMEOUT);
+
+        assertEquals(5000, text.length());
+        assertTrue(text.startsWith("档号0\t0\n档号1\t1\n"));
+    }
+
+    @Test
+    public void readsXls() throws IOException {
+        File file = folder.newFile("test.xls");
+        try (HSSFWorkbook wb = new HSSFWorkbook(); OutputStream os = new FileOutputStream(file)) {
+            HSSFSheet sheet = wb.createSheet();
+            HSSFRow row = sheet.createRow(0);
+            row.createCell(0).setCellValue("题名");
+            row.createCell(1).setCellValue(1.5);
+            sheet.createRow(1).createCell(0).setCellValue("责任者");
+            wb.createInformationProperties();
+            wb.getSummaryInformation().setTitle("测试标题");
+            wb.write(os);
+        }
+
+        assertEquals("题名\t1.5\n责任者", FileHandler.contentRead(file, "test.xls", 1000, TIMEOUT));
+        assertEquals("测试标题", FileHandler.office2003MetadataRead(file).get("标题"));
+    }
+
+    @Test
+    public void readsDocx() throws IOException {
+        File file = folder.newFile("test.docx");
+        try (XWPFDocument doc = new XWPFDocument(); OutputStream os = new FileOutputStream(file)) {
+            doc.createParagraph().createRun().setText("第一段");
+            doc.createParagraph().createRun().setText("第二段");
+            doc.write(os);
+        }
+
+        assertEquals("第一段\n第二段\n", FileHandler.contentRead(file, "test.docx", 1000, TIMEOUT));
+    }
+
+    @Test
+    public void readsPptx() throws IOException {
+        File file = folder.newFile("test.pptx");
+        try (XMLSlideShow pptx = new XMLSlideShow(); OutputStream os = new FileOutputStream(file)) {
+            for (int i = 1; i <= 11; i++) {
+                XSLFTextBox box = pptx.createSlide().createTextBox();
+                box.setText("幻灯片" + i);
+            }
+            pptx.write(os);
+        }
+
+        String text = FileHandler.contentRead(file, "test.pptx", 1000, TIMEOUT);
+
+        //按幻灯片编号排序，slide10不排在slide2前
+        assertTrue(text.indexOf("幻灯片2") < text.indexOf("幻灯片10"));
+        assertTrue(text.contains("幻灯片11"));
+    }
+
+    @Test
+    public void readsPpt() throws IOException {
+        File file = folder.newFile("test.ppt");
+        try (HSLFSlideShow ppt = new HSLFSlideShow(); OutputStream os = new FileOutputStream(file)) {
+            HSLFTextBox box = ppt.createSlide().createTextBox();
+            box.setText("演示文稿内容");
+            ppt.write(os);
+        }
+
+        assertTrue(FileHandler.contentRead(file, "test.ppt", 1000, TIMEOUT).contains("演示文稿内容"));
+    }
+
+    @Test
+    public void readsXlsxMetadata() throws IOException {
+        File file = folder.newFile("meta.xlsx");
+        try (XSSFWorkbook wb = new XSSFWorkbook(); OutputStream os = new FileOutputStream(file)) {
+            wb.createSheet();
+            wb.getProperties().getCoreProperties().setTitle("测试标题");
+            wb.write(os);
+        }
+
+        Map metadata = FileHandler.office2007MetadataRead(file);
+
+        assertEquals("测试标题", metadata.get("标题"));
+    }
+}
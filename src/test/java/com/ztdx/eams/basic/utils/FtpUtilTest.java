@@ -0,0 +1,189 @@
+package com.ztdx.eams.basic.utils;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.UserAccount;
+import org.mockftpserver.fake.filesystem.DirectoryEntry;
+import org.mockftpserver.fake.filesystem.FileEntry;
+import org.mockftpserver.fake.filesystem.FileSystem;
+import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class FtpUtilTest {
+
+    private FileSystem fileSystem;
+
+    private FakeFtpServer server;
+
+    private FtpUtil ftpUtil;
+
+    @Before
+    public void setUp() {
+        fileSystem = new UnixFakeFileSystem();
+        fileSystem.add(new DirectoryEntry("/"));
+        server = startServer(0);
+
+        ftpUtil = new FtpUtil();
+        ReflectionTestUtils.setField(ftpUtil, "address", "localhost");
+        ReflectionTestUtils.setField(ftpUtil, "port", server.getServerControlPort());
+        ReflectionTestUtils.setField(ftpUtil, "username", "eams");
+        ReflectionTestUtils.setField(ftpUtil, "password", "eams");
+        ReflectionTestUtils.setField(ftpUtil, "basePath", "base");
+        ReflectionTestUtils.setField(ftpUtil, "allowType", "txt,pdf");
+        ReflectionTestUtils.setField(ftpUtil, "timeout", 10000);
+        ReflectionTestUtils.setField(ftpUtil, "maxTotal", 4);
+        ReflectionTestUtils.setField(ftpUtil, "maxIdle", 4);
+        ReflectionTestUtils.setField(ftpUtil, "maxWait", 30000L);
+        ReflectionTestUtils.setField(ftpUtil, "idleTimeout", 300000L);
+        ReflectionTestUtils.setField(ftpUtil, "evictionInterval", 60000L);
+        ftpUtil.init();
+    }
+
+    @After
+    public void tearDown() {
+        ftpUtil.destroy();
+        server.stop();
+    }
+
+    /**
+     * 连续上传下载复用同一个连接
+     */
+    @Test
+    public void sequentialTransfersReuseConnection() {
+        for (int i = 0; i < 20; i++) {
+            ftpUtil.uploadFile(new String[]{"1", "2"}, "file" + i, "file.txt", stream("content" + i));
+        }
+        for (int i = 0; i < 20; i++) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            ftpUtil.downloadFile(new String[]{"1", "2"}, "file" + i, os);
+            assertEquals("content" + i, new String(os.toByteArray(), StandardCharsets.UTF_8));
+        }
+
+        assertEquals(1, pool().getCreatedCount());
+    }
+
+    /**
+     * 并发传输的连接数不超过池上限
+     */
+    @Test
+    public void concurrentTransfersAreBoundedByPool() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10; i++) {
+                        String name = thread + "_" + i;
+                        ftpUtil.uploadFile(new String[]{String.valueOf(thread % 3)}, name, "file.txt", stream(name));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int t = 0; t < 16; t++) {
+            for (int i = 0; i < 10; i++) {
+                String name = t + "_" + i;
+                assertEquals(name, read("/base/" + (t % 3) + "/" + name));
+            }
+        }
+        assertTrue(pool().getCreatedCount() <= 4);
+    }
+
+    /**
+     * 从指定位置读取，关闭流后连接归还可继续使用
+     */
+    @Test
+    public void retrieveStreamReturnsConnectionOnClose() throws Exception {
+        ftpUtil.uploadFile(new String[]{"1"}, "file", "file.txt", stream("0123456789"));
+
+        try (InputStream is = ftpUtil.retrieveFileStream(new String[]{"1"}, "file", 0)) {
+            assertEquals("0123456789", StreamUtils.copyToString(is, StandardCharsets.UTF_8));
+        }
+        ftpUtil.uploadFile(new String[]{"1"}, "file2", "file.txt", stream("next"));
+
+        assertEquals("next", read("/base/1/file2"));
+        assertEquals(1, pool().getCreatedCount());
+        assertEquals(0, pool().getNumActive());
+    }
+
+    /**
+     * 服务重启后失效的连接被丢弃并重连
+     */
+    @Test
+    public void reconnectsAfterServerRestart() {
+        ftpUtil.uploadFile(new String[]{"1"}, "before", "file.txt", stream("before"));
+
+        int port = server.getServerControlPort();
+        server.stop();
+        server = startServer(port);
+
+        ftpUtil.uploadFile(new String[]{"1"}, "after", "file.txt", stream("after"));
+
+        assertEquals("after", read("/base/1/after"));
+        assertEquals(2, pool().getCreatedCount());
+    }
+
+    /**
+     * 缓存的目录在服务端被删除后重建
+     */
+    @Test
+    public void recreatesDirectoryRemovedOnServer() {
+        ftpUtil.uploadFile(new String[]{"1", "2"}, "first", "file.txt", stream("first"));
+        fileSystem.delete("/base/1/2/first");
+        fileSystem.delete("/base/1/2");
+
+        ftpUtil.uploadFile(new String[]{"1", "2"}, "second", "file.txt", stream("second"));
+
+        assertEquals("second", read("/base/1/2/second"));
+    }
+
+    @Test(expected = com.ztdx.eams.basic.exception.BusinessException.class)
+    public void rejectsDisallowedType() {
+        ftpUtil.uploadFile(new String[]{"1"}, "file", "file.exe", stream("x"));
+    }
+
+    private FakeFtpServer startServer(int port) {
+        FakeFtpServer fakeFtpServer = new FakeFtpServer();
+        fakeFtpServer.setServerControlPort(port);
+        fakeFtpServer.addUserAccount(new UserAccount("eams", "eams", "/"));
+        fakeFtpServer.setFileSystem(fileSystem);
+        fakeFtpServer.start();
+        return fakeFtpServer;
+    }
+
+    private GenericObjectPool<?> pool() {
+        return (GenericObjectPool<?>) ReflectionTestUtils.getField(ftpUtil, "pool");
+    }
+
+    private InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String path) {
+        FileEntry entry = (FileEntry) fileSystem.getEntry(path);
+        assertNotNull(path, entry);
+        try (InputStream is = entry.createInputStream()) {
+            return StreamUtils.copyToString(is, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.ztdx.eams.basic.utils;
+
+import com.ztdx.eams.basic.exception.BusinessException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PDFConverterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private PDFConverter converter;
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        if (converter != null) {
+            converter.destroy();
+        }
+    }
+
+    /**
+     * 并发转换分摊到各进程，同一进程同一时刻只转换一个文档
+     */
+    @Test
+    public void spreadsJobsAcrossWorkers() throws Exception {
+        List<FakeWorker> workers = Arrays.asList(new FakeWorker("a", 20), new FakeWorker("b", 20));
+        converter = new PDFConverter(workers, 100, 5000, 20, 5000);
+
+        List<Future<File>> futures = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            int n = i;
+            futures.add(executor.submit(() -> convert("doc" + n)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals("pdf:doc" + i, read(futures.get(i).get(10, TimeUnit.SECONDS)));
+        }
+
+        for (FakeWorker worker : workers) {
+            assertTrue(worker.conversions.get() > 0);
+            assertEquals(1, worker.maxConcurrent.get());
+        }
+        assertEquals(12L, converter.getStats().get("completed"));
+    }
+
+    /**
+     * 转换达到上限后重启进程
+     */
+    @Test
+    public void restartsAfterMaxTasks() throws Exception {
+        FakeWorker worker = new FakeWorker("a", 0);
+        converter = new PDFConverter(Collections.singletonList(worker), 3, 5000, 10, 5000);
+
+        for (int i = 0; i < 7; i++) {
+            convert("doc" + i);
+        }
+
+        assertEquals(3, worker.starts.get());
+        assertEquals(2L, converter.getStats().get("restarts"));
+    }
+
+    /**
+     * 卡住的转换超时后结束进程，下一次转换重启进程后正常完成
+     */
+    @Test
+    public void hungConversionTimesOutAndRestarts() throws Exception {
+        FakeWorker worker = new FakeWorker("a", 0);
+        worker.hangNext = true;
+        converter = new PDFConverter(Collections.singletonList(worker), 100, 200, 10, 5000);
+
+        try {
+            convert("hung");
+            fail();
+        } catch (BusinessException e) {
+            assertEquals("PDF转换超时", e.getMessage());
+        }
+        assertEquals(1, worker.stops.get());
+
+        assertEquals("pdf:next", read(convert("next")));
+        assertEquals(2, worker.starts.get());
+        assertEquals(1L, converter.getStats().get("timedOut"));
+    }
+
+    /**
+     * 进程崩溃后下一次借出时重启
+     */
+    @Test
+    public void crashedWorkerIsRestarted() throws Exception {
+        FakeWorker worker = new FakeWorker("a", 0);
+        worker.crashNext = true;
+        converter = new PDFConverter(Collections.singletonList(worker), 100, 5000, 10, 5000);
+
+        try {
+            convert("crash");
+            fail();
+        } catch (BusinessException e) {
+            assertEquals("PDF转换失败", e.getMessage());
+        }
+
+        assertEquals("pdf:next", read(convert("next")));
+        assertEquals(2, worker.starts.get());
+        assertEquals(1L, converter.getStats().get("failed"));
+    }
+
+    /**
+     * 队列满时调用方等待，超过等待时间拒绝
+     */
+    @Test
+    public void rejectsWhenQueueIsFull() throws Exception {
+        FakeWorker worker = new FakeWorker("a", 0);
+        worker.block = new CountDownLatch(1);
+        converter = new PDFConverter(Collections.singletonList(worker), 100, 10000, 1, 200);
+
+        Future<File> running = executor.submit(() -> convert("running"));
+        worker.entered.await(5, TimeUnit.SECONDS);
+        Future<File> queued = executor.submit(() -> convert("queued"));
+        awaitQueued(1);
+
+        long start = System.nanoTime();
+        try {
+            convert("rejected");
+            fail();
+        } catch (BusinessException e) {
+            assertEquals("PDF转换队列已满", e.getMessage());
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+
+        worker.block.countDown();
+        assertEquals("pdf:running", read(running.get(5, TimeUnit.SECONDS)));
+        assertEquals("pdf:queued", read(queued.get(5, TimeUnit.SECONDS)));
+
+        Map<String, Object> stats = converter.getStats();
+        assertEquals(1L, stats.get("rejected"));
+        assertEquals(2L, stats.get("completed"));
+        assertEquals(2L, ((Map<?, ?>) stats.get("queueWait")).get("count"));
+    }
+
+    private void awaitQueued(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!Long.valueOf(expected).equals(converter.getStats().get("queued"))) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private File convert(String content) throws IOException {
+        File input = folder.newFile();
+        Files.write(input.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        File output = new File(input.getPath() + ".pdf");
+        converter.converterPDF(input, output);
+        return output;
+    }
+
+    private String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 模拟转换进程：写出"pdf:"+原文内容，可模拟卡死和崩溃
+     */
+    private static class FakeWorker implements OfficeWorker {
+        private final String name;
+        private final long delay;
+        private final AtomicInteger starts = new AtomicInteger();
+        private final AtomicInteger stops = new AtomicInteger();
+        private final AtomicInteger conversions = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private volatile boolean running;
+        private volatile boolean hangNext;
+        private volatile boolean crashNext;
+        private volatile CountDownLatch block;
+        //进程结束时释放卡住的转换
+        private volatile CountDownLatch killed = new CountDownLatch(1);
+
+        private FakeWorker(String name, long delay) {
+            this.name = name;
+            this.delay = delay;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void start() {
+            starts.incrementAndGet();
+            killed = new CountDownLatch(1);
+            running = true;
+        }
+
+        @Override
+        public boolean isHealthy() {
+            return running;
+        }
+
+        @Override
+        public void convert(File inputFile, File outputFile) throws Exception {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            entered.countDown();
+            try {
+                if (hangNext) {
+                    hangNext = false;
+                    killed.await();
+                    throw new IllegalStateException("进程已结束");
+                }
+                if (crashNext) {
+                    crashNext = false;
+                    running = false;
+                    throw new IllegalStateException("进程崩溃");
+                }
+                if (block != null) {
+                    block.await();
+                }
+                Thread.sleep(delay);
+                byte[] content = Files.readAllBytes(inputFile.toPath());
+                Files.write(outputFile.toPath(), ("pdf:" + new String(content, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+                conversions.incrementAndGet();
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void stop() {
+            if (running || killed.getCount() > 0) {
+                stops.incrementAndGet();
+            }
+            running = false;
+            killed.countDown();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.ztdx.eams.domain.archives.repository.mongo;
+
+import com.mongodb.MongoClient;
+import com.ztdx.eams.domain.archives.model.IdGenerator;
+import com.ztdx.eams.domain.archives.model.IdRange;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import org.junit.*;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.*;
+
+public class IdGeneratorValueImplTest {
+
+    private static MongodExecutable mongodExecutable;
+
+    private static MongoClient mongoClient;
+
+    private MongoTemplate mongoTemplate;
+
+    @BeforeClass
+    public static void startMongo() throws Exception {
+        int port = Network.getFreeServerPort();
+        mongodExecutable = MongodStarter.getDefaultInstance().prepare(new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(port, Network.localhostIsIPv6()))
+                .build());
+        mongodExecutable.start();
+        mongoClient = new MongoClient("localhost", port);
+    }
+
+    @AfterClass
+    public static void stopMongo() {
+        if (mongoClient != null) {
+            mongoClient.close();
+        }
+        if (mongodExecutable != null) {
+            mongodExecutable.stop();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mongoTemplate = new MongoTemplate(mongoClient, "eams_test");
+        mongoTemplate.dropCollection(IdGenerator.class);
+    }
+
+    /**
+     * 多个节点、多线程按号段分配，编号不重复且都在步长上
+     */
+    @Test
+    public void blockLeaseIsUniqueAcrossNodes() throws Exception {
+        List<IdGeneratorValue> nodes = Arrays.asList(
+                new IdGeneratorValueImpl(mongoTemplate, 7, IdGeneratorValue.GapPolicy.ALLOW)
+                , new IdGeneratorValueImpl(mongoTemplate, 13, IdGeneratorValue.GapPolicy.ALLOW));
+
+        List<Long> ids = run(8, 500, i -> nodes.get(i % 2).next("archive_entry_1_code", 2));
+
+        assertEquals(8 * 500, ids.size());
+        assertEquals(ids.size(), new HashSet<>(ids).size());
+        ids.forEach(id -> assertEquals(0, id % 2));
+    }
+
+    /**
+     * 严格模式下编号连续无间隙
+     */
+    @Test
+    public void strictIsGapless() throws Exception {
+        List<IdGeneratorValue> nodes = Arrays.asList(
+                new IdGeneratorValueImpl(mongoTemplate, 100, IdGeneratorValue.GapPolicy.STRICT)
+                , new IdGeneratorValueImpl(mongoTemplate, 100, IdGeneratorValue.GapPolicy.STRICT));
+
+        List<Long> ids = run(8, 200, i -> nodes.get(i % 2).next("archive_entry_2_code", 1));
+
+        Collections.sort(ids);
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(Long.valueOf(i + 1), ids.get(i));
+        }
+    }
+
+    /**
+     * 批量预留与号段分配交错时区间不重叠
+     */
+    @Test
+    public void reserveDoesNotOverlapLeases() throws Exception {
+        IdGeneratorValue node = new IdGeneratorValueImpl(mongoTemplate, 10, IdGeneratorValue.GapPolicy.ALLOW);
+
+        List<Long> ids = run(6, 50, i -> {
+            if (i % 3 == 0) {
+                IdRange range = node.reserve("archive_entry_3_code", 1, 5);
+                long first = range.next();
+                while (range.hasNext()) {
+                    range.next();
+                }
+                assertEquals(first + 4, range.getLast());
+                return -first;
+            }
+            return node.next("archive_entry_3_code", 1);
+        });
+
+        Set<Long> all = new HashSet<>();
+        for (Long id : ids) {
+            if (id < 0) {
+                for (long v = -id; v < -id + 5; v++) {
+                    assertTrue("重复编号" + v, all.add(v));
+                }
+            } else {
+                assertTrue("重复编号" + id, all.add(id));
+            }
+        }
+    }
+
+    /**
+     * RELEASE策略关闭时归还未用完的号段，之后的严格分配从已用的下一个编号继续
+     */
+    @Test
+    public void releaseReturnsUnusedTail() {
+        IdGeneratorValue node = new IdGeneratorValueImpl(mongoTemplate, 10, IdGeneratorValue.GapPolicy.RELEASE);
+        assertEquals(Long.valueOf(1), node.next("archive_entry_4_code", 1));
+        assertEquals(Long.valueOf(2), node.next("archive_entry_4_code", 1));
+        assertEquals(Long.valueOf(3), node.next("archive_entry_4_code", 1));
+
+        node.release();
+
+        assertEquals(Long.valueOf(4), node.get("archive_entry_4_code", 1));
+    }
+
+    /**
+     * 号段之后已被其他节点租用时不归还
+     */
+    @Test
+    public void releaseKeepsGapWhenLeasedAfter() {
+        IdGeneratorValue node1 = new IdGeneratorValueImpl(mongoTemplate, 10, IdGeneratorValue.GapPolicy.RELEASE);
+        IdGeneratorValue node2 = new IdGeneratorValueImpl(mongoTemplate, 10, IdGeneratorValue.GapPolicy.RELEASE);
+        assertEquals(Long.valueOf(1), node1.next("archive_entry_5_code", 1));
+        assertEquals(Long.valueOf(11), node2.next("archive_entry_5_code", 1));
+
+        node1.release();
+
+        assertEquals(Long.valueOf(21), node1.get("archive_entry_5_code", 1));
+    }
+
+    private List<Long> run(int threads, int perThread, IntFunction<Long> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    List<Long> result = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        result.add(task.apply(thread * perThread + i));
+                    }
+                    return result;
+                }));
+            }
+            start.countDown();
+            List<Long> ids = new ArrayList<>();
+            for (Future<List<Long>> future : futures) {
+                ids.addAll(future.get(60, TimeUnit.SECONDS));
+            }
+            return ids;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}